@@ -0,0 +1,65 @@
+package com.example.chat_hub.config;
+
+import com.example.chat_hub.modelo.Mensagem;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.springframework.web.socket.TextMessage;
+
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Custo de codificar um evento uma vez e partilhar o frame, contra
+ * codificá-lo uma vez por destinatário. Corre com {@code ./gradlew jmh}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CodificadorFramesBenchmark {
+
+    @Param({ "10", "1000" })
+    private int destinatarios;
+
+    private CodificadorFrames codificador;
+    private Mensagem mensagem;
+
+    @Setup
+    public void preparar() {
+        codificador = new CodificadorFrames();
+        mensagem = new Mensagem();
+        mensagem.setId("m1");
+        mensagem.setNomeSala("geral");
+        mensagem.setRemetente("ana");
+        mensagem.setConteudo("conteudo de tamanho médio para a medição");
+        mensagem.setDataCriacao(Instant.parse("2024-05-01T10:15:30Z"));
+        mensagem.setSequencia(7L);
+    }
+
+    @Benchmark
+    public void partilhado(Blackhole consumidor) {
+        TextMessage frame = codificador.codificar("nova_mensagem", "geral", "mensagem", mensagem);
+        for (int i = 0; i < destinatarios; i++) {
+            consumidor.consume(frame.asBytes());
+        }
+    }
+
+    @Benchmark
+    public void porDestinatario(Blackhole consumidor) {
+        for (int i = 0; i < destinatarios; i++) {
+            consumidor.consume(codificador.codificar("nova_mensagem", "geral", "mensagem", mensagem).asBytes());
+        }
+    }
+}
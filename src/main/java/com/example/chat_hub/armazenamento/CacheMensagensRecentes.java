@@ -0,0 +1,250 @@
+package com.example.chat_hub.armazenamento;
+
+import com.example.chat_hub.modelo.Mensagem;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cache das mensagens mais recentes de cada sala.
+ *
+ * Cada sala guarda as últimas {@code porSala} mensagens num anel de tamanho
+ * fixo, indexado pela sequência, preenchido à medida que as mensagens são
+ * sequenciadas. As páginas de histórico que caem dentro do anel são servidas
+ * sem ler nem desserializar o registo local. As salas são mantidas por ordem de
+ * acesso e as menos usadas saem quando o total estimado ultrapassa o orçamento
+ * global.
+ */
+@Component
+public class CacheMensagensRecentes {
+
+    // Custo aproximado de uma Mensagem e das suas strings, além dos caracteres
+    private static final int CUSTO_BASE_MENSAGEM = 160;
+
+    private final int porSala;
+    private final long orcamentoBytes;
+    private final LinkedHashMap<String, AnelMensagens> salas = new LinkedHashMap<>(16, 0.75f, true);
+    private final AtomicLong bytesOcupados = new AtomicLong();
+    private final AtomicLong acertos = new AtomicLong();
+    private final AtomicLong falhas = new AtomicLong();
+    private final AtomicLong salasDespejadas = new AtomicLong();
+
+    public CacheMensagensRecentes(@Value("${mensagens.cache.porSala:200}") int porSala,
+            @Value("${mensagens.cache.orcamentoBytes:67108864}") long orcamentoBytes) {
+        this.porSala = Math.max(1, porSala);
+        this.orcamentoBytes = orcamentoBytes;
+    }
+
+    // -- -- -- -- -- -- -- -- -- Escrita -- -- -- -- -- -- -- -- -- -- -- //
+
+    // Chamado logo a seguir à sequenciação, pela ordem dos offsets da sala
+    public void acrescentar(Mensagem mensagem) {
+        AnelMensagens anel = obterAnel(mensagem.getNomeSala());
+        long delta;
+        synchronized (anel) {
+            delta = anel.acrescentar(mensagem);
+        }
+        ajustarOcupacao(delta, anel);
+    }
+
+    /**
+     * Preenche o anel de uma sala com mensagens lidas do registo, desde que
+     * terminem na cabeça atual. Serve para aquecer salas depois do arranque ou
+     * de terem sido despejadas.
+     */
+    public void preencher(String sala, List<Mensagem> mensagens, long cabeca) {
+        if (mensagens.isEmpty()) {
+            return;
+        }
+        AnelMensagens anel = obterAnel(sala);
+        long delta = 0;
+        synchronized (anel) {
+            // Só preenche um anel vazio, para não misturar com mensagens já sequenciadas
+            if (anel.proximo != anel.primeiro) {
+                return;
+            }
+            for (Mensagem mensagem : mensagens) {
+                delta += anel.acrescentar(mensagem);
+            }
+            if (anel.proximo != cabeca) {
+                delta -= anel.esvaziar();
+            }
+        }
+        ajustarOcupacao(delta, anel);
+    }
+
+    public void removerSala(String sala) {
+        AnelMensagens anel;
+        synchronized (salas) {
+            anel = salas.remove(sala);
+        }
+        if (anel != null) {
+            descartar(anel);
+        }
+    }
+
+    public void limpar() {
+        List<AnelMensagens> aneis;
+        synchronized (salas) {
+            aneis = new ArrayList<>(salas.values());
+            salas.clear();
+        }
+        aneis.forEach(this::descartar);
+    }
+
+    // -- -- -- -- -- -- -- -- -- Leitura -- -- -- -- -- -- -- -- -- -- -- //
+
+    /**
+     * Devolve as mensagens com sequência em [inicio, fim) se estiverem todas no
+     * anel da sala, ou {@code null} se for preciso ler o registo.
+     */
+    public List<Mensagem> ler(String sala, long inicio, long fim) {
+        AnelMensagens anel;
+        synchronized (salas) {
+            anel = salas.get(sala);
+        }
+        if (anel != null) {
+            synchronized (anel) {
+                if (inicio >= anel.primeiro && fim <= anel.proximo) {
+                    acertos.incrementAndGet();
+                    return anel.ler(inicio, fim);
+                }
+            }
+        }
+        falhas.incrementAndGet();
+        return null;
+    }
+
+    public Map<String, Object> metricas() {
+        int numeroSalas;
+        synchronized (salas) {
+            numeroSalas = salas.size();
+        }
+        return Map.of(
+                "salas", numeroSalas,
+                "bytesOcupados", bytesOcupados.get(),
+                "orcamentoBytes", orcamentoBytes,
+                "acertos", acertos.get(),
+                "falhas", falhas.get(),
+                "salasDespejadas", salasDespejadas.get());
+    }
+
+    // -- -- -- -- -- -- -- -- -- Orçamento -- -- -- -- -- -- -- -- -- -- -- //
+
+    private AnelMensagens obterAnel(String sala) {
+        synchronized (salas) {
+            return salas.computeIfAbsent(sala, s -> new AnelMensagens(porSala));
+        }
+    }
+
+    // Os locks são sempre tomados pela ordem salas -> anel
+    private void ajustarOcupacao(long delta, AnelMensagens atual) {
+        if (bytesOcupados.addAndGet(delta) <= orcamentoBytes) {
+            return;
+        }
+        List<AnelMensagens> despejados = new ArrayList<>();
+        synchronized (salas) {
+            long estimado = bytesOcupados.get();
+            Iterator<AnelMensagens> iterador = salas.values().iterator();
+            while (estimado > orcamentoBytes && iterador.hasNext()) {
+                AnelMensagens anel = iterador.next();
+                if (anel == atual) {
+                    continue;
+                }
+                iterador.remove();
+                despejados.add(anel);
+                synchronized (anel) {
+                    estimado -= anel.bytes;
+                }
+            }
+        }
+        despejados.forEach(this::descartar);
+        salasDespejadas.addAndGet(despejados.size());
+    }
+
+    private void descartar(AnelMensagens anel) {
+        long libertados;
+        synchronized (anel) {
+            libertados = anel.esvaziar();
+            anel.descartado = true;
+        }
+        bytesOcupados.addAndGet(-libertados);
+    }
+
+    private static long estimarBytes(Mensagem mensagem) {
+        return CUSTO_BASE_MENSAGEM + 2L * (comprimento(mensagem.getId()) + comprimento(mensagem.getConteudo())
+                + comprimento(mensagem.getRemetente()) + comprimento(mensagem.getNomeSala()));
+    }
+
+    private static int comprimento(String texto) {
+        return texto != null ? texto.length() : 0;
+    }
+
+    // Anel das últimas mensagens de uma sala; [primeiro, proximo) são as sequências presentes
+    private static final class AnelMensagens {
+
+        private final Mensagem[] mensagens;
+        private final long[] tamanhos;
+        private long primeiro;
+        private long proximo;
+        private long bytes;
+        private boolean descartado;
+
+        AnelMensagens(int capacidade) {
+            this.mensagens = new Mensagem[capacidade];
+            this.tamanhos = new long[capacidade];
+        }
+
+        // Devolve a variação de bytes ocupados
+        long acrescentar(Mensagem mensagem) {
+            if (descartado || mensagem.getSequencia() == null) {
+                return 0;
+            }
+            long sequencia = mensagem.getSequencia();
+            long delta = 0;
+            if (sequencia != proximo) {
+                // Buraco ou recuo na sequência (p.ex. depois de um reset): recomeça o anel
+                delta -= esvaziar();
+                primeiro = sequencia;
+                proximo = sequencia;
+            }
+            int posicao = (int) (sequencia % mensagens.length);
+            if (proximo - primeiro == mensagens.length) {
+                bytes -= tamanhos[posicao];
+                delta -= tamanhos[posicao];
+                primeiro++;
+            }
+            long tamanho = estimarBytes(mensagem);
+            mensagens[posicao] = mensagem;
+            tamanhos[posicao] = tamanho;
+            proximo = sequencia + 1;
+            bytes += tamanho;
+            return delta + tamanho;
+        }
+
+        List<Mensagem> ler(long inicio, long fim) {
+            List<Mensagem> resultado = new ArrayList<>((int) (fim - inicio));
+            for (long sequencia = inicio; sequencia < fim; sequencia++) {
+                resultado.add(mensagens[(int) (sequencia % mensagens.length)]);
+            }
+            return resultado;
+        }
+
+        // Devolve os bytes libertados
+        long esvaziar() {
+            long libertados = bytes;
+            Arrays.fill(mensagens, null);
+            Arrays.fill(tamanhos, 0);
+            primeiro = proximo;
+            bytes = 0;
+            return libertados;
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package com.example.chat_hub.armazenamento;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Registo de mensagens de uma sala, formado por segmentos consecutivos. Só o
+ * último segmento recebe escritas; quando fica cheio é aberto um novo.
+ */
+class LogSala {
+
+    private final Path diretorio;
+    private final int tamanhoSegmento;
+    private final int intervaloIndice;
+    private final NavigableMap<Long, Segmento> segmentos = new ConcurrentSkipListMap<>();
+    private volatile Segmento ativo;
+    // Leituras e escritas em curso; -1 depois de escolhido para fechar
+    private final AtomicInteger emUso = new AtomicInteger();
+
+    LogSala(Path diretorio, int tamanhoSegmento, int intervaloIndice) throws IOException {
+        this.diretorio = diretorio;
+        this.tamanhoSegmento = tamanhoSegmento;
+        this.intervaloIndice = intervaloIndice;
+        Files.createDirectories(diretorio);
+        List<Path> ficheiros;
+        try (Stream<Path> listagem = Files.list(diretorio)) {
+            ficheiros = listagem.filter(Segmento::eSegmento).collect(Collectors.toList());
+        }
+        for (Path ficheiro : ficheiros) {
+            long base = Segmento.offsetDoFicheiro(ficheiro);
+            segmentos.put(base, new Segmento(diretorio, base, tamanhoSegmento, intervaloIndice));
+        }
+        if (segmentos.isEmpty()) {
+            segmentos.put(0L, new Segmento(diretorio, 0L, tamanhoSegmento, intervaloIndice));
+        }
+        this.ativo = segmentos.lastEntry().getValue();
+    }
+
+    long proximoOffset() {
+        return ativo.proximoOffset();
+    }
+
+    synchronized long acrescentar(byte[] dados) throws IOException {
+        if (Segmento.CABECALHO + dados.length + Integer.BYTES > tamanhoSegmento) {
+            throw new IOException("Registo com " + dados.length + " bytes excede o tamanho do segmento");
+        }
+        Segmento segmento = ativo;
+        long offset = segmento.proximoOffset();
+        if (!segmento.cabe(dados.length)) {
+            segmento.sincronizar();
+            segmento = new Segmento(diretorio, offset, tamanhoSegmento, intervaloIndice);
+            segmentos.put(offset, segmento);
+            ativo = segmento;
+        }
+        segmento.acrescentar(offset, dados);
+        return offset;
+    }
+
+    /**
+     * Lê até {@code limite} registos a partir de {@code desde}, atravessando
+     * segmentos quando necessário.
+     */
+    void ler(long desde, int limite, Segmento.LeitorRegistos leitor) throws IOException {
+        Map.Entry<Long, Segmento> inicio = segmentos.floorEntry(desde);
+        long chave = inicio != null ? inicio.getKey() : segmentos.firstKey();
+        int restantes = limite;
+        for (Segmento segmento : segmentos.tailMap(chave, true).values()) {
+            if (restantes <= 0) {
+                break;
+            }
+            restantes -= segmento.ler(desde, restantes, leitor);
+        }
+    }
+
+    void reter() {
+        if (emUso.getAndIncrement() < 0) {
+            throw new IllegalStateException("Registo fechado: " + diretorio);
+        }
+    }
+
+    void libertar() {
+        emUso.decrementAndGet();
+    }
+
+    // Marca o registo como fechado se não estiver em uso
+    boolean fecharSeInativo() {
+        return emUso.compareAndSet(0, -1);
+    }
+
+    @Override
+    public String toString() {
+        return diretorio.toString();
+    }
+
+    synchronized void fechar() throws IOException {
+        for (Segmento segmento : segmentos.values()) {
+            segmento.fechar();
+        }
+    }
+}
@@ -0,0 +1,254 @@
+package com.example.chat_hub.armazenamento;
+
+import com.example.chat_hub.modelo.Mensagem;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.util.ByteBufferBackedInputStream;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import jakarta.annotation.PreDestroy;
+import java.io.IOException;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Stream;
+
+/**
+ * Registo local, só de acréscimo, das mensagens de cada sala.
+ *
+ * Cada sala tem o seu diretório com segmentos mapeados em memória. A posição
+ * de cada mensagem no registo (offset) é a sua sequência na sala. As
+ * sequências são reservadas na cabeça de cada sala no ZooKeeper, partilhada
+ * pelos nós; o histórico completo está no MongoDB. O registo é uma cópia local
+ * contígua desse histórico: nunca tem buracos, apenas pode estar atrasado.
+ *
+ * Cada registo aberto mantém o segmento ativo mapeado e dois descritores por
+ * segmento. Só ficam abertos os {@code mensagens.log.salasAbertas} usados há
+ * menos tempo; os outros são fechados e voltam a ser abertos a partir do disco
+ * quando a sala for usada outra vez. Um registo em uso por uma leitura ou
+ * escrita nunca é fechado.
+ */
+@Component
+public class RegistoMensagens {
+
+    private static final Logger logger = LoggerFactory.getLogger(RegistoMensagens.class);
+
+    private final Path diretorio;
+    private final int tamanhoSegmento;
+    private final int intervaloIndice;
+    private final int maximoAbertas;
+    private final ObjectMapper objectMapper;
+    // Registos abertos, do usado há mais tempo para o mais recente
+    private final LinkedHashMap<String, LogSala> abertas = new LinkedHashMap<>(16, 0.75f, true);
+    private final ReentrantLock trincoAbertas = new ReentrantLock();
+    // As leituras e escritas partilham-no; apagarTudo e fechar esperam por elas
+    private final ReentrantReadWriteLock trincoRegisto = new ReentrantReadWriteLock();
+    private final AtomicLong fechadasPorInatividade = new AtomicLong();
+
+    public RegistoMensagens(@Value("${mensagens.log.diretorio:dados/mensagens}") String diretorio,
+            @Value("${mensagens.log.tamanhoSegmento:16777216}") int tamanhoSegmento,
+            @Value("${mensagens.log.intervaloIndice:4096}") int intervaloIndice,
+            @Value("${mensagens.log.salasAbertas:256}") int maximoAbertas) {
+        this.diretorio = Paths.get(diretorio);
+        this.tamanhoSegmento = tamanhoSegmento;
+        this.intervaloIndice = intervaloIndice;
+        this.maximoAbertas = Math.max(1, maximoAbertas);
+        this.objectMapper = new ObjectMapper();
+        this.objectMapper.registerModule(new JavaTimeModule());
+    }
+
+    // -- -- -- -- -- -- -- -- -- Escrita -- -- -- -- -- -- -- -- -- -- -- //
+
+    /**
+     * Acrescenta a mensagem ao registo da sala no offset igual à sua sequência.
+     *
+     * @return {@code false}, sem escrever, se a sequência não for o próximo
+     *         offset do registo
+     */
+    public boolean acrescentar(String sala, Mensagem mensagem) throws IOException {
+        if (mensagem.getSequencia() == null) {
+            throw new IllegalArgumentException("Mensagem sem sequência: " + mensagem.getId());
+        }
+        byte[] registo = objectMapper.writeValueAsBytes(mensagem);
+        return comLog(sala, log -> {
+            synchronized (log) {
+                if (mensagem.getSequencia() != log.proximoOffset()) {
+                    return false;
+                }
+                log.acrescentar(registo);
+                return true;
+            }
+        });
+    }
+
+    // -- -- -- -- -- -- -- -- -- Leitura -- -- -- -- -- -- -- -- -- -- -- //
+
+    public long proximoOffset(String sala) throws IOException {
+        return comLog(sala, LogSala::proximoOffset);
+    }
+
+    /**
+     * Lê até {@code limite} mensagens a partir do offset {@code desde}. Os
+     * registos são descodificados diretamente do segmento mapeado.
+     */
+    public List<Mensagem> ler(String sala, long desde, int limite) throws IOException {
+        List<Mensagem> mensagens = new ArrayList<>(Math.min(limite, 256));
+        comLog(sala, log -> {
+            log.ler(desde, limite, (offset, registo) -> {
+                Mensagem mensagem = objectMapper.readValue(new ByteBufferBackedInputStream(registo), Mensagem.class);
+                mensagem.setSequencia(offset);
+                mensagem.setNomeSala(sala);
+                mensagens.add(mensagem);
+            });
+            return null;
+        });
+        return mensagens;
+    }
+
+    public Map<String, Object> metricas() {
+        trincoAbertas.lock();
+        try {
+            return Map.of(
+                    "salasAbertas", abertas.size(),
+                    "maximoAbertas", maximoAbertas,
+                    "fechadasPorInatividade", fechadasPorInatividade.get());
+        } finally {
+            trincoAbertas.unlock();
+        }
+    }
+
+    // -- -- -- -- -- -- -- -- -- Ciclo de vida -- -- -- -- -- -- -- -- -- -- -- //
+
+    // Corre a operação com o registo da sala aberto e marcado em uso
+    private <T> T comLog(String sala, OperacaoLog<T> operacao) throws IOException {
+        trincoRegisto.readLock().lock();
+        try {
+            LogSala log = reter(sala);
+            try {
+                return operacao.aplicar(log);
+            } finally {
+                log.libertar();
+            }
+        } finally {
+            trincoRegisto.readLock().unlock();
+        }
+    }
+
+    // Abre o registo da sala se preciso e marca-o em uso até ao libertar
+    private LogSala reter(String sala) throws IOException {
+        List<LogSala> aFechar = new ArrayList<>();
+        LogSala log;
+        trincoAbertas.lock();
+        try {
+            log = abertas.get(sala);
+            if (log == null) {
+                log = new LogSala(diretorio.resolve(URLEncoder.encode(sala, StandardCharsets.UTF_8)),
+                        tamanhoSegmento, intervaloIndice);
+                abertas.put(sala, log);
+            }
+            log.reter();
+            escolherInativas(aFechar);
+        } finally {
+            trincoAbertas.unlock();
+        }
+        for (LogSala inativa : aFechar) {
+            fecharInativa(inativa);
+        }
+        return log;
+    }
+
+    // Tira do mapa os registos usados há mais tempo e sem uso em curso até
+    // voltar ao máximo; os que estão em uso ficam para uma próxima vez
+    private void escolherInativas(List<LogSala> aFechar) {
+        Iterator<LogSala> iterador = abertas.values().iterator();
+        int excesso = abertas.size() - maximoAbertas;
+        while (excesso > 0 && iterador.hasNext()) {
+            LogSala log = iterador.next();
+            if (log.fecharSeInativo()) {
+                iterador.remove();
+                aFechar.add(log);
+                excesso--;
+            }
+        }
+    }
+
+    // Fora do trinco do mapa: fechar sincroniza os segmentos com o disco. O
+    // mapeamento em memória é libertado quando o segmento deixa de ser referido
+    private void fecharInativa(LogSala log) {
+        try {
+            log.fechar();
+            fechadasPorInatividade.incrementAndGet();
+        } catch (IOException e) {
+            logger.error("Registo - Erro ao fechar o registo inativo " + log, e);
+        }
+    }
+
+    public void apagarTudo() {
+        trincoRegisto.writeLock().lock();
+        try {
+            fecharAbertas();
+            if (!Files.exists(diretorio)) {
+                return;
+            }
+            try (Stream<Path> ficheiros = Files.walk(diretorio)) {
+                ficheiros.sorted(Comparator.reverseOrder()).forEach(ficheiro -> {
+                    try {
+                        Files.delete(ficheiro);
+                    } catch (IOException e) {
+                        logger.error("Registo - Erro ao apagar " + ficheiro, e);
+                    }
+                });
+            } catch (IOException e) {
+                logger.error("Registo - Erro ao apagar o registo de mensagens", e);
+            }
+        } finally {
+            trincoRegisto.writeLock().unlock();
+        }
+    }
+
+    @PreDestroy
+    public void fechar() {
+        trincoRegisto.writeLock().lock();
+        try {
+            fecharAbertas();
+        } finally {
+            trincoRegisto.writeLock().unlock();
+        }
+    }
+
+    // Com o trinco de escrita: nenhuma leitura ou escrita está em curso
+    private void fecharAbertas() {
+        trincoAbertas.lock();
+        try {
+            for (Map.Entry<String, LogSala> entrada : abertas.entrySet()) {
+                try {
+                    entrada.getValue().fechar();
+                } catch (IOException e) {
+                    logger.error("Registo - Erro ao fechar o registo da sala " + entrada.getKey(), e);
+                }
+            }
+            abertas.clear();
+        } finally {
+            trincoAbertas.unlock();
+        }
+    }
+
+    @FunctionalInterface
+    private interface OperacaoLog<T> {
+        T aplicar(LogSala log) throws IOException;
+    }
+}
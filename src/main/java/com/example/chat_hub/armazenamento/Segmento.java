@@ -0,0 +1,206 @@
+package com.example.chat_hub.armazenamento;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Segmento do registo de mensagens de uma sala: um ficheiro de tamanho fixo
+ * mapeado em memória, onde os registos são acrescentados em sequência, e um
+ * índice esparso que associa alguns offsets à sua posição no ficheiro.
+ *
+ * Formato de cada registo: [int tamanho][long offset][bytes]. Um tamanho 0
+ * marca o fim dos dados escritos.
+ */
+class Segmento {
+
+    static final int CABECALHO = Integer.BYTES + Long.BYTES;
+
+    private final long offsetBase;
+    private final Path ficheiroDados;
+    private final FileChannel canalDados;
+    private final FileChannel canalIndice;
+    private final MappedByteBuffer mapa;
+    private final int intervaloIndice;
+
+    // Índice esparso: offset relativo -> posição no ficheiro
+    private int[] indiceOffsets = new int[64];
+    private int[] indicePosicoes = new int[64];
+    private int entradasIndice;
+    private int posicaoUltimaEntrada = -1;
+
+    // Publicados depois de cada escrita para que as leituras concorrentes só
+    // vejam registos completos
+    private volatile int posicaoEscrita;
+    private volatile long proximoOffset;
+
+    Segmento(Path diretorio, long offsetBase, int capacidade, int intervaloIndice) throws IOException {
+        this.offsetBase = offsetBase;
+        this.intervaloIndice = intervaloIndice;
+        this.ficheiroDados = diretorio.resolve(String.format("%020d.log", offsetBase));
+        Path ficheiroIndice = diretorio.resolve(String.format("%020d.idx", offsetBase));
+        this.canalDados = FileChannel.open(ficheiroDados, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        this.canalIndice = FileChannel.open(ficheiroIndice, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        int tamanhoMapa = (int) Math.max(capacidade, canalDados.size());
+        this.mapa = canalDados.map(FileChannel.MapMode.READ_WRITE, 0, tamanhoMapa);
+        recuperar();
+    }
+
+    long offsetBase() {
+        return offsetBase;
+    }
+
+    long proximoOffset() {
+        return proximoOffset;
+    }
+
+    boolean cabe(int tamanho) {
+        return posicaoEscrita + CABECALHO + tamanho + Integer.BYTES <= mapa.capacity();
+    }
+
+    // -- -- -- -- -- -- -- -- -- Escrita -- -- -- -- -- -- -- -- -- -- -- //
+
+    /**
+     * Acrescenta um registo. Só é chamado pelo escritor da sala, que garante a
+     * exclusão mútua.
+     */
+    void acrescentar(long offset, byte[] dados) throws IOException {
+        int posicao = posicaoEscrita;
+        if (posicaoUltimaEntrada < 0 || posicao - posicaoUltimaEntrada >= intervaloIndice) {
+            adicionarEntradaIndice((int) (offset - offsetBase), posicao);
+        }
+        mapa.putLong(posicao + Integer.BYTES, offset);
+        mapa.put(posicao + CABECALHO, dados);
+        // O tamanho é escrito por último: um registo com tamanho 0 ainda não existe
+        mapa.putInt(posicao, dados.length);
+        proximoOffset = offset + 1;
+        posicaoEscrita = posicao + CABECALHO + dados.length;
+    }
+
+    private synchronized void adicionarEntradaIndice(int offsetRelativo, int posicao) throws IOException {
+        if (entradasIndice == indiceOffsets.length) {
+            indiceOffsets = Arrays.copyOf(indiceOffsets, entradasIndice * 2);
+            indicePosicoes = Arrays.copyOf(indicePosicoes, entradasIndice * 2);
+        }
+        indiceOffsets[entradasIndice] = offsetRelativo;
+        indicePosicoes[entradasIndice] = posicao;
+        entradasIndice++;
+        posicaoUltimaEntrada = posicao;
+
+        ByteBuffer entrada = ByteBuffer.allocate(2 * Integer.BYTES);
+        entrada.putInt(offsetRelativo).putInt(posicao).flip();
+        canalIndice.write(entrada, (long) (entradasIndice - 1) * 2 * Integer.BYTES);
+    }
+
+    // -- -- -- -- -- -- -- -- -- Leitura -- -- -- -- -- -- -- -- -- -- -- //
+
+    /**
+     * Percorre os registos a partir de {@code desde}, entregando ao leitor uma
+     * vista sobre o ficheiro mapeado (sem cópia para o heap). Devolve o número
+     * de registos lidos.
+     */
+    int ler(long desde, int limite, LeitorRegistos leitor) throws IOException {
+        int fim = posicaoEscrita;
+        int posicao = posicaoInicial(desde);
+        int lidos = 0;
+        ByteBuffer vista = mapa.duplicate();
+        while (posicao < fim && lidos < limite) {
+            int tamanho = vista.getInt(posicao);
+            long offset = vista.getLong(posicao + Integer.BYTES);
+            if (offset >= desde) {
+                ByteBuffer registo = vista.duplicate();
+                registo.limit(posicao + CABECALHO + tamanho).position(posicao + CABECALHO);
+                leitor.ler(offset, registo);
+                lidos++;
+            }
+            posicao += CABECALHO + tamanho;
+        }
+        return lidos;
+    }
+
+    // Procura no índice esparso a maior entrada com offset <= desde
+    private synchronized int posicaoInicial(long desde) {
+        int relativo = (int) Math.max(0, desde - offsetBase);
+        int n = entradasIndice;
+        int indice = Arrays.binarySearch(indiceOffsets, 0, n, relativo);
+        if (indice < 0) {
+            indice = -indice - 2;
+        }
+        return indice < 0 ? 0 : indicePosicoes[indice];
+    }
+
+    // -- -- -- -- -- -- -- -- -- Ciclo de vida -- -- -- -- -- -- -- -- -- -- -- //
+
+    // Reconstrói o índice esparso a partir do ficheiro de índice e encontra o
+    // fim dos dados percorrendo os registos a partir da última entrada
+    private void recuperar() throws IOException {
+        long tamanhoIndice = canalIndice.size();
+        ByteBuffer indice = ByteBuffer.allocate((int) tamanhoIndice);
+        while (indice.hasRemaining() && canalIndice.read(indice, indice.position()) > 0) {
+            // continua a ler até preencher o buffer
+        }
+        indice.flip();
+        while (indice.remaining() >= 2 * Integer.BYTES) {
+            int offsetRelativo = indice.getInt();
+            int posicao = indice.getInt();
+            if (entradasIndice == indiceOffsets.length) {
+                indiceOffsets = Arrays.copyOf(indiceOffsets, entradasIndice * 2);
+                indicePosicoes = Arrays.copyOf(indicePosicoes, entradasIndice * 2);
+            }
+            indiceOffsets[entradasIndice] = offsetRelativo;
+            indicePosicoes[entradasIndice] = posicao;
+            entradasIndice++;
+            posicaoUltimaEntrada = posicao;
+        }
+
+        int posicao = posicaoUltimaEntrada < 0 ? 0 : posicaoUltimaEntrada;
+        long proximo = entradasIndice == 0 ? offsetBase : offsetBase + indiceOffsets[entradasIndice - 1];
+        while (posicao + CABECALHO <= mapa.capacity()) {
+            int tamanho = mapa.getInt(posicao);
+            if (tamanho <= 0 || posicao + CABECALHO + tamanho > mapa.capacity()) {
+                break;
+            }
+            proximo = mapa.getLong(posicao + Integer.BYTES) + 1;
+            posicao += CABECALHO + tamanho;
+        }
+        this.proximoOffset = proximo;
+        this.posicaoEscrita = posicao;
+    }
+
+    void sincronizar() throws IOException {
+        mapa.force();
+        canalIndice.force(false);
+    }
+
+    void fechar() throws IOException {
+        sincronizar();
+        canalDados.close();
+        canalIndice.close();
+    }
+
+    @Override
+    public String toString() {
+        return ficheiroDados.toString();
+    }
+
+    static boolean eSegmento(Path ficheiro) {
+        return Files.isRegularFile(ficheiro) && ficheiro.getFileName().toString().endsWith(".log");
+    }
+
+    static long offsetDoFicheiro(Path ficheiro) {
+        String nome = ficheiro.getFileName().toString();
+        return Long.parseLong(nome.substring(0, nome.length() - ".log".length()));
+    }
+
+    @FunctionalInterface
+    interface LeitorRegistos {
+        void ler(long offset, ByteBuffer registo) throws IOException;
+    }
+}
@@ -0,0 +1,60 @@
+package com.example.chat_hub.cluster;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collection;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Anel de hashing consistente, imutável, com vários pontos por nó.
+ *
+ * Cada sala pertence ao primeiro ponto do anel a seguir ao hash do seu nome.
+ * Quando um nó entra ou sai só mudam de dono as salas dos arcos que esse nó
+ * ganha ou perde, cerca de 1/N do total.
+ */
+public class AnelConsistente {
+
+    private final NavigableMap<Long, String> pontos = new TreeMap<>();
+    private final Set<String> nos;
+
+    public AnelConsistente(Collection<String> nos, int pontosPorNo) {
+        this.nos = Set.copyOf(new TreeSet<>(nos));
+        for (String no : this.nos) {
+            for (int i = 0; i < pontosPorNo; i++) {
+                // Em caso de colisão fica o nó com o id menor, igual em todos os nós
+                pontos.merge(hash(no + "#" + i), no, (a, b) -> a.compareTo(b) <= 0 ? a : b);
+            }
+        }
+    }
+
+    public String dono(String chave) {
+        if (pontos.isEmpty()) {
+            return null;
+        }
+        Map.Entry<Long, String> ponto = pontos.ceilingEntry(hash(chave));
+        return ponto != null ? ponto.getValue() : pontos.firstEntry().getValue();
+    }
+
+    public Set<String> nos() {
+        return nos;
+    }
+
+    // Primeiros 8 bytes do MD5: bem distribuídos e iguais em todas as JVMs
+    private static long hash(String valor) {
+        try {
+            byte[] resumo = MessageDigest.getInstance("MD5").digest(valor.getBytes(StandardCharsets.UTF_8));
+            long hash = 0;
+            for (int i = 0; i < 8; i++) {
+                hash = (hash << 8) | (resumo[i] & 0xff);
+            }
+            return hash;
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,718 @@
+package com.example.chat_hub.cluster;
+
+import com.example.chat_hub.config.ConfiguracaoWebSocket;
+import com.example.chat_hub.servico.IngestaoMensagens;
+import com.example.chat_hub.zookeeper.DistribuidorMensagens;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.TextMessage;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Barramento TCP entre os nós do chat-hub.
+ *
+ * Cada nó regista-se com um nó efémero em /nodos (ver
+ * {@code GerenciadorZooKeeper}) e liga-se aos outros nós por TCP não
+ * bloqueante; entre dois nós há uma única ligação, aberta pelo nó com o id
+ * menor. Cada nó anuncia aos outros as salas em que tem destinatários e os
+ * frames {@code nova_mensagem} publicados num nó seguem, já codificados,
+ * apenas para os nós interessados na sala. As escritas numa sala de que o
+ * nó não é dono seguem para o dono (ver {@link DistribuicaoSalas}), que
+ * devolve a confirmação ao nó de origem. Toda a E/S corre numa única thread
+ * com um {@link Selector}.
+ *
+ * Cada ligação começa com um desafio-resposta sobre o segredo partilhado
+ * {@code cluster.barramento.segredo}: cada lado envia o seu id e um desafio
+ * aleatório. A prova é um HMAC-SHA256 do papel de quem prova (iniciador ou
+ * aceitante), dos dois desafios e do id de quem prova. Prova primeiro o
+ * iniciador; o aceitante só envia a sua depois de validar a do iniciador, para
+ * que nenhum nó assine desafios de quem ainda não provou nada. Até a prova do
+ * outro lado ser válida a ligação não recebe nem envia mais nada. Com o
+ * barramento ativo o id do nó e o segredo são obrigatórios.
+ *
+ * Os frames podem perder-se (fila cheia, ligação caída): levam a sequência da
+ * mensagem e quem os recebe só avança o offset da sala sem buracos, deixando
+ * o resto para a leitura da cabeça da sala.
+ *
+ * Mensagens do protocolo: {@code [int comprimento][byte tipo][corpo]}.
+ */
+@Component
+public class BarramentoNos {
+
+    private static final Logger logger = LoggerFactory.getLogger(BarramentoNos.class);
+
+    private static final byte OLA = 1;
+    private static final byte INTERESSE = 2;
+    private static final byte SEM_INTERESSE = 3;
+    private static final byte FRAME = 4;
+    private static final byte ESCRITA = 5;
+    private static final byte RESPOSTA = 6;
+    private static final byte PROVA = 7;
+    private static final int TAMANHO_DESAFIO = 16;
+    private static final String ALGORITMO_PROVA = "HmacSHA256";
+    private static final byte[] PAPEL_INICIADOR = "iniciador".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] PAPEL_ACEITANTE = "aceitante".getBytes(StandardCharsets.UTF_8);
+    private static final SecureRandom ALEATORIO = new SecureRandom();
+    private static final int TAMANHO_MAXIMO_MENSAGEM = 16 * 1024 * 1024;
+    private static final int TAMANHO_INICIAL_ENTRADA = 64 * 1024;
+    private static final long INTERVALO_RELIGACAO_MS = 1000;
+
+    // O distribuidor reencaminha para este barramento e recebe dele
+    @Autowired
+    @Lazy
+    private DistribuidorMensagens distribuidorMensagens;
+
+    @Autowired
+    @Lazy
+    private IngestaoMensagens ingestaoMensagens;
+
+    @Autowired
+    private ConfiguracaoWebSocket configuracaoWebSocket;
+
+    private final boolean ativo;
+    private final String idNo;
+    private final String host;
+    // Com a porta 0 fica a porta atribuída pelo sistema, conhecida depois do bind
+    private volatile int porta;
+    private final byte[] segredo;
+    private final long intervaloMs;
+    private final long maximoPendente;
+
+    private Selector selector;
+    private ServerSocketChannel servidor;
+    private Thread thread;
+    private volatile boolean aCorrer;
+
+    // id do nó -> host:porta, tal como registado em /nodos
+    private volatile Map<String, String> membros = Map.of();
+    private final Map<String, Ligacao> ligacoes = new ConcurrentHashMap<>();
+    private final Queue<Ligacao> comEscrita = new ConcurrentLinkedQueue<>();
+    // Só usados pela thread do barramento
+    private final Map<String, Long> ultimaTentativa = new HashMap<>();
+    private Set<String> interessesAnunciados = Set.of();
+    private long proximaManutencao;
+
+    private final AtomicLong framesEnviados = new AtomicLong();
+    private final AtomicLong framesRecebidos = new AtomicLong();
+    private final AtomicLong framesDescartados = new AtomicLong();
+    private final AtomicLong bytesEnviados = new AtomicLong();
+    private final AtomicLong escritasEncaminhadas = new AtomicLong();
+    private final AtomicLong escritasRecebidas = new AtomicLong();
+
+    public BarramentoNos(@Value("${cluster.barramento.ativo:false}") boolean ativo,
+            @Value("${cluster.no.id:}") String idNo,
+            @Value("${cluster.barramento.host:localhost}") String host,
+            @Value("${cluster.barramento.porta:7070}") int porta,
+            @Value("${cluster.barramento.intervaloMs:250}") long intervaloMs,
+            @Value("${cluster.barramento.maxPendenteBytes:8388608}") long maximoPendente,
+            @Value("${cluster.barramento.segredo:}") String segredo) {
+        // Um id derivado do endereço (p.ex. localhost:7070) repete-se entre máquinas
+        if (ativo && idNo.isBlank()) {
+            throw new IllegalStateException("cluster.no.id é obrigatório com o barramento ativo");
+        }
+        if (ativo && segredo.isBlank()) {
+            throw new IllegalStateException("cluster.barramento.segredo é obrigatório com o barramento ativo");
+        }
+        this.ativo = ativo;
+        this.host = host;
+        this.porta = porta;
+        this.idNo = idNo.isBlank() ? host + ":" + porta : idNo;
+        this.intervaloMs = intervaloMs;
+        this.maximoPendente = maximoPendente;
+        this.segredo = segredo.getBytes(StandardCharsets.UTF_8);
+    }
+
+    @PostConstruct
+    public void iniciar() throws IOException {
+        if (!ativo) {
+            return;
+        }
+        selector = Selector.open();
+        servidor = ServerSocketChannel.open();
+        servidor.bind(new InetSocketAddress(host, porta));
+        porta = ((InetSocketAddress) servidor.getLocalAddress()).getPort();
+        servidor.configureBlocking(false);
+        servidor.register(selector, SelectionKey.OP_ACCEPT);
+        aCorrer = true;
+        thread = new Thread(this::ciclo, "barramento-nos");
+        thread.setDaemon(true);
+        thread.start();
+        logger.info("Cluster - Barramento do nó " + idNo + " à escuta em " + host + ":" + porta);
+    }
+
+    @PreDestroy
+    public void encerrar() {
+        if (!ativo) {
+            return;
+        }
+        aCorrer = false;
+        selector.wakeup();
+        try {
+            thread.join(1000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        ligacoes.values().forEach(this::fechar);
+        try {
+            servidor.close();
+            selector.close();
+        } catch (IOException e) {
+            logger.warn("Cluster - Erro ao fechar o barramento", e);
+        }
+    }
+
+    public boolean ativo() {
+        return ativo;
+    }
+
+    public String idNo() {
+        return idNo;
+    }
+
+    public String endereco() {
+        return host + ":" + porta;
+    }
+
+    // Chamado sempre que os filhos de /nodos mudam
+    public void atualizarMembros(Map<String, String> membros) {
+        if (!ativo) {
+            return;
+        }
+        this.membros = Map.copyOf(membros);
+        selector.wakeup();
+    }
+
+    /**
+     * Envia um frame já codificado aos nós que anunciaram interesse na sala.
+     * Não bloqueia: se a fila de saída de um nó estiver cheia o frame é
+     * descartado para esse nó, que o vai buscar pela cabeça da sala.
+     */
+    public void reencaminhar(String sala, String id, long sequencia, byte[] frame) {
+        if (!ativo || ligacoes.isEmpty()) {
+            return;
+        }
+        ByteBuffer mensagem = null;
+        for (Ligacao ligacao : ligacoes.values()) {
+            if (!ligacao.pronta || !ligacao.interesses.contains(sala)) {
+                continue;
+            }
+            if (mensagem == null) {
+                mensagem = codificarFrame(sala, id, sequencia, frame);
+            }
+            if (enfileirar(ligacao, mensagem.duplicate(), true)) {
+                framesEnviados.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Encaminha uma mensagem serializada para o nó dono da sala.
+     *
+     * @return {@code false} se não houver ligação pronta a esse nó ou a sua fila estiver cheia
+     */
+    public boolean encaminharEscrita(String idDono, byte[] mensagem) {
+        Ligacao ligacao = ligacoes.get(idDono);
+        if (!ativo || ligacao == null || !ligacao.pronta) {
+            return false;
+        }
+        ByteBuffer corpo = ByteBuffer.allocate(5 + mensagem.length);
+        corpo.putInt(1 + mensagem.length).put(ESCRITA).put(mensagem).flip();
+        if (!enfileirar(ligacao, corpo, true)) {
+            return false;
+        }
+        escritasEncaminhadas.incrementAndGet();
+        return true;
+    }
+
+    // Confirmação ou rejeição de uma escrita encaminhada, para as sessões do remetente no nó de origem
+    public void responderRemetente(String idNoOrigem, String remetente, String idMensagem, byte[] frame) {
+        Ligacao ligacao = ligacoes.get(idNoOrigem);
+        if (!ativo || ligacao == null || !ligacao.pronta) {
+            logger.warn("Cluster - Sem ligação ao nó " + idNoOrigem + " para responder a " + remetente);
+            return;
+        }
+        byte[] bytesRemetente = remetente.getBytes(StandardCharsets.UTF_8);
+        byte[] bytesId = idMensagem.getBytes(StandardCharsets.UTF_8);
+        int comprimento = 1 + 2 + bytesRemetente.length + 2 + bytesId.length + frame.length;
+        ByteBuffer mensagem = ByteBuffer.allocate(4 + comprimento);
+        mensagem.putInt(comprimento).put(RESPOSTA)
+                .putShort((short) bytesRemetente.length).put(bytesRemetente)
+                .putShort((short) bytesId.length).put(bytesId)
+                .put(frame).flip();
+        enfileirar(ligacao, mensagem, false);
+    }
+
+    public Map<String, Object> metricas() {
+        Map<String, Object> nos = new HashMap<>();
+        ligacoes.forEach((id, ligacao) -> nos.put(id, Map.of(
+                "pronta", ligacao.pronta,
+                "interesses", ligacao.interesses.size(),
+                "bytesPendentes", ligacao.bytesPendentes())));
+        return Map.of(
+                "ativo", ativo,
+                "idNo", idNo,
+                "membros", membros.size(),
+                "ligacoes", nos,
+                "framesEnviados", framesEnviados.get(),
+                "framesRecebidos", framesRecebidos.get(),
+                "framesDescartados", framesDescartados.get(),
+                "bytesEnviados", bytesEnviados.get(),
+                "escritasEncaminhadas", escritasEncaminhadas.get(),
+                "escritasRecebidas", escritasRecebidas.get());
+    }
+
+    // -- -- -- -- -- -- -- -- -- Ciclo de E/S -- -- -- -- -- -- -- -- -- -- -- //
+
+    private void ciclo() {
+        while (aCorrer) {
+            try {
+                selector.select(intervaloMs);
+                Iterator<SelectionKey> chaves = selector.selectedKeys().iterator();
+                while (chaves.hasNext()) {
+                    SelectionKey chave = chaves.next();
+                    chaves.remove();
+                    tratar(chave);
+                }
+                Ligacao ligacao;
+                while ((ligacao = comEscrita.poll()) != null) {
+                    ligacao.marcada.set(false);
+                    SelectionKey chave = ligacao.canal.keyFor(selector);
+                    if (chave != null && chave.isValid() && ligacao.canal.isConnected()) {
+                        try {
+                            escrever(chave, ligacao);
+                        } catch (IOException e) {
+                            fechar(ligacao, e);
+                        }
+                    }
+                }
+                long agora = System.currentTimeMillis();
+                if (agora >= proximaManutencao) {
+                    reconciliarMembros(agora);
+                    anunciarInteresses();
+                    proximaManutencao = agora + intervaloMs;
+                }
+            } catch (IOException | RuntimeException e) {
+                logger.error("Cluster - Erro no ciclo do barramento", e);
+            }
+        }
+    }
+
+    private void tratar(SelectionKey chave) {
+        if (!chave.isValid()) {
+            return;
+        }
+        if (chave.isAcceptable()) {
+            aceitar();
+            return;
+        }
+        Ligacao ligacao = (Ligacao) chave.attachment();
+        try {
+            if (chave.isConnectable()) {
+                concluirLigacao(chave, ligacao);
+            }
+            if (chave.isValid() && chave.isReadable()) {
+                ler(ligacao);
+            }
+            if (chave.isValid() && chave.isWritable()) {
+                escrever(chave, ligacao);
+            }
+        } catch (IOException e) {
+            fechar(ligacao, e);
+        }
+    }
+
+    private void aceitar() {
+        try {
+            SocketChannel canal = servidor.accept();
+            if (canal == null) {
+                return;
+            }
+            canal.configureBlocking(false);
+            canal.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            Ligacao ligacao = new Ligacao(canal, null, false);
+            canal.register(selector, SelectionKey.OP_READ, ligacao);
+            enfileirar(ligacao, ola(ligacao), false);
+        } catch (IOException e) {
+            logger.warn("Cluster - Erro ao aceitar ligação", e);
+        }
+    }
+
+    private void ligar(String id, String endereco) throws IOException {
+        int separador = endereco.lastIndexOf(':');
+        InetSocketAddress destino = new InetSocketAddress(endereco.substring(0, separador),
+                Integer.parseInt(endereco.substring(separador + 1)));
+        SocketChannel canal = SocketChannel.open();
+        canal.configureBlocking(false);
+        canal.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        Ligacao ligacao = new Ligacao(canal, id, true);
+        ligacoes.put(id, ligacao);
+        if (canal.connect(destino)) {
+            canal.register(selector, SelectionKey.OP_READ, ligacao);
+            enfileirar(ligacao, ola(ligacao), false);
+        } else {
+            canal.register(selector, SelectionKey.OP_CONNECT, ligacao);
+        }
+    }
+
+    private void concluirLigacao(SelectionKey chave, Ligacao ligacao) throws IOException {
+        if (ligacao.canal.finishConnect()) {
+            chave.interestOps(SelectionKey.OP_READ);
+            enfileirar(ligacao, ola(ligacao), false);
+        }
+    }
+
+    private void ler(Ligacao ligacao) throws IOException {
+        if (ligacao.canal.read(ligacao.entrada) < 0) {
+            throw new EOFException("Ligação fechada pelo nó " + ligacao.idRemoto);
+        }
+        ByteBuffer entrada = ligacao.entrada;
+        entrada.flip();
+        int necessario = 0;
+        while (entrada.remaining() >= 4) {
+            int comprimento = entrada.getInt(entrada.position());
+            if (comprimento <= 0 || comprimento > TAMANHO_MAXIMO_MENSAGEM) {
+                throw new IOException("Mensagem inválida do nó " + ligacao.idRemoto + ": " + comprimento + " bytes");
+            }
+            if (entrada.remaining() < 4 + comprimento) {
+                necessario = 4 + comprimento;
+                break;
+            }
+            entrada.getInt();
+            byte tipo = entrada.get();
+            byte[] corpo = new byte[comprimento - 1];
+            entrada.get(corpo);
+            processar(ligacao, tipo, corpo);
+        }
+        entrada.compact();
+        if (necessario > entrada.capacity()) {
+            ByteBuffer maior = ByteBuffer.allocate(necessario);
+            entrada.flip();
+            maior.put(entrada);
+            ligacao.entrada = maior;
+        }
+    }
+
+    private void escrever(SelectionKey chave, Ligacao ligacao) throws IOException {
+        synchronized (ligacao) {
+            while (!ligacao.saida.isEmpty()) {
+                ByteBuffer mensagem = ligacao.saida.peek();
+                int escritos = ligacao.canal.write(mensagem);
+                ligacao.pendente -= escritos;
+                bytesEnviados.addAndGet(escritos);
+                if (mensagem.hasRemaining()) {
+                    break;
+                }
+                ligacao.saida.poll();
+            }
+            chave.interestOps(ligacao.saida.isEmpty() ? SelectionKey.OP_READ
+                    : SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+        }
+    }
+
+    // -- -- -- -- -- -- -- -- -- Protocolo -- -- -- -- -- -- -- -- -- -- -- //
+
+    private void processar(Ligacao ligacao, byte tipo, byte[] corpo) throws IOException {
+        if (!ligacao.pronta && tipo != OLA && tipo != PROVA) {
+            throw new IOException("Mensagem do tipo " + tipo + " antes da autenticação do nó " + ligacao.idAnunciado);
+        }
+        switch (tipo) {
+            case OLA:
+                ByteBuffer ola = ByteBuffer.wrap(corpo);
+                String idAnunciado = lerTexto(ola);
+                byte[] desafioRemoto = new byte[ola.remaining()];
+                ola.get(desafioRemoto);
+                if (ligacao.idAnunciado != null) {
+                    throw new IOException("OLA repetido do nó " + ligacao.idAnunciado);
+                }
+                if (idAnunciado.equals(idNo)) {
+                    throw new IOException("Outro nó anunciou-se com o id deste nó");
+                }
+                if (ligacao.idRemoto != null && !ligacao.idRemoto.equals(idAnunciado)) {
+                    throw new IOException("O nó " + ligacao.idRemoto + " anunciou-se como " + idAnunciado);
+                }
+                // Um desafio igual ao nosso só pode ter sido refletido
+                if (desafioRemoto.length != TAMANHO_DESAFIO || MessageDigest.isEqual(desafioRemoto, ligacao.desafio)) {
+                    throw new IOException("Desafio inválido do nó " + idAnunciado);
+                }
+                ligacao.idAnunciado = idAnunciado;
+                ligacao.desafioRemoto = desafioRemoto;
+                if (ligacao.iniciadaAqui) {
+                    enfileirar(ligacao, mensagem(PROVA,
+                            prova(PAPEL_INICIADOR, ligacao.desafio, desafioRemoto, idNo)), false);
+                }
+                break;
+            case PROVA:
+                if (ligacao.idAnunciado == null || ligacao.pronta) {
+                    throw new IOException("Prova fora de ordem do nó " + ligacao.idAnunciado);
+                }
+                byte[] esperada = ligacao.iniciadaAqui
+                        ? prova(PAPEL_ACEITANTE, ligacao.desafio, ligacao.desafioRemoto, ligacao.idAnunciado)
+                        : prova(PAPEL_INICIADOR, ligacao.desafioRemoto, ligacao.desafio, ligacao.idAnunciado);
+                if (!MessageDigest.isEqual(corpo, esperada)) {
+                    throw new IOException("Prova inválida do nó " + ligacao.idAnunciado);
+                }
+                if (!ligacao.iniciadaAqui) {
+                    // Vai antes dos interesses, que o iniciador só aceita depois desta prova
+                    enfileirar(ligacao, mensagem(PROVA,
+                            prova(PAPEL_ACEITANTE, ligacao.desafioRemoto, ligacao.desafio, idNo)), false);
+                }
+                autenticar(ligacao);
+                break;
+            case INTERESSE:
+                ligacao.interesses.add(new String(corpo, StandardCharsets.UTF_8));
+                break;
+            case SEM_INTERESSE:
+                ligacao.interesses.remove(new String(corpo, StandardCharsets.UTF_8));
+                break;
+            case FRAME:
+                ByteBuffer leitor = ByteBuffer.wrap(corpo);
+                String sala = lerTexto(leitor);
+                String id = lerTexto(leitor);
+                long sequencia = leitor.getLong();
+                byte[] frame = new byte[leitor.remaining()];
+                leitor.get(frame);
+                framesRecebidos.incrementAndGet();
+                distribuidorMensagens.entregarRemota(sala, id, sequencia, frame);
+                break;
+            case ESCRITA:
+                escritasRecebidas.incrementAndGet();
+                ingestaoMensagens.aceitarEncaminhada(corpo, ligacao.idRemoto);
+                break;
+            case RESPOSTA:
+                ByteBuffer resposta = ByteBuffer.wrap(corpo);
+                String remetente = lerTexto(resposta);
+                String idMensagem = lerTexto(resposta);
+                byte[] confirmacao = new byte[resposta.remaining()];
+                resposta.get(confirmacao);
+                // Mesmo depois do prazo a resposta segue: é o estado real da mensagem
+                ingestaoMensagens.respostaEncaminhada(idMensagem);
+                configuracaoWebSocket.enviarAoUtilizador(remetente, new TextMessage(confirmacao));
+                break;
+            default:
+                logger.warn("Cluster - Tipo de mensagem desconhecido do nó " + ligacao.idRemoto + ": " + tipo);
+        }
+    }
+
+    // Prova do outro lado aceite: a ligação passa a contar como a ligação a esse nó
+    private void autenticar(Ligacao ligacao) {
+        String idRemoto = ligacao.idAnunciado;
+        if (ligacao.idRemoto == null) {
+            ligacao.idRemoto = idRemoto;
+            // Um nó que voltou a arrancar substitui a ligação antiga
+            Ligacao antiga = ligacoes.put(idRemoto, ligacao);
+            if (antiga != null && antiga != ligacao) {
+                fechar(antiga);
+            }
+        }
+        ligacao.pronta = true;
+        for (String sala : interessesAnunciados) {
+            enfileirar(ligacao, mensagem(INTERESSE, sala), false);
+        }
+        logger.info("Cluster - Ligado ao nó " + idRemoto);
+    }
+
+    // HMAC-SHA256, com o segredo partilhado, do papel de quem prova, do desafio
+    // do iniciador, do desafio do aceitante e do id de quem prova. Uma prova
+    // obtida numa ligação não serve noutra nem no sentido contrário
+    private byte[] prova(byte[] papel, byte[] desafioIniciador, byte[] desafioAceitante, String id) {
+        try {
+            Mac mac = Mac.getInstance(ALGORITMO_PROVA);
+            mac.init(new SecretKeySpec(segredo, ALGORITMO_PROVA));
+            mac.update(papel);
+            mac.update(desafioIniciador);
+            mac.update(desafioAceitante);
+            return mac.doFinal(id.getBytes(StandardCharsets.UTF_8));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Erro ao calcular a prova do barramento", e);
+        }
+    }
+
+    // Corpo: [short][id deste nó][desafio]
+    private ByteBuffer ola(Ligacao ligacao) {
+        byte[] bytesId = idNo.getBytes(StandardCharsets.UTF_8);
+        int comprimento = 1 + 2 + bytesId.length + ligacao.desafio.length;
+        ByteBuffer mensagem = ByteBuffer.allocate(4 + comprimento);
+        mensagem.putInt(comprimento).put(OLA)
+                .putShort((short) bytesId.length).put(bytesId)
+                .put(ligacao.desafio).flip();
+        return mensagem;
+    }
+
+    // Liga aos membros com id maior que ainda não têm ligação e fecha as
+    // ligações abertas por este nó a membros que saíram de /nodos
+    private void reconciliarMembros(long agora) {
+        Map<String, String> atuais = membros;
+        for (Map.Entry<String, String> membro : atuais.entrySet()) {
+            String id = membro.getKey();
+            if (idNo.compareTo(id) >= 0 || ligacoes.containsKey(id)
+                    || agora - ultimaTentativa.getOrDefault(id, 0L) < INTERVALO_RELIGACAO_MS) {
+                continue;
+            }
+            ultimaTentativa.put(id, agora);
+            try {
+                ligar(id, membro.getValue());
+            } catch (IOException | RuntimeException e) {
+                logger.warn("Cluster - Não foi possível ligar ao nó " + id + " em " + membro.getValue(), e);
+                Ligacao falhada = ligacoes.get(id);
+                if (falhada != null) {
+                    fechar(falhada);
+                }
+            }
+        }
+        for (Ligacao ligacao : ligacoes.values()) {
+            if (ligacao.iniciadaAqui && !atuais.containsKey(ligacao.idRemoto)) {
+                fechar(ligacao);
+            }
+        }
+    }
+
+    // Envia aos outros nós só as salas que entraram ou saíram desde o último anúncio
+    private void anunciarInteresses() {
+        Set<String> atuais = configuracaoWebSocket.salasComDestinatarios();
+        if (atuais.equals(interessesAnunciados)) {
+            return;
+        }
+        Set<String> novas = new HashSet<>(atuais);
+        novas.removeAll(interessesAnunciados);
+        Set<String> removidas = new HashSet<>(interessesAnunciados);
+        removidas.removeAll(atuais);
+        for (Ligacao ligacao : ligacoes.values()) {
+            if (!ligacao.pronta) {
+                continue;
+            }
+            for (String sala : novas) {
+                enfileirar(ligacao, mensagem(INTERESSE, sala), false);
+            }
+            for (String sala : removidas) {
+                enfileirar(ligacao, mensagem(SEM_INTERESSE, sala), false);
+            }
+        }
+        interessesAnunciados = atuais;
+    }
+
+    // As mensagens de controlo nunca são descartadas; os frames são-no quando o nó não acompanha
+    private boolean enfileirar(Ligacao ligacao, ByteBuffer mensagem, boolean descartavel) {
+        synchronized (ligacao) {
+            if (descartavel && ligacao.pendente + mensagem.remaining() > maximoPendente) {
+                framesDescartados.incrementAndGet();
+                return false;
+            }
+            ligacao.saida.add(mensagem);
+            ligacao.pendente += mensagem.remaining();
+        }
+        if (ligacao.marcada.compareAndSet(false, true)) {
+            comEscrita.add(ligacao);
+            selector.wakeup();
+        }
+        return true;
+    }
+
+    private void fechar(Ligacao ligacao, IOException causa) {
+        logger.warn("Cluster - Ligação ao nó " + ligacao.idRemoto + " fechada: " + causa.getMessage());
+        fechar(ligacao);
+    }
+
+    private void fechar(Ligacao ligacao) {
+        if (ligacao.idRemoto != null) {
+            ligacoes.remove(ligacao.idRemoto, ligacao);
+        }
+        try {
+            ligacao.canal.close();
+        } catch (IOException e) {
+            logger.debug("Cluster - Erro ao fechar ligação", e);
+        }
+    }
+
+    private static ByteBuffer mensagem(byte tipo, String texto) {
+        return mensagem(tipo, texto.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static ByteBuffer mensagem(byte tipo, byte[] corpo) {
+        ByteBuffer mensagem = ByteBuffer.allocate(5 + corpo.length);
+        mensagem.putInt(1 + corpo.length).put(tipo).put(corpo).flip();
+        return mensagem;
+    }
+
+    // Corpo: [short][sala][short][id][long sequencia][frame]
+    private static ByteBuffer codificarFrame(String sala, String id, long sequencia, byte[] frame) {
+        byte[] bytesSala = sala.getBytes(StandardCharsets.UTF_8);
+        byte[] bytesId = id.getBytes(StandardCharsets.UTF_8);
+        int comprimento = 1 + 2 + bytesSala.length + 2 + bytesId.length + 8 + frame.length;
+        ByteBuffer mensagem = ByteBuffer.allocate(4 + comprimento);
+        mensagem.putInt(comprimento).put(FRAME)
+                .putShort((short) bytesSala.length).put(bytesSala)
+                .putShort((short) bytesId.length).put(bytesId)
+                .putLong(sequencia)
+                .put(frame).flip();
+        return mensagem;
+    }
+
+    private static String lerTexto(ByteBuffer leitor) {
+        byte[] bytes = new byte[Short.toUnsignedInt(leitor.getShort())];
+        leitor.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    // Estado de uma ligação a outro nó; a leitura só é feita pela thread do barramento
+    private static final class Ligacao {
+
+        private final SocketChannel canal;
+        private final boolean iniciadaAqui;
+        private final Set<String> interesses = ConcurrentHashMap.newKeySet();
+        private final ArrayDeque<ByteBuffer> saida = new ArrayDeque<>();
+        private final AtomicBoolean marcada = new AtomicBoolean();
+        // Desafio enviado no OLA, a que o outro lado tem de responder
+        private final byte[] desafio = new byte[TAMANHO_DESAFIO];
+        private ByteBuffer entrada = ByteBuffer.allocate(TAMANHO_INICIAL_ENTRADA);
+        private long pendente;
+        private volatile String idRemoto;
+        // Id e desafio recebidos no OLA, ainda por provar
+        private volatile String idAnunciado;
+        private byte[] desafioRemoto;
+        // Só com a prova do outro lado aceite
+        private volatile boolean pronta;
+
+        Ligacao(SocketChannel canal, String idRemoto, boolean iniciadaAqui) {
+            this.canal = canal;
+            this.idRemoto = idRemoto;
+            this.iniciadaAqui = iniciadaAqui;
+            ALEATORIO.nextBytes(desafio);
+        }
+
+        synchronized long bytesPendentes() {
+            return pendente;
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package com.example.chat_hub.cluster;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Atribui cada sala a um nó dono, com um {@link AnelConsistente} construído a
+ * partir dos nós registados em /nodos.
+ *
+ * Só o dono sequencia e persiste as mensagens da sala; os outros nós
+ * encaminham-lhe as escritas pelo {@link BarramentoNos}. Sem o barramento
+ * ativo este nó é dono de todas as salas.
+ */
+@Component
+public class DistribuicaoSalas {
+
+    private static final Logger logger = LoggerFactory.getLogger(DistribuicaoSalas.class);
+
+    @Autowired
+    private BarramentoNos barramentoNos;
+
+    private final int pontosPorNo;
+    private volatile Estado estado;
+
+    private final AtomicLong rebalanceamentos = new AtomicLong();
+    private final AtomicLong salasMovidas = new AtomicLong();
+
+    public DistribuicaoSalas(@Value("${cluster.anel.pontosPorNo:128}") int pontosPorNo) {
+        this.pontosPorNo = Math.max(1, pontosPorNo);
+    }
+
+    public String dono(String sala) {
+        Estado atual = estado;
+        if (!barramentoNos.ativo() || atual == null) {
+            return barramentoNos.idNo();
+        }
+        return atual.donos.computeIfAbsent(sala, atual.anel::dono);
+    }
+
+    public boolean souDono(String sala) {
+        return dono(sala).equals(barramentoNos.idNo());
+    }
+
+    // Reconstrói o anel com os nós atuais (este nó incluído); as salas conhecidas só servem para as métricas
+    public void atualizarMembros(Collection<String> membros, Collection<String> salasConhecidas) {
+        Set<String> nos = new HashSet<>(membros);
+        nos.add(barramentoNos.idNo());
+        Estado anterior = estado;
+        if (anterior != null && anterior.anel.nos().equals(nos)) {
+            return;
+        }
+        Estado novo = new Estado(new AnelConsistente(nos, pontosPorNo));
+        int movidas = 0;
+        int ganhas = 0;
+        for (String sala : salasConhecidas) {
+            String donoAnterior = anterior != null ? anterior.anel.dono(sala) : null;
+            String donoNovo = novo.anel.dono(sala);
+            if (!donoNovo.equals(donoAnterior)) {
+                movidas++;
+                if (donoNovo.equals(barramentoNos.idNo())) {
+                    ganhas++;
+                }
+            }
+        }
+        estado = novo;
+        rebalanceamentos.incrementAndGet();
+        salasMovidas.addAndGet(anterior != null ? movidas : 0);
+        logger.info("Cluster - Anel com " + nos.size() + " nós; " + movidas + " de " + salasConhecidas.size()
+                + " salas mudaram de dono, " + ganhas + " para este nó.");
+    }
+
+    public Map<String, Object> metricas() {
+        Estado atual = estado;
+        return Map.of(
+                "nos", atual != null ? atual.anel.nos().size() : 1,
+                "pontosPorNo", pontosPorNo,
+                "rebalanceamentos", rebalanceamentos.get(),
+                "salasMovidas", salasMovidas.get());
+    }
+
+    // Anel e cache dos donos já calculados, trocados juntos quando os membros mudam
+    private static final class Estado {
+
+        private final AnelConsistente anel;
+        private final Map<String, String> donos = new ConcurrentHashMap<>();
+
+        Estado(AnelConsistente anel) {
+            this.anel = anel;
+        }
+    }
+}
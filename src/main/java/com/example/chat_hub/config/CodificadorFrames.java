@@ -0,0 +1,129 @@
+package com.example.chat_hub.config;
+
+import com.example.chat_hub.modelo.Mensagem;
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.util.ByteArrayBuilder;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import org.springframework.web.socket.TextMessage;
+
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * Codifica os eventos enviados pelo WebSocket.
+ *
+ * Cada evento é serializado uma única vez para um {@link TextMessage}
+ * imutável, que é depois partilhado por todos os destinatários. O JSON é
+ * escrito com o gerador do Jackson, que escapa os valores e reutiliza os seus
+ * buffers internos entre chamadas, diretamente em UTF-8: o frame guarda esses
+ * bytes e {@link TextMessage#asBytes()} devolve-os sem voltar a codificar
+ * (é o que segue pelo barramento para os outros nós).
+ *
+ * O envio pelo WebSocket continua a passar pelo texto do frame: o Tomcat
+ * codifica-o de novo em cada sessão. Partilhar um BinaryMessage evitaria
+ * isso, mas os clientes passariam a receber frames binários em vez de JSON.
+ */
+public class CodificadorFrames {
+
+    private final ObjectMapper objectMapper;
+
+    public CodificadorFrames() {
+        this.objectMapper = new ObjectMapper();
+        this.objectMapper.registerModule(new JavaTimeModule());
+        this.objectMapper.disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
+    }
+
+    public ObjectMapper getObjectMapper() {
+        return objectMapper;
+    }
+
+    /**
+     * Escreve {"tipo":"presenca","versaoBase":...,"versao":...,"alteracoes":{utilizador: estado}},
+     * com estado nulo para os utilizadores removidos.
+     */
+    public TextMessage presenca(long versaoBase, long versao, Map<String, String> alteracoes) {
+        ByteArrayBuilder bytes = new ByteArrayBuilder(64 + alteracoes.size() * 32);
+        try (JsonGenerator gerador = objectMapper.getFactory().createGenerator(bytes, JsonEncoding.UTF8)) {
+            gerador.writeStartObject();
+            gerador.writeStringField("tipo", "presenca");
+            gerador.writeNumberField("versaoBase", versaoBase);
+            gerador.writeNumberField("versao", versao);
+            gerador.writeObjectFieldStart("alteracoes");
+            for (Map.Entry<String, String> alteracao : alteracoes.entrySet()) {
+                gerador.writeStringField(alteracao.getKey(), alteracao.getValue());
+            }
+            gerador.writeEndObject();
+            gerador.writeEndObject();
+        } catch (IOException e) {
+            throw new IllegalStateException("Falha ao codificar frame de presença", e);
+        }
+        return new TextMessage(bytes.toByteArray());
+    }
+
+    // {"tipo":..., "sala":..., "id":..., "sequencia":..., "idCliente":...}
+    public TextMessage confirmacao(String tipo, Mensagem mensagem) {
+        ByteArrayBuilder bytes = new ByteArrayBuilder(128);
+        try (JsonGenerator gerador = objectMapper.getFactory().createGenerator(bytes, JsonEncoding.UTF8)) {
+            gerador.writeStartObject();
+            gerador.writeStringField("tipo", tipo);
+            gerador.writeStringField("sala", mensagem.getNomeSala());
+            gerador.writeStringField("id", mensagem.getId());
+            if (mensagem.getSequencia() != null) {
+                gerador.writeNumberField("sequencia", mensagem.getSequencia());
+            }
+            if (mensagem.getIdCliente() != null) {
+                gerador.writeStringField("idCliente", mensagem.getIdCliente());
+            }
+            gerador.writeEndObject();
+        } catch (IOException e) {
+            throw new IllegalStateException("Falha ao codificar frame do tipo " + tipo, e);
+        }
+        return new TextMessage(bytes.toByteArray());
+    }
+
+    // {"tipo":"mensagem_rejeitada", "sala":..., "idCliente":..., "motivo":...} para um envio recusado à entrada
+    public TextMessage rejeicao(String sala, String idCliente, String motivo) {
+        ByteArrayBuilder bytes = new ByteArrayBuilder(128);
+        try (JsonGenerator gerador = objectMapper.getFactory().createGenerator(bytes, JsonEncoding.UTF8)) {
+            gerador.writeStartObject();
+            gerador.writeStringField("tipo", "mensagem_rejeitada");
+            gerador.writeStringField("sala", sala);
+            gerador.writeStringField("idCliente", idCliente);
+            gerador.writeStringField("motivo", motivo);
+            gerador.writeEndObject();
+        } catch (IOException e) {
+            throw new IllegalStateException("Falha ao codificar frame de rejeição", e);
+        }
+        return new TextMessage(bytes.toByteArray());
+    }
+
+    public TextMessage codificar(String tipo, String sala) {
+        return codificar(tipo, sala, null, null);
+    }
+
+    /**
+     * Escreve {"tipo":..., "sala":..., campo: valor}, omitindo a sala e o
+     * campo quando são nulos.
+     */
+    public TextMessage codificar(String tipo, String sala, String campo, Object valor) {
+        ByteArrayBuilder bytes = new ByteArrayBuilder(128);
+        try (JsonGenerator gerador = objectMapper.getFactory().createGenerator(bytes, JsonEncoding.UTF8)) {
+            gerador.writeStartObject();
+            gerador.writeStringField("tipo", tipo);
+            if (sala != null) {
+                gerador.writeStringField("sala", sala);
+            }
+            if (campo != null && valor != null) {
+                gerador.writeFieldName(campo);
+                objectMapper.writeValue(gerador, valor);
+            }
+            gerador.writeEndObject();
+        } catch (IOException e) {
+            throw new IllegalStateException("Falha ao codificar frame do tipo " + tipo, e);
+        }
+        return new TextMessage(bytes.toByteArray());
+    }
+}
@@ -0,0 +1,40 @@
+package com.example.chat_hub.config;
+
+import com.example.chat_hub.zookeeper.EstadoArranque;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.servlet.HandlerInterceptor;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+/**
+ * Recusa os pedidos com 503 enquanto o estado em memória está a ser
+ * reconstruído, em vez de responder com listas vazias ou incompletas. Os
+ * recursos estáticos e as métricas continuam acessíveis.
+ */
+@Configuration
+public class ConfiguracaoProntidao implements WebMvcConfigurer {
+
+    @Autowired
+    private EstadoArranque estadoArranque;
+
+    @Override
+    public void addInterceptors(InterceptorRegistry registry) {
+        registry.addInterceptor(new HandlerInterceptor() {
+            @Override
+            public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler)
+                    throws Exception {
+                if (estadoArranque.isPronto()) {
+                    return true;
+                }
+                response.setHeader(HttpHeaders.RETRY_AFTER, "1");
+                response.sendError(HttpStatus.SERVICE_UNAVAILABLE.value(), "Servidor a arrancar.");
+                return false;
+            }
+        }).excludePathPatterns("/css/**", "/js/**", "/img/**", "/ico/**", "/error", "/api/metricas");
+    }
+}
@@ -1,123 +1,273 @@
 package com.example.chat_hub.config;
 
 import com.example.chat_hub.modelo.Mensagem;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.example.chat_hub.modelo.PaginaMensagens;
+import com.example.chat_hub.servico.ServicoChat;
+import com.example.chat_hub.servico.ServicoSobrecarregadoException;
+import com.example.chat_hub.zookeeper.IndiceParticipacao;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectReader;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Lazy;
 import org.springframework.web.socket.CloseStatus;
 import org.springframework.web.socket.TextMessage;
 import org.springframework.web.socket.WebSocketSession;
 import org.springframework.web.socket.config.annotation.EnableWebSocket;
 import org.springframework.web.socket.config.annotation.WebSocketConfigurer;
 import org.springframework.web.socket.config.annotation.WebSocketHandlerRegistry;
+import org.springframework.web.socket.handler.ConcurrentWebSocketSessionDecorator;
 import org.springframework.web.socket.handler.TextWebSocketHandler;
+import org.springframework.web.socket.server.support.HttpSessionHandshakeInterceptor;
 
+import jakarta.annotation.PreDestroy;
 import java.io.IOException;
-import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
 
 @Configuration
 @EnableWebSocket
 public class ConfiguracaoWebSocket extends TextWebSocketHandler implements WebSocketConfigurer {
 
     private static final Logger logger = LoggerFactory.getLogger(ConfiguracaoWebSocket.class);
-    private Map<String, WebSocketSession> sessions = new HashMap<>();
-    private ObjectMapper objectMapper;
+    private final RegistoSessoes registoSessoes = new RegistoSessoes();
+    private final IndiceSubscricoes indiceSubscricoes = new IndiceSubscricoes(registoSessoes);
+    private final EnvioParalelo envioParalelo;
+    private final CodificadorFrames codificadorFrames = new CodificadorFrames();
+    // Leitor partilhado pelas sessões; os ObjectReader são imutáveis e seguros entre threads
+    private final ObjectReader leitorFrames = codificadorFrames.getObjectMapper().readerFor(FrameEntrada.class)
+            .without(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
+    private final AtomicLong framesRecebidos = new AtomicLong();
+    private final AtomicLong envios = new AtomicLong();
+    private final AtomicLong reenvios = new AtomicLong();
+
+    /**
+     * Atributo da sessão HTTP com o utilizador autenticado no login. É copiado
+     * para a sessão WebSocket no handshake e é a única identidade aceite.
+     */
+    public static final String UTILIZADOR_AUTENTICADO = "utilizadorAutenticado";
+
+    // Máximo de mensagens reenviadas a uma sessão que subscreve uma sala com 'desde'
+    private static final int LIMITE_REENVIO = 500;
+
+    // O ServicoChat depende (através da pipeline de entrada) deste handler
+    @Autowired
+    @Lazy
+    private ServicoChat servicoChat;
+    @Autowired
+    private IndiceParticipacao indiceParticipacao;
+    private final int tempoLimiteEnvio;
+    private final int limiteBufferEnvio;
+
+    public ConfiguracaoWebSocket(@Value("${websocket.envio.workers:0}") int workers,
+            @Value("${websocket.envio.limitePendentes:1000}") int limitePendentes,
+            @Value("${websocket.envio.tempoLimite:10000}") int tempoLimiteEnvio,
+            @Value("${websocket.envio.limiteBuffer:524288}") int limiteBufferEnvio,
+            @Value("${spring.threads.virtual.enabled:false}") boolean threadsVirtuais) {
+        boolean virtuais = FabricaThreads.virtuaisDisponiveis(threadsVirtuais);
+        // Com threads virtuais há um worker por fragmento do registo de sessões
+        int numeroWorkers = workers > 0 ? workers
+                : virtuais ? registoSessoes.numeroFragmentos() : Runtime.getRuntime().availableProcessors();
+        this.envioParalelo = new EnvioParalelo(numeroWorkers, limitePendentes, tempoLimiteEnvio,
+                FabricaThreads.criar("ws-envio-", virtuais));
+        this.tempoLimiteEnvio = tempoLimiteEnvio;
+        this.limiteBufferEnvio = limiteBufferEnvio;
+    }
+
+    @PreDestroy
+    public void encerrar() {
+        envioParalelo.encerrar();
+    }
 
     @Override
     public void registerWebSocketHandlers(WebSocketHandlerRegistry registry) {
-        registry.addHandler(this, "/ecra_dashboard").setAllowedOrigins("*");
+        registry.addHandler(this, "/ecra_dashboard")
+                .addInterceptors(new HttpSessionHandshakeInterceptor(List.of(UTILIZADOR_AUTENTICADO)))
+                .setAllowedOrigins("*");
         logger.info("WebSocket handler registado em /ecra_dashboard");
     }
 
     @Override
     public void afterConnectionEstablished(WebSocketSession session) throws Exception {
-        String query = session.getUri().getQuery();
-        if (query != null) {
-            for (String param : query.split("&")) {
-                String[] pair = param.split("=");
-                if ("username".equals(pair[0]) && pair.length > 1) {
-                    String username = pair[1];
-                    sessions.put(session.getId(), session);
-                    logger.info("Nova conexão WebSocket estabelecida, sessionId: " + session.getId() + ", username: "
-                            + username);
-                }
-            }
-        } else {
-            sessions.put(session.getId(), session);
-            logger.warn("Username não fornecido na conexão WebSocket, sessionId: " + session.getId());
+        // Os envios passam a ser feitos por vários workers: o decorador serializa os
+        // envios concorrentes para a mesma sessão
+        // A identidade vem da sessão HTTP autenticada, nunca do URL nem de um frame
+        String username = (String) session.getAttributes().get(UTILIZADOR_AUTENTICADO);
+        if (username == null) {
+            logger.warn("WebS - Ligação WebSocket sem sessão autenticada recusada, sessionId: " + session.getId());
+            session.close(CloseStatus.POLICY_VIOLATION.withReason("Sessão não autenticada"));
+            return;
         }
+        WebSocketSession sessaoConcorrente = new ConcurrentWebSocketSessionDecorator(session, tempoLimiteEnvio,
+                limiteBufferEnvio);
+        registoSessoes.registar(sessaoConcorrente);
+        registoSessoes.associar(username, sessaoConcorrente);
+        logger.info("Nova conexão WebSocket estabelecida, sessionId: " + session.getId() + ", username: " + username);
     }
 
     @Override
     protected void handleTextMessage(WebSocketSession session, TextMessage message) throws Exception {
         String payload = message.getPayload();
-        logger.info("WebS - Mensagem recebida: " + payload);
+        logger.debug("WebS - Mensagem recebida: {}", payload);
+        framesRecebidos.incrementAndGet();
 
+        WebSocketSession sessaoConcorrente = registoSessoes.obter(session.getId());
+        if (sessaoConcorrente == null) {
+            return;
+        }
+        FrameEntrada frame;
         try {
-            ObjectMapper objectMapper = new ObjectMapper();
-            Map<String, String> msgData = objectMapper.readValue(payload, HashMap.class);
-            String type = msgData.get("type");
-            String username = msgData.get("username");
-
-            if ("login".equals(type) && username != null) {
-                sessions.put(username, session);
-                session.getAttributes().put("username", username);
-                logger.info("WebS - Utilizador com login: " + username);
-                logger.info("WebS - Gravado" + session.getAttributes().get("username"));
-            }
+            frame = leitorFrames.readValue(payload);
         } catch (IOException e) {
             logger.error("WebS - Falha ao analisar mensagem: " + payload, e);
+            return;
+        }
+        String sala = frame.getSala();
+        String tipo = frame.getTipo() != null ? frame.getTipo() : "";
+
+        switch (tipo) {
+            case "login":
+                // A sessão já está associada no handshake: só é aceite o mesmo utilizador
+                String autenticado = (String) session.getAttributes().get(UTILIZADOR_AUTENTICADO);
+                if (frame.getUsername() != null && !frame.getUsername().equals(autenticado)) {
+                    logger.warn("WebS - Login como " + frame.getUsername() + " recusado na sessão " + session.getId()
+                            + " de " + autenticado);
+                    session.close(CloseStatus.POLICY_VIOLATION.withReason("Utilizador diferente do autenticado"));
+                }
+                break;
+            case "enviar":
+                enviar(session, sessaoConcorrente, frame);
+                break;
+            case "subscrever":
+                if (sala != null) {
+                    subscrever(session, sessaoConcorrente, sala, frame.getDesde());
+                }
+                break;
+            case "cancelar_subscricao":
+                if (sala != null) {
+                    indiceSubscricoes.cancelarSubscricao(sala, sessaoConcorrente);
+                    logger.info("WebS - Sessão " + session.getId() + " cancelou a subscrição da sala: " + sala);
+                }
+                break;
+            default:
+                logger.warn("WebS - Tipo de frame desconhecido: " + tipo);
         }
     }
 
+    // O remetente é o utilizador autenticado no handshake, nunca um campo do frame
+    private void enviar(WebSocketSession session, WebSocketSession sessaoConcorrente, FrameEntrada frame) {
+        envios.incrementAndGet();
+        String remetente = (String) session.getAttributes().get(UTILIZADOR_AUTENTICADO);
+        if (remetente == null) {
+            responder(sessaoConcorrente, codificadorFrames.rejeicao(frame.getSala(), frame.getIdCliente(),
+                    "Sessão sem utilizador."));
+            return;
+        }
+        try {
+            servicoChat.adicionarMensagem(frame.getSala(), frame.getConteudo(), remetente, frame.getIdCliente());
+        } catch (IllegalArgumentException e) {
+            responder(sessaoConcorrente, codificadorFrames.rejeicao(frame.getSala(), frame.getIdCliente(),
+                    e.getMessage()));
+        } catch (ServicoSobrecarregadoException e) {
+            responder(sessaoConcorrente, codificadorFrames.rejeicao(frame.getSala(), frame.getIdCliente(),
+                    "sobrecarga"));
+        }
+    }
+
+    // Só os participantes da sala a podem subscrever e pedir as mensagens em falta
+    private void subscrever(WebSocketSession session, WebSocketSession sessaoConcorrente, String sala, Long desde) {
+        String utilizador = (String) session.getAttributes().get("username");
+        if (utilizador == null || !indiceParticipacao.participa(sala, utilizador)) {
+            logger.warn("WebS - Subscrição recusada: sessão " + session.getId() + " (" + utilizador
+                    + ") não participa na sala " + sala);
+            responder(sessaoConcorrente, codificadorFrames.codificar("subscricao_rejeitada", sala));
+            return;
+        }
+        indiceSubscricoes.subscrever(sala, sessaoConcorrente);
+        logger.info("WebS - Sessão " + session.getId() + " subscreveu a sala: " + sala);
+        if (desde != null) {
+            reenviarDesde(sessaoConcorrente, sala, desde);
+        }
+    }
+
+    // Mensagens que o cliente perdeu enquanto esteve desligado, lidas depois de a
+    // sessão subscrever a sala para não haver intervalo sem entrega. Seguem numa
+    // única página: as mensagens entregues entretanto podem chegar antes dela ou
+    // repetir-se nela, e o cliente descarta e ordena pela sequência. Com mais
+    // mensagens em falta, o cliente volta a subscrever a partir de 'seguinte'
+    private void reenviarDesde(WebSocketSession sessaoConcorrente, String sala, long desde) {
+        PaginaMensagens pagina = servicoChat.carregarMensagens(sala, null, desde, LIMITE_REENVIO);
+        if (pagina.getMensagens().isEmpty() && pagina.getSeguinte() == null) {
+            return;
+        }
+        reenvios.incrementAndGet();
+        responder(sessaoConcorrente, codificadorFrames.codificar("mensagens_em_falta", sala, "pagina", pagina));
+    }
+
+    private void responder(WebSocketSession sessaoConcorrente, TextMessage frame) {
+        envioParalelo.enviar(List.of(sessaoConcorrente), frame);
+    }
+
+    public Map<String, Object> metricas() {
+        return Map.of(
+                "sessoes", registoSessoes.tamanho(),
+                "framesRecebidos", framesRecebidos.get(),
+                "envios", envios.get(),
+                "reenvios", reenvios.get(),
+                "framesDescartados", envioParalelo.descartados(),
+                "sessoesLentasFechadas", envioParalelo.sessoesFechadas());
+    }
+
     @Override
     public void afterConnectionClosed(WebSocketSession session, CloseStatus status) throws Exception {
+        WebSocketSession sessaoConcorrente = registoSessoes.remover(session.getId());
+        if (sessaoConcorrente != null) {
+            indiceSubscricoes.removerSessao(sessaoConcorrente);
+            envioParalelo.remover(sessaoConcorrente);
+        }
         String username = (String) session.getAttributes().get("username");
         if (username != null) {
-            sessions.remove(username);
             logger.info("WebS - Utilizador desconectado: " + username);
         } else {
-            sessions.values().remove(session);
             logger.info("WebS - Sessão WebSocket desconectada: " + session.getId());
         }
     }
 
-    public void notificarMudancaEstadoUtilizadores() {
-        logger.info("WebS - Notificando todos os clientes para atualizar estados dos usuários.");
-        String payload = "{\"tipo\":\"atualizar_usuarios\"}";
-        for (WebSocketSession session : sessions.values()) {
-            if (session.isOpen()) {
-                try {
-                    session.sendMessage(new TextMessage(payload));
-                } catch (IOException e) {
-                    logger.error("WebS - Erro ao enviar mensagem de atualização de usuários", e);
-                }
-            }
-        }
+    // -- -- -- -- -- -- -- -- -- Índice de salas -- -- -- -- -- -- -- -- -- -- -- //
+
+    public void atualizarParticipantesSala(String sala, List<String> participantes) {
+        indiceSubscricoes.definirParticipantes(sala, participantes);
+    }
+
+    public void adicionarParticipanteSala(String sala, String utilizador) {
+        indiceSubscricoes.adicionarParticipante(sala, utilizador);
+    }
+
+    public void removerParticipanteSala(String sala, String utilizador) {
+        indiceSubscricoes.removerParticipante(sala, utilizador);
+    }
+
+    public void removerSala(String sala) {
+        indiceSubscricoes.removerSala(sala);
+    }
+
+    // -- -- -- -- -- -- -- -- -- Notificações -- -- -- -- -- -- -- -- -- -- -- //
+
+    // O estado dos utilizadores é global: todos os clientes mostram a lista completa
+    public void notificarPresenca(long versaoBase, long versao, Map<String, String> alteracoes) {
+        logger.info("WebS - Enviando " + alteracoes.size() + " alterações de presença (versão " + versao + ").");
+        envioParalelo.enviar(registoSessoes.todas(), codificadorFrames.presenca(versaoBase, versao, alteracoes));
     }
 
     public void notificarClientes(String tipo, String sala, Mensagem mensagem) {
         logger.info("WebS - Notificando clientes do tipo: " + tipo + (sala != null ? " na sala: " + sala : ""));
-        for (WebSocketSession session : sessions.values()) {
-            if (session.isOpen()) {
-                try {
-                    String payload;
-                    if (mensagem != null) {
-                        payload = "{\"tipo\":\"" + tipo + "\",\"sala\":\"" + sala + "\",\"mensagem\":"
-                                + objectMapper.writeValueAsString(mensagem) + "}";
-                    } else if (sala != null) {
-                        payload = "{\"tipo\":\"" + tipo + "\",\"sala\":\"" + sala + "\"}";
-                    } else {
-                        payload = "{\"tipo\":\"" + tipo + "\"}";
-                    }
-                    session.sendMessage(new TextMessage(payload));
-                } catch (IOException e) {
-                    logger.error("WebS - Erro ao enviar mensagem de notificação: ", e);
-                }
-            }
-        }
+        TextMessage frame = codificadorFrames.codificar(tipo, sala, "mensagem", mensagem);
+        envioParalelo.enviar(sala != null ? indiceSubscricoes.destinatarios(sala) : registoSessoes.todas(), frame);
     }
 
     public void notificarClientes(String tipo, String sala) {
@@ -130,21 +280,37 @@ public class ConfiguracaoWebSocket extends TextWebSocketHandler implements WebSo
         notificarClientes("mudanca_sala", sala, null);
     }
 
+    // Confirmação (ou rejeição) enviada apenas às sessões do remetente
+    public void notificarRemetente(String tipo, Mensagem mensagem) {
+        enviarAoUtilizador(mensagem.getRemetente(), codificarConfirmacao(tipo, mensagem));
+    }
+
+    // Também usado para as escritas encaminhadas, cuja confirmação volta ao nó de origem
+    public TextMessage codificarConfirmacao(String tipo, Mensagem mensagem) {
+        return codificadorFrames.confirmacao(tipo, mensagem);
+    }
+
+    public void enviarAoUtilizador(String utilizador, TextMessage frame) {
+        envioParalelo.enviar(registoSessoes.sessoesDoUtilizador(utilizador), frame);
+    }
+
+    // Frame codificado uma única vez por mensagem, tanto para as sessões locais
+    // como para os outros nós do cluster
+    public TextMessage codificarNovaMensagem(String sala, Mensagem mensagem) {
+        return codificadorFrames.codificar("nova_mensagem", sala, "mensagem", mensagem);
+    }
+
+    public void enviarFrameSala(String sala, TextMessage frame) {
+        envioParalelo.enviar(indiceSubscricoes.destinatarios(sala), frame);
+    }
+
+    public Set<String> salasComDestinatarios() {
+        return indiceSubscricoes.salasComDestinatarios();
+    }
+
     public void enviarNotificacaoNovaMensagem(String sala, Mensagem mensagem) {
-        String payload = String.format(
-                "{\"tipo\":\"nova_mensagem\",\"sala\":\"%s\",\"mensagem\":{\"remetente\":\"%s\",\"conteudo\":\"%s\",\"dataCriacao\":\"%s\"}}",
-                sala, mensagem.getRemetente(), mensagem.getConteudo(), mensagem.getDataCriacao());
-
-        for (WebSocketSession session : sessions.values()) {
-            if (session.isOpen()) {
-                try {
-                    session.sendMessage(new TextMessage(payload));
-                    logger.info("WebS - Mensagem de nova mensagem enviada para sala: " + sala);
-                } catch (IOException e) {
-                    logger.error("Erro ao enviar mensagem de notificação", e);
-                }
-            }
-        }
+        notificarClientes("nova_mensagem", sala, mensagem);
+        logger.info("WebS - Mensagem de nova mensagem enviada para sala: " + sala);
     }
 
-}
\ No newline at end of file
+}
@@ -1,28 +1,34 @@
 package com.example.chat_hub.config;
 
-import org.apache.zookeeper.Watcher;
-import org.apache.zookeeper.ZooKeeper;
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.CuratorFrameworkFactory;
+import org.apache.curator.retry.ExponentialBackoffRetry;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
+/**
+ * Cliente Curator único da aplicação. O Curator mantém a sessão, volta a
+ * ligar (com uma sessão nova se a anterior expirar) e repete as operações
+ * falhadas por perda de ligação com recuo exponencial limitado.
+ */
 @Configuration
 public class ConfiguracaoZooKeeper {
 
-    @Bean
-    public ZooKeeper zooKeeper(@Value("${enderecoZooKeeper}") String enderecoZooKeeper,
-            @Value("${sessionTimeout}") int sessionTimeout) {
-        ZooKeeper zooKeeper = null;
-        try {
-            zooKeeper = new ZooKeeper(enderecoZooKeeper, sessionTimeout, event -> {
-                if (event.getState() == Watcher.Event.KeeperState.SyncConnected) {
-                    System.out.println("Conectado ao ZooKeeper em " + enderecoZooKeeper);
-                }
-            });
-        } catch (Exception e) {
-            System.err.println("Falha ao conectar ao ZooKeeper");
-            e.printStackTrace();
-        }
-        return zooKeeper;
+    @Bean(destroyMethod = "close")
+    public CuratorFramework curator(@Value("${enderecoZooKeeper}") String enderecoZooKeeper,
+            @Value("${sessionTimeout}") int sessionTimeout,
+            @Value("${zookeeper.ligacao.timeoutMs:15000}") int timeoutLigacao,
+            @Value("${zookeeper.retry.baseMs:200}") int esperaBase,
+            @Value("${zookeeper.retry.maxTentativas:10}") int maximoTentativas,
+            @Value("${zookeeper.retry.maxEsperaMs:5000}") int esperaMaxima) {
+        CuratorFramework curator = CuratorFrameworkFactory.builder()
+                .connectString(enderecoZooKeeper)
+                .sessionTimeoutMs(sessionTimeout)
+                .connectionTimeoutMs(timeoutLigacao)
+                .retryPolicy(new ExponentialBackoffRetry(esperaBase, maximoTentativas, esperaMaxima))
+                .build();
+        curator.start();
+        return curator;
     }
 }
@@ -0,0 +1,196 @@
+package com.example.chat_hub.config;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketSession;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Distribui o envio de um frame por um conjunto limitado de workers.
+ *
+ * Cada sessão tem a sua fila de frames por enviar, esvaziada por um único
+ * worker de cada vez, o que mantém a ordem dos frames por sessão. Uma sessão
+ * parada num envio ocupa apenas o worker que a está a esvaziar: as outras
+ * sessões continuam a ser servidas pelos restantes.
+ *
+ * Quem publica nunca fica bloqueado. Uma sessão com mais de
+ * {@code limitePendentes} frames por enviar, ou com um envio em curso há mais
+ * de {@code tempoLimiteMs}, é fechada e os frames seguintes descartados para
+ * ela: o cliente volta a ligar e pede as mensagens em falta
+ * com 'desde', em vez de ficar com um buraco silencioso no histórico. As
+ * outras sessões não são afetadas.
+ */
+public class EnvioParalelo {
+
+    private static final Logger logger = LoggerFactory.getLogger(EnvioParalelo.class);
+
+    // Frames enviados a uma sessão antes de o worker passar a vez às outras
+    private static final int FRAMES_POR_VEZ = 64;
+
+    private final ExecutorService workers;
+    // Um só fecho de cada vez: pode esperar pelo envio que está parado
+    private final ExecutorService fechos;
+    private final int limitePendentes;
+    private final long tempoLimiteNanos;
+    private final Map<String, Destino> destinos = new ConcurrentHashMap<>();
+    // Sessões com o fecho já pedido, para não pedir um fecho por frame descartado
+    private final Set<String> aFechar = ConcurrentHashMap.newKeySet();
+    private final AtomicLong descartados = new AtomicLong();
+    private final AtomicLong sessoesFechadas = new AtomicLong();
+
+    public EnvioParalelo(int numeroWorkers, int limitePendentes, long tempoLimiteMs, ThreadFactory fabricaThreads) {
+        this.workers = Executors.newFixedThreadPool(Math.max(1, numeroWorkers), fabricaThreads);
+        this.fechos = Executors.newSingleThreadExecutor(fabricaThreads);
+        this.limitePendentes = Math.max(1, limitePendentes);
+        this.tempoLimiteNanos = TimeUnit.MILLISECONDS.toNanos(tempoLimiteMs);
+    }
+
+    public void enviar(Collection<WebSocketSession> destinatarios, TextMessage frame) {
+        for (WebSocketSession session : destinatarios) {
+            if (!session.isOpen()) {
+                continue;
+            }
+            Destino destino = destinos.computeIfAbsent(session.getId(), id -> new Destino(session));
+            if (destino.envioParado()) {
+                descartados.incrementAndGet();
+                fecharLenta(session, "com um envio parado há mais de "
+                        + TimeUnit.NANOSECONDS.toMillis(tempoLimiteNanos) + " ms");
+                continue;
+            }
+            if (destino.pendentes.incrementAndGet() > limitePendentes) {
+                destino.pendentes.decrementAndGet();
+                descartados.incrementAndGet();
+                fecharLenta(session, "com mais de " + limitePendentes + " frames por enviar");
+                continue;
+            }
+            destino.frames.add(frame);
+            agendar(destino);
+        }
+    }
+
+    /**
+     * Esquece a fila de uma sessão desligada; os frames ainda por enviar são
+     * descartados pelo worker quando a encontrar fechada.
+     */
+    public void remover(WebSocketSession session) {
+        destinos.remove(session.getId());
+    }
+
+    private void agendar(Destino destino) {
+        if (!destino.agendado.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            workers.execute(() -> esvaziar(destino));
+        } catch (RejectedExecutionException e) {
+            // Em encerramento
+            destino.agendado.set(false);
+        }
+    }
+
+    // Só um worker de cada vez esvazia a fila de uma sessão
+    private void esvaziar(Destino destino) {
+        WebSocketSession session = destino.session;
+        for (int enviados = 0; enviados < FRAMES_POR_VEZ; enviados++) {
+            TextMessage frame = destino.frames.poll();
+            if (frame == null) {
+                break;
+            }
+            try {
+                if (session.isOpen()) {
+                    destino.inicioEnvio = System.nanoTime();
+                    session.sendMessage(frame);
+                }
+            } catch (IOException | RuntimeException e) {
+                logger.error("WebS - Erro ao enviar frame para a sessão " + session.getId(), e);
+            } finally {
+                destino.inicioEnvio = 0;
+                destino.pendentes.decrementAndGet();
+            }
+        }
+        if (!session.isOpen()) {
+            destinos.remove(session.getId(), destino);
+        }
+        destino.agendado.set(false);
+        // Um frame acrescentado entre o último poll e a libertação ficava esquecido
+        if (!destino.frames.isEmpty()) {
+            agendar(destino);
+        }
+    }
+
+    private void fecharLenta(WebSocketSession session, String motivo) {
+        if (!session.isOpen() || !aFechar.add(session.getId())) {
+            return;
+        }
+        logger.warn("WebS - Sessão " + motivo + ", a fechar a sessão " + session.getId());
+        try {
+            fechos.execute(() -> {
+                try {
+                    session.close(CloseStatus.SESSION_NOT_RELIABLE);
+                    sessoesFechadas.incrementAndGet();
+                } catch (IOException | RuntimeException e) {
+                    logger.error("WebS - Erro ao fechar a sessão lenta " + session.getId(), e);
+                } finally {
+                    aFechar.remove(session.getId());
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            aFechar.remove(session.getId());
+        }
+    }
+
+    public long descartados() {
+        return descartados.get();
+    }
+
+    public long sessoesFechadas() {
+        return sessoesFechadas.get();
+    }
+
+    public void encerrar() {
+        workers.shutdown();
+        fechos.shutdown();
+        try {
+            workers.awaitTermination(5, TimeUnit.SECONDS);
+            fechos.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private final class Destino {
+        private final WebSocketSession session;
+        private final Queue<TextMessage> frames = new ConcurrentLinkedQueue<>();
+        // Frames aceites para a sessão e ainda não enviados (na fila ou em envio)
+        private final AtomicInteger pendentes = new AtomicInteger();
+        private final AtomicBoolean agendado = new AtomicBoolean();
+        // Instante em que começou o envio em curso (0 sem envio)
+        private volatile long inicioEnvio;
+
+        private Destino(WebSocketSession session) {
+            this.session = session;
+        }
+
+        private boolean envioParado() {
+            long inicio = inicioEnvio;
+            return inicio != 0 && System.nanoTime() - inicio > tempoLimiteNanos;
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package com.example.chat_hub.config;
+
+import org.springframework.core.task.VirtualThreadTaskExecutor;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Cria as threads dos executores internos (envio pelo WebSocket, despacho
+ * dos eventos do ZooKeeper).
+ *
+ * Com spring.threads.virtual.enabled=true e um runtime Java 21 ou superior
+ * as threads são virtuais, tal como as do Tomcat; caso contrário são threads
+ * de plataforma daemon. O código continua a compilar para Java 17: as threads
+ * virtuais são obtidas através do {@link VirtualThreadTaskExecutor} do Spring.
+ */
+public final class FabricaThreads {
+
+    private FabricaThreads() {
+    }
+
+    public static boolean virtuaisDisponiveis(boolean pedidas) {
+        return pedidas && Runtime.version().feature() >= 21;
+    }
+
+    public static ThreadFactory criar(String prefixo, boolean virtuais) {
+        if (virtuais) {
+            return new VirtualThreadTaskExecutor(prefixo).getVirtualThreadFactory();
+        }
+        AtomicInteger contador = new AtomicInteger();
+        return tarefa -> {
+            Thread thread = new Thread(tarefa, prefixo + contador.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
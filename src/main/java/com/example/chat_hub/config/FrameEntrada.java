@@ -0,0 +1,80 @@
+package com.example.chat_hub.config;
+
+import com.fasterxml.jackson.annotation.JsonAlias;
+
+/**
+ * Frame recebido de um cliente pelo WebSocket.
+ *
+ * Tipos suportados:
+ * <ul>
+ * <li>{@code login}: confirma o utilizador {@code username}; a sessão é
+ * associada no handshake ao utilizador autenticado e é fechada se o nome for
+ * outro;</li>
+ * <li>{@code enviar}: envia {@code conteudo} para a {@code sala}; a resposta
+ * ({@code mensagem_confirmada} ou {@code mensagem_rejeitada}) traz o mesmo
+ * {@code idCliente};</li>
+ * <li>{@code subscrever}: passa a receber os eventos da {@code sala}; com
+ * {@code desde}, recebe também, num frame {@code mensagens_em_falta}, as
+ * mensagens com sequência superior;</li>
+ * <li>{@code cancelar_subscricao}: deixa de receber os eventos da sala.</li>
+ * </ul>
+ */
+public class FrameEntrada {
+
+    @JsonAlias("type")
+    private String tipo;
+    private String username;
+    private String sala;
+    private String conteudo;
+    private String idCliente;
+    private Long desde;
+
+    // Getters e setters
+    public String getTipo() {
+        return tipo;
+    }
+
+    public void setTipo(String tipo) {
+        this.tipo = tipo;
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    public void setUsername(String username) {
+        this.username = username;
+    }
+
+    public String getSala() {
+        return sala;
+    }
+
+    public void setSala(String sala) {
+        this.sala = sala;
+    }
+
+    public String getConteudo() {
+        return conteudo;
+    }
+
+    public void setConteudo(String conteudo) {
+        this.conteudo = conteudo;
+    }
+
+    public String getIdCliente() {
+        return idCliente;
+    }
+
+    public void setIdCliente(String idCliente) {
+        this.idCliente = idCliente;
+    }
+
+    public Long getDesde() {
+        return desde;
+    }
+
+    public void setDesde(Long desde) {
+        this.desde = desde;
+    }
+}
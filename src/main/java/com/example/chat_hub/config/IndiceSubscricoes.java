@@ -0,0 +1,114 @@
+package com.example.chat_hub.config;
+
+import org.springframework.web.socket.WebSocketSession;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Índice de subscrições do WebSocket.
+ *
+ * Associa cada sala aos seus participantes (preenchido a partir de
+ * /chats/&lt;sala&gt;/participantes) e às sessões que a subscreveram
+ * explicitamente. As sessões de cada utilizador vêm do {@link RegistoSessoes}.
+ * Permite enviar um evento de sala apenas a quem pertence à sala.
+ */
+public class IndiceSubscricoes {
+
+    private final Map<String, Set<String>> participantesPorSala = new ConcurrentHashMap<>();
+    private final Map<String, Set<WebSocketSession>> subscricoesPorSala = new ConcurrentHashMap<>();
+    private final RegistoSessoes registoSessoes;
+
+    public IndiceSubscricoes(RegistoSessoes registoSessoes) {
+        this.registoSessoes = registoSessoes;
+    }
+
+    // -- -- -- -- -- -- -- -- -- Participantes -- -- -- -- -- -- -- -- -- -- -- //
+
+    public void definirParticipantes(String sala, Collection<String> participantes) {
+        Set<String> novos = ConcurrentHashMap.newKeySet();
+        novos.addAll(participantes);
+        participantesPorSala.put(sala, novos);
+    }
+
+    public void adicionarParticipante(String sala, String utilizador) {
+        participantesPorSala.computeIfAbsent(sala, s -> ConcurrentHashMap.newKeySet()).add(utilizador);
+    }
+
+    public void removerParticipante(String sala, String utilizador) {
+        Set<String> participantes = participantesPorSala.get(sala);
+        if (participantes != null) {
+            participantes.remove(utilizador);
+        }
+    }
+
+    public void removerSala(String sala) {
+        participantesPorSala.remove(sala);
+        subscricoesPorSala.remove(sala);
+    }
+
+    // -- -- -- -- -- -- -- -- -- Sessões -- -- -- -- -- -- -- -- -- -- -- //
+
+    public void subscrever(String sala, WebSocketSession session) {
+        subscricoesPorSala.computeIfAbsent(sala, s -> ConcurrentHashMap.newKeySet()).add(session);
+    }
+
+    public void cancelarSubscricao(String sala, WebSocketSession session) {
+        Set<WebSocketSession> subscritores = subscricoesPorSala.get(sala);
+        if (subscritores != null) {
+            subscritores.remove(session);
+        }
+    }
+
+    public void removerSessao(WebSocketSession session) {
+        subscricoesPorSala.values().forEach(subscritores -> subscritores.remove(session));
+    }
+
+    // -- -- -- -- -- -- -- -- -- Leitura -- -- -- -- -- -- -- -- -- -- -- //
+
+    /**
+     * Devolve as sessões que devem receber os eventos de uma sala: as sessões
+     * dos participantes mais as que a subscreveram explicitamente, sem
+     * repetições.
+     */
+    public Collection<WebSocketSession> destinatarios(String sala) {
+        Set<WebSocketSession> destinatarios = new LinkedHashSet<>();
+        Set<String> participantes = participantesPorSala.get(sala);
+        if (participantes != null) {
+            for (String participante : participantes) {
+                destinatarios.addAll(registoSessoes.sessoesDoUtilizador(participante));
+            }
+        }
+        Set<WebSocketSession> subscritores = subscricoesPorSala.get(sala);
+        if (subscritores != null) {
+            destinatarios.addAll(subscritores);
+        }
+        return destinatarios;
+    }
+
+    /**
+     * Salas com pelo menos um destinatário neste nó: um participante com
+     * sessão aberta ou uma subscrição explícita.
+     */
+    public Set<String> salasComDestinatarios() {
+        Set<String> salas = new HashSet<>();
+        participantesPorSala.forEach((sala, participantes) -> {
+            for (String participante : participantes) {
+                if (!registoSessoes.sessoesDoUtilizador(participante).isEmpty()) {
+                    salas.add(sala);
+                    break;
+                }
+            }
+        });
+        subscricoesPorSala.forEach((sala, subscritores) -> {
+            if (!subscritores.isEmpty()) {
+                salas.add(sala);
+            }
+        });
+        return salas;
+    }
+}
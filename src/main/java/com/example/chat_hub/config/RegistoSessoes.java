@@ -0,0 +1,122 @@
+package com.example.chat_hub.config;
+
+import org.springframework.web.socket.WebSocketSession;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Registo concorrente das sessões WebSocket, dividido em fragmentos para
+ * reduzir a contenção entre as threads do Tomcat e as do ZooKeeper.
+ *
+ * Cada sessão é guardada pelo seu id e, depois do login, também pelo nome do
+ * utilizador. Um utilizador pode ter várias sessões abertas (vários
+ * separadores ou dispositivos).
+ */
+public class RegistoSessoes {
+
+    private final Fragmento[] fragmentos;
+    private final int mascara;
+
+    public RegistoSessoes() {
+        this(Runtime.getRuntime().availableProcessors() * 2);
+    }
+
+    public RegistoSessoes(int numeroFragmentos) {
+        int tamanho = Integer.highestOneBit(Math.max(1, numeroFragmentos - 1)) << 1;
+        this.fragmentos = new Fragmento[tamanho];
+        for (int i = 0; i < tamanho; i++) {
+            fragmentos[i] = new Fragmento();
+        }
+        this.mascara = tamanho - 1;
+    }
+
+    public int numeroFragmentos() {
+        return fragmentos.length;
+    }
+
+    public int indiceFragmento(String chave) {
+        int h = chave.hashCode();
+        return (h ^ (h >>> 16)) & mascara;
+    }
+
+    // -- -- -- -- -- -- -- -- -- Escrita -- -- -- -- -- -- -- -- -- -- -- //
+
+    public void registar(WebSocketSession session) {
+        fragmentos[indiceFragmento(session.getId())].porId.put(session.getId(), session);
+    }
+
+    /**
+     * Associa a sessão ao utilizador e guarda o nome no atributo "username".
+     * Se a sessão já estava associada a outro utilizador, deixa de estar: uma
+     * sessão pertence a um só utilizador.
+     */
+    public void associar(String utilizador, WebSocketSession session) {
+        Object anterior = session.getAttributes().put("username", utilizador);
+        if (anterior != null && !anterior.equals(utilizador)) {
+            desassociar((String) anterior, session);
+        }
+        fragmentos[indiceFragmento(utilizador)].porUtilizador
+                .computeIfAbsent(utilizador, u -> ConcurrentHashMap.newKeySet())
+                .add(session);
+    }
+
+    /**
+     * Remove a sessão do registo e devolve a instância que estava registada
+     * (pode ser um decorador da sessão recebida).
+     */
+    public WebSocketSession remover(String sessionId) {
+        WebSocketSession registada = fragmentos[indiceFragmento(sessionId)].porId.remove(sessionId);
+        if (registada == null) {
+            return null;
+        }
+        String utilizador = (String) registada.getAttributes().get("username");
+        if (utilizador != null) {
+            desassociar(utilizador, registada);
+        }
+        return registada;
+    }
+
+    private void desassociar(String utilizador, WebSocketSession session) {
+        fragmentos[indiceFragmento(utilizador)].porUtilizador.computeIfPresent(utilizador, (u, sessoes) -> {
+            sessoes.remove(session);
+            return sessoes.isEmpty() ? null : sessoes;
+        });
+    }
+
+    // -- -- -- -- -- -- -- -- -- Leitura -- -- -- -- -- -- -- -- -- -- -- //
+
+    public WebSocketSession obter(String sessionId) {
+        return fragmentos[indiceFragmento(sessionId)].porId.get(sessionId);
+    }
+
+    public Set<WebSocketSession> sessoesDoUtilizador(String utilizador) {
+        Set<WebSocketSession> sessoes = fragmentos[indiceFragmento(utilizador)].porUtilizador.get(utilizador);
+        return sessoes != null ? sessoes : Collections.emptySet();
+    }
+
+    public List<WebSocketSession> todas() {
+        List<WebSocketSession> todas = new ArrayList<>(tamanho());
+        for (Fragmento fragmento : fragmentos) {
+            todas.addAll(fragmento.porId.values());
+        }
+        return todas;
+    }
+
+    public int tamanho() {
+        int total = 0;
+        for (Fragmento fragmento : fragmentos) {
+            total += fragmento.porId.size();
+        }
+        return total;
+    }
+
+    private static final class Fragmento {
+        private final Map<String, WebSocketSession> porId = new ConcurrentHashMap<>();
+        private final Map<String, Set<WebSocketSession>> porUtilizador = new ConcurrentHashMap<>();
+    }
+}
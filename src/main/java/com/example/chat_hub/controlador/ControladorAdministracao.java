@@ -0,0 +1,94 @@
+package com.example.chat_hub.controlador;
+
+import com.example.chat_hub.zookeeper.GerenciadorZooKeeper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+
+/**
+ * Operações de administração. O reset apaga todos os dados e só está
+ * disponível com administracao.reset.ativo=true. A expiração forçada da
+ * sessão do ZooKeeper serve para medir a recuperação do nó e só está
+ * disponível com administracao.expirarSessao.ativo=true.
+ *
+ * Todos os pedidos têm de trazer o token de administracao.token no cabeçalho
+ * {@value #CABECALHO_TOKEN}; sem token configurado são todos recusados.
+ */
+@RestController
+@RequestMapping("/api/admin")
+public class ControladorAdministracao {
+
+    private static final Logger logger = LoggerFactory.getLogger(ControladorAdministracao.class);
+
+    public static final String CABECALHO_TOKEN = "X-Admin-Token";
+
+    @Autowired
+    private GerenciadorZooKeeper gerenciadorZooKeeper;
+
+    @Value("${administracao.reset.ativo:false}")
+    private boolean resetAtivo;
+
+    @Value("${administracao.expirarSessao.ativo:false}")
+    private boolean expirarSessaoAtivo;
+
+    @Value("${administracao.token:}")
+    private String token;
+
+    @PostMapping("/reset")
+    public ResponseEntity<String> resetarBasesDeDados(
+            @RequestHeader(value = CABECALHO_TOKEN, required = false) String tokenPedido) {
+        if (!autorizado(tokenPedido)) {
+            return recusar("reset");
+        }
+        if (!resetAtivo) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).body("Reset desativado.");
+        }
+        logger.warn("Controlador - Reset das bases de dados pedido.");
+        gerenciadorZooKeeper.resetarBasesDeDados();
+        return ResponseEntity.ok("Bases de dados apagadas.");
+    }
+
+    @PostMapping("/expirar-sessao")
+    public ResponseEntity<String> expirarSessao(
+            @RequestHeader(value = CABECALHO_TOKEN, required = false) String tokenPedido) {
+        if (!autorizado(tokenPedido)) {
+            return recusar("expirar-sessao");
+        }
+        if (!expirarSessaoAtivo) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).body("Expiração de sessão desativada.");
+        }
+        logger.warn("Controlador - Expiração da sessão do ZooKeeper pedida.");
+        try {
+            long sessao = gerenciadorZooKeeper.expirarSessao();
+            return ResponseEntity.ok("Sessão 0x" + Long.toHexString(sessao)
+                    + " expirada; tempo de recuperação em /api/metricas (zookeeper.ligacao).");
+        } catch (Exception e) {
+            logger.error("Controlador - Erro ao expirar a sessão do ZooKeeper", e);
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).body("Não foi possível expirar a sessão.");
+        }
+    }
+
+    // Comparação em tempo constante, para o token não poder ser adivinhado pela latência
+    private boolean autorizado(String tokenPedido) {
+        if (token == null || token.isEmpty() || tokenPedido == null) {
+            return false;
+        }
+        return MessageDigest.isEqual(token.getBytes(StandardCharsets.UTF_8),
+                tokenPedido.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private ResponseEntity<String> recusar(String operacao) {
+        logger.warn("Controlador - Pedido de administração (" + operacao + ") sem token válido recusado.");
+        return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body("Token de administração inválido.");
+    }
+}
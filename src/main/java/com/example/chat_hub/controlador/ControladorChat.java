@@ -6,11 +6,15 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
-import com.example.chat_hub.modelo.Mensagem;
+import com.example.chat_hub.config.ConfiguracaoWebSocket;
+import com.example.chat_hub.modelo.InstantaneoPresenca;
+import com.example.chat_hub.modelo.PaginaMensagens;
 import com.example.chat_hub.servico.ServicoChat;
+import com.example.chat_hub.servico.ServicoSobrecarregadoException;
 import com.example.chat_hub.servico.ServicoUtilizador;
 import com.example.chat_hub.zookeeper.GerenciadorZooKeeper;
 import org.springframework.web.servlet.mvc.support.RedirectAttributes;
+import jakarta.servlet.http.HttpSession;
 
 import java.util.List;
 import java.util.Map;
@@ -30,6 +34,8 @@ public class ControladorChat {
 
     private static final Logger logger = LoggerFactory.getLogger(ControladorChat.class);
 
+    private static final int LIMITE_MAXIMO_MENSAGENS = 500;
+
     @PostMapping("/criarChat")
     public void criarSala(@RequestBody Map<String, Object> payload) {
         logger.info("Controlador - Recebido pedido para criar chat com payload: {}", payload);
@@ -65,20 +71,34 @@ public class ControladorChat {
         }
     }
 
+    // Responde 202 assim que a mensagem entra na pipeline; o remetente recebe
+    // depois um frame mensagem_confirmada pelo WebSocket. O remetente é o
+    // utilizador autenticado na sessão HTTP, nunca o indicado no pedido
     @PostMapping("/mensagem")
-    public ResponseEntity<String> adicionarMensagem(@RequestBody Map<String, Object> payload) {
+    public ResponseEntity<?> adicionarMensagem(@RequestBody Map<String, Object> payload, HttpSession sessao) {
         String sala = (String) payload.get("nomeSala");
         String mensagem = (String) payload.get("conteudo");
-        String nomeUtilizador = (String) payload.get("remetente");
-        String dataCriacao = (String) payload.get("dataCriacao");
+        String nomeUtilizador = (String) sessao.getAttribute(ConfiguracaoWebSocket.UTILIZADOR_AUTENTICADO);
+        if (nomeUtilizador == null) {
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body("Sessão não autenticada.");
+        }
+        Object remetente = payload.get("remetente");
+        if (remetente != null && !nomeUtilizador.equals(remetente)) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).body("Remetente diferente do utilizador autenticado.");
+        }
 
-        if (sala == null || mensagem == null || nomeUtilizador == null || dataCriacao == null) {
+        // A data de criação é atribuída pelo servidor; a enviada pelo cliente é ignorada
+        if (sala == null || mensagem == null) {
             return ResponseEntity.badRequest().body("Parâmetros ausentes.");
         }
 
         try {
-            servicoChat.adicionarMensagem(sala, mensagem, nomeUtilizador, dataCriacao);
-            return ResponseEntity.ok("Controlador - Mensagem enviada com sucesso.");
+            String id = servicoChat.adicionarMensagem(sala, mensagem, nomeUtilizador);
+            return ResponseEntity.status(HttpStatus.ACCEPTED).body(Map.of("id", id, "nomeSala", sala));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
+        } catch (ServicoSobrecarregadoException e) {
+            throw e;
         } catch (Exception e) {
             logger.error("Controlador - Erro ao adicionar mensagem", e);
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
@@ -121,8 +141,11 @@ public class ControladorChat {
     }
 
     @PostMapping("/logout")
-    public String logout(@RequestParam String utilizador, RedirectAttributes redirectAttributes) {
+    public String logout(@RequestParam String utilizador, HttpSession sessao,
+            RedirectAttributes redirectAttributes) {
         servicoUtilizador.alterarEstado(utilizador, "offline");
+        // As novas ligações WebSocket desta sessão HTTP deixam de ser aceites
+        sessao.removeAttribute(ConfiguracaoWebSocket.UTILIZADOR_AUTENTICADO);
 
         redirectAttributes.addFlashAttribute("mensagem", "Até à próxima, " + utilizador + "!");
         redirectAttributes.addFlashAttribute("mensagemTipo", "sucesso");
@@ -144,15 +167,23 @@ public class ControladorChat {
         return ResponseEntity.ok(utilizadoresOffline);
     }
 
+    @GetMapping("/utilizadores/presenca")
+    public InstantaneoPresenca getPresencaUtilizadores() {
+        return servicoUtilizador.instantaneoPresenca();
+    }
+
     @GetMapping("/salas/utilizador")
     public List<String> listarSalasAtiva(String nomeUtilizador) {
         return servicoChat.carregarSalasAtivas(nomeUtilizador);
     }
 
     @GetMapping("/mensagens")
-    public List<Mensagem> listarMensagens(@RequestParam String nomeSala) {
-        return servicoChat.carregarMensagens(nomeSala);
-
+    public PaginaMensagens listarMensagens(@RequestParam String nomeSala,
+            @RequestParam(required = false) Long antes,
+            @RequestParam(required = false) Long depois,
+            @RequestParam(defaultValue = "50") int limite) {
+        int limiteEfetivo = Math.max(1, Math.min(limite, LIMITE_MAXIMO_MENSAGENS));
+        return servicoChat.carregarMensagens(nomeSala, antes, depois, limiteEfetivo);
     }
 
 }
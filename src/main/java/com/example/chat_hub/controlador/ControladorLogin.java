@@ -1,7 +1,10 @@
 package com.example.chat_hub.controlador;
 
+import com.example.chat_hub.config.ConfiguracaoWebSocket;
 import com.example.chat_hub.servico.ServicoUtilizador;
+import jakarta.servlet.http.HttpSession;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PostMapping;
@@ -9,31 +12,44 @@ import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.servlet.mvc.support.RedirectAttributes;
 import org.springframework.ui.Model;
 
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
 @Controller
 public class ControladorLogin {
 
     @Autowired
     private ServicoUtilizador servicoUtilizador;
 
+    @Autowired
+    @Qualifier("applicationTaskExecutor")
+    private Executor executorPedidos;
+
     @GetMapping("/login")
     public String mostrarPaginaDeLogin() {
         return "login";
     }
 
+    // Processado de forma assíncrona: a thread do Tomcat fica livre enquanto o bcrypt
+    // corre, e a escrita do estado no ZooKeeper segue no executor dos pedidos
     @PostMapping("/login")
-    public String login(
+    public CompletableFuture<String> login(
             @RequestParam String nomeUtilizador,
             @RequestParam String senha,
+            HttpSession sessao,
             RedirectAttributes redirectAttributes) {
-        boolean isValidUser = servicoUtilizador.validarUsuario(nomeUtilizador, senha);
-        if (isValidUser) {
-            servicoUtilizador.alterarEstado(nomeUtilizador, "online");
-            redirectAttributes.addFlashAttribute("nomeUtilizador", nomeUtilizador);
-            return "redirect:/dashboard?nomeUtilizador=" + nomeUtilizador;
-        }
-        redirectAttributes.addFlashAttribute("mensagem", "Credenciais inválidas. Por favor, tente novamente.");
-        redirectAttributes.addFlashAttribute("mensagemTipo", "erro");
-        return "redirect:/login";
+        return servicoUtilizador.validarUsuario(nomeUtilizador, senha).thenApplyAsync(isValidUser -> {
+            if (isValidUser) {
+                // Identidade usada pelo WebSocket no handshake
+                sessao.setAttribute(ConfiguracaoWebSocket.UTILIZADOR_AUTENTICADO, nomeUtilizador);
+                servicoUtilizador.alterarEstado(nomeUtilizador, "online");
+                redirectAttributes.addFlashAttribute("nomeUtilizador", nomeUtilizador);
+                return "redirect:/dashboard?nomeUtilizador=" + nomeUtilizador;
+            }
+            redirectAttributes.addFlashAttribute("mensagem", "Credenciais inválidas. Por favor, tente novamente.");
+            redirectAttributes.addFlashAttribute("mensagemTipo", "erro");
+            return "redirect:/login";
+        }, executorPedidos);
     }
 
     @GetMapping("/dashboard")
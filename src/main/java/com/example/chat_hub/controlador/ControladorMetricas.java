@@ -0,0 +1,68 @@
+package com.example.chat_hub.controlador;
+
+import com.example.chat_hub.armazenamento.CacheMensagensRecentes;
+import com.example.chat_hub.cluster.BarramentoNos;
+import com.example.chat_hub.cluster.DistribuicaoSalas;
+import com.example.chat_hub.config.ConfiguracaoWebSocket;
+import com.example.chat_hub.repositorio.DiretorioUtilizadores;
+import com.example.chat_hub.servico.IngestaoMensagens;
+import com.example.chat_hub.servico.ServicoHashSenhas;
+import com.example.chat_hub.zookeeper.AgregadorPresenca;
+import com.example.chat_hub.zookeeper.GerenciadorZooKeeper;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Expõe as métricas internas da aplicação em JSON.
+ */
+@RestController
+@RequestMapping("/api/metricas")
+public class ControladorMetricas {
+
+    @Autowired
+    private GerenciadorZooKeeper gerenciadorZooKeeper;
+
+    @Autowired
+    private AgregadorPresenca agregadorPresenca;
+
+    @Autowired
+    private ServicoHashSenhas servicoHashSenhas;
+
+    @Autowired
+    private IngestaoMensagens ingestaoMensagens;
+
+    @Autowired
+    private ConfiguracaoWebSocket configuracaoWebSocket;
+
+    @Autowired
+    private CacheMensagensRecentes cacheMensagens;
+
+    @Autowired
+    private DiretorioUtilizadores diretorioUtilizadores;
+
+    @Autowired
+    private BarramentoNos barramentoNos;
+
+    @Autowired
+    private DistribuicaoSalas distribuicaoSalas;
+
+    @GetMapping
+    public Map<String, Object> metricas() {
+        Map<String, Object> metricas = new LinkedHashMap<>();
+        metricas.put("zookeeper", gerenciadorZooKeeper.metricasWatches());
+        metricas.put("presenca", agregadorPresenca.metricas());
+        metricas.put("senhas", servicoHashSenhas.metricas());
+        metricas.put("ingestao", ingestaoMensagens.metricas());
+        metricas.put("websocket", configuracaoWebSocket.metricas());
+        metricas.put("cacheMensagens", cacheMensagens.metricas());
+        metricas.put("utilizadores", diretorioUtilizadores.metricas());
+        metricas.put("cluster", barramentoNos.metricas());
+        metricas.put("distribuicaoSalas", distribuicaoSalas.metricas());
+        return metricas;
+    }
+}
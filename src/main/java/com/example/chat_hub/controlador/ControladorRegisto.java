@@ -8,6 +8,8 @@ import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.servlet.mvc.support.RedirectAttributes;
 
+import java.util.concurrent.CompletableFuture;
+
 /**
  * A classe ControladorRegisto gere as operações relacionadas ao registo de
  * utilizadores.
@@ -35,16 +37,18 @@ public class ControladorRegisto {
      * @param senha              a senha do utilizador.
      * @param redirectAttributes atributos de redirecionamento para exibir
      *                           mensagens.
-     * @return o redirecionamento para a página inicial.
+     * @return o redirecionamento para a página inicial, depois de o hash da
+     *         senha ser calculado fora da thread do pedido.
      */
     @PostMapping("/registrar")
-    public String registo(@RequestParam String nomeUtilizador, @RequestParam String senha,
+    public CompletableFuture<String> registo(@RequestParam String nomeUtilizador, @RequestParam String senha,
             RedirectAttributes redirectAttributes) {
-        servicoUtilizador.registo(nomeUtilizador, senha);
-        redirectAttributes.addFlashAttribute("mensagem",
-                "Registro bem-sucedido! Bem-vindo ao ChatHub, " + nomeUtilizador + "!");
-        redirectAttributes.addFlashAttribute("mensagemTipo", "sucesso");
-        return "redirect:/login";
+        return servicoUtilizador.registo(nomeUtilizador, senha).thenApply(nada -> {
+            redirectAttributes.addFlashAttribute("mensagem",
+                    "Registro bem-sucedido! Bem-vindo ao ChatHub, " + nomeUtilizador + "!");
+            redirectAttributes.addFlashAttribute("mensagemTipo", "sucesso");
+            return "redirect:/login";
+        });
     }
 
     /**
@@ -52,16 +56,18 @@ public class ControladorRegisto {
      *
      * @param nomeUtilizador o nome do utilizador.
      * @param novaSenha      a nova senha do utilizador.
-     * @return o redirecionamento para a página inicial.
+     * @return o redirecionamento para a página inicial, depois de o hash da
+     *         senha ser calculado fora da thread do pedido.
      */
     @PostMapping("/alterar-registro")
-    public String alterarRegistro(@RequestParam String nomeUtilizador, @RequestParam String novaSenha,
-            RedirectAttributes redirectAttributes) {
-        servicoUtilizador.alterarSenha(nomeUtilizador, novaSenha);
-        redirectAttributes.addFlashAttribute("mensagem",
-                "Senha alterada com sucesso para o utilizador " + nomeUtilizador + "!");
-        redirectAttributes.addFlashAttribute("mensagemTipo", "sucesso");
-        return "redirect:/";
+    public CompletableFuture<String> alterarRegistro(@RequestParam String nomeUtilizador,
+            @RequestParam String novaSenha, RedirectAttributes redirectAttributes) {
+        return servicoUtilizador.alterarSenha(nomeUtilizador, novaSenha).thenApply(nada -> {
+            redirectAttributes.addFlashAttribute("mensagem",
+                    "Senha alterada com sucesso para o utilizador " + nomeUtilizador + "!");
+            redirectAttributes.addFlashAttribute("mensagemTipo", "sucesso");
+            return "redirect:/";
+        });
     }
 
     /**
@@ -0,0 +1,23 @@
+package com.example.chat_hub.controlador;
+
+import com.example.chat_hub.servico.ServicoSobrecarregadoException;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.ControllerAdvice;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+
+/**
+ * Responde com 503 e Retry-After aos pedidos recusados por falta de
+ * capacidade, para que o cliente volte a tentar mais tarde.
+ */
+@ControllerAdvice
+public class TratadorSobrecarga {
+
+    @ExceptionHandler(ServicoSobrecarregadoException.class)
+    public ResponseEntity<String> sobrecarga(ServicoSobrecarregadoException e) {
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .header(HttpHeaders.RETRY_AFTER, Integer.toString(e.getSegundosAteNovaTentativa()))
+                .body(e.getMessage());
+    }
+}
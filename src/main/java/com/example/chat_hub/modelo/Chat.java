@@ -1,6 +1,7 @@
 package com.example.chat_hub.modelo;
 
 import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.Indexed;
 import org.springframework.data.mongodb.core.mapping.Document;
 
 import java.util.ArrayList;
@@ -10,9 +11,11 @@ import java.util.List;
 public class Chat {
     @Id
     private String id;
+    @Indexed(name = "nomeSala")
     private String nomeSala;
     private String criador;
     private String estado;
+    @Indexed(name = "participantes") // Índice multikey: uma entrada por participante
     private List<String> participantes = new ArrayList<>();
     private List<Mensagem> mensagens = new ArrayList<>();
 
@@ -0,0 +1,42 @@
+package com.example.chat_hub.modelo;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * O estado de todos os utilizadores numa dada versão da tabela de presença.
+ *
+ * Os clientes carregam o instantâneo e aplicam depois os deltas
+ * {@code presenca} recebidos pelo WebSocket cuja {@code versaoBase} coincide
+ * com a versão que têm.
+ */
+public class InstantaneoPresenca {
+
+    private long versao;
+    private Map<String, String> estados = new HashMap<>();
+
+    public InstantaneoPresenca() {
+    }
+
+    public InstantaneoPresenca(long versao, Map<String, String> estados) {
+        this.versao = versao;
+        this.estados = estados;
+    }
+
+    // Getters e setters
+    public long getVersao() {
+        return versao;
+    }
+
+    public void setVersao(long versao) {
+        this.versao = versao;
+    }
+
+    public Map<String, String> getEstados() {
+        return estados;
+    }
+
+    public void setEstados(Map<String, String> estados) {
+        this.estados = estados;
+    }
+}
@@ -1,10 +1,21 @@
 package com.example.chat_hub.modelo;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import org.springframework.data.annotation.Id;
+import org.springframework.data.annotation.Transient;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.index.CompoundIndexes;
 import org.springframework.data.mongodb.core.mapping.Document;
-import java.time.LocalDateTime;
+import java.time.Instant;
 
 @Document(collection = "mensagens")
+// sala_data serve as consultas por intervalo de tempo; sala_sequencia as páginas de
+// histórico lidas do MongoDB nos nós que não são donos da sala e, por ser único,
+// impede que dois nós gravem mensagens diferentes com a mesma sequência
+@CompoundIndexes({
+        @CompoundIndex(name = "sala_data", def = "{'nomeSala': 1, 'dataCriacao': 1}"),
+        @CompoundIndex(name = "sala_sequencia", def = "{'nomeSala': 1, 'sequencia': 1}", unique = true)
+})
 public class Mensagem {
 
     @Id
@@ -12,7 +23,16 @@ public class Mensagem {
     private String conteudo;
     private String nomeSala;
     private String remetente;
-    private String dataCriacao;
+    private Instant dataCriacao; // Atribuída pelo servidor
+    private Long sequencia;
+    @Transient // Correlação do cliente que a enviou; não é gravada no MongoDB
+    private String idCliente;
+    @Transient
+    @JsonIgnore // Nó que recebeu a mensagem, quando foi encaminhada para o dono da sala
+    private String noOrigem;
+    // Lápide de uma sequência reservada cuja mensagem não chegou a ser gravada:
+    // mantém o histórico contíguo e nunca é mostrada aos clientes
+    private boolean anulada;
 
     // Getters e setters
     public String getId() {
@@ -47,12 +67,44 @@ public class Mensagem {
         this.remetente = remetente;
     }
 
-    public String getDataCriacao() {
+    public Instant getDataCriacao() {
         return dataCriacao;
     }
 
-    public void setDataCriacao(String dataCriacao) {
+    public void setDataCriacao(Instant dataCriacao) {
         this.dataCriacao = dataCriacao;
     }
 
+    public Long getSequencia() {
+        return sequencia;
+    }
+
+    public void setSequencia(Long sequencia) {
+        this.sequencia = sequencia;
+    }
+
+    public String getIdCliente() {
+        return idCliente;
+    }
+
+    public void setIdCliente(String idCliente) {
+        this.idCliente = idCliente;
+    }
+
+    public String getNoOrigem() {
+        return noOrigem;
+    }
+
+    public void setNoOrigem(String noOrigem) {
+        this.noOrigem = noOrigem;
+    }
+
+    public boolean isAnulada() {
+        return anulada;
+    }
+
+    public void setAnulada(boolean anulada) {
+        this.anulada = anulada;
+    }
+
 }
\ No newline at end of file
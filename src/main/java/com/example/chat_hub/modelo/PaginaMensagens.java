@@ -0,0 +1,122 @@
+package com.example.chat_hub.modelo;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Uma janela do histórico de mensagens de uma sala.
+ *
+ * Os cursores são sequências de mensagens: {@code anterior} deve ser enviado
+ * como {@code antes} para obter a página mais antiga e {@code seguinte} como
+ * {@code depois} para obter a mais recente. São nulos quando não há mais
+ * mensagens nesse sentido.
+ */
+public class PaginaMensagens {
+
+    private List<Mensagem> mensagens = new ArrayList<>();
+    private Long anterior;
+    private Long seguinte;
+
+    public PaginaMensagens() {
+    }
+
+    public PaginaMensagens(List<Mensagem> mensagens, Long anterior, Long seguinte) {
+        this.mensagens = mensagens;
+        this.anterior = anterior;
+        this.seguinte = seguinte;
+    }
+
+    /**
+     * Página lida do MongoDB, onde a cabeça da sala não é conhecida: a página
+     * seguinte só é anunciada quando esta veio cheia ou há mensagens depois de
+     * {@code antes}. As mensagens vêm por ordem crescente de sequência.
+     */
+    public static PaginaMensagens dePagina(List<Mensagem> mensagens, Long antes, Long depois, int limite) {
+        if (mensagens.isEmpty()) {
+            return new PaginaMensagens(mensagens, null, null);
+        }
+        long primeira = mensagens.get(0).getSequencia();
+        long ultima = mensagens.get(mensagens.size() - 1).getSequencia();
+        Long anterior = primeira > 0 ? primeira : null;
+        Long seguinte = antes != null || (depois != null && mensagens.size() == limite) ? ultima : null;
+        return new PaginaMensagens(visiveis(mensagens), anterior, seguinte);
+    }
+
+    // Os cursores contam com as lápides, mas estas não seguem para o cliente
+    public static List<Mensagem> visiveis(List<Mensagem> mensagens) {
+        List<Mensagem> visiveis = new ArrayList<>(mensagens.size());
+        for (Mensagem mensagem : mensagens) {
+            if (!mensagem.isAnulada()) {
+                visiveis.add(mensagem);
+            }
+        }
+        return visiveis;
+    }
+
+    /**
+     * Intervalo de sequências [inicio, fim) de uma página num histórico denso
+     * com {@code cabeca} mensagens. Sem cursores são as {@code limite} mais
+     * recentes; com {@code antes} as anteriores a essa sequência; com
+     * {@code depois} as seguintes.
+     */
+    public static final class Janela {
+
+        private final long inicio;
+        private final long fim;
+        private final long cabeca;
+
+        public Janela(Long antes, Long depois, int limite, long cabeca) {
+            this.cabeca = cabeca;
+            if (depois != null) {
+                this.inicio = Math.max(0, depois + 1);
+                this.fim = Math.min(cabeca, inicio + limite);
+            } else {
+                this.fim = antes != null ? Math.max(0, Math.min(antes, cabeca)) : cabeca;
+                this.inicio = Math.max(0, fim - limite);
+            }
+        }
+
+        public long inicio() {
+            return inicio;
+        }
+
+        public long fim() {
+            return fim;
+        }
+
+        public boolean vazia() {
+            return inicio >= fim;
+        }
+
+        public PaginaMensagens pagina(List<Mensagem> mensagens) {
+            Long anterior = inicio > 0 && inicio < cabeca ? inicio : null;
+            Long seguinte = fim < cabeca && fim > 0 ? fim - 1 : null;
+            return new PaginaMensagens(visiveis(mensagens), anterior, seguinte);
+        }
+    }
+
+    // Getters e setters
+    public List<Mensagem> getMensagens() {
+        return mensagens;
+    }
+
+    public void setMensagens(List<Mensagem> mensagens) {
+        this.mensagens = mensagens;
+    }
+
+    public Long getAnterior() {
+        return anterior;
+    }
+
+    public void setAnterior(Long anterior) {
+        this.anterior = anterior;
+    }
+
+    public Long getSeguinte() {
+        return seguinte;
+    }
+
+    public void setSeguinte(Long seguinte) {
+        this.seguinte = seguinte;
+    }
+}
@@ -1,6 +1,7 @@
 package com.example.chat_hub.modelo;
 
 import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.Indexed;
 import org.springframework.data.mongodb.core.mapping.Document;
 
 @Document(collection = "utilizador")
@@ -8,6 +9,7 @@ public class Utilizador {
 
     @Id
     private String id;
+    @Indexed(name = "nomeUtilizador", unique = true)
     private String nomeUtilizador;
     private String senha;
     private String status;
@@ -16,6 +18,15 @@ public class Utilizador {
     public Utilizador() {
     }
 
+    // Cópia usada pelo DiretorioUtilizadores, para que a cache nunca partilhe
+    // instâncias com quem as altera
+    public Utilizador(Utilizador outro) {
+        this.id = outro.id;
+        this.nomeUtilizador = outro.nomeUtilizador;
+        this.senha = outro.senha;
+        this.status = outro.status;
+    }
+
     // Getters e setters
     public String getId() {
         return id;
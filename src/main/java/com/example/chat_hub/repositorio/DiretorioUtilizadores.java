@@ -0,0 +1,228 @@
+package com.example.chat_hub.repositorio;
+
+import com.example.chat_hub.modelo.Utilizador;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import jakarta.annotation.PostConstruct;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+
+/**
+ * Diretório dos utilizadores, à frente do {@link RepositorioUtilizador}.
+ *
+ * Os utilizadores lidos ficam numa cache LRU limitada, atualizada em cada
+ * escrita feita através deste diretório. A cache guarda e devolve cópias: quem
+ * altera um utilizador devolvido não altera a entrada em cache. Um filtro de
+ * Bloom com os nomes existentes responde às pesquisas de nomes que não existem
+ * (registos novos, tentativas de login com nomes inventados) sem ler nem
+ * guardar em cache o documento. Um nome fora do filtro é ainda confirmado com
+ * uma consulta de existência: um nome registado noutro nó só entra no filtro
+ * quando o evento chega, e nunca entra se a criação no ZooKeeper falhou.
+ *
+ * Os registos, remoções e alterações (p.ex. a senha) feitos noutros nós chegam
+ * pelo watch em /utilizadores e invalidam a entrada; a validade da entrada é
+ * só o limite para um evento perdido.
+ */
+@Component
+public class DiretorioUtilizadores {
+
+    private static final Logger logger = LoggerFactory.getLogger(DiretorioUtilizadores.class);
+
+    @Autowired
+    private RepositorioUtilizador repositorioUtilizador;
+
+    private final int maximoEntradas;
+    private final long validadeNanos;
+    private final long capacidadeInicialFiltro;
+    private final double taxaFalsosPositivos;
+    private final LinkedHashMap<String, Entrada> cache;
+    private volatile FiltroBloom filtro;
+    // Filtro a ser reconstruído; também recebe os nomes registados entretanto
+    private volatile FiltroBloom emConstrucao;
+    private final ReentrantLock trincoFiltro = new ReentrantLock();
+
+    private final AtomicLong acertos = new AtomicLong();
+    private final AtomicLong falhas = new AtomicLong();
+    private final AtomicLong rejeitadosPeloFiltro = new AtomicLong();
+    private final AtomicLong falsosPositivos = new AtomicLong();
+    private final AtomicLong negativosCorrigidos = new AtomicLong();
+
+    public DiretorioUtilizadores(@Value("${utilizadores.cache.maximo:10000}") int maximoEntradas,
+            @Value("${utilizadores.cache.validadeMs:60000}") long validadeMs,
+            @Value("${utilizadores.filtro.capacidade:100000}") long capacidadeInicialFiltro,
+            @Value("${utilizadores.filtro.taxaFalsosPositivos:0.01}") double taxaFalsosPositivos) {
+        this.maximoEntradas = maximoEntradas;
+        this.validadeNanos = validadeMs * 1_000_000;
+        this.capacidadeInicialFiltro = capacidadeInicialFiltro;
+        this.taxaFalsosPositivos = taxaFalsosPositivos;
+        this.cache = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entrada> maisAntiga) {
+                return size() > DiretorioUtilizadores.this.maximoEntradas;
+            }
+        };
+    }
+
+    @PostConstruct
+    public void carregarFiltro() {
+        reconstruirFiltro(capacidadeInicialFiltro);
+    }
+
+    // -- -- -- -- -- -- -- -- -- Leitura -- -- -- -- -- -- -- -- -- -- -- //
+
+    public Utilizador buscar(String nomeUtilizador) {
+        if (nomeUtilizador == null) {
+            return null;
+        }
+        if (!filtro.podeConter(nomeUtilizador)) {
+            if (!repositorioUtilizador.existsByNomeUtilizador(nomeUtilizador)) {
+                rejeitadosPeloFiltro.incrementAndGet();
+                return null;
+            }
+            // Registado sem o nome ter chegado ao filtro deste nó
+            negativosCorrigidos.incrementAndGet();
+            registarNome(nomeUtilizador);
+        }
+        synchronized (cache) {
+            Entrada entrada = cache.get(nomeUtilizador);
+            if (entrada != null && System.nanoTime() - entrada.lidaEm < validadeNanos) {
+                acertos.incrementAndGet();
+                return new Utilizador(entrada.utilizador);
+            }
+        }
+        falhas.incrementAndGet();
+        List<Utilizador> utilizadores = repositorioUtilizador.findByNomeUtilizador(nomeUtilizador);
+        if (utilizadores.isEmpty()) {
+            falsosPositivos.incrementAndGet();
+            invalidar(nomeUtilizador);
+            return null;
+        }
+        Utilizador utilizador = utilizadores.get(0);
+        colocar(utilizador);
+        return new Utilizador(utilizador);
+    }
+
+    public boolean existe(String nomeUtilizador) {
+        return buscar(nomeUtilizador) != null;
+    }
+
+    // -- -- -- -- -- -- -- -- -- Escrita -- -- -- -- -- -- -- -- -- -- -- //
+
+    // Grava no MongoDB e atualiza a cache e o filtro com o documento gravado
+    public Utilizador guardar(Utilizador utilizador) {
+        Utilizador guardado = repositorioUtilizador.save(utilizador);
+        registarNome(guardado.getNomeUtilizador());
+        colocar(guardado);
+        return guardado;
+    }
+
+    public void apagar(Utilizador utilizador) {
+        repositorioUtilizador.delete(utilizador);
+        invalidar(utilizador.getNomeUtilizador());
+    }
+
+    // Com o trinco do filtro: uma reconstrução em curso não repõe os nomes apagados
+    public void apagarTodos() {
+        trincoFiltro.lock();
+        try {
+            repositorioUtilizador.deleteAll();
+            synchronized (cache) {
+                cache.clear();
+            }
+            filtro = new FiltroBloom(capacidadeInicialFiltro, taxaFalsosPositivos);
+        } finally {
+            trincoFiltro.unlock();
+        }
+    }
+
+    // Nome criado neste ou noutro nó; os nomes nunca saem do filtro, só da cache
+    public void registarNome(String nomeUtilizador) {
+        // Lido antes do filtro atual: um nome gravado antes de a reconstrução
+        // começar é apanhado pela leitura dos nomes, os restantes vão para os dois
+        FiltroBloom novo = emConstrucao;
+        FiltroBloom atual = filtro;
+        atual.adicionar(nomeUtilizador);
+        if (novo != null) {
+            novo.adicionar(nomeUtilizador);
+        }
+        if (atual.cheio()) {
+            reconstruirFiltro(atual.capacidade() * 2);
+        }
+    }
+
+    public void invalidar(String nomeUtilizador) {
+        synchronized (cache) {
+            cache.remove(nomeUtilizador);
+        }
+    }
+
+    public Map<String, Object> metricas() {
+        int entradas;
+        synchronized (cache) {
+            entradas = cache.size();
+        }
+        FiltroBloom atual = filtro;
+        return Map.of(
+                "entradas", entradas,
+                "acertos", acertos.get(),
+                "falhas", falhas.get(),
+                "rejeitadosPeloFiltro", rejeitadosPeloFiltro.get(),
+                "falsosPositivos", falsosPositivos.get(),
+                "negativosCorrigidos", negativosCorrigidos.get(),
+                "nomesNoFiltro", atual.inseridos(),
+                "bytesFiltro", atual.tamanhoBytes());
+    }
+
+    // -- -- -- -- -- -- -- -- -- Filtro -- -- -- -- -- -- -- -- -- -- -- //
+
+    // Lê só os nomes; enquanto corre o filtro anterior continua a responder. O
+    // trinco é um ReentrantLock porque a leitura do MongoDB é feita com ele adquirido
+    private void reconstruirFiltro(long capacidadePedida) {
+        trincoFiltro.lock();
+        try {
+            FiltroBloom atual = filtro;
+            if (atual != null && !atual.cheio()) {
+                return;
+            }
+            long inicio = System.nanoTime();
+            long total = repositorioUtilizador.count();
+            FiltroBloom novo = new FiltroBloom(Math.max(capacidadePedida, total * 2), taxaFalsosPositivos);
+            emConstrucao = novo;
+            try (Stream<Utilizador> nomes = repositorioUtilizador.findAllNomes()) {
+                nomes.forEach(utilizador -> novo.adicionar(utilizador.getNomeUtilizador()));
+                filtro = novo;
+            } finally {
+                emConstrucao = null;
+            }
+            logger.info("Filtro de nomes de utilizador com " + novo.inseridos() + " nomes construído em "
+                    + (System.nanoTime() - inicio) / 1_000_000 + " ms.");
+        } finally {
+            trincoFiltro.unlock();
+        }
+    }
+
+    private void colocar(Utilizador utilizador) {
+        synchronized (cache) {
+            cache.put(utilizador.getNomeUtilizador(), new Entrada(new Utilizador(utilizador), System.nanoTime()));
+        }
+    }
+
+    private static final class Entrada {
+
+        private final Utilizador utilizador;
+        private final long lidaEm;
+
+        Entrada(Utilizador utilizador, long lidaEm) {
+            this.utilizador = utilizador;
+            this.lidaEm = lidaEm;
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package com.example.chat_hub.repositorio;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Filtro de Bloom para strings, seguro entre threads sem locks.
+ *
+ * {@link #podeConter(String)} nunca dá falsos negativos: se devolver
+ * {@code false} a string nunca foi adicionada. Os falsos positivos ficam
+ * perto da taxa pedida enquanto o número de inserções não passar da
+ * capacidade. Não suporta remoções.
+ */
+class FiltroBloom {
+
+    private final AtomicLongArray bits;
+    private final long numeroBits;
+    private final int numeroHashes;
+    private final long capacidade;
+    private final AtomicLong inseridos = new AtomicLong();
+
+    FiltroBloom(long capacidade, double taxaFalsosPositivos) {
+        this.capacidade = Math.max(1, capacidade);
+        long m = (long) Math.ceil(-this.capacidade * Math.log(taxaFalsosPositivos) / (Math.log(2) * Math.log(2)));
+        int palavras = (int) Math.min(Integer.MAX_VALUE, Math.max(1, (m + 63) / 64));
+        this.bits = new AtomicLongArray(palavras);
+        this.numeroBits = (long) palavras * 64;
+        this.numeroHashes = Math.max(1, (int) Math.round((double) numeroBits / this.capacidade * Math.log(2)));
+    }
+
+    void adicionar(String valor) {
+        long hash = hash64(valor);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        for (int i = 1; i <= numeroHashes; i++) {
+            long bit = Math.floorMod(h1 + (long) i * h2, numeroBits);
+            int palavra = (int) (bit >>> 6);
+            long mascara = 1L << bit;
+            long atual;
+            do {
+                atual = bits.get(palavra);
+                if ((atual & mascara) != 0) {
+                    break;
+                }
+            } while (!bits.compareAndSet(palavra, atual, atual | mascara));
+        }
+        inseridos.incrementAndGet();
+    }
+
+    boolean podeConter(String valor) {
+        long hash = hash64(valor);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        for (int i = 1; i <= numeroHashes; i++) {
+            long bit = Math.floorMod(h1 + (long) i * h2, numeroBits);
+            if ((bits.get((int) (bit >>> 6)) & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Contagem aproximada: nomes repetidos também contam
+    boolean cheio() {
+        return inseridos.get() > capacidade;
+    }
+
+    long capacidade() {
+        return capacidade;
+    }
+
+    long inseridos() {
+        return inseridos.get();
+    }
+
+    long tamanhoBytes() {
+        return numeroBits / 8;
+    }
+
+    // FNV-1a de 64 bits seguido do finalizador do MurmurHash3
+    private static long hash64(String valor) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < valor.length(); i++) {
+            hash ^= valor.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
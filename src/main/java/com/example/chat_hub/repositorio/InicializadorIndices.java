@@ -0,0 +1,85 @@
+package com.example.chat_hub.repositorio;
+
+import com.example.chat_hub.modelo.Chat;
+import com.example.chat_hub.modelo.Mensagem;
+import com.example.chat_hub.modelo.Utilizador;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.IndexDefinition;
+import org.springframework.data.mongodb.core.index.IndexInfo;
+import org.springframework.data.mongodb.core.index.IndexOperations;
+import org.springframework.data.mongodb.core.index.IndexResolver;
+import org.springframework.data.mongodb.core.index.MongoPersistentEntityIndexResolver;
+import org.springframework.data.mongodb.core.mapping.MongoMappingContext;
+import org.springframework.stereotype.Component;
+
+import jakarta.annotation.PostConstruct;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Cria e verifica no arranque os índices declarados nos documentos.
+ *
+ * A criação automática de índices do Spring Data está desligada por omissão,
+ * pelo que sem este passo as consultas por sala, por nome de utilizador e por
+ * participante percorreriam a coleção inteira. Se um índice não puder ser
+ * criado (por exemplo, nomes de utilizador ou sequências de uma sala
+ * repetidos) o arranque falha.
+ */
+@Component
+public class InicializadorIndices {
+
+    private static final Logger logger = LoggerFactory.getLogger(InicializadorIndices.class);
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    @Autowired
+    private MongoMappingContext mongoMappingContext;
+
+    @PostConstruct
+    public void init() {
+        IndexResolver resolver = new MongoPersistentEntityIndexResolver(mongoMappingContext);
+        for (Class<?> documento : List.of(Mensagem.class, Chat.class, Utilizador.class)) {
+            garantirIndices(documento, resolver);
+        }
+    }
+
+    private void garantirIndices(Class<?> documento, IndexResolver resolver) {
+        IndexOperations operacoes = mongoTemplate.indexOps(documento);
+        // Um índice que passou a ser único (p.ex. sala_sequencia) é recriado: o
+        // MongoDB recusa mudar as opções de um índice com o mesmo nome
+        Map<String, IndexInfo> anteriores = operacoes.getIndexInfo().stream()
+                .collect(Collectors.toMap(IndexInfo::getName, Function.identity()));
+        for (IndexDefinition indice : resolver.resolveIndexFor(documento)) {
+            Object nome = indice.getIndexOptions().get("name");
+            IndexInfo anterior = nome != null ? anteriores.get(nome.toString()) : null;
+            boolean unico = Boolean.TRUE.equals(indice.getIndexOptions().get("unique"));
+            if (anterior != null && anterior.isUnique() != unico) {
+                logger.warn("Índice " + nome + " recriado na coleção " + mongoTemplate.getCollectionName(documento)
+                        + " (único: " + unico + ")");
+                operacoes.dropIndex(nome.toString());
+            }
+            operacoes.ensureIndex(indice);
+        }
+
+        // Confirma que cada índice declarado existe na coleção
+        Set<String> existentes = operacoes.getIndexInfo().stream()
+                .map(IndexInfo::getName)
+                .collect(Collectors.toSet());
+        for (IndexDefinition indice : resolver.resolveIndexFor(documento)) {
+            Object nome = indice.getIndexOptions().get("name");
+            if (nome != null && !existentes.contains(nome.toString())) {
+                throw new IllegalStateException("Índice " + nome + " em falta na coleção "
+                        + mongoTemplate.getCollectionName(documento));
+            }
+        }
+        logger.info("Índices verificados na coleção " + mongoTemplate.getCollectionName(documento) + ": "
+                + existentes);
+    }
+}
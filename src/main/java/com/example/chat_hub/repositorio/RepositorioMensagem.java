@@ -1,9 +1,11 @@
 package com.example.chat_hub.repositorio;
 
 import com.example.chat_hub.modelo.Mensagem;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.mongodb.repository.MongoRepository;
 import org.springframework.stereotype.Repository;
 
+import java.time.Instant;
 import java.util.List;
 
 @Repository
@@ -12,4 +14,27 @@ public interface RepositorioMensagem extends MongoRepository<Mensagem, String> {
     List<Mensagem> findByRemetente(String remetente);
 
     List<Mensagem> findByNomeSala(String sala);
+
+    // As consultas seguintes usam o índice (nomeSala, dataCriacao)
+    List<Mensagem> findByNomeSalaOrderByDataCriacaoAsc(String sala);
+
+    List<Mensagem> findByNomeSalaAndDataCriacaoBetweenOrderByDataCriacaoAsc(String sala, Instant desde,
+            Instant ate);
+
+    List<Mensagem> findByNomeSalaAndDataCriacaoAfterOrderByDataCriacaoAsc(String sala, Instant desde,
+            Pageable pagina);
+
+    List<Mensagem> findByNomeSalaAndDataCriacaoBeforeOrderByDataCriacaoDesc(String sala, Instant ate,
+            Pageable pagina);
+
+    // As seguintes usam o índice (nomeSala, sequencia)
+    List<Mensagem> findByNomeSalaOrderBySequenciaDesc(String sala, Pageable pagina);
+
+    List<Mensagem> findByNomeSalaAndSequenciaLessThanOrderBySequenciaDesc(String sala, Long antes,
+            Pageable pagina);
+
+    List<Mensagem> findByNomeSalaAndSequenciaGreaterThanOrderBySequenciaAsc(String sala, Long depois,
+            Pageable pagina);
+
+    List<Mensagem> findByNomeSalaAndSequenciaGreaterThanEqualOrderBySequenciaAsc(String sala, Long desde);
 }
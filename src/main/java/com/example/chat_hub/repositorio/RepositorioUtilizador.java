@@ -2,11 +2,19 @@ package com.example.chat_hub.repositorio;
 
 import com.example.chat_hub.modelo.Utilizador;
 import org.springframework.data.mongodb.repository.MongoRepository;
+import org.springframework.data.mongodb.repository.Query;
 
 import java.util.List;
+import java.util.stream.Stream;
 
 public interface RepositorioUtilizador extends MongoRepository<Utilizador, String> {
     List<Utilizador> findByNomeUtilizador(String nomeUtilizador);
 
+    boolean existsByNomeUtilizador(String nomeUtilizador);
+
     List<Utilizador> findByStatus(String status);
+
+    // Só os nomes, usados para construir o filtro do DiretorioUtilizadores
+    @Query(value = "{}", fields = "{ 'nomeUtilizador': 1 }")
+    Stream<Utilizador> findAllNomes();
 }
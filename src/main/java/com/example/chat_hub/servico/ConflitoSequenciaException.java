@@ -0,0 +1,14 @@
+package com.example.chat_hub.servico;
+
+/**
+ * Lançada quando a sequência reservada para uma mensagem já está ocupada no
+ * MongoDB por outra mensagem, o que só acontece se dois nós sequenciaram a
+ * mesma sala. A mensagem é rejeitada e a sequência não é preenchida com uma
+ * lápide, porque já tem dono.
+ */
+public class ConflitoSequenciaException extends RuntimeException {
+
+    public ConflitoSequenciaException(String mensagem) {
+        super(mensagem);
+    }
+}
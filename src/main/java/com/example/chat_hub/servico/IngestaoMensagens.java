@@ -0,0 +1,492 @@
+package com.example.chat_hub.servico;
+
+import com.example.chat_hub.cluster.BarramentoNos;
+import com.example.chat_hub.cluster.DistribuicaoSalas;
+import com.example.chat_hub.config.ConfiguracaoWebSocket;
+import com.example.chat_hub.modelo.Mensagem;
+import com.example.chat_hub.zookeeper.GerenciadorZooKeeper;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import java.io.IOException;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Pipeline de entrada das mensagens: validar → sequenciar → persistir →
+ * distribuir.
+ *
+ * A validação corre na thread do pedido, que só espera até a mensagem entrar
+ * na fila de sequenciação; a partir daí cada etapa tem a sua fila limitada.
+ * A sequenciação corre em faixas ({@code mensagens.ingestao.faixas}), cada uma
+ * com a sua fila e a sua thread, escolhidas pela sala: a ordem dentro de uma
+ * sala mantém-se e uma reserva lenta no ZooKeeper só atrasa as salas da sua
+ * faixa.
+ * Uma etapa lenta enche a fila da etapa anterior e, no fim, a de entrada: o
+ * pedido é então recusado com {@link ServicoSobrecarregadoException} (503).
+ *
+ * A mensagem só entra no registo local e na cache depois de persistida; o
+ * remetente recebe então um frame {@code mensagem_confirmada} e só depois é
+ * distribuída pelos clientes da sala. Se a persistência falhar, o remetente
+ * recebe {@code mensagem_rejeitada} e a sequência reservada é preenchida com
+ * uma lápide, pelo que repetir o envio não duplica a mensagem no histórico.
+ *
+ * Só o nó dono da sala (ver {@link DistribuicaoSalas}) sequencia as suas
+ * mensagens: nos outros nós a mensagem validada segue pelo
+ * {@link BarramentoNos} para o dono, que devolve a confirmação ao nó de
+ * origem. Uma mensagem encaminhada sem resposta do dono dentro de
+ * {@code mensagens.ingestao.prazoEncaminhadaMs} é dada como rejeitada. A
+ * posse é verificada outra vez ao sequenciar: um nó que deixou de ser dono da
+ * sala enquanto a mensagem esperava na fila rejeita-a.
+ */
+@Service
+public class IngestaoMensagens {
+
+    private static final Logger logger = LoggerFactory.getLogger(IngestaoMensagens.class);
+    // Máximo de mensagens tiradas da fila de sequenciação de cada vez
+    private static final int TAMANHO_LOTE_SEQUENCIACAO = 500;
+
+    @Autowired
+    private GerenciadorZooKeeper gerenciadorZooKeeper;
+
+    @Autowired
+    private ServicoPersistenciaMensagens servicoPersistenciaMensagens;
+
+    @Autowired
+    private ConfiguracaoWebSocket configuracaoWebSocket;
+
+    @Autowired
+    private DistribuicaoSalas distribuicaoSalas;
+
+    @Autowired
+    private BarramentoNos barramentoNos;
+
+    // Serialização das mensagens encaminhadas ao dono da sala (inclui o idCliente)
+    private final ObjectMapper objectMapper = new ObjectMapper().registerModule(new JavaTimeModule());
+
+    // Uma fila por faixa de sequenciação
+    private final List<BlockingQueue<Mensagem>> filasSequenciacao = new ArrayList<>();
+    private final BlockingQueue<Mensagem> filaDistribuicao;
+    private final int tamanhoMaximo;
+    private final long esperaAdmissaoMs;
+    private final int segundosAteNovaTentativa;
+
+    private final AtomicLong aceites = new AtomicLong();
+    private final AtomicLong recusadas = new AtomicLong();
+    private final AtomicLong confirmadas = new AtomicLong();
+    private final AtomicLong falhadas = new AtomicLong();
+    private final AtomicLong anuladas = new AtomicLong();
+    private final AtomicLong naoDistribuidas = new AtomicLong();
+    private final AtomicLong encaminhadas = new AtomicLong();
+    private final AtomicLong encaminhadasExpiradas = new AtomicLong();
+    private final AtomicLong respostasTardias = new AtomicLong();
+    private final AtomicLong foraDoDono = new AtomicLong();
+    private final AtomicLong recebidasDeOutrosNos = new AtomicLong();
+
+    // Mensagens encaminhadas ao dono da sala à espera da confirmação, pelo id
+    private final Map<String, Encaminhada> porConfirmar = new ConcurrentHashMap<>();
+    private final long prazoEncaminhadaMs;
+    private final ScheduledExecutorService agendador = Executors.newSingleThreadScheduledExecutor(tarefa -> {
+        Thread thread = new Thread(tarefa, "ingestao-prazos");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final List<Thread> sequenciadores = new ArrayList<>();
+    private Thread distribuidor;
+    private volatile boolean ativo;
+
+    public IngestaoMensagens(@Value("${mensagens.ingestao.capacidade:10000}") int capacidade,
+            @Value("${mensagens.ingestao.tamanhoMaximo:4000}") int tamanhoMaximo,
+            @Value("${mensagens.ingestao.esperaAdmissaoMs:100}") long esperaAdmissaoMs,
+            @Value("${mensagens.ingestao.retryAfter:1}") int segundosAteNovaTentativa,
+            @Value("${mensagens.ingestao.prazoEncaminhadaMs:5000}") long prazoEncaminhadaMs,
+            @Value("${mensagens.ingestao.faixas:0}") int numeroFaixas) {
+        int faixas = numeroFaixas > 0 ? numeroFaixas : Runtime.getRuntime().availableProcessors();
+        // A capacidade é repartida pelas faixas, para que o total em espera não mude
+        int capacidadeFaixa = Math.max(1, (capacidade + faixas - 1) / faixas);
+        for (int i = 0; i < faixas; i++) {
+            filasSequenciacao.add(new ArrayBlockingQueue<>(capacidadeFaixa));
+        }
+        this.filaDistribuicao = new ArrayBlockingQueue<>(capacidade);
+        this.tamanhoMaximo = tamanhoMaximo;
+        this.esperaAdmissaoMs = esperaAdmissaoMs;
+        this.segundosAteNovaTentativa = segundosAteNovaTentativa;
+        this.prazoEncaminhadaMs = prazoEncaminhadaMs;
+    }
+
+    @PostConstruct
+    public void iniciar() {
+        ativo = true;
+        for (int i = 0; i < filasSequenciacao.size(); i++) {
+            BlockingQueue<Mensagem> fila = filasSequenciacao.get(i);
+            sequenciadores.add(new Thread(() -> sequenciar(fila), "ingestao-sequencia-" + i));
+        }
+        distribuidor = new Thread(this::distribuir, "ingestao-distribuicao");
+        sequenciadores.forEach(Thread::start);
+        distribuidor.start();
+        long intervalo = Math.max(10, prazoEncaminhadaMs / 4);
+        agendador.scheduleWithFixedDelay(this::expirarEncaminhadas, intervalo, intervalo, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void encerrar() {
+        ativo = false;
+        agendador.shutdown();
+        try {
+            for (Thread sequenciador : sequenciadores) {
+                sequenciador.join(TimeUnit.SECONDS.toMillis(10));
+            }
+            distribuidor.join(TimeUnit.SECONDS.toMillis(10));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Valida a mensagem e coloca-a na fila de sequenciação.
+     *
+     * @return a mensagem aceite, já com o id e a data de criação
+     * @throws IllegalArgumentException se a mensagem for inválida
+     * @throws ServicoSobrecarregadoException se a fila estiver cheia
+     */
+    public Mensagem submeter(String sala, String conteudo, String remetente) {
+        return submeter(sala, conteudo, remetente, null);
+    }
+
+    /**
+     * Como {@link #submeter(String, String, String)}, guardando o id de
+     * correlação do cliente para o devolver na confirmação.
+     */
+    public Mensagem submeter(String sala, String conteudo, String remetente, String idCliente) {
+        if (sala == null || remetente == null || conteudo == null || conteudo.isBlank()) {
+            throw new IllegalArgumentException("Parâmetros ausentes.");
+        }
+        if (conteudo.length() > tamanhoMaximo) {
+            throw new IllegalArgumentException("Mensagem com mais de " + tamanhoMaximo + " caracteres.");
+        }
+        if (!gerenciadorZooKeeper.salaExiste(sala)) {
+            throw new IllegalArgumentException("Sala desconhecida: " + sala);
+        }
+
+        Mensagem mensagem = new Mensagem();
+        mensagem.setId(UUID.randomUUID().toString());
+        mensagem.setNomeSala(sala);
+        mensagem.setConteudo(conteudo);
+        mensagem.setRemetente(remetente);
+        mensagem.setIdCliente(idCliente);
+        // Precisão do Date do MongoDB, para que o registo local e a base de dados coincidam
+        mensagem.setDataCriacao(Instant.now().truncatedTo(ChronoUnit.MILLIS));
+
+        String dono = distribuicaoSalas.dono(sala);
+        if (!dono.equals(barramentoNos.idNo())) {
+            encaminhar(dono, mensagem);
+            return mensagem;
+        }
+
+        try {
+            if (!filaSequenciacao(sala).offer(mensagem, esperaAdmissaoMs, TimeUnit.MILLISECONDS)) {
+                recusadas.incrementAndGet();
+                throw new ServicoSobrecarregadoException("Servidor ocupado, tente novamente.",
+                        segundosAteNovaTentativa);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ServicoSobrecarregadoException("Pedido interrompido.", segundosAteNovaTentativa);
+        }
+        aceites.incrementAndGet();
+        return mensagem;
+    }
+
+    /**
+     * Mensagem validada noutro nó e encaminhada para este por ser o dono da
+     * sala. Chamado pela thread do barramento, pelo que nunca espera: com a
+     * fila cheia a mensagem é rejeitada e o remetente avisado no nó de origem.
+     */
+    public void aceitarEncaminhada(byte[] json, String noOrigem) {
+        Mensagem mensagem;
+        try {
+            mensagem = objectMapper.readValue(json, Mensagem.class);
+        } catch (IOException e) {
+            logger.error("Ingestão - Mensagem inválida encaminhada pelo nó " + noOrigem, e);
+            return;
+        }
+        mensagem.setNoOrigem(noOrigem);
+        recebidasDeOutrosNos.incrementAndGet();
+        if (!filaSequenciacao(mensagem.getNomeSala()).offer(mensagem)) {
+            recusadas.incrementAndGet();
+            notificarRemetente("mensagem_rejeitada", mensagem);
+            return;
+        }
+        aceites.incrementAndGet();
+    }
+
+    /**
+     * Resposta do dono da sala a uma mensagem encaminhada por este nó, chamada
+     * pela thread do barramento antes de o frame seguir para o remetente.
+     *
+     * @return {@code false} se a mensagem já tinha sido dada como rejeitada por
+     *         falta de resposta (ou não foi encaminhada por este nó)
+     */
+    public boolean respostaEncaminhada(String id) {
+        if (porConfirmar.remove(id) != null) {
+            return true;
+        }
+        respostasTardias.incrementAndGet();
+        return false;
+    }
+
+    public Map<String, Object> metricas() {
+        Map<String, Object> metricas = new HashMap<>();
+        metricas.put("faixasSequenciacao", filasSequenciacao.size());
+        metricas.put("filaSequenciacao", filasSequenciacao.stream().mapToInt(BlockingQueue::size).sum());
+        metricas.put("filaPersistencia", servicoPersistenciaMensagens.pendentes());
+        metricas.put("filaDistribuicao", filaDistribuicao.size());
+        metricas.put("aceites", aceites.get());
+        metricas.put("recusadas", recusadas.get());
+        metricas.put("confirmadas", confirmadas.get());
+        metricas.put("falhadas", falhadas.get());
+        metricas.put("anuladas", anuladas.get());
+        metricas.put("naoDistribuidas", naoDistribuidas.get());
+        metricas.put("foraDoDono", foraDoDono.get());
+        metricas.put("encaminhadas", encaminhadas.get());
+        metricas.put("encaminhadasPorConfirmar", porConfirmar.size());
+        metricas.put("encaminhadasExpiradas", encaminhadasExpiradas.get());
+        metricas.put("respostasTardias", respostasTardias.get());
+        metricas.put("recebidasDeOutrosNos", recebidasDeOutrosNos.get());
+        return metricas;
+    }
+
+    private BlockingQueue<Mensagem> filaSequenciacao(String sala) {
+        return filasSequenciacao.get(Math.floorMod(sala.hashCode(), filasSequenciacao.size()));
+    }
+
+    private void encaminhar(String dono, Mensagem mensagem) {
+        byte[] json;
+        try {
+            json = objectMapper.writeValueAsBytes(mensagem);
+        } catch (IOException e) {
+            throw new IllegalStateException("Erro ao serializar mensagem " + mensagem.getId(), e);
+        }
+        // Registada antes do envio para que uma resposta rápida a encontre
+        porConfirmar.put(mensagem.getId(), new Encaminhada(mensagem,
+                System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(prazoEncaminhadaMs)));
+        if (!barramentoNos.encaminharEscrita(dono, json)) {
+            porConfirmar.remove(mensagem.getId());
+            recusadas.incrementAndGet();
+            throw new ServicoSobrecarregadoException("Dono da sala " + mensagem.getNomeSala()
+                    + " indisponível, tente novamente.", segundosAteNovaTentativa);
+        }
+        encaminhadas.incrementAndGet();
+    }
+
+    // O dono pode ter caído ou perdido a mensagem: sem resposta no prazo o
+    // remetente é avisado de que a mensagem foi rejeitada
+    private void expirarEncaminhadas() {
+        long agora = System.nanoTime();
+        for (Encaminhada encaminhada : porConfirmar.values()) {
+            if (agora - encaminhada.prazo < 0 || !porConfirmar.remove(encaminhada.mensagem.getId(), encaminhada)) {
+                continue;
+            }
+            encaminhadasExpiradas.incrementAndGet();
+            logger.warn("Ingestão - Sem resposta do dono da sala {} para a mensagem {}",
+                    encaminhada.mensagem.getNomeSala(), encaminhada.mensagem.getId());
+            try {
+                configuracaoWebSocket.notificarRemetente("mensagem_rejeitada", encaminhada.mensagem);
+            } catch (RuntimeException e) {
+                logger.error("Ingestão - Erro ao avisar o remetente da mensagem " + encaminhada.mensagem.getId(), e);
+            }
+        }
+    }
+
+    // -- -- -- -- -- -- -- -- -- Etapas -- -- -- -- -- -- -- -- -- -- -- //
+
+    // Corre numa faixa: reserva as sequências e entrega à persistência; o registo
+    // da sala só recebe a mensagem depois de gravada. As mensagens que esperam na
+    // fila da faixa são tiradas de uma vez e cada sala reserva as suas num único
+    // pedido ao ZooKeeper. A persistência bloqueia quando a sua fila está cheia,
+    // o que trava esta etapa
+    private void sequenciar(BlockingQueue<Mensagem> fila) {
+        List<Mensagem> lote = new ArrayList<>();
+        while (ativo || !fila.isEmpty()) {
+            try {
+                Mensagem primeira = fila.poll(100, TimeUnit.MILLISECONDS);
+                if (primeira == null) {
+                    continue;
+                }
+                lote.add(primeira);
+                fila.drainTo(lote, TAMANHO_LOTE_SEQUENCIACAO - 1);
+                for (Map.Entry<String, List<Mensagem>> sala : porSala(lote).entrySet()) {
+                    sequenciarSala(sala.getKey(), sala.getValue());
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } finally {
+                lote.clear();
+            }
+        }
+    }
+
+    // Mantém a ordem de chegada dentro de cada sala
+    private static Map<String, List<Mensagem>> porSala(List<Mensagem> mensagens) {
+        Map<String, List<Mensagem>> porSala = new LinkedHashMap<>();
+        for (Mensagem mensagem : mensagens) {
+            porSala.computeIfAbsent(mensagem.getNomeSala(), sala -> new ArrayList<>()).add(mensagem);
+        }
+        return porSala;
+    }
+
+    private void sequenciarSala(String sala, List<Mensagem> mensagens) {
+        // A sala pode ter mudado de dono enquanto as mensagens esperavam na fila
+        if (!distribuicaoSalas.souDono(sala)) {
+            foraDoDono.addAndGet(mensagens.size());
+            logger.warn("Ingestão - Este nó deixou de ser dono da sala {}; {} mensagens rejeitadas", sala,
+                    mensagens.size());
+            mensagens.forEach(this::rejeitar);
+            return;
+        }
+        try {
+            gerenciadorZooKeeper.sequenciarMensagens(sala, mensagens);
+        } catch (IOException e) {
+            logger.error("Ingestão - Erro ao sequenciar " + mensagens.size() + " mensagens da sala " + sala, e);
+            mensagens.forEach(this::rejeitar);
+            return;
+        }
+        for (Mensagem mensagem : mensagens) {
+            servicoPersistenciaMensagens.persistir(mensagem).whenComplete((r, erro) -> {
+                if (erro instanceof ConflitoSequenciaException) {
+                    // A sequência já tem outra mensagem gravada: não leva lápide
+                    rejeitar(mensagem);
+                } else if (erro != null) {
+                    logger.error("Ingestão - Erro ao persistir mensagem " + mensagem.getId(), erro);
+                    rejeitar(mensagem);
+                    anular(mensagem);
+                } else {
+                    confirmar(mensagem);
+                }
+            });
+        }
+    }
+
+    // Corre na thread que concluiu a persistência: a espera pela fila de
+    // distribuição é limitada. Uma mensagem que não caiba já está no registo
+    // local: a seguinte fica retida no distribuidor, que a vai ler ao registo
+    private void confirmar(Mensagem mensagem) {
+        registar(mensagem);
+        confirmadas.incrementAndGet();
+        notificarRemetente("mensagem_confirmada", mensagem);
+        try {
+            if (!filaDistribuicao.offer(mensagem, esperaAdmissaoMs, TimeUnit.MILLISECONDS)) {
+                naoDistribuidas.incrementAndGet();
+                logger.warn("Ingestão - Fila de distribuição cheia, mensagem {} fica para o registo local",
+                        mensagem.getId());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Preenche a sequência de uma mensagem rejeitada com uma lápide gravada como
+    // as outras mensagens, para que os leitores não parem nesse buraco
+    private void anular(Mensagem mensagem) {
+        Mensagem lapide = new Mensagem();
+        lapide.setId(UUID.randomUUID().toString());
+        lapide.setNomeSala(mensagem.getNomeSala());
+        lapide.setSequencia(mensagem.getSequencia());
+        lapide.setDataCriacao(mensagem.getDataCriacao());
+        lapide.setAnulada(true);
+        servicoPersistenciaMensagens.persistir(lapide).whenComplete((r, erro) -> {
+            if (erro != null) {
+                logger.error("Ingestão - Erro ao gravar a lápide da sequência " + lapide.getSequencia()
+                        + " da sala " + lapide.getNomeSala(), erro);
+            } else {
+                anuladas.incrementAndGet();
+                registar(lapide);
+                // Avança o offset da sala neste nó; os outros leem-na ao encontrar o buraco
+                gerenciadorZooKeeper.publicarMensagem(lapide);
+            }
+        });
+    }
+
+    private void registar(Mensagem mensagem) {
+        try {
+            gerenciadorZooKeeper.registarMensagem(mensagem);
+        } catch (IOException | RuntimeException e) {
+            logger.error("Ingestão - Erro ao acrescentar ao registo local a mensagem " + mensagem.getId(), e);
+        }
+    }
+
+    private void rejeitar(Mensagem mensagem) {
+        falhadas.incrementAndGet();
+        notificarRemetente("mensagem_rejeitada", mensagem);
+    }
+
+    // As sessões do remetente de uma mensagem encaminhada estão no nó de origem
+    private void notificarRemetente(String tipo, Mensagem mensagem) {
+        if (mensagem.getNoOrigem() == null) {
+            configuracaoWebSocket.notificarRemetente(tipo, mensagem);
+            return;
+        }
+        barramentoNos.responderRemetente(mensagem.getNoOrigem(), mensagem.getRemetente(), mensagem.getId(),
+                configuracaoWebSocket.codificarConfirmacao(tipo, mensagem).asBytes());
+    }
+
+    // Distribui pelos clientes deste nó (e pelo barramento, pelos outros nós). Os
+    // nós sem barramento são avisados pela cabeça da sala, reescrita depois de
+    // cada lote gravado no MongoDB
+    private void distribuir() {
+        List<Mensagem> lote = new ArrayList<>();
+        while (ativo || !filaDistribuicao.isEmpty()) {
+            try {
+                Mensagem primeira = filaDistribuicao.poll(100, TimeUnit.MILLISECONDS);
+                if (primeira == null) {
+                    continue;
+                }
+                lote.add(primeira);
+                filaDistribuicao.drainTo(lote);
+                for (Mensagem mensagem : lote) {
+                    gerenciadorZooKeeper.publicarMensagem(mensagem);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (RuntimeException e) {
+                logger.error("Ingestão - Erro ao distribuir lote de " + lote.size() + " mensagens", e);
+            } finally {
+                lote.clear();
+            }
+        }
+    }
+
+    private static final class Encaminhada {
+
+        private final Mensagem mensagem;
+        private final long prazo;
+
+        Encaminhada(Mensagem mensagem, long prazo) {
+            this.mensagem = mensagem;
+            this.prazo = prazo;
+        }
+    }
+}
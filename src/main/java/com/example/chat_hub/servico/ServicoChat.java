@@ -2,6 +2,7 @@ package com.example.chat_hub.servico;
 
 import com.example.chat_hub.modelo.Chat;
 import com.example.chat_hub.modelo.Mensagem;
+import com.example.chat_hub.modelo.PaginaMensagens;
 import com.example.chat_hub.zookeeper.GerenciadorZooKeeper;
 
 import org.springframework.beans.factory.annotation.Autowired;
@@ -16,6 +17,9 @@ public class ServicoChat {
     @Autowired
     private GerenciadorZooKeeper gerenciadorZooKeeper;
 
+    @Autowired
+    private IngestaoMensagens ingestaoMensagens;
+
     public void criarSalaDeChat(String chatName, String currentUser, List<String> participants) {
         // Adicionar o currentUser aos participantes
         if (!participants.contains(currentUser)) {
@@ -67,25 +71,18 @@ public class ServicoChat {
         return gerenciadorZooKeeper.listarMensagensPorSala(nomeSala);
     }
 
-    public void adicionarMensagem(String sala, String conteudoMensagem, String remetente, String dataCriacao) {
-        // Adicionar a mensagem ao ZooKeeper
-        gerenciadorZooKeeper.adicionarMensagem(sala, conteudoMensagem, remetente, dataCriacao);
-
-        // Criar o objeto mensagem
-        Mensagem mensagem = new Mensagem();
-        mensagem.setConteudo(conteudoMensagem);
-        mensagem.setNomeSala(sala);
-        mensagem.setRemetente(remetente);
-        mensagem.setDataCriacao(dataCriacao);
-
-        // Tentar enviar a mensagem e capturar possíveis exceções
-        try {
-            gerenciadorZooKeeper.enviarMensagem(mensagem);
-            System.out.println("ServicoChat - Mensagem adicionada na sala '" + sala + "'.");
-        } catch (Exception e) { // Use Exception para capturar todas as exceções possíveis se você não sabe
-                                // exatamente quais exceções são lançadas
-            e.printStackTrace();
-        }
+    public PaginaMensagens carregarMensagens(String nomeSala, Long antes, Long depois, int limite) {
+        return gerenciadorZooKeeper.listarMensagensPorSala(nomeSala, antes, depois, limite);
+    }
+
+    // Entrega a mensagem à pipeline de entrada e devolve o id atribuído; a
+    // sequenciação, a persistência e a distribuição acontecem depois
+    public String adicionarMensagem(String sala, String conteudoMensagem, String remetente) {
+        return ingestaoMensagens.submeter(sala, conteudoMensagem, remetente).getId();
+    }
+
+    public String adicionarMensagem(String sala, String conteudoMensagem, String remetente, String idCliente) {
+        return ingestaoMensagens.submeter(sala, conteudoMensagem, remetente, idCliente).getId();
     }
 
 }
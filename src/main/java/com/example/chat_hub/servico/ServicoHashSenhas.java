@@ -0,0 +1,128 @@
+package com.example.chat_hub.servico;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+import org.springframework.stereotype.Service;
+
+import jakarta.annotation.PreDestroy;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Executa o bcrypt das senhas num conjunto de threads próprio e limitado.
+ *
+ * Cada hash custa dezenas de milissegundos de CPU; feito nas threads do
+ * Tomcat, um pico de logins ocupava todo o conector e atrasava o envio de
+ * mensagens. Aqui os pedidos esperam numa fila de tamanho fixo e, quando ela
+ * está cheia, são recusados de imediato com {@link ServicoSobrecarregadoException}.
+ */
+@Service
+public class ServicoHashSenhas {
+
+    private static final Logger logger = LoggerFactory.getLogger(ServicoHashSenhas.class);
+
+    private final BCryptPasswordEncoder codificador;
+    private final int custo;
+    private final int segundosAteNovaTentativa;
+    private final ThreadPoolExecutor executor;
+
+    private final LongAdder hashes = new LongAdder();
+    private final LongAdder nanosTotais = new LongAdder();
+    private final AtomicLong nanosMaximo = new AtomicLong();
+    private final AtomicLong recusados = new AtomicLong();
+
+    public ServicoHashSenhas(@Value("${senhas.bcrypt.custo:10}") int custo,
+            @Value("${senhas.hash.workers:0}") int workers,
+            @Value("${senhas.hash.capacidadeFila:64}") int capacidadeFila,
+            @Value("${senhas.hash.retryAfter:1}") int segundosAteNovaTentativa) {
+        int numeroWorkers = workers > 0 ? workers : Runtime.getRuntime().availableProcessors();
+        this.custo = custo;
+        this.codificador = new BCryptPasswordEncoder(custo);
+        this.segundosAteNovaTentativa = segundosAteNovaTentativa;
+        // Mantém threads de plataforma mesmo com threads virtuais ativas: o bcrypt
+        // ocupa CPU e não beneficia de threads virtuais
+        AtomicInteger contador = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(numeroWorkers, numeroWorkers, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(capacidadeFila), tarefa -> {
+                    Thread thread = new Thread(tarefa, "hash-senhas-" + contador.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }, new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    @PreDestroy
+    public void encerrar() {
+        executor.shutdown();
+    }
+
+    public CompletableFuture<String> codificar(String senha) {
+        return submeter(() -> codificador.encode(senha));
+    }
+
+    public CompletableFuture<Boolean> verificar(String senha, String hash) {
+        return submeter(() -> codificador.matches(senha, hash));
+    }
+
+    /**
+     * Indica se o hash foi gerado com um custo diferente do configurado e deve
+     * ser refeito no próximo login bem-sucedido.
+     */
+    public boolean precisaRecodificar(String hash) {
+        // Formato $2a$10$...: o custo são os dois dígitos depois do segundo '$'
+        if (hash == null || hash.length() < 7 || hash.charAt(3) != '$') {
+            return false;
+        }
+        try {
+            return Integer.parseInt(hash.substring(4, 6)) != custo;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    public Map<String, Object> metricas() {
+        long total = hashes.sum();
+        return Map.of(
+                "custo", custo,
+                "threads", executor.getMaximumPoolSize(),
+                "ativos", executor.getActiveCount(),
+                "fila", executor.getQueue().size(),
+                "capacidadeFila", executor.getQueue().size() + executor.getQueue().remainingCapacity(),
+                "hashes", total,
+                "recusados", recusados.get(),
+                "latenciaMediaMs", total == 0 ? 0.0 : nanosTotais.sum() / 1_000_000.0 / total,
+                "latenciaMaximaMs", nanosMaximo.get() / 1_000_000.0);
+    }
+
+    // Recusa logo na submissão, para o pedido não chegar a ocupar a fila
+    private <T> CompletableFuture<T> submeter(Supplier<T> operacao) {
+        try {
+            return CompletableFuture.supplyAsync(() -> medir(operacao), executor);
+        } catch (RejectedExecutionException e) {
+            recusados.incrementAndGet();
+            logger.warn("Fila de hash de senhas cheia, pedido recusado.");
+            throw new ServicoSobrecarregadoException("Servidor ocupado, tente novamente.", segundosAteNovaTentativa);
+        }
+    }
+
+    private <T> T medir(Supplier<T> operacao) {
+        long inicio = System.nanoTime();
+        try {
+            return operacao.get();
+        } finally {
+            long duracao = System.nanoTime() - inicio;
+            hashes.increment();
+            nanosTotais.add(duracao);
+            nanosMaximo.accumulateAndGet(duracao, Math::max);
+        }
+    }
+}
@@ -5,6 +5,7 @@ import com.example.chat_hub.zookeeper.GerenciadorZooKeeper;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
+import java.time.Instant;
 import java.util.List;
 
 @Service
@@ -13,14 +14,6 @@ public class ServicoMensagem {
     @Autowired
     private GerenciadorZooKeeper gerenciadorZooKeeper;
 
-    /**
-     * Salva uma mensagem no MongoDB através do ZooKeeper
-     * @param mensagem O objeto Mensagem a ser salvo
-     */
-    public void guardarMensagem(Mensagem mensagem) {
-        gerenciadorZooKeeper.guardarMensagem(mensagem);
-    }
-
     /**
      * Carrega todas as mensagens de uma sala específica
      * @param nomeSala O nome da sala de onde as mensagens serão carregadas
@@ -29,4 +22,15 @@ public class ServicoMensagem {
     public List<Mensagem> carregarMensagens(String nomeSala) {
         return gerenciadorZooKeeper.listarMensagens(nomeSala);
     }
+
+    /**
+     * Carrega as mensagens de uma sala criadas num intervalo de tempo
+     * @param nomeSala O nome da sala
+     * @param desde Início do intervalo
+     * @param ate Fim do intervalo
+     * @return As mensagens do intervalo por ordem cronológica
+     */
+    public List<Mensagem> carregarMensagens(String nomeSala, Instant desde, Instant ate) {
+        return gerenciadorZooKeeper.listarMensagensPorIntervalo(nomeSala, desde, ate);
+    }
 }
@@ -0,0 +1,366 @@
+package com.example.chat_hub.servico;
+
+import com.example.chat_hub.modelo.Mensagem;
+import com.example.chat_hub.zookeeper.GerenciadorZooKeeper;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Persistência diferida (write-behind) das mensagens no MongoDB.
+ *
+ * As mensagens são acumuladas numa fila e gravadas em lote (inserção em bloco)
+ * quando o lote atinge {@code tamanhoLote} mensagens ou passaram
+ * {@code intervaloMs} desde a primeira mensagem do lote. O momento em que a
+ * mensagem é confirmada depende do modo de durabilidade:
+ * <ul>
+ * <li>MEMORIA - assim que entra na fila;</li>
+ * <li>WAL - depois de escrita e sincronizada (fsync) no registo local;</li>
+ * <li>MONGO - depois de inserida no MongoDB.</li>
+ * </ul>
+ * No modo MONGO uma mensagem cuja sequência já esteja ocupada por outra é
+ * concluída com {@link ConflitoSequenciaException}.
+ *
+ * Se o MongoDB não aceitar um lote durante o encerramento, as mensagens já
+ * confirmadas (modos MEMORIA e WAL) ficam no WAL, bem como as que ainda estão
+ * na fila, e são gravadas no arranque seguinte, em qualquer modo.
+ */
+@Service
+public class ServicoPersistenciaMensagens {
+
+    public enum ModoDurabilidade {
+        MEMORIA, WAL, MONGO
+    }
+
+    private static final Logger logger = LoggerFactory.getLogger(ServicoPersistenciaMensagens.class);
+
+    @Autowired
+    private GerenciadorZooKeeper gerenciadorZooKeeper;
+
+    private final ModoDurabilidade modo;
+    private final int tamanhoLote;
+    private final long intervaloMs;
+    private final Path caminhoWal;
+    private final BlockingQueue<Pendente> fila;
+    private final ObjectMapper objectMapper;
+
+    private FileChannel wal;
+    private Thread escritor;
+    private volatile boolean ativo;
+    // O MongoDB recusou um lote no encerramento: o resto vai diretamente para o WAL
+    private volatile boolean despejarNoWal;
+
+    public ServicoPersistenciaMensagens(
+            @Value("${mensagens.persistencia.durabilidade:MEMORIA}") ModoDurabilidade modo,
+            @Value("${mensagens.persistencia.tamanhoLote:500}") int tamanhoLote,
+            @Value("${mensagens.persistencia.intervaloMs:50}") long intervaloMs,
+            @Value("${mensagens.persistencia.capacidade:100000}") int capacidade,
+            @Value("${mensagens.persistencia.wal:dados/wal/mensagens.wal}") String caminhoWal) {
+        this.modo = modo;
+        this.tamanhoLote = tamanhoLote;
+        this.intervaloMs = intervaloMs;
+        this.caminhoWal = Paths.get(caminhoWal);
+        this.fila = new ArrayBlockingQueue<>(capacidade);
+        this.objectMapper = new ObjectMapper();
+        this.objectMapper.registerModule(new JavaTimeModule());
+    }
+
+    @PostConstruct
+    public void iniciar() throws IOException {
+        // Também fora do modo WAL: pode ter mensagens despejadas no encerramento
+        recuperarWal();
+        if (modo == ModoDurabilidade.WAL) {
+            abrirWal();
+        }
+        ativo = true;
+        escritor = new Thread(this::executar, "persistencia-mensagens");
+        escritor.start();
+        logger.info("Persistência - Escrita diferida iniciada em modo {} (lote={}, intervalo={}ms)", modo,
+                tamanhoLote, intervaloMs);
+    }
+
+    /**
+     * Coloca a mensagem na fila de persistência. O futuro é concluído de acordo
+     * com o modo de durabilidade configurado.
+     */
+    public CompletableFuture<Void> persistir(Mensagem mensagem) {
+        Pendente pendente = new Pendente(mensagem);
+        try {
+            fila.put(pendente);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            pendente.confirmacao.completeExceptionally(e);
+            return pendente.confirmacao;
+        }
+        if (modo == ModoDurabilidade.MEMORIA) {
+            pendente.confirmacao.complete(null);
+        }
+        return pendente.confirmacao;
+    }
+
+    public int pendentes() {
+        return fila.size();
+    }
+
+    @PreDestroy
+    public void encerrar() {
+        ativo = false;
+        if (escritor != null) {
+            try {
+                escritor.join(TimeUnit.SECONDS.toMillis(30));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (!fila.isEmpty()) {
+            // O escritor continua preso no lote em curso, que despeja quando desistir
+            List<Pendente> restantes = new ArrayList<>();
+            fila.drainTo(restantes);
+            logger.warn("Persistência - {} mensagens ficaram por gravar no encerramento", restantes.size());
+            despejarNoWal = true;
+            despejar(restantes, null);
+        }
+        fecharWal();
+        logger.info("Persistência - Escrita diferida encerrada.");
+    }
+
+    // -- -- -- -- -- -- -- -- -- Escritor -- -- -- -- -- -- -- -- -- -- -- //
+
+    private void executar() {
+        List<Pendente> lote = new ArrayList<>(tamanhoLote);
+        while (ativo || !fila.isEmpty()) {
+            try {
+                if (ativo) {
+                    recolherLote(lote);
+                } else {
+                    fila.drainTo(lote, tamanhoLote);
+                }
+                if (!lote.isEmpty()) {
+                    gravarLote(lote);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                ativo = false;
+            }
+            lote.clear();
+        }
+    }
+
+    // Espera pela primeira mensagem e junta as seguintes até encher o lote ou
+    // esgotar o intervalo
+    private void recolherLote(List<Pendente> lote) throws InterruptedException {
+        Pendente primeira = fila.poll(intervaloMs, TimeUnit.MILLISECONDS);
+        if (primeira == null) {
+            return;
+        }
+        lote.add(primeira);
+        long limite = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(intervaloMs);
+        while (lote.size() < tamanhoLote) {
+            if (fila.drainTo(lote, tamanhoLote - lote.size()) > 0) {
+                continue;
+            }
+            long restante = limite - System.nanoTime();
+            if (restante <= 0) {
+                break;
+            }
+            Pendente seguinte = fila.poll(restante, TimeUnit.NANOSECONDS);
+            if (seguinte == null) {
+                break;
+            }
+            lote.add(seguinte);
+        }
+    }
+
+    private void gravarLote(List<Pendente> lote) throws InterruptedException {
+        List<Mensagem> mensagens = new ArrayList<>(lote.size());
+        for (Pendente pendente : lote) {
+            mensagens.add(pendente.mensagem);
+        }
+
+        if (despejarNoWal) {
+            despejar(lote, null);
+            return;
+        }
+
+        if (modo == ModoDurabilidade.WAL) {
+            try {
+                escreverWal(mensagens);
+                lote.forEach(pendente -> pendente.confirmacao.complete(null));
+            } catch (IOException e) {
+                // Rejeitadas: não podem seguir para o MongoDB, senão ficavam gravadas
+                // depois de o remetente ter sido avisado de que falharam
+                logger.error("Persistência - Erro ao escrever no WAL", e);
+                lote.forEach(pendente -> pendente.confirmacao.completeExceptionally(e));
+                truncarWal();
+                return;
+            }
+        }
+
+        // Sem o MongoDB não há onde gravar: volta a tentar com espera crescente,
+        // o que trava a fila e aplica pressão a quem publica
+        long espera = intervaloMs;
+        List<Mensagem> conflitos;
+        while (true) {
+            try {
+                conflitos = gerenciadorZooKeeper.guardarMensagens(mensagens);
+                break;
+            } catch (RuntimeException e) {
+                if (!ativo && espera > TimeUnit.SECONDS.toMillis(5)) {
+                    logger.error("Persistência - MongoDB indisponível no encerramento, lote de {} mensagens fica no WAL",
+                            mensagens.size(), e);
+                    despejarNoWal = true;
+                    // No modo WAL o lote já lá está: basta não o truncar
+                    if (modo != ModoDurabilidade.WAL) {
+                        despejar(lote, e);
+                    }
+                    return;
+                }
+                logger.error("Persistência - Erro ao gravar lote de {} mensagens, nova tentativa em {}ms",
+                        mensagens.size(), espera, e);
+                Thread.sleep(espera);
+                espera = Math.min(espera * 2, TimeUnit.SECONDS.toMillis(10));
+            }
+        }
+
+        if (modo == ModoDurabilidade.WAL) {
+            truncarWal();
+        }
+        // Nos modos MEMORIA e WAL a confirmação já foi dada e o conflito fica só no registo
+        Set<Mensagem> recusadas = Collections.newSetFromMap(new IdentityHashMap<>());
+        recusadas.addAll(conflitos);
+        for (Pendente pendente : lote) {
+            if (recusadas.contains(pendente.mensagem)) {
+                pendente.confirmacao.completeExceptionally(new ConflitoSequenciaException("Sequência "
+                        + pendente.mensagem.getSequencia() + " da sala " + pendente.mensagem.getNomeSala()
+                        + " já ocupada"));
+            } else {
+                pendente.confirmacao.complete(null);
+            }
+        }
+        logger.debug("Persistência - Lote de {} mensagens gravado no MongoDB", mensagens.size());
+    }
+
+    // -- -- -- -- -- -- -- -- -- WAL -- -- -- -- -- -- -- -- -- -- -- //
+
+    private synchronized void escreverWal(List<Mensagem> mensagens) throws IOException {
+        StringBuilder linhas = new StringBuilder();
+        for (Mensagem mensagem : mensagens) {
+            linhas.append(objectMapper.writeValueAsString(mensagem)).append('\n');
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(linhas.toString().getBytes(StandardCharsets.UTF_8));
+        if (wal == null) {
+            abrirWal();
+        }
+        while (buffer.hasRemaining()) {
+            wal.write(buffer);
+        }
+        wal.force(false);
+    }
+
+    /**
+     * Guarda no WAL as mensagens que não chegaram ao MongoDB no encerramento,
+     * para serem gravadas no arranque seguinte. No modo MONGO nenhuma foi
+     * confirmada: são concluídas com o erro e o remetente é avisado.
+     */
+    private synchronized void despejar(List<Pendente> lote, Exception causa) {
+        Exception erro = causa != null ? causa : new IllegalStateException("Persistência encerrada");
+        if (modo == ModoDurabilidade.MONGO) {
+            lote.forEach(pendente -> pendente.confirmacao.completeExceptionally(erro));
+            return;
+        }
+        List<Mensagem> mensagens = new ArrayList<>(lote.size());
+        for (Pendente pendente : lote) {
+            mensagens.add(pendente.mensagem);
+        }
+        try {
+            escreverWal(mensagens);
+            lote.forEach(pendente -> pendente.confirmacao.complete(null));
+            logger.warn("Persistência - {} mensagens guardadas no WAL para o próximo arranque", mensagens.size());
+        } catch (IOException e) {
+            logger.error("Persistência - Erro ao guardar no WAL, {} mensagens confirmadas perdidas",
+                    mensagens.size(), e);
+            lote.forEach(pendente -> pendente.confirmacao.completeExceptionally(e));
+        }
+    }
+
+    private void abrirWal() throws IOException {
+        Files.createDirectories(caminhoWal.toAbsolutePath().getParent());
+        wal = FileChannel.open(caminhoWal, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND);
+    }
+
+    // O escritor é único, por isso tudo o que está no WAL pertence ao lote que
+    // acabou de ser inserido, a não ser que já se tenha começado a despejar
+    private synchronized void truncarWal() {
+        if (despejarNoWal || wal == null) {
+            return;
+        }
+        try {
+            wal.truncate(0);
+            wal.force(false);
+        } catch (IOException e) {
+            logger.error("Persistência - Erro ao truncar o WAL", e);
+        }
+    }
+
+    private void recuperarWal() throws IOException {
+        if (!Files.exists(caminhoWal) || Files.size(caminhoWal) == 0) {
+            return;
+        }
+        List<Mensagem> mensagens = new ArrayList<>();
+        for (String linha : Files.readAllLines(caminhoWal, StandardCharsets.UTF_8)) {
+            if (!linha.isBlank()) {
+                mensagens.add(objectMapper.readValue(linha, Mensagem.class));
+            }
+        }
+        List<Mensagem> conflitos = gerenciadorZooKeeper.guardarMensagens(mensagens);
+        Files.write(caminhoWal, new byte[0], StandardOpenOption.TRUNCATE_EXISTING);
+        logger.info("Persistência - {} mensagens recuperadas do WAL ({} com a sequência já ocupada)",
+                mensagens.size(), conflitos.size());
+    }
+
+    private synchronized void fecharWal() {
+        if (wal != null) {
+            try {
+                wal.close();
+            } catch (IOException e) {
+                logger.error("Persistência - Erro ao fechar o WAL", e);
+            }
+            // Um escritor ainda preso no MongoDB volta a abri-lo para despejar
+            wal = null;
+        }
+    }
+
+    private static final class Pendente {
+        private final Mensagem mensagem;
+        private final CompletableFuture<Void> confirmacao = new CompletableFuture<>();
+
+        private Pendente(Mensagem mensagem) {
+            this.mensagem = mensagem;
+        }
+    }
+}
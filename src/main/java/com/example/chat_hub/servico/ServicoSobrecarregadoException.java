@@ -0,0 +1,20 @@
+package com.example.chat_hub.servico;
+
+/**
+ * Lançada quando um recurso limitado do servidor está saturado e o pedido é
+ * recusado de imediato em vez de ficar à espera. É respondida com HTTP 503 e
+ * o cabeçalho Retry-After.
+ */
+public class ServicoSobrecarregadoException extends RuntimeException {
+
+    private final int segundosAteNovaTentativa;
+
+    public ServicoSobrecarregadoException(String mensagem, int segundosAteNovaTentativa) {
+        super(mensagem);
+        this.segundosAteNovaTentativa = segundosAteNovaTentativa;
+    }
+
+    public int getSegundosAteNovaTentativa() {
+        return segundosAteNovaTentativa;
+    }
+}
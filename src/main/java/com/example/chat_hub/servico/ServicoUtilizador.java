@@ -1,34 +1,58 @@
 package com.example.chat_hub.servico;
 
+import com.example.chat_hub.modelo.InstantaneoPresenca;
 import com.example.chat_hub.modelo.Utilizador;
 import com.example.chat_hub.zookeeper.GerenciadorZooKeeper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.stereotype.Service;
 
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 
 @Service
 public class ServicoUtilizador {
 
+    private static final Logger logger = LoggerFactory.getLogger(ServicoUtilizador.class);
+
     @Autowired
     private GerenciadorZooKeeper gerenciadorZooKeeper;
 
+    @Autowired
+    private ServicoHashSenhas servicoHashSenhas;
+
+    // Executor dos pedidos assíncronos do Spring MVC: o que vem depois do bcrypt
+    // (escritas no ZooKeeper) não ocupa as threads de hash
+    @Autowired
+    @Qualifier("applicationTaskExecutor")
+    private Executor executorPedidos;
+
     // Lista nomes dos utilizadores por estado
     public List<String> listarNomesUtilizadoresPorStatus(String estado) {
-        return gerenciadorZooKeeper.listarUtilizadoresPorStatusZook(estado);
+        return gerenciadorZooKeeper.listarUtilizadoresPorEstado(estado);
     }
 
-    // Registra um novo utilizador
-    public void registo(String nomeUtilizador, String senha) {
-        if (!existeUsuario(nomeUtilizador)) {
+    // Estado de todos os utilizadores, com a versão a partir da qual aplicar deltas
+    public InstantaneoPresenca instantaneoPresenca() {
+        return gerenciadorZooKeeper.instantaneoPresenca();
+    }
+
+    // Registra um novo utilizador; conclui depois de gravado
+    public CompletableFuture<Void> registo(String nomeUtilizador, String senha) {
+        if (existeUsuario(nomeUtilizador)) {
+            return CompletableFuture.completedFuture(null);
+        }
+        return servicoHashSenhas.codificar(senha).thenAcceptAsync(hash -> {
             Utilizador utilizador = new Utilizador();
             utilizador.setNomeUtilizador(nomeUtilizador);
-            utilizador.setSenha(hashSenha(senha));
+            utilizador.setSenha(hash);
             utilizador.setStatus("offline");
             gerenciadorZooKeeper.registrarUsuario(utilizador);
             gerenciadorZooKeeper.registrarNovoUsuario(nomeUtilizador);
-        }
+        }, executorPedidos);
     }
 
     // Altera o estado de um utilizador
@@ -37,21 +61,45 @@ public class ServicoUtilizador {
         gerenciadorZooKeeper.atualizarEstadoUtilizador(nomeUtilizador, estado);
     }
 
-    // Valida um utilizador
-    public boolean validarUsuario(String nomeUtilizador, String senha) {
-        return gerenciadorZooKeeper.validarUsuario(nomeUtilizador, senha);
+    // Valida um utilizador; o bcrypt corre no conjunto de threads de hash
+    public CompletableFuture<Boolean> validarUsuario(String nomeUtilizador, String senha) {
+        Utilizador utilizador = gerenciadorZooKeeper.buscarUsuario(nomeUtilizador);
+        if (utilizador == null) {
+            return CompletableFuture.completedFuture(false);
+        }
+        String hash = utilizador.getSenha();
+        return servicoHashSenhas.verificar(senha, hash).thenApply(valido -> {
+            if (valido && servicoHashSenhas.precisaRecodificar(hash)) {
+                recodificarSenha(utilizador, senha);
+            }
+            return valido;
+        });
+    }
+
+    // Refaz o hash com o custo atual; se o servidor estiver ocupado fica para o próximo login
+    private void recodificarSenha(Utilizador utilizador, String senha) {
+        try {
+            servicoHashSenhas.codificar(senha).thenAcceptAsync(novoHash -> {
+                utilizador.setSenha(novoHash);
+                gerenciadorZooKeeper.atualizarUsuario(utilizador);
+            }, executorPedidos);
+        } catch (ServicoSobrecarregadoException e) {
+            logger.info("Recodificação da senha de " + utilizador.getNomeUtilizador() + " adiada.");
+        }
     }
 
-    // Altera a senha de um utilizador
-    public void alterarSenha(String nomeUtilizador, String novaSenha) {
+    // Altera a senha de um utilizador; conclui depois de gravada
+    public CompletableFuture<Void> alterarSenha(String nomeUtilizador, String novaSenha) {
         List<Utilizador> usuarios = gerenciadorZooKeeper.listarUtilizadoresPorNome(nomeUtilizador);
         for (Utilizador usuario : usuarios) {
             if (usuario != null) {
-                usuario.setSenha(hashSenha(novaSenha));
-                gerenciadorZooKeeper.atualizarUsuario(usuario);
-                break;
+                return servicoHashSenhas.codificar(novaSenha).thenAcceptAsync(hash -> {
+                    usuario.setSenha(hash);
+                    gerenciadorZooKeeper.atualizarUsuario(usuario);
+                }, executorPedidos);
             }
         }
+        return CompletableFuture.completedFuture(null);
     }
 
     // Apaga um utilizador
@@ -71,10 +119,4 @@ public class ServicoUtilizador {
         return gerenciadorZooKeeper.existeUsuario(nomeUtilizador);
     }
 
-    // Hash da senha
-    private String hashSenha(String senha) {
-        BCryptPasswordEncoder passwordEncoder = new BCryptPasswordEncoder();
-        return passwordEncoder.encode(senha);
-    }
-
 }
@@ -0,0 +1,83 @@
+package com.example.chat_hub.zookeeper;
+
+import com.example.chat_hub.config.ConfiguracaoWebSocket;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Agrupa as alterações de presença numa janela de tempo e envia-as a todos os
+ * clientes num único frame {@code presenca}.
+ *
+ * Um pico de logins passa a gerar um frame por janela, com o estado final de
+ * cada utilizador alterado, em vez de um pedido de recarga completa por
+ * alteração.
+ */
+@Component
+public class AgregadorPresenca {
+
+    private static final Logger logger = LoggerFactory.getLogger(AgregadorPresenca.class);
+
+    @Autowired
+    private TabelaPresenca tabelaPresenca;
+
+    @Autowired
+    private ConfiguracaoWebSocket configuracaoWebSocket;
+
+    private final long janelaMs;
+    private final ScheduledExecutorService agendador = Executors.newSingleThreadScheduledExecutor(tarefa -> {
+        Thread thread = new Thread(tarefa, "agregador-presenca");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final AtomicLong framesEnviados = new AtomicLong();
+    private final AtomicLong alteracoesEnviadas = new AtomicLong();
+
+    public AgregadorPresenca(@Value("${presenca.janela.ms:250}") long janelaMs) {
+        this.janelaMs = janelaMs;
+    }
+
+    @PostConstruct
+    public void iniciar() {
+        agendador.scheduleWithFixedDelay(this::publicar, janelaMs, janelaMs, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void encerrar() {
+        agendador.shutdown();
+        publicar();
+    }
+
+    private void publicar() {
+        try {
+            TabelaPresenca.Delta delta = tabelaPresenca.fecharDelta();
+            if (delta == null) {
+                return;
+            }
+            configuracaoWebSocket.notificarPresenca(delta.getVersaoBase(), delta.getVersao(),
+                    delta.getAlteracoes());
+            framesEnviados.incrementAndGet();
+            alteracoesEnviadas.addAndGet(delta.getAlteracoes().size());
+        } catch (RuntimeException e) {
+            logger.error("GesZook - Erro ao publicar alterações de presença", e);
+        }
+    }
+
+    public Map<String, Object> metricas() {
+        return Map.of(
+                "janelaMs", janelaMs,
+                "versao", tabelaPresenca.versao(),
+                "framesEnviados", framesEnviados.get(),
+                "alteracoesEnviadas", alteracoesEnviadas.get());
+    }
+}
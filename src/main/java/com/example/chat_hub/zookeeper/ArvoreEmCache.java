@@ -0,0 +1,129 @@
+package com.example.chat_hub.zookeeper;
+
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.recipes.cache.ChildData;
+import org.apache.curator.framework.recipes.cache.CuratorCache;
+import org.apache.curator.framework.recipes.cache.CuratorCacheListener;
+import org.apache.zookeeper.Watcher;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+
+/**
+ * Espelho local de uma árvore do ZooKeeper, mantido por um
+ * {@link CuratorCache}. O Curator regista o watch persistente recursivo e
+ * volta a ler a árvore depois de uma sessão nova, pelo que as leituras feitas
+ * aqui não vão ao servidor.
+ *
+ * Além dos dados de cada nó, guarda os nomes dos filhos de cada caminho, para
+ * que uma listagem não percorra a árvore inteira. Os eventos só são passados
+ * ao ouvinte depois da carga inicial; correm na thread de eventos do cliente.
+ */
+final class ArvoreEmCache implements Closeable {
+
+    private final String raiz;
+    private final CuratorCache cache;
+    private final Map<String, Set<String>> filhos = new ConcurrentHashMap<>();
+    private final CountDownLatch carregada = new CountDownLatch(1);
+
+    ArvoreEmCache(CuratorFramework curator, String raiz, BiConsumer<String, Watcher.Event.EventType> ouvinte) {
+        this.raiz = raiz;
+        this.cache = CuratorCache.build(curator, raiz);
+        cache.listenable().addListener(new CuratorCacheListener() {
+            @Override
+            public void event(Type tipo, ChildData anterior, ChildData atual) {
+                ChamadasZooKeeper.marcarThreadDeEventos();
+                String caminho = (atual != null ? atual : anterior).getPath();
+                indexar(tipo, caminho);
+                if (carregada.getCount() == 0) {
+                    ouvinte.accept(caminho, tipoDoEvento(tipo));
+                }
+            }
+
+            @Override
+            public void initialized() {
+                carregada.countDown();
+            }
+        });
+    }
+
+    void iniciar() {
+        cache.start();
+    }
+
+    boolean aguardarCarga(long tempoLimiteMs) throws InterruptedException {
+        return carregada.await(tempoLimiteMs, TimeUnit.MILLISECONDS);
+    }
+
+    String raiz() {
+        return raiz;
+    }
+
+    // null se o caminho não existir, como o NoNode de getChildren
+    List<String> filhos(String caminho) {
+        if (!existe(caminho)) {
+            return null;
+        }
+        Set<String> nomes = filhos.get(caminho);
+        return nomes != null ? new ArrayList<>(nomes) : new ArrayList<>();
+    }
+
+    byte[] dados(String caminho) {
+        return cache.get(caminho).map(ChildData::getData).orElse(null);
+    }
+
+    boolean existe(String caminho) {
+        return cache.get(caminho).isPresent();
+    }
+
+    int tamanho() {
+        return cache.size();
+    }
+
+    @Override
+    public void close() {
+        cache.close();
+    }
+
+    // Os eventos de uma árvore chegam todos pela mesma thread, por ordem
+    private void indexar(CuratorCacheListener.Type tipo, String caminho) {
+        if (tipo == CuratorCacheListener.Type.NODE_CHANGED) {
+            return;
+        }
+        if (tipo == CuratorCacheListener.Type.NODE_DELETED) {
+            filhos.remove(caminho);
+        }
+        if (caminho.equals(raiz)) {
+            return;
+        }
+        int barra = caminho.lastIndexOf('/');
+        String pai = caminho.substring(0, barra);
+        String nome = caminho.substring(barra + 1);
+        if (tipo == CuratorCacheListener.Type.NODE_CREATED) {
+            filhos.computeIfAbsent(pai, p -> ConcurrentHashMap.newKeySet()).add(nome);
+        } else {
+            Set<String> irmaos = filhos.get(pai);
+            if (irmaos != null) {
+                irmaos.remove(nome);
+            }
+        }
+    }
+
+    private static Watcher.Event.EventType tipoDoEvento(CuratorCacheListener.Type tipo) {
+        switch (tipo) {
+            case NODE_CREATED:
+                return Watcher.Event.EventType.NodeCreated;
+            case NODE_DELETED:
+                return Watcher.Event.EventType.NodeDeleted;
+            default:
+                return Watcher.Event.EventType.NodeDataChanged;
+        }
+    }
+}
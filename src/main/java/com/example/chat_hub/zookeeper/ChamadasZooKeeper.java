@@ -0,0 +1,295 @@
+package com.example.chat_hub.zookeeper;
+
+import org.apache.curator.CuratorZookeeperClient;
+import org.apache.curator.RetryLoop;
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.Op;
+import org.apache.zookeeper.OpResult;
+import org.apache.zookeeper.ZooDefs;
+import org.apache.zookeeper.ZooKeeper;
+import org.apache.zookeeper.data.Stat;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pedidos ao ZooKeeper feitos pela API assíncrona, com espera num
+ * {@link CompletableFuture}.
+ *
+ * A API síncrona do cliente espera pela resposta com {@code wait()} dentro de
+ * um bloco {@code synchronized}, o que prende a thread de plataforma que
+ * transporta uma thread virtual durante toda a ida e volta. Esperar num
+ * CompletableFuture liberta-a. Na thread de eventos do cliente usa-se a API
+ * síncrona, porque é essa thread que corre os callbacks. A espera está
+ * limitada ao tempo de sessão: um callback que não chegue dá
+ * {@link KeeperException.OperationTimeoutException}, repetida como as outras
+ * falhas de ligação.
+ *
+ * Cada pedido corre sobre a sessão atual do cliente Curator e é repetido,
+ * segundo a política de novas tentativas do cliente, quando falha por perda
+ * de ligação ou expiração da sessão. Um create ou um multi repetido pode já
+ * ter sido aplicado pela tentativa anterior, cuja resposta se perdeu: nesse
+ * caso o {@code NodeExists} da repetição conta como sucesso (num nó efémero,
+ * só se o nó for da sessão atual).
+ */
+final class ChamadasZooKeeper {
+
+    // Espera mínima por um callback, para quando a sessão ainda não foi negociada
+    private static final long TEMPO_LIMITE_MINIMO_MS = 1000;
+
+    // Marcada nas threads que correm callbacks e watches do cliente
+    private static final ThreadLocal<Boolean> THREAD_DE_EVENTOS = ThreadLocal.withInitial(() -> false);
+
+    private ChamadasZooKeeper() {
+    }
+
+    @FunctionalInterface
+    interface Pedido<T> {
+        T executar(ZooKeeper zooKeeper) throws KeeperException, InterruptedException;
+    }
+
+    static <T> T comRetry(CuratorZookeeperClient cliente, Pedido<T> pedido)
+            throws KeeperException, InterruptedException {
+        try {
+            return RetryLoop.callWithRetry(cliente, () -> pedido.executar(cliente.getZooKeeper()));
+        } catch (KeeperException | InterruptedException | RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IllegalStateException("Erro no pedido ao ZooKeeper", e);
+        }
+    }
+
+    static Stat exists(CuratorZookeeperClient cliente, String caminho) throws KeeperException, InterruptedException {
+        return comRetry(cliente, zooKeeper -> exists(zooKeeper, caminho));
+    }
+
+    static byte[] getData(CuratorZookeeperClient cliente, String caminho)
+            throws KeeperException, InterruptedException {
+        return comRetry(cliente, zooKeeper -> getData(zooKeeper, caminho));
+    }
+
+    // Preenche {@code stat} com o estado do nó lido, p.ex. para um compare-and-set pela versão
+    static byte[] getData(CuratorZookeeperClient cliente, String caminho, Stat stat)
+            throws KeeperException, InterruptedException {
+        return comRetry(cliente, zooKeeper -> getData(zooKeeper, caminho, stat));
+    }
+
+    static List<String> getChildren(CuratorZookeeperClient cliente, String caminho)
+            throws KeeperException, InterruptedException {
+        return comRetry(cliente, zooKeeper -> getChildren(zooKeeper, caminho));
+    }
+
+    static Stat setData(CuratorZookeeperClient cliente, String caminho, byte[] dados, int versao)
+            throws KeeperException, InterruptedException {
+        return comRetry(cliente, zooKeeper -> setData(zooKeeper, caminho, dados, versao));
+    }
+
+    static String create(CuratorZookeeperClient cliente, String caminho, byte[] dados, CreateMode modo)
+            throws KeeperException, InterruptedException {
+        AtomicInteger tentativas = new AtomicInteger();
+        return comRetry(cliente, zooKeeper -> {
+            boolean repeticao = tentativas.getAndIncrement() > 0;
+            try {
+                return create(zooKeeper, caminho, dados, modo);
+            } catch (KeeperException.NodeExistsException e) {
+                if (repeticao && criadoNestaSessao(zooKeeper, caminho, modo)) {
+                    return caminho;
+                }
+                throw e;
+            }
+        });
+    }
+
+    static void delete(CuratorZookeeperClient cliente, String caminho, int versao)
+            throws KeeperException, InterruptedException {
+        comRetry(cliente, zooKeeper -> {
+            delete(zooKeeper, caminho, versao);
+            return null;
+        });
+    }
+
+    /**
+     * Como {@link #multi(ZooKeeper, List)}, repetido quando a ligação falha.
+     *
+     * @return os resultados da transação, ou uma lista vazia se a repetição
+     *         encontrou a transação já aplicada por uma tentativa anterior
+     */
+    static List<OpResult> multi(CuratorZookeeperClient cliente, List<Op> operacoes)
+            throws KeeperException, InterruptedException {
+        AtomicInteger tentativas = new AtomicInteger();
+        return comRetry(cliente, zooKeeper -> {
+            boolean repeticao = tentativas.getAndIncrement() > 0;
+            try {
+                return multi(zooKeeper, operacoes);
+            } catch (KeeperException.NodeExistsException e) {
+                if (repeticao) {
+                    return List.of();
+                }
+                throw e;
+            }
+        });
+    }
+
+    // Um nó persistente que já existe na repetição foi criado pela tentativa
+    // anterior; um efémero só se pertencer à sessão atual, porque os de uma
+    // sessão expirada desaparecem com ela
+    private static boolean criadoNestaSessao(ZooKeeper zooKeeper, String caminho, CreateMode modo)
+            throws KeeperException, InterruptedException {
+        if (!modo.isEphemeral()) {
+            return true;
+        }
+        Stat stat = exists(zooKeeper, caminho);
+        return stat != null && stat.getEphemeralOwner() == zooKeeper.getSessionId();
+    }
+
+    // -- -- -- -- -- -- -- -- -- Pedidos assíncronos -- -- -- -- -- -- -- -- -- -- -- //
+
+    private static Stat exists(ZooKeeper zooKeeper, String caminho) throws KeeperException, InterruptedException {
+        if (naThreadDeEventos()) {
+            return zooKeeper.exists(caminho, false);
+        }
+        CompletableFuture<Stat> resultado = new CompletableFuture<>();
+        zooKeeper.exists(caminho, false, (rc, c, ctx, stat) -> concluir(resultado, rc,
+                KeeperException.Code.NONODE.intValue(), c, stat), null);
+        return aguardar(zooKeeper, resultado);
+    }
+
+    private static byte[] getData(ZooKeeper zooKeeper, String caminho) throws KeeperException, InterruptedException {
+        if (naThreadDeEventos()) {
+            return zooKeeper.getData(caminho, false, null);
+        }
+        CompletableFuture<byte[]> resultado = new CompletableFuture<>();
+        zooKeeper.getData(caminho, false, (rc, c, ctx, dados, stat) -> concluir(resultado, rc, -1, c, dados), null);
+        return aguardar(zooKeeper, resultado);
+    }
+
+    private static byte[] getData(ZooKeeper zooKeeper, String caminho, Stat stat)
+            throws KeeperException, InterruptedException {
+        if (naThreadDeEventos()) {
+            return zooKeeper.getData(caminho, false, stat);
+        }
+        CompletableFuture<byte[]> resultado = new CompletableFuture<>();
+        zooKeeper.getData(caminho, false, (rc, c, ctx, dados, lido) -> {
+            if (lido != null) {
+                copiar(lido, stat);
+            }
+            concluir(resultado, rc, -1, c, dados);
+        }, null);
+        return aguardar(zooKeeper, resultado);
+    }
+
+    private static List<String> getChildren(ZooKeeper zooKeeper, String caminho)
+            throws KeeperException, InterruptedException {
+        if (naThreadDeEventos()) {
+            return zooKeeper.getChildren(caminho, false);
+        }
+        CompletableFuture<List<String>> resultado = new CompletableFuture<>();
+        zooKeeper.getChildren(caminho, false, (rc, c, ctx, filhos) -> concluir(resultado, rc, -1, c, filhos), null);
+        return aguardar(zooKeeper, resultado);
+    }
+
+    private static Stat setData(ZooKeeper zooKeeper, String caminho, byte[] dados, int versao)
+            throws KeeperException, InterruptedException {
+        if (naThreadDeEventos()) {
+            return zooKeeper.setData(caminho, dados, versao);
+        }
+        CompletableFuture<Stat> resultado = new CompletableFuture<>();
+        zooKeeper.setData(caminho, dados, versao, (rc, c, ctx, stat) -> concluir(resultado, rc, -1, c, stat), null);
+        return aguardar(zooKeeper, resultado);
+    }
+
+    private static String create(ZooKeeper zooKeeper, String caminho, byte[] dados, CreateMode modo)
+            throws KeeperException, InterruptedException {
+        if (naThreadDeEventos()) {
+            return zooKeeper.create(caminho, dados, ZooDefs.Ids.OPEN_ACL_UNSAFE, modo);
+        }
+        CompletableFuture<String> resultado = new CompletableFuture<>();
+        zooKeeper.create(caminho, dados, ZooDefs.Ids.OPEN_ACL_UNSAFE, modo,
+                (rc, c, ctx, nome) -> concluir(resultado, rc, -1, c, nome), null);
+        return aguardar(zooKeeper, resultado);
+    }
+
+    private static void delete(ZooKeeper zooKeeper, String caminho, int versao) throws KeeperException, InterruptedException {
+        if (naThreadDeEventos()) {
+            zooKeeper.delete(caminho, versao);
+            return;
+        }
+        CompletableFuture<Void> resultado = new CompletableFuture<>();
+        zooKeeper.delete(caminho, versao, (rc, c, ctx) -> concluir(resultado, rc, -1, c, null), null);
+        aguardar(zooKeeper, resultado);
+    }
+
+    static List<OpResult> multi(ZooKeeper zooKeeper, List<Op> operacoes) throws KeeperException, InterruptedException {
+        if (naThreadDeEventos()) {
+            return zooKeeper.multi(operacoes);
+        }
+        CompletableFuture<List<OpResult>> resultado = new CompletableFuture<>();
+        zooKeeper.multi(operacoes, (rc, c, ctx, resultados) -> concluir(resultado, rc, -1, c, resultados), null);
+        return aguardar(zooKeeper, resultado);
+    }
+
+    // Os callbacks correm na thread de eventos do cliente: esperar por eles a
+    // partir dessa thread bloquearia o cliente
+    static boolean naThreadDeEventos() {
+        return THREAD_DE_EVENTOS.get();
+    }
+
+    // Chamado à entrada de cada callback e ouvinte de watches: a thread que os
+    // corre é a thread de eventos do cliente
+    static void marcarThreadDeEventos() {
+        THREAD_DE_EVENTOS.set(true);
+    }
+
+    static long tempoLimiteMs(ZooKeeper zooKeeper) {
+        return Math.max(zooKeeper.getSessionTimeout(), TEMPO_LIMITE_MINIMO_MS);
+    }
+
+    private static void copiar(Stat origem, Stat destino) {
+        destino.setCzxid(origem.getCzxid());
+        destino.setMzxid(origem.getMzxid());
+        destino.setCtime(origem.getCtime());
+        destino.setMtime(origem.getMtime());
+        destino.setVersion(origem.getVersion());
+        destino.setCversion(origem.getCversion());
+        destino.setAversion(origem.getAversion());
+        destino.setEphemeralOwner(origem.getEphemeralOwner());
+        destino.setDataLength(origem.getDataLength());
+        destino.setNumChildren(origem.getNumChildren());
+        destino.setPzxid(origem.getPzxid());
+    }
+
+    // Conclui o futuro com o resultado, com null para o código tolerado ou com a exceção do código
+    private static <T> void concluir(CompletableFuture<T> resultado, int rc, int toleravel, String caminho, T valor) {
+        marcarThreadDeEventos();
+        if (rc == KeeperException.Code.OK.intValue()) {
+            resultado.complete(valor);
+        } else if (rc == toleravel) {
+            resultado.complete(null);
+        } else {
+            resultado.completeExceptionally(KeeperException.create(KeeperException.Code.get(rc), caminho));
+        }
+    }
+
+    private static <T> T aguardar(ZooKeeper zooKeeper, CompletableFuture<T> resultado)
+            throws KeeperException, InterruptedException {
+        try {
+            return resultado.get(tempoLimiteMs(zooKeeper), TimeUnit.MILLISECONDS);
+        } catch (ExecutionException e) {
+            Throwable causa = e.getCause();
+            if (causa instanceof KeeperException) {
+                throw (KeeperException) causa;
+            }
+            if (causa instanceof RuntimeException) {
+                throw (RuntimeException) causa;
+            }
+            throw new IllegalStateException("Falha inesperada num pedido ao ZooKeeper", causa);
+        } catch (TimeoutException e) {
+            throw new KeeperException.OperationTimeoutException();
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package com.example.chat_hub.zookeeper;
+
+import com.example.chat_hub.config.FabricaThreads;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import jakarta.annotation.PreDestroy;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Executa o tratamento dos eventos do ZooKeeper fora da thread de eventos do
+ * cliente.
+ *
+ * Cada evento é encaminhado para uma faixa (uma thread) escolhida pela sua
+ * partição, normalmente a sala, o que mantém a ordem dentro da sala sem que
+ * uma sala lenta atrase as restantes. Eventos com a mesma chave de
+ * agrupamento que chegam enquanto a tarefa ainda está na fila são
+ * absorvidos por essa tarefa: como as tarefas releem o estado atual, uma
+ * única execução cobre toda a rajada.
+ */
+@Component
+public class DespachanteEventos {
+
+    private static final Logger logger = LoggerFactory.getLogger(DespachanteEventos.class);
+
+    private final ExecutorService[] faixas;
+    private final Set<String> pendentes = ConcurrentHashMap.newKeySet();
+    private final AtomicLong executados = new AtomicLong();
+    private final AtomicLong agrupados = new AtomicLong();
+
+    // Com threads virtuais uma faixa bloqueada num pedido ao ZooKeeper ou ao
+    // MongoDB não ocupa uma thread de plataforma, por isso usam-se mais faixas
+    private static final int FAIXAS_VIRTUAIS = 256;
+
+    public DespachanteEventos(@Value("${zookeeper.despacho.faixas:0}") int numeroFaixas,
+            @Value("${spring.threads.virtual.enabled:false}") boolean threadsVirtuais) {
+        boolean virtuais = FabricaThreads.virtuaisDisponiveis(threadsVirtuais);
+        int total = numeroFaixas > 0 ? numeroFaixas
+                : virtuais ? FAIXAS_VIRTUAIS : Runtime.getRuntime().availableProcessors();
+        this.faixas = new ExecutorService[total];
+        ThreadFactory fabricaThreads = FabricaThreads.criar("zk-despacho-", virtuais);
+        for (int i = 0; i < total; i++) {
+            faixas[i] = Executors.newSingleThreadExecutor(fabricaThreads);
+        }
+    }
+
+    /**
+     * Agenda a tarefa na faixa da partição. Se já houver uma tarefa com a
+     * mesma chave de agrupamento à espera, esta é descartada.
+     */
+    public void despachar(String particao, String chaveAgrupamento, Runnable tarefa) {
+        if (!pendentes.add(chaveAgrupamento)) {
+            agrupados.incrementAndGet();
+            return;
+        }
+        faixas[Math.floorMod(particao.hashCode(), faixas.length)].execute(() -> {
+            // Sai dos pendentes antes de executar: um evento que chegue durante a
+            // execução agenda uma nova passagem
+            pendentes.remove(chaveAgrupamento);
+            try {
+                tarefa.run();
+            } catch (RuntimeException e) {
+                logger.error("GesZook - Erro ao tratar evento " + chaveAgrupamento, e);
+            } finally {
+                executados.incrementAndGet();
+            }
+        });
+    }
+
+    public Map<String, Object> metricas() {
+        return Map.of(
+                "faixas", faixas.length,
+                "pendentes", pendentes.size(),
+                "executados", executados.get(),
+                "agrupados", agrupados.get());
+    }
+
+    @PreDestroy
+    public void encerrar() {
+        for (ExecutorService faixa : faixas) {
+            faixa.shutdown();
+        }
+        try {
+            for (ExecutorService faixa : faixas) {
+                faixa.awaitTermination(5, TimeUnit.SECONDS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,379 @@
+package com.example.chat_hub.zookeeper;
+
+import com.example.chat_hub.cluster.BarramentoNos;
+import com.example.chat_hub.config.ConfiguracaoWebSocket;
+import com.example.chat_hub.modelo.Mensagem;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.TextMessage;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Caminho único de entrega das mensagens novas aos clientes deste nó.
+ *
+ * A pipeline de ingestão (mensagens sequenciadas aqui), o watch em
+ * /chats/&lt;sala&gt;/mensagens e o barramento entre nós passam todos por
+ * aqui. Cada sala guarda os ids das últimas mensagens entregues num buffer
+ * circular, pelo que uma mensagem que chegue por mais de um caminho é
+ * codificada e enviada uma única vez. As mensagens publicadas neste nó
+ * seguem, já codificadas, para os nós com destinatários na sala.
+ *
+ * O offset de cada sala só avança sem buracos. Uma mensagem que chegue antes
+ * das anteriores (outro nó gravou-a primeiro, um frame perdeu-se no
+ * barramento, a fila de distribuição estava cheia) fica retida e as que
+ * faltam são pedidas ao registo local ou ao MongoDB. Um buraco que não se
+ * feche em {@code mensagens.entrega.esperaBuracoMs} (p.ex. uma sequência
+ * reservada por um nó que caiu antes de a gravar) é saltado, tal como quando
+ * as retidas de uma sala enchem a janela.
+ */
+@Component
+public class DistribuidorMensagens {
+
+    private static final Logger logger = LoggerFactory.getLogger(DistribuidorMensagens.class);
+
+    @Autowired
+    private ConfiguracaoWebSocket configuracaoWebSocket;
+
+    @Autowired
+    private BarramentoNos barramentoNos;
+
+    // Lê as mensagens em falta de uma sala; o gerenciador também depende deste distribuidor
+    @Autowired
+    @Lazy
+    private GerenciadorZooKeeper gerenciadorZooKeeper;
+
+    private final int capacidadeJanela;
+    private final long esperaBuracoMs;
+    private final Map<String, JanelaDeduplicacao> janelas = new ConcurrentHashMap<>();
+    // Salas com mensagens retidas à frente de um buraco
+    private final Set<String> salasComRetidas = ConcurrentHashMap.newKeySet();
+    private final ScheduledExecutorService verificador = Executors.newSingleThreadScheduledExecutor(tarefa -> {
+        Thread thread = new Thread(tarefa, "distribuidor-buracos");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final AtomicLong entregues = new AtomicLong();
+    private final AtomicLong duplicadas = new AtomicLong();
+    private final AtomicLong recebidasDeOutrosNos = new AtomicLong();
+    private final AtomicLong retidas = new AtomicLong();
+    private final AtomicLong sequenciasSaltadas = new AtomicLong();
+
+    public DistribuidorMensagens(@Value("${mensagens.deduplicacao.janela:1024}") int capacidadeJanela,
+            @Value("${mensagens.entrega.esperaBuracoMs:2000}") long esperaBuracoMs) {
+        this.capacidadeJanela = Math.max(1, capacidadeJanela);
+        this.esperaBuracoMs = esperaBuracoMs;
+    }
+
+    @PostConstruct
+    public void iniciar() {
+        long intervalo = Math.max(10, esperaBuracoMs / 4);
+        verificador.scheduleWithFixedDelay(this::verificarBuracos, intervalo, intervalo, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void encerrar() {
+        verificador.shutdownNow();
+    }
+
+    /**
+     * Mensagem sequenciada e persistida neste nó. Segue logo para os outros nós,
+     * que a ordenam do seu lado, mesmo que aqui fique retida ou já tenha sido
+     * entregue a partir do registo local.
+     */
+    public boolean publicar(Mensagem mensagem) {
+        if (mensagem.isAnulada() || mensagem.getSequencia() == null) {
+            return entregar(mensagem);
+        }
+        String sala = mensagem.getNomeSala();
+        TextMessage frame = configuracaoWebSocket.codificarNovaMensagem(sala, mensagem);
+        boolean aceite = aceitar(sala, mensagem.getSequencia(), new Retida(mensagem, frame));
+        barramentoNos.reencaminhar(sala, mensagem.getId(), mensagem.getSequencia(), frame.asBytes());
+        return aceite;
+    }
+
+    /**
+     * Envia a mensagem às sessões da sala pela ordem das sequências, a não ser
+     * que já tenha sido entregue.
+     *
+     * @return {@code false} se a mensagem já tinha sido entregue (ou saltada)
+     */
+    public boolean entregar(Mensagem mensagem) {
+        if (mensagem.getSequencia() == null) {
+            return entregarSemSequencia(mensagem);
+        }
+        return aceitar(mensagem.getNomeSala(), mensagem.getSequencia(), new Retida(mensagem, null));
+    }
+
+    // Frame já codificado vindo de outro nó pelo barramento
+    public boolean entregarRemota(String sala, String id, long sequencia, byte[] frame) {
+        if (!aceitar(sala, sequencia, new Retida(id, new TextMessage(frame)))) {
+            return false;
+        }
+        recebidasDeOutrosNos.incrementAndGet();
+        return true;
+    }
+
+    // Entrega já a mensagem seguinte ao offset e as retidas que ela desbloqueia;
+    // uma mais à frente fica retida e as que faltam são pedidas
+    private boolean aceitar(String sala, long sequencia, Retida retida) {
+        JanelaDeduplicacao janela = janelas.computeIfAbsent(sala, s -> new JanelaDeduplicacao(capacidadeJanela));
+        boolean pedirEmFalta = false;
+        // O envio fica dentro do lock para que as mensagens de uma sala saiam pela ordem das sequências
+        synchronized (janela) {
+            if (sequencia <= janela.ultimoOffset || janela.retidas.containsKey(sequencia)) {
+                duplicadas.incrementAndGet();
+                logger.debug("GesZook - Sequência {} da sala {} já entregue", sequencia, sala);
+                return false;
+            }
+            if (sequencia > janela.ultimoOffset + 1) {
+                pedirEmFalta = janela.retidas.isEmpty();
+                if (pedirEmFalta) {
+                    janela.retidaDesde = System.nanoTime();
+                    salasComRetidas.add(sala);
+                }
+                janela.retidas.put(sequencia, retida);
+                retidas.incrementAndGet();
+                if (janela.retidas.size() > capacidadeJanela) {
+                    logger.warn("GesZook - Janela da sala {} cheia de mensagens retidas; buraco saltado", sala);
+                    saltarBuraco(sala, janela);
+                }
+            } else {
+                enviar(sala, janela, sequencia, retida);
+                libertarSeguintes(sala, janela);
+            }
+        }
+        if (pedirEmFalta) {
+            gerenciadorZooKeeper.pedirMensagensEmFalta(sala);
+        }
+        return true;
+    }
+
+    private void enviar(String sala, JanelaDeduplicacao janela, long sequencia, Retida retida) {
+        janela.ultimoOffset = sequencia;
+        // A lápide só avança o offset da sala
+        if (retida.mensagem != null && retida.mensagem.isAnulada()) {
+            return;
+        }
+        if (!janela.registar(retida.id)) {
+            duplicadas.incrementAndGet();
+            return;
+        }
+        TextMessage frame = retida.frame != null ? retida.frame
+                : configuracaoWebSocket.codificarNovaMensagem(sala, retida.mensagem);
+        configuracaoWebSocket.enviarFrameSala(sala, frame);
+        entregues.incrementAndGet();
+    }
+
+    private void libertarSeguintes(String sala, JanelaDeduplicacao janela) {
+        boolean havia = !janela.retidas.isEmpty();
+        while (!janela.retidas.isEmpty() && janela.retidas.firstKey() == janela.ultimoOffset + 1) {
+            Map.Entry<Long, Retida> seguinte = janela.retidas.pollFirstEntry();
+            enviar(sala, janela, seguinte.getKey(), seguinte.getValue());
+        }
+        if (janela.retidas.isEmpty()) {
+            salasComRetidas.remove(sala);
+        } else if (havia) {
+            // Há um novo buraco mais à frente: o prazo conta a partir de agora
+            janela.retidaDesde = System.nanoTime();
+        }
+    }
+
+    private void saltarBuraco(String sala, JanelaDeduplicacao janela) {
+        long primeira = janela.retidas.firstKey();
+        sequenciasSaltadas.addAndGet(primeira - janela.ultimoOffset - 1);
+        logger.warn("GesZook - Sequências {} a {} da sala {} saltadas", janela.ultimoOffset + 1, primeira - 1, sala);
+        janela.ultimoOffset = primeira - 1;
+        libertarSeguintes(sala, janela);
+    }
+
+    // Volta a pedir as mensagens em falta e salta os buracos que passaram do prazo
+    private void verificarBuracos() {
+        long agora = System.nanoTime();
+        for (String sala : salasComRetidas) {
+            JanelaDeduplicacao janela = janelas.get(sala);
+            if (janela == null) {
+                salasComRetidas.remove(sala);
+                continue;
+            }
+            boolean pedir;
+            synchronized (janela) {
+                if (janela.retidas.isEmpty()) {
+                    salasComRetidas.remove(sala);
+                    continue;
+                }
+                if (agora - janela.retidaDesde > TimeUnit.MILLISECONDS.toNanos(esperaBuracoMs)) {
+                    saltarBuraco(sala, janela);
+                }
+                pedir = !janela.retidas.isEmpty();
+            }
+            if (pedir) {
+                try {
+                    gerenciadorZooKeeper.pedirMensagensEmFalta(sala);
+                } catch (RuntimeException e) {
+                    logger.error("GesZook - Erro ao pedir as mensagens em falta da sala " + sala, e);
+                }
+            }
+        }
+    }
+
+    // Mensagens sem sequência só passam pela janela de ids
+    private boolean entregarSemSequencia(Mensagem mensagem) {
+        String sala = mensagem.getNomeSala();
+        JanelaDeduplicacao janela = janelas.computeIfAbsent(sala, s -> new JanelaDeduplicacao(capacidadeJanela));
+        synchronized (janela) {
+            if (mensagem.isAnulada()) {
+                return false;
+            }
+            if (!janela.registar(mensagem.getId())) {
+                duplicadas.incrementAndGet();
+                logger.debug("GesZook - Mensagem {} já entregue na sala {}", mensagem.getId(), sala);
+                return false;
+            }
+            configuracaoWebSocket.enviarFrameSala(sala, configuracaoWebSocket.codificarNovaMensagem(sala, mensagem));
+        }
+        entregues.incrementAndGet();
+        return true;
+    }
+
+    // Último offset da sala já entregue (ou dado como entregue); -1 se nenhum
+    public long ultimoOffset(String sala) {
+        JanelaDeduplicacao janela = janelas.get(sala);
+        if (janela == null) {
+            return -1;
+        }
+        synchronized (janela) {
+            return janela.ultimoOffset;
+        }
+    }
+
+    // Sequência da primeira mensagem retida na sala; -1 se não houver
+    public long primeiraRetida(String sala) {
+        JanelaDeduplicacao janela = janelas.get(sala);
+        if (janela == null) {
+            return -1;
+        }
+        synchronized (janela) {
+            return janela.retidas.isEmpty() ? -1 : janela.retidas.firstKey();
+        }
+    }
+
+    /**
+     * Ponto de partida de uma sala que ainda não entregou nada: as mensagens
+     * até ao offset indicado contam como entregues sem serem enviadas (p.ex. o
+     * histórico anterior ao arranque). Numa sala que já entregou mensagens não
+     * faz nada, para nunca saltar por cima de uma por entregar.
+     */
+    public void iniciarEm(String sala, long offset) {
+        JanelaDeduplicacao janela = janelas.computeIfAbsent(sala, s -> new JanelaDeduplicacao(capacidadeJanela));
+        synchronized (janela) {
+            if (janela.ultimoOffset >= 0 || offset < 0) {
+                return;
+            }
+            janela.ultimoOffset = offset;
+            janela.retidas.headMap(offset, true).clear();
+            libertarSeguintes(sala, janela);
+        }
+    }
+
+    public void removerSala(String sala) {
+        janelas.remove(sala);
+        salasComRetidas.remove(sala);
+    }
+
+    public void limpar() {
+        janelas.clear();
+        salasComRetidas.clear();
+    }
+
+    public Map<String, Object> metricas() {
+        int retidasAgora = 0;
+        for (String sala : new ArrayList<>(salasComRetidas)) {
+            JanelaDeduplicacao janela = janelas.get(sala);
+            if (janela != null) {
+                synchronized (janela) {
+                    retidasAgora += janela.retidas.size();
+                }
+            }
+        }
+        return Map.of(
+                "salas", janelas.size(),
+                "capacidadeJanela", capacidadeJanela,
+                "entregues", entregues.get(),
+                "duplicadasDescartadas", duplicadas.get(),
+                "recebidasDeOutrosNos", recebidasDeOutrosNos.get(),
+                "retidas", retidas.get(),
+                "retidasAgora", retidasAgora,
+                "sequenciasSaltadas", sequenciasSaltadas.get());
+    }
+
+    // Mensagem à espera de entrega: local (codificada no envio) ou já codificada
+    private static final class Retida {
+
+        private final Mensagem mensagem;
+        private final String id;
+        private final TextMessage frame;
+
+        Retida(Mensagem mensagem, TextMessage frame) {
+            this.mensagem = mensagem;
+            this.id = mensagem.getId();
+            this.frame = frame;
+        }
+
+        Retida(String id, TextMessage frame) {
+            this.mensagem = null;
+            this.id = id;
+            this.frame = frame;
+        }
+    }
+
+    // Ids das últimas mensagens entregues numa sala, num buffer circular de tamanho
+    // fixo, e as mensagens retidas à frente de um buraco
+    private static final class JanelaDeduplicacao {
+
+        private final String[] ids;
+        private final Set<String> presentes;
+        private final TreeMap<Long, Retida> retidas = new TreeMap<>();
+        private int proxima;
+        private long ultimoOffset = -1;
+        // Momento em que o buraco atual foi encontrado
+        private long retidaDesde;
+
+        JanelaDeduplicacao(int capacidade) {
+            this.ids = new String[capacidade];
+            this.presentes = new HashSet<>(capacidade * 2);
+        }
+
+        // Devolve false se o id já estava na janela; o mais antigo sai quando está cheia
+        boolean registar(String id) {
+            if (id == null) {
+                return true;
+            }
+            if (!presentes.add(id)) {
+                return false;
+            }
+            String removido = ids[proxima];
+            if (removido != null) {
+                presentes.remove(removido);
+            }
+            ids[proxima] = id;
+            proxima = (proxima + 1) % ids.length;
+            return true;
+        }
+    }
+}
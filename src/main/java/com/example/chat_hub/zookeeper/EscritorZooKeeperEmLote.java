@@ -0,0 +1,133 @@
+package com.example.chat_hub.zookeeper;
+
+import org.apache.curator.CuratorZookeeperClient;
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.Op;
+import org.apache.zookeeper.ZooDefs;
+import org.apache.zookeeper.ZooKeeper;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Escritas em lote no ZooKeeper através de transações {@code multi}.
+ *
+ * As operações de um {@link Lote} são aplicadas numa única ida e volta ao
+ * quórum e de forma atómica: ou são todas aplicadas ou nenhuma. Lotes maiores
+ * do que o limite de operações ou de bytes (o pedido tem de caber no
+ * jute.maxbuffer do servidor, 1 MB por omissão) são divididos em várias
+ * transações aplicadas por ordem; nesse caso a atomicidade é apenas por
+ * transação e a primeira que falhar interrompe as seguintes. Depois de uma
+ * perda de ligação o lote continua na primeira transação ainda por confirmar,
+ * que pode já ter sido aplicada: se a repetição falhar com {@code NodeExists}
+ * ou {@code NoNode} a transação conta como aplicada.
+ */
+@Component
+public class EscritorZooKeeperEmLote {
+
+    // Estimativa do enquadramento de cada operação no pedido (cabeçalho, ACL, flags)
+    private static final int BYTES_POR_OPERACAO = 64;
+
+    private final int maximoOperacoes;
+    private final int maximoBytes;
+    private final AtomicLong transacoes = new AtomicLong();
+    private final AtomicLong operacoes = new AtomicLong();
+
+    public EscritorZooKeeperEmLote(@Value("${zookeeper.escrita.lote:1000}") int maximoOperacoes,
+            @Value("${zookeeper.escrita.maxBytes:900000}") int maximoBytes) {
+        this.maximoOperacoes = maximoOperacoes;
+        this.maximoBytes = maximoBytes;
+    }
+
+    public Lote novoLote() {
+        return new Lote();
+    }
+
+    public Map<String, Object> metricas() {
+        return Map.of(
+                "transacoes", transacoes.get(),
+                "operacoes", operacoes.get());
+    }
+
+    public final class Lote {
+
+        private final List<List<Op>> transacoesDoLote = new ArrayList<>();
+        private List<Op> atual = new ArrayList<>();
+        private int bytesAtual;
+
+        private Lote() {
+        }
+
+        public Lote criar(String caminho, byte[] dados, CreateMode modo) {
+            return adicionar(Op.create(caminho, dados, ZooDefs.Ids.OPEN_ACL_UNSAFE, modo), caminho, dados.length);
+        }
+
+        public Lote apagar(String caminho) {
+            return adicionar(Op.delete(caminho, -1), caminho, 0);
+        }
+
+        public boolean isVazio() {
+            return transacoesDoLote.isEmpty() && atual.isEmpty();
+        }
+
+        public void executar(CuratorZookeeperClient cliente) throws KeeperException, InterruptedException {
+            AtomicInteger tentativas = new AtomicInteger();
+            ChamadasZooKeeper.comRetry(cliente, zooKeeper -> {
+                executar(zooKeeper, tentativas.getAndIncrement() > 0);
+                return null;
+            });
+        }
+
+        void executar(ZooKeeper zooKeeper) throws KeeperException, InterruptedException {
+            executar(zooKeeper, false);
+        }
+
+        // Cada transação sai do lote quando é confirmada: uma nova tentativa não
+        // repete as que já foram aplicadas. Numa repetição a primeira transação é
+        // a que estava em curso quando a ligação falhou
+        void executar(ZooKeeper zooKeeper, boolean repeticao) throws KeeperException, InterruptedException {
+            fecharAtual();
+            boolean incerta = repeticao;
+            while (!transacoesDoLote.isEmpty()) {
+                List<Op> transacao = transacoesDoLote.get(0);
+                try {
+                    ChamadasZooKeeper.multi(zooKeeper, transacao);
+                } catch (KeeperException.NodeExistsException | KeeperException.NoNodeException e) {
+                    if (!incerta) {
+                        throw e;
+                    }
+                }
+                incerta = false;
+                transacoesDoLote.remove(0);
+                transacoes.incrementAndGet();
+                operacoes.addAndGet(transacao.size());
+            }
+        }
+
+        private Lote adicionar(Op op, String caminho, int bytesDados) {
+            int tamanho = BYTES_POR_OPERACAO + caminho.getBytes(StandardCharsets.UTF_8).length + bytesDados;
+            if (!atual.isEmpty() && (atual.size() == maximoOperacoes || bytesAtual + tamanho > maximoBytes)) {
+                fecharAtual();
+            }
+            atual.add(op);
+            bytesAtual += tamanho;
+            return this;
+        }
+
+        // Fecha a transação em construção; a seguinte começa sem bytes contados
+        private void fecharAtual() {
+            if (!atual.isEmpty()) {
+                transacoesDoLote.add(atual);
+                atual = new ArrayList<>();
+            }
+            bytesAtual = 0;
+        }
+    }
+}
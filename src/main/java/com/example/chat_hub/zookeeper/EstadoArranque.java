@@ -0,0 +1,47 @@
+package com.example.chat_hub.zookeeper;
+
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Indica se o estado em memória (presença, participação, histórico local) já
+ * foi reconstruído e a aplicação pode servir pedidos.
+ *
+ * Começa indisponível; passa a pronto só quando uma sincronização com o
+ * ZooKeeper termina sem erros (as falhadas são repetidas) e volta a
+ * indisponível durante um reset das bases de dados ou quando a sessão do
+ * ZooKeeper se perde, até à sincronização seguinte.
+ */
+@Component
+public class EstadoArranque {
+
+    private volatile boolean pronto;
+    private volatile long duracaoUltimaSincronizacaoMs = -1;
+    private final AtomicLong falhasSincronizacao = new AtomicLong();
+
+    public boolean isPronto() {
+        return pronto;
+    }
+
+    public void marcarPronto(long duracaoMs) {
+        this.duracaoUltimaSincronizacaoMs = duracaoMs;
+        this.pronto = true;
+    }
+
+    public void marcarIndisponivel() {
+        this.pronto = false;
+    }
+
+    public void registarFalha() {
+        falhasSincronizacao.incrementAndGet();
+    }
+
+    public Map<String, Object> metricas() {
+        return Map.of(
+                "pronto", pronto,
+                "duracaoUltimaSincronizacaoMs", duracaoUltimaSincronizacaoMs,
+                "falhasSincronizacao", falhasSincronizacao.get());
+    }
+}
@@ -0,0 +1,84 @@
+package com.example.chat_hub.zookeeper;
+
+import org.apache.curator.framework.state.ConnectionState;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+
+/**
+ * Estado da ligação do cliente Curator ao ZooKeeper e tempos de recuperação.
+ *
+ * Uma quebra começa na primeira suspensão ou perda da ligação (ou quando a
+ * expiração da sessão é forçada) e mede-se até à religação e até ao fim da
+ * sincronização do estado em memória que se lhe segue.
+ */
+@Component
+public class EstadoLigacaoZooKeeper {
+
+    private ConnectionState estado;
+    private long inicioQuebra = -1;
+    private boolean aRecuperar;
+    private long suspensoes;
+    private long perdas;
+    private long religacoes;
+    private long expiracoesForcadas;
+    private long ultimaReligacaoMs = -1;
+    private long ultimaRecuperacaoMs = -1;
+
+    public synchronized void registar(ConnectionState novo) {
+        estado = novo;
+        switch (novo) {
+            case SUSPENDED:
+                suspensoes++;
+                iniciarQuebra();
+                break;
+            case LOST:
+                perdas++;
+                iniciarQuebra();
+                break;
+            case RECONNECTED:
+                religacoes++;
+                if (inicioQuebra >= 0) {
+                    ultimaReligacaoMs = (System.nanoTime() - inicioQuebra) / 1_000_000;
+                    aRecuperar = true;
+                }
+                break;
+            default:
+        }
+    }
+
+    public synchronized void registarExpiracaoForcada() {
+        expiracoesForcadas++;
+        iniciarQuebra();
+    }
+
+    // Chamado no fim de cada sincronização do estado com o ZooKeeper
+    public synchronized void registarSincronizacao() {
+        if (aRecuperar) {
+            ultimaRecuperacaoMs = (System.nanoTime() - inicioQuebra) / 1_000_000;
+            inicioQuebra = -1;
+            aRecuperar = false;
+        }
+    }
+
+    public synchronized boolean isLigado() {
+        return estado != null && estado.isConnected();
+    }
+
+    public synchronized Map<String, Object> metricas() {
+        return Map.of(
+                "estado", estado != null ? estado.name() : "A_LIGAR",
+                "suspensoes", suspensoes,
+                "perdas", perdas,
+                "religacoes", religacoes,
+                "expiracoesForcadas", expiracoesForcadas,
+                "ultimaReligacaoMs", ultimaReligacaoMs,
+                "ultimaRecuperacaoMs", ultimaRecuperacaoMs);
+    }
+
+    private void iniciarQuebra() {
+        if (inicioQuebra < 0) {
+            inicioQuebra = System.nanoTime();
+        }
+    }
+}
@@ -1,37 +1,87 @@
 package com.example.chat_hub.zookeeper;
 
+import com.example.chat_hub.armazenamento.CacheMensagensRecentes;
+import com.example.chat_hub.cluster.BarramentoNos;
+import com.example.chat_hub.cluster.DistribuicaoSalas;
+import com.example.chat_hub.armazenamento.RegistoMensagens;
 import com.example.chat_hub.config.ConfiguracaoWebSocket;
 import com.example.chat_hub.modelo.Chat;
+import com.example.chat_hub.modelo.InstantaneoPresenca;
 import com.example.chat_hub.modelo.Mensagem;
+import com.example.chat_hub.modelo.PaginaMensagens;
 import com.example.chat_hub.modelo.Utilizador;
 import com.example.chat_hub.repositorio.RepositorioChat;
 import com.example.chat_hub.repositorio.RepositorioMensagem;
+import com.example.chat_hub.repositorio.DiretorioUtilizadores;
 import com.example.chat_hub.repositorio.RepositorioUtilizador;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import org.apache.curator.CuratorZookeeperClient;
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.state.ConnectionState;
 import org.apache.zookeeper.*;
 import org.apache.zookeeper.data.Stat;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.stereotype.Component;
 
 import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
 
 @Component
-public class GerenciadorZooKeeper implements Watcher {
+public class GerenciadorZooKeeper {
+
+    /**
+     * QUENTE mantém os dados existentes e reconstrói o estado em memória a
+     * partir deles; LIMPO apaga o ZooKeeper, o MongoDB e o registo local no
+     * arranque.
+     */
+    public enum ModoArranque {
+        QUENTE, LIMPO
+    }
 
-    private ZooKeeper zooKeeper;
+    // Sessão gerida pelo Curator; os pedidos correm sempre sobre a sessão atual
+    private CuratorZookeeperClient cliente;
     private String zookeeperServer;
     private int sessionTimeout;
+    private final int timeoutLigacao;
+    private final ModoArranque modoArranque;
     private ObjectMapper objectMapper;
 
     private static final Logger logger = LoggerFactory.getLogger(GerenciadorZooKeeper.class);
+    // Mensagens lidas do MongoDB de cada vez ao alinhar o registo local
+    private static final int TAMANHO_PAGINA_ALINHAMENTO = 500;
+    // Espera antes de repetir uma sincronização falhada, duplicada a cada falha seguida
+    private static final long ESPERA_BASE_SINCRONIZACAO_MS = 500;
+    private static final long ESPERA_MAXIMA_SINCRONIZACAO_MS = 30_000;
+    // Próxima sequência por reservar de cada sala, fora de /chats para que as
+    // reservas não acordem as árvores em cache dos outros nós
+    private static final String RAIZ_RESERVAS = "/reservas";
 
     @Autowired
     private RepositorioUtilizador repositorioUtilizador;
@@ -45,11 +95,104 @@ public class GerenciadorZooKeeper implements Watcher {
     @Autowired
     private ConfiguracaoWebSocket configuracaoWebSocket;
 
+    @Autowired
+    private RegistoMensagens registoMensagens;
+
+    @Autowired
+    private LeitorZooKeeperEmLote leitorEmLote;
+
+    @Autowired
+    private EscritorZooKeeperEmLote escritorEmLote;
+
+    @Autowired
+    private TabelaPresenca tabelaPresenca;
+
+    @Autowired
+    private IndiceParticipacao indiceParticipacao;
+
+    @Autowired
+    private DespachanteEventos despachanteEventos;
+
+    @Autowired
+    private EstadoArranque estadoArranque;
+
+    @Autowired
+    private DistribuidorMensagens distribuidorMensagens;
+
+    @Autowired
+    private CacheMensagensRecentes cacheMensagens;
+
+    @Autowired
+    private DiretorioUtilizadores diretorioUtilizadores;
+
+    @Autowired
+    private BarramentoNos barramentoNos;
+
+    @Autowired
+    private DistribuicaoSalas distribuicaoSalas;
+
+    @Autowired
+    private CuratorFramework curator;
+
+    @Autowired
+    private EstadoLigacaoZooKeeper estadoLigacao;
+
+    // Espelhos locais de /utilizadores, /chats e /nodos, que servem as leituras
+    private volatile ArvoreEmCache arvoreUtilizadores;
+    private volatile ArvoreEmCache arvoreChats;
+    private volatile ArvoreEmCache arvoreNodos;
+    // Sessão em que as árvores em cache terminaram a carga; 0 se ainda não terminaram
+    private volatile long sessaoDasArvores;
+    private final AtomicLong eventosDespachados = new AtomicLong();
+    // Salas cujo registo local chegou à última sequência conhecida; as outras são lidas do MongoDB
+    private final Set<String> salasAlinhadas = ConcurrentHashMap.newKeySet();
+    // Serializa as escritas no registo local e na cache de cada sala. Os trincos
+    // são ReentrantLock porque o alinhamento lê o MongoDB com o trinco adquirido:
+    // um bloco synchronized prenderia a thread de plataforma de uma thread virtual
+    private final Map<String, ReentrantLock> trincosSala = new ConcurrentHashMap<>();
+    private final ReentrantLock trincoReset = new ReentrantLock();
+    // Próxima sequência e versão de /reservas/<sala> depois da última reserva deste
+    // nó: enquanto nenhum outro nó reservar na sala, o compare-and-set dispensa a leitura
+    private final Map<String, Reserva> reservas = new ConcurrentHashMap<>();
+    // Cabeças gravadas no MongoDB e ainda por publicar em /chats/<sala>/mensagens
+    private final Map<String, Long> cabecasPorPublicar = new ConcurrentHashMap<>();
+    private final long intervaloCabecaMs;
+    private final AtomicLong reservasFeitas = new AtomicLong();
+    private final AtomicLong sequenciasReservadas = new AtomicLong();
+    private final AtomicLong reservasRepetidas = new AtomicLong();
+    private final AtomicLong reservasVedadas = new AtomicLong();
+    private final AtomicLong cabecasPublicadas = new AtomicLong();
+    // Época deste nó no cluster: o czxid de /nodos/<id>, válido só na sessão que o criou
+    private volatile Epoca epocaNo;
+    private final AtomicInteger falhasSincronizacaoSeguidas = new AtomicInteger();
+    private final ScheduledExecutorService agendadorRetentativas = Executors.newSingleThreadScheduledExecutor(
+            tarefa -> {
+                Thread thread = new Thread(tarefa, "gesZook-retentativas");
+                thread.setDaemon(true);
+                return thread;
+            });
+    private final ScheduledExecutorService agendadorCabecas = Executors.newSingleThreadScheduledExecutor(
+            tarefa -> {
+                Thread thread = new Thread(tarefa, "gesZook-cabecas");
+                thread.setDaemon(true);
+                return thread;
+            });
+
+    // A primeira sincronização só é agendada no fim do init, depois do eventual reset
+    private volatile boolean inicializado;
+    private volatile boolean historicoRestaurado;
+
     @Autowired
     public GerenciadorZooKeeper(@Value("${enderecoZooKeeper}") String zookeeperServer,
-            @Value("${sessionTimeout}") int sessionTimeout) {
+            @Value("${sessionTimeout}") int sessionTimeout,
+            @Value("${zookeeper.ligacao.timeoutMs:15000}") int timeoutLigacao,
+            @Value("${arranque.modo:LIMPO}") ModoArranque modoArranque,
+            @Value("${mensagens.cabeca.intervaloMs:1000}") long intervaloCabecaMs) {
         this.zookeeperServer = zookeeperServer;
         this.sessionTimeout = sessionTimeout;
+        this.timeoutLigacao = timeoutLigacao;
+        this.modoArranque = modoArranque;
+        this.intervaloCabecaMs = Math.max(10, intervaloCabecaMs);
         this.objectMapper = new ObjectMapper();
         this.objectMapper.registerModule(new JavaTimeModule()); // Registrando módulo para suporte a Java Time
     }
@@ -57,99 +200,374 @@ public class GerenciadorZooKeeper implements Watcher {
     @PostConstruct
     public void init() {
         conectar();
-        resetarBasesDeDadosNoZooKeeper();
-        resetarBasesDeDadosMongoDB();
+        logger.info("GesZook - Arranque em modo " + modoArranque);
+        if (modoArranque == ModoArranque.LIMPO) {
+            resetarBasesDeDadosNoZooKeeper();
+            resetarBasesDeDadosMongoDB();
+        } else {
+            criarBasesDeDadosNoZooKeeper();
+        }
+        iniciarArvores();
+        inicializado = true;
+        agendarSincronizacao();
+        agendadorCabecas.scheduleWithFixedDelay(this::publicarCabecasPendentes, intervaloCabecaMs, intervaloCabecaMs,
+                TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void encerrar() {
+        agendadorRetentativas.shutdownNow();
+        agendadorCabecas.shutdownNow();
+        publicarCabecasPendentes();
+        for (ArvoreEmCache arvore : List.of(arvoreUtilizadores, arvoreChats, arvoreNodos)) {
+            arvore.close();
+        }
     }
 
+    /**
+     * Apaga todos os dados (ZooKeeper, MongoDB e registo local) e volta a
+     * sincronizar. Os pedidos são recusados até a sincronização terminar.
+     */
+    public void resetarBasesDeDados() {
+        trincoReset.lock();
+        try {
+            estadoArranque.marcarIndisponivel();
+            try {
+                resetarBasesDeDadosNoZooKeeper();
+                resetarBasesDeDadosMongoDB();
+            } finally {
+                agendarSincronizacao();
+            }
+        } finally {
+            trincoReset.unlock();
+        }
+    }
+
+    private void agendarSincronizacao() {
+        despachanteEventos.despachar("sincronizacao", "sincronizacao", this::sincronizarEstado);
+    }
+
+    // Não espera mais do que o timeout de ligação: sem ZooKeeper o arranque
+    // continua e o Curator liga assim que o servidor responder
     private void conectar() {
+        cliente = curator.getZookeeperClient();
+        curator.getConnectionStateListenable().addListener(this::mudancaDeLigacao);
+        logger.info("GesZook - Tentando conectar ao ZooKeeper em: " + zookeeperServer);
         try {
-            logger.info("GesZook - Tentando conectar ao ZooKeeper em: " + zookeeperServer);
-            this.zooKeeper = new ZooKeeper(zookeeperServer, sessionTimeout, this);
-            logger.info("GesZook - Conectado ao ZooKeeper em: " + zookeeperServer);
-        } catch (IOException e) {
-            logger.error("GesZook - Erro de IO ao conectar ao servidor ZooKeeper", e);
+            if (curator.blockUntilConnected(timeoutLigacao, TimeUnit.MILLISECONDS)) {
+                logger.info("GesZook - Conectado ao ZooKeeper em: " + zookeeperServer);
+            } else {
+                logger.error("GesZook - Sem ligação ao ZooKeeper ao fim de " + timeoutLigacao + " ms");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Corre na thread de estados do Curator. Depois de uma sessão nova a
+    // sincronização recarrega as árvores em cache e refaz o resto (nó efémero
+    // em /nodos, índices em memória)
+    private void mudancaDeLigacao(CuratorFramework origem, ConnectionState estado) {
+        estadoLigacao.registar(estado);
+        if (estado == ConnectionState.LOST) {
+            logger.warn("GesZook - Sessão perdida; o Curator vai abrir uma sessão nova.");
+            estadoArranque.marcarIndisponivel();
+        } else if (estado == ConnectionState.RECONNECTED) {
+            logger.info("GesZook - Conexão reestabelecida. Sincronizando estado.");
+            if (inicializado) {
+                agendarSincronizacao();
+            }
+        } else {
+            logger.info("GesZook - Estado da ligação: " + estado);
         }
     }
 
-    private void reconectar() {
+    // No arranque as árvores ficam instaladas mesmo sem carga completa (sem
+    // ZooKeeper); a primeira sincronização volta a carregá-las
+    private void iniciarArvores() {
         try {
-            this.zooKeeper.close();
-            conectar();
+            carregarArvores(sessaoAtual(), true);
         } catch (InterruptedException e) {
-            logger.error("GesZook - Erro ao reconectar ao ZooKeeper", e);
+            Thread.currentThread().interrupt();
         }
     }
 
-    @Override
-    public void process(WatchedEvent event) {
-        logger.info("GesZook - Evento recebido: " + event);
-        if (event.getState() == Event.KeeperState.Expired) {
-            logger.warn("GesZook - Sessão expirou, tentando reconectar...");
-            reconectar();
-        } else if (event.getState() == Event.KeeperState.SyncConnected) {
-            logger.info("GesZook - Conexão reestabelecida. Re-armando watchers.");
-            rearmarWatchers();
+    /**
+     * Cria as três árvores em cache e espera pela carga inicial de cada uma.
+     * As árvores anteriores só são substituídas (e fechadas) depois de as novas
+     * estarem carregadas, a não ser que {@code mesmoIncompletas}.
+     *
+     * @return {@code false} se alguma árvore não carregou dentro do tempo de sessão
+     */
+    private boolean carregarArvores(long sessao, boolean mesmoIncompletas) throws InterruptedException {
+        ArvoreEmCache utilizadores = new ArvoreEmCache(curator, "/utilizadores", this::despacharEvento);
+        ArvoreEmCache chats = new ArvoreEmCache(curator, "/chats", this::despacharEvento);
+        ArvoreEmCache nodos = new ArvoreEmCache(curator, "/nodos", this::despacharEvento);
+        List<ArvoreEmCache> novas = List.of(utilizadores, chats, nodos);
+        long inicio = System.nanoTime();
+        boolean carregadas = true;
+        try {
+            novas.forEach(ArvoreEmCache::iniciar);
+            for (ArvoreEmCache arvore : novas) {
+                if (!arvore.aguardarCarga(sessionTimeout)) {
+                    logger.error("GesZook - Cache de " + arvore.raiz() + " não carregou em " + sessionTimeout + " ms");
+                    carregadas = false;
+                    break;
+                }
+            }
+        } catch (InterruptedException e) {
+            carregadas = false;
+            throw e;
+        } finally {
+            if (!carregadas && !mesmoIncompletas) {
+                novas.forEach(ArvoreEmCache::close);
+            }
         }
+        if (!carregadas && !mesmoIncompletas) {
+            return false;
+        }
+        List<ArvoreEmCache> anteriores = arvoreUtilizadores != null
+                ? List.of(arvoreUtilizadores, arvoreChats, arvoreNodos) : List.of();
+        arvoreUtilizadores = utilizadores;
+        arvoreChats = chats;
+        arvoreNodos = nodos;
+        anteriores.forEach(ArvoreEmCache::close);
+        sessaoDasArvores = carregadas ? sessao : 0;
+        logger.info("GesZook - Árvores em cache carregadas em " + (System.nanoTime() - inicio) / 1_000_000
+                + " ms na sessão 0x" + Long.toHexString(sessao) + ".");
+        return carregadas;
     }
 
-    private void rearmarWatchers() {
-        monitorarUtilizadores();
-        List<String> salas = listarSalas();
-        for (String sala : salas) {
-            monitorarSala(sala);
-            monitorarMensagens(sala);
+    // Depois de uma sessão nova o CuratorCache volta a ler as árvores em segundo
+    // plano, sem aviso de quando terminou. As árvores são recriadas e a
+    // sincronização só continua com a carga completa, para que a presença, a
+    // participação e os membros sejam relidos de um estado completo e a
+    // recuperação só seja dada como feita a partir daí
+    private void recarregarArvoresSeSessaoNova() {
+        try {
+            long sessao = ChamadasZooKeeper.comRetry(cliente, zooKeeper -> zooKeeper).getSessionId();
+            if (sessao == sessaoDasArvores) {
+                return;
+            }
+            logger.info("GesZook - Sessão nova 0x" + Long.toHexString(sessao) + "; a recarregar as árvores em cache.");
+            if (!carregarArvores(sessao, false)) {
+                throw new IllegalStateException("Árvores em cache por carregar na sessão 0x" + Long.toHexString(sessao));
+            }
+        } catch (KeeperException e) {
+            throw new IllegalStateException("Erro ao obter a sessão atual", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Recarga das árvores em cache interrompida", e);
+        }
+    }
+
+    // 0 sem sessão estabelecida
+    private long sessaoAtual() {
+        try {
+            return cliente.getZooKeeper().getSessionId();
+        } catch (Exception e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Força a expiração da sessão atual, abrindo uma segunda ligação com o
+     * mesmo id e senha de sessão e fechando-a. O tempo que o nó demora a
+     * recuperar aparece nas métricas da ligação.
+     *
+     * @return o id da sessão expirada
+     */
+    public long expirarSessao() throws IOException, KeeperException, InterruptedException {
+        ZooKeeper atual = ChamadasZooKeeper.comRetry(cliente, zooKeeper -> zooKeeper);
+        long sessao = atual.getSessionId();
+        CountDownLatch ligada = new CountDownLatch(1);
+        ZooKeeper duplicada = new ZooKeeper(zookeeperServer, sessionTimeout, evento -> {
+            if (evento.getState() == Watcher.Event.KeeperState.SyncConnected) {
+                ligada.countDown();
+            }
+        }, sessao, atual.getSessionPasswd());
+        try {
+            if (!ligada.await(timeoutLigacao, TimeUnit.MILLISECONDS)) {
+                throw new KeeperException.ConnectionLossException();
+            }
+            estadoLigacao.registarExpiracaoForcada();
+        } finally {
+            duplicada.close();
+        }
+        logger.warn("GesZook - Expiração forçada da sessão 0x" + Long.toHexString(sessao));
+        return sessao;
+    }
+
+    // Os eventos ocorridos enquanto a ligação esteve em baixo não são
+    // repetidos, por isso a presença e a participação são relidas das árvores
+    // em cache. A leitura da presença, a da participação e, no primeiro
+    // arranque, a reposição do histórico local a partir do MongoDB correm em
+    // paralelo.
+    private void sincronizarEstado() {
+        long inicio = System.nanoTime();
+        try {
+            recarregarArvoresSeSessaoNova();
+            registarNo();
+            atualizarMembrosCluster();
+            List<String> salas = listarSalas();
+            boolean restaurarHistorico = !historicoRestaurado;
+            CompletableFuture.allOf(
+                    CompletableFuture.runAsync(this::sincronizarPresenca),
+                    CompletableFuture.runAsync(() -> sincronizarParticipacao(salas)),
+                    restaurarHistorico ? CompletableFuture.runAsync(() -> restaurarHistorico(salas))
+                            : CompletableFuture.completedFuture(null))
+                    .join();
+
+            for (String sala : salas) {
+                if (restaurarHistorico) {
+                    // O histórico anterior ao arranque não é reenviado aos clientes
+                    distribuidorMensagens.iniciarEm(sala, cabecaSala(sala) - 1);
+                }
+                entregarPendentes(sala);
+            }
+            // Só a partir daqui o distribuidor pode pedir mensagens em falta
+            historicoRestaurado = true;
+        } catch (IOException | RuntimeException e) {
+            // O nó continua indisponível até uma sincronização completa
+            int falhas = falhasSincronizacaoSeguidas.incrementAndGet();
+            long espera = Math.min(ESPERA_MAXIMA_SINCRONIZACAO_MS,
+                    ESPERA_BASE_SINCRONIZACAO_MS << Math.min(falhas - 1, 6));
+            logger.error("GesZook - Erro ao sincronizar estado (falha " + falhas + "), nova tentativa em " + espera
+                    + " ms", e);
+            estadoArranque.registarFalha();
+            agendadorRetentativas.schedule(this::agendarSincronizacao, espera, TimeUnit.MILLISECONDS);
+            return;
         }
+        falhasSincronizacaoSeguidas.set(0);
+        long duracaoMs = (System.nanoTime() - inicio) / 1_000_000;
+        logger.info("GesZook - Estado sincronizado em " + duracaoMs + " ms.");
+        estadoArranque.marcarPronto(duracaoMs);
+        estadoLigacao.registarSincronizacao();
+    }
+
+    private void sincronizarPresenca() {
         List<String> utilizadores = listarUtilizadores();
+        tabelaPresenca.reter(utilizadores);
         for (String utilizador : utilizadores) {
-            monitorarEstadoUtilizador(utilizador);
-            List<String> salasPorUtilizador = listarSalasPorParticipante(utilizador);
-            for (String sala : salasPorUtilizador) {
-                monitorarSala(sala);
-                monitorarMensagens(sala);
+            byte[] estado = arvoreUtilizadores.dados("/utilizadores/" + utilizador + "/estado");
+            if (estado != null) {
+                tabelaPresenca.atualizar(utilizador, new String(estado));
+            } else {
+                tabelaPresenca.remover(utilizador);
+            }
+        }
+    }
+
+    private void sincronizarParticipacao(List<String> salas) {
+        for (String sala : new ArrayList<>(indiceParticipacao.salasConhecidas())) {
+            if (!salas.contains(sala)) {
+                removerSalaDosIndices(sala);
+            }
+        }
+        for (String sala : salas) {
+            List<String> participantes = arvoreChats.filhos("/chats/" + sala + "/participantes");
+            if (participantes != null) {
+                atualizarParticipantes(sala, participantes);
+            } else {
+                logger.warn("GesZook - Sala sem participantes: " + sala);
+            }
+        }
+    }
+
+    // Completa a partir do MongoDB o registo local das salas mantidas por este
+    // nó (p.ex. um nó novo, um disco apagado ou mensagens de outros nós)
+    private void restaurarHistorico(List<String> salas) {
+        for (String sala : salas) {
+            if (!mantemRegisto(sala)) {
+                continue;
+            }
+            try {
+                alinharRegisto(sala, cabecaSala(sala));
+            } catch (IOException e) {
+                throw new UncheckedIOException("Erro ao repor o histórico da sala " + sala, e);
             }
         }
     }
 
+    public Map<String, Object> metricasWatches() {
+        Epoca epoca = epocaNo;
+        return Map.of(
+                "arvoresEmCache", Map.of(
+                        "/utilizadores", arvoreUtilizadores.tamanho(),
+                        "/chats", arvoreChats.tamanho(),
+                        "/nodos", arvoreNodos.tamanho()),
+                "ligacao", estadoLigacao.metricas(),
+                "eventosDespachados", eventosDespachados.get(),
+                "despacho", despachanteEventos.metricas(),
+                "arranque", estadoArranque.metricas(),
+                "escritaEmLote", escritorEmLote.metricas(),
+                "distribuicao", distribuidorMensagens.metricas(),
+                "sequenciacao", metricasSequenciacao(),
+                "registoLocal", registoMensagens.metricas(),
+                "epocaNo", epoca != null ? epoca.czxid : -1L);
+    }
+
+    private Map<String, Object> metricasSequenciacao() {
+        return Map.of(
+                "reservas", reservasFeitas.get(),
+                "sequenciasReservadas", sequenciasReservadas.get(),
+                "reservasRepetidas", reservasRepetidas.get(),
+                "reservasVedadas", reservasVedadas.get(),
+                "cabecasPublicadas", cabecasPublicadas.get(),
+                "cabecasPorPublicar", cabecasPorPublicar.size());
+    }
+
     private void criarBasesDeDadosNoZooKeeper() {
         try {
-            if (zooKeeper.exists("/utilizadores", false) == null) {
-                zooKeeper.create("/utilizadores", new byte[0], ZooDefs.Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT);
+            if (ChamadasZooKeeper.exists(cliente, "/utilizadores") == null) {
+                ChamadasZooKeeper.create(cliente, "/utilizadores", new byte[0], CreateMode.PERSISTENT);
+            }
+            if (ChamadasZooKeeper.exists(cliente, "/chats") == null) {
+                ChamadasZooKeeper.create(cliente, "/chats", new byte[0], CreateMode.PERSISTENT);
             }
-            if (zooKeeper.exists("/chats", false) == null) {
-                zooKeeper.create("/chats", new byte[0], ZooDefs.Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT);
+            if (ChamadasZooKeeper.exists(cliente, "/nodos") == null) {
+                ChamadasZooKeeper.create(cliente, "/nodos", new byte[0], CreateMode.PERSISTENT);
+            }
+            if (ChamadasZooKeeper.exists(cliente, RAIZ_RESERVAS) == null) {
+                ChamadasZooKeeper.create(cliente, RAIZ_RESERVAS, new byte[0], CreateMode.PERSISTENT);
             }
         } catch (KeeperException | InterruptedException e) {
             logger.error("GesZook - Erro ao criar bases de dados no ZooKeeper", e);
         }
     }
 
+    // Percorre as árvores por níveis (uma leitura em lote por nível) e apaga
+    // dos nós mais fundos para a raiz em transações multi
     private void limparBasesDeDadosNoZooKeeper() {
         try {
-            if (zooKeeper.exists("/utilizadores", false) != null) {
-                List<String> utilizadores = zooKeeper.getChildren("/utilizadores", false);
-                for (String utilizador : utilizadores) {
-                    zooKeeper.delete("/utilizadores/" + utilizador + "/estado", -1);
-                    zooKeeper.delete("/utilizadores/" + utilizador, -1);
+            List<List<String>> niveis = new ArrayList<>();
+            List<String> nivel = new ArrayList<>();
+            for (String raiz : List.of("/utilizadores", "/chats", RAIZ_RESERVAS)) {
+                if (ChamadasZooKeeper.exists(cliente, raiz) != null) {
+                    nivel.add(raiz);
                 }
-                zooKeeper.delete("/utilizadores", -1);
-            }
-            if (zooKeeper.exists("/chats", false) != null) {
-                List<String> chats = zooKeeper.getChildren("/chats", false);
-                for (String chat : chats) {
-                    List<String> mensagens = zooKeeper.getChildren("/chats/" + chat + "/mensagens", false);
-                    for (String mensagem : mensagens) {
-                        zooKeeper.delete("/chats/" + chat + "/mensagens/" + mensagem, -1);
-                    }
-                    List<String> participantes = zooKeeper.getChildren("/chats/" + chat + "/participantes", false);
-                    for (String participante : participantes) {
-                        zooKeeper.delete("/chats/" + chat + "/participantes/" + participante, -1);
+            }
+            while (!nivel.isEmpty()) {
+                niveis.add(nivel);
+                List<List<String>> filhos = leitorEmLote.listarFilhos(cliente, nivel);
+                List<String> proximo = new ArrayList<>();
+                for (int i = 0; i < nivel.size(); i++) {
+                    if (filhos.get(i) != null) {
+                        for (String filho : filhos.get(i)) {
+                            proximo.add(nivel.get(i) + "/" + filho);
+                        }
                     }
-                    zooKeeper.delete("/chats/" + chat + "/mensagens", -1);
-                    zooKeeper.delete("/chats/" + chat + "/participantes", -1);
-                    zooKeeper.delete("/chats/" + chat, -1);
                 }
-                zooKeeper.delete("/chats", -1);
+                nivel = proximo;
             }
+
+            EscritorZooKeeperEmLote.Lote lote = escritorEmLote.novoLote();
+            for (int n = niveis.size() - 1; n >= 0; n--) {
+                for (String caminho : niveis.get(n)) {
+                    lote.apagar(caminho);
+                }
+            }
+            lote.executar(cliente);
         } catch (KeeperException | InterruptedException e) {
             logger.error("GesZook - Erro ao limpar bases de dados no ZooKeeper", e);
         }
@@ -157,11 +575,19 @@ public class GerenciadorZooKeeper implements Watcher {
 
     private void resetarBasesDeDadosNoZooKeeper() {
         limparBasesDeDadosNoZooKeeper();
+        registoMensagens.apagarTudo();
+        tabelaPresenca.limpar();
+        indiceParticipacao.limpar();
+        distribuidorMensagens.limpar();
+        cacheMensagens.limpar();
+        salasAlinhadas.clear();
+        reservas.clear();
+        cabecasPorPublicar.clear();
         criarBasesDeDadosNoZooKeeper();
     }
 
     private void limparBasesDeDadosMongoDB() {
-        repositorioUtilizador.deleteAll();
+        diretorioUtilizadores.apagarTodos();
         repositorioChat.deleteAll();
         repositorioMensagem.deleteAll();
     }
@@ -173,24 +599,26 @@ public class GerenciadorZooKeeper implements Watcher {
     // -------------------------- MONGODB ---------------------------------//
     // -- -- -- -- -- -- -- -- -- Escrita -- -- -- -- -- -- -- -- -- -- -- //
 
+    // Os utilizadores passam pelo diretório, que mantém a cache e o filtro de nomes
     public void registrarUsuario(Utilizador utilizador) {
-        repositorioUtilizador.save(utilizador);
+        diretorioUtilizadores.guardar(utilizador);
     }
 
+    // Os outros nós invalidam a entrada em cache pelo watch em /utilizadores/<nome>
     public void atualizarUsuario(Utilizador utilizador) {
-        repositorioUtilizador.save(utilizador);
+        diretorioUtilizadores.guardar(utilizador);
+        assinalarAlteracaoUtilizador(utilizador.getNomeUtilizador());
     }
 
     public void apagarUsuario(Utilizador utilizador) {
-        repositorioUtilizador.delete(utilizador);
+        diretorioUtilizadores.apagar(utilizador);
     }
 
     public void alterarEstadoUsuario(String nomeUtilizador, String estado) {
-        List<Utilizador> utilizadores = repositorioUtilizador.findByNomeUtilizador(nomeUtilizador);
-        if (!utilizadores.isEmpty()) {
-            Utilizador utilizador = utilizadores.get(0);
+        Utilizador utilizador = diretorioUtilizadores.buscar(nomeUtilizador);
+        if (utilizador != null) {
             utilizador.setStatus(estado);
-            repositorioUtilizador.save(utilizador);
+            diretorioUtilizadores.guardar(utilizador);
         }
     }
 
@@ -198,26 +626,46 @@ public class GerenciadorZooKeeper implements Watcher {
         repositorioChat.save(chat);
     }
 
-    public void enviarMensagem(Mensagem mensagem) {
-        repositorioMensagem.save(mensagem);
-    }
-
-    public void guardarMensagem(Mensagem mensagem) {
-        repositorioMensagem.save(mensagem);
+    /**
+     * Insere um lote de mensagens no MongoDB e publica a cabeça das salas.
+     *
+     * O índice único (nomeSala, sequencia) é a última vedação contra dois nós a
+     * gravar a mesma sequência: se o lote falhar por chave duplicada, as
+     * mensagens são inseridas uma a uma e uma mensagem cujo id já está gravado
+     * (lote repetido a partir do WAL) conta como gravada, mas uma com a
+     * sequência ocupada por outra mensagem é devolvida como conflito.
+     *
+     * @return as mensagens recusadas por a sequência já estar ocupada
+     */
+    public List<Mensagem> guardarMensagens(List<Mensagem> mensagens) {
+        List<Mensagem> conflitos = new ArrayList<>();
+        try {
+            repositorioMensagem.insert(mensagens);
+        } catch (DuplicateKeyException e) {
+            for (Mensagem mensagem : mensagens) {
+                try {
+                    repositorioMensagem.insert(mensagem);
+                } catch (DuplicateKeyException duplicada) {
+                    if (!repositorioMensagem.existsById(mensagem.getId())) {
+                        logger.error("GesZook - Sequência {} da sala {} já ocupada; mensagem {} recusada",
+                                mensagem.getSequencia(), mensagem.getNomeSala(), mensagem.getId());
+                        conflitos.add(mensagem);
+                    }
+                }
+            }
+        }
+        Map<String, Long> cabecas = new HashMap<>();
+        for (Mensagem mensagem : mensagens) {
+            if (mensagem.getSequencia() != null && !conflitos.contains(mensagem)) {
+                cabecas.merge(mensagem.getNomeSala(), mensagem.getSequencia() + 1, Math::max);
+            }
+        }
+        cabecas.forEach(this::publicarCabeca);
+        return conflitos;
     }
 
     // -- -- -- -- -- -- -- -- -- Leitura -- -- -- -- -- -- -- -- -- -- -- //
 
-    public boolean validarUsuario(String nomeUtilizador, String senha) {
-        List<Utilizador> utilizadores = repositorioUtilizador.findByNomeUtilizador(nomeUtilizador);
-        if (!utilizadores.isEmpty()) {
-            Utilizador utilizador = utilizadores.get(0);
-            BCryptPasswordEncoder passwordEncoder = new BCryptPasswordEncoder();
-            return passwordEncoder.matches(senha, utilizador.getSenha());
-        }
-        return false;
-    }
-
     public List<Chat> listarChatsPorCriador(String criador) {
         return repositorioChat.findByCriador(criador);
     }
@@ -231,7 +679,7 @@ public class GerenciadorZooKeeper implements Watcher {
     }
 
     public List<Mensagem> listarMensagensPorNomeSala(String nomeSala) {
-        return repositorioMensagem.findByNomeSala(nomeSala);
+        return PaginaMensagens.visiveis(repositorioMensagem.findByNomeSalaOrderByDataCriacaoAsc(nomeSala));
     }
 
     public List<Utilizador> listarUtilizadoresPorStatus(String estado) {
@@ -239,17 +687,16 @@ public class GerenciadorZooKeeper implements Watcher {
     }
 
     public List<Utilizador> listarUtilizadoresPorNome(String nomeUtilizador) {
-        return repositorioUtilizador.findByNomeUtilizador(nomeUtilizador);
+        Utilizador utilizador = diretorioUtilizadores.buscar(nomeUtilizador);
+        return utilizador != null ? List.of(utilizador) : List.of();
     }
 
     public Utilizador buscarUsuario(String nomeUtilizador) {
-        List<Utilizador> utilizadores = repositorioUtilizador.findByNomeUtilizador(nomeUtilizador);
-        return utilizadores.isEmpty() ? null : utilizadores.get(0);
+        return diretorioUtilizadores.buscar(nomeUtilizador);
     }
 
     public boolean existeUsuario(String nomeUtilizador) {
-        List<Utilizador> utilizadores = repositorioUtilizador.findByNomeUtilizador(nomeUtilizador);
-        return !utilizadores.isEmpty();
+        return diretorioUtilizadores.existe(nomeUtilizador);
     }
 
     public List<Chat> listarChats() {
@@ -257,7 +704,11 @@ public class GerenciadorZooKeeper implements Watcher {
     }
 
     public List<Mensagem> listarMensagens(String nomeSala) {
-        return repositorioMensagem.findByNomeSala(nomeSala);
+        return PaginaMensagens.visiveis(repositorioMensagem.findByNomeSalaOrderByDataCriacaoAsc(nomeSala));
+    }
+
+    public List<Mensagem> listarMensagensPorIntervalo(String nomeSala, Instant desde, Instant ate) {
+        return repositorioMensagem.findByNomeSalaAndDataCriacaoBetweenOrderByDataCriacaoAsc(nomeSala, desde, ate);
     }
 
     // ------------------------ ZOOKEEPER -------------------------------//
@@ -267,10 +718,12 @@ public class GerenciadorZooKeeper implements Watcher {
         String userPath = "/utilizadores/" + nomeUtilizador;
         String statePath = userPath + "/estado";
         try {
-            zooKeeper.create(userPath, new byte[0], ZooDefs.Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT);
-            zooKeeper.create(statePath, "offline".getBytes(), ZooDefs.Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT);
+            escritorEmLote.novoLote()
+                    .criar(userPath, new byte[0], CreateMode.PERSISTENT)
+                    .criar(statePath, "offline".getBytes(), CreateMode.PERSISTENT)
+                    .executar(cliente);
+            tabelaPresenca.atualizar(nomeUtilizador, "offline");
             logger.info("GesZook - Utilizador " + nomeUtilizador + " registrado como 'offline'.");
-            configuracaoWebSocket.notificarMudancaEstadoUtilizadores(); // Notifica todos os clientes
         } catch (KeeperException | InterruptedException e) {
             logger.error("GesZook - Erro ao registrar novo utilizador " + nomeUtilizador, e);
         }
@@ -279,21 +732,38 @@ public class GerenciadorZooKeeper implements Watcher {
     public void atualizarEstadoUtilizador(String nomeUtilizador, String estado) {
         String statePath = "/utilizadores/" + nomeUtilizador + "/estado";
         try {
-            if (zooKeeper.exists(statePath, false) != null) {
-                zooKeeper.setData(statePath, estado.getBytes(), -1);
+            if (ChamadasZooKeeper.exists(cliente, statePath) != null) {
+                ChamadasZooKeeper.setData(cliente, statePath, estado.getBytes(), -1);
+                tabelaPresenca.atualizar(nomeUtilizador, estado);
             }
         } catch (KeeperException | InterruptedException e) {
             logger.error("GesZook - Erro ao atualizar estado do utilizador no ZooKeeper", e);
         }
     }
 
+    // Reescreve os dados de /utilizadores/<nome> para disparar o watch dos outros nós
+    private void assinalarAlteracaoUtilizador(String nomeUtilizador) {
+        String path = "/utilizadores/" + nomeUtilizador;
+        try {
+            ChamadasZooKeeper.setData(cliente, path,
+                    Long.toString(System.currentTimeMillis()).getBytes(StandardCharsets.UTF_8), -1);
+        } catch (KeeperException.NoNodeException e) {
+            logger.debug("GesZook - Utilizador {} sem nó no ZooKeeper", nomeUtilizador);
+        } catch (KeeperException | InterruptedException e) {
+            logger.error("GesZook - Erro ao assinalar a alteração do utilizador " + nomeUtilizador, e);
+        }
+    }
+
     public void apagarUtilizador(String nomeUtilizador) {
         String path = "/utilizadores/" + nomeUtilizador;
         try {
-            if (zooKeeper.exists(path, false) != null) {
-                zooKeeper.delete(path + "/estado", -1);
-                zooKeeper.delete(path, -1);
-            }
+            escritorEmLote.novoLote()
+                    .apagar(path + "/estado")
+                    .apagar(path)
+                    .executar(cliente);
+            tabelaPresenca.remover(nomeUtilizador);
+        } catch (KeeperException.NoNodeException e) {
+            tabelaPresenca.remover(nomeUtilizador); // Já não existia
         } catch (KeeperException | InterruptedException e) {
             logger.error("GesZook - Erro ao apagar utilizador no ZooKeeper", e);
         }
@@ -301,18 +771,24 @@ public class GerenciadorZooKeeper implements Watcher {
 
     public void criarSalaDeChat(String nomeSala, List<String> participantes) {
         String path = "/chats/" + nomeSala;
+        // A sala e os participantes são criados numa só transação: se a sala já
+        // existir, nada é criado
+        EscritorZooKeeperEmLote.Lote lote = escritorEmLote.novoLote()
+                .criar(path, new byte[0], CreateMode.PERSISTENT)
+                // O nó de mensagens guarda apenas a cabeça publicada da sala
+                .criar(path + "/mensagens", "0".getBytes(StandardCharsets.UTF_8), CreateMode.PERSISTENT)
+                .criar(RAIZ_RESERVAS + "/" + nomeSala, "0".getBytes(StandardCharsets.UTF_8), CreateMode.PERSISTENT)
+                .criar(path + "/participantes", new byte[0], CreateMode.PERSISTENT);
+        // Um participante repetido faria falhar a transação inteira
+        for (String participante : new LinkedHashSet<>(participantes)) {
+            lote.criar(path + "/participantes/" + participante, new byte[0], CreateMode.PERSISTENT);
+        }
         try {
-            if (zooKeeper.exists(path, false) == null) {
-                zooKeeper.create(path, new byte[0], ZooDefs.Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT);
-                zooKeeper.create(path + "/mensagens", new byte[0], ZooDefs.Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT);
-                zooKeeper.create(path + "/participantes", new byte[0], ZooDefs.Ids.OPEN_ACL_UNSAFE,
-                        CreateMode.PERSISTENT);
-                for (String participante : participantes) {
-                    String participantePath = path + "/participantes/" + participante;
-                    zooKeeper.create(participantePath, new byte[0], ZooDefs.Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT);
-                }
-                configuracaoWebSocket.notificarClientesSobreMudancaDeSala(nomeSala); // Notificar mudança na sala
-            }
+            lote.executar(cliente);
+            atualizarParticipantes(nomeSala, participantes);
+            configuracaoWebSocket.notificarClientesSobreMudancaDeSala(nomeSala); // Notificar mudança na sala
+        } catch (KeeperException.NodeExistsException e) {
+            logger.info("GesZook - Sala " + nomeSala + " já existe.");
         } catch (KeeperException | InterruptedException e) {
             logger.error("GesZook - Erro ao criar sala de chat no ZooKeeper", e);
         }
@@ -321,7 +797,9 @@ public class GerenciadorZooKeeper implements Watcher {
     public void entrarSala(String sala, String utilizador) {
         String path = String.format("/chats/%s/participantes/%s", sala, utilizador);
         try {
-            zooKeeper.create(path, new byte[0], ZooDefs.Ids.OPEN_ACL_UNSAFE, CreateMode.EPHEMERAL);
+            ChamadasZooKeeper.create(cliente, path, new byte[0], CreateMode.EPHEMERAL);
+            indiceParticipacao.adicionar(sala, utilizador);
+            configuracaoWebSocket.adicionarParticipanteSala(sala, utilizador);
             notificarParticipantesDaSala(sala); // Notificar participantes da entrada na sala
         } catch (KeeperException | InterruptedException e) {
             logger.error("Erro ao entrar na sala no ZooKeeper", e);
@@ -331,8 +809,10 @@ public class GerenciadorZooKeeper implements Watcher {
     public void sairSala(String sala, String utilizador) {
         String path = String.format("/chats/%s/participantes/%s", sala, utilizador);
         try {
-            if (zooKeeper.exists(path, false) != null) {
-                zooKeeper.delete(path, -1);
+            if (ChamadasZooKeeper.exists(cliente, path) != null) {
+                ChamadasZooKeeper.delete(cliente, path, -1);
+                indiceParticipacao.remover(sala, utilizador);
+                configuracaoWebSocket.removerParticipanteSala(sala, utilizador);
                 notificarParticipantesDaSala(sala); // Notificar participantes da saída da sala
             }
         } catch (KeeperException | InterruptedException e) {
@@ -340,242 +820,668 @@ public class GerenciadorZooKeeper implements Watcher {
         }
     }
 
-    public void adicionarMensagem(String sala, String conteudoMensagem, String remetente, String dataCriacao) {
-        String path = String.format("/chats/%s/mensagens/mensagem_", sala);
-        try {
-            logger.debug(" adicionarMensagem Adicionando mensagem na sala: {}", sala);
+    public boolean salaExiste(String sala) {
+        return indiceParticipacao.conheceSala(sala);
+    }
 
-            Mensagem mensagem = new Mensagem();
-            mensagem.setConteudo(conteudoMensagem);
-            mensagem.setNomeSala(sala);
-            mensagem.setRemetente(remetente);
-            mensagem.setDataCriacao(dataCriacao);
+    /**
+     * Atribui às mensagens, todas da mesma sala e pela ordem da lista,
+     * sequências seguidas reservadas de uma só vez. Cada mensagem só entra no
+     * registo local depois de persistida (ver {@link #registarMensagem(Mensagem)});
+     * se a persistência falhar, a sequência é preenchida com uma lápide para o
+     * histórico não ficar parado nesse buraco.
+     */
+    public void sequenciarMensagens(String sala, List<Mensagem> mensagens) throws IOException {
+        long primeira = reservarSequencias(sala, mensagens.size(), mensagens.get(0).getId());
+        for (int i = 0; i < mensagens.size(); i++) {
+            mensagens.get(i).setSequencia(primeira + i);
+        }
+        logger.debug("GesZook - {} mensagens sequenciadas na sala {} a partir da sequência {}", mensagens.size(),
+                sala, primeira);
+    }
 
-            String mensagemJson = objectMapper.writeValueAsString(mensagem);
-            logger.debug("adicionarMensagem - Mensagem serializada: {}", mensagemJson);
+    /**
+     * Acrescenta ao registo local e à cache uma mensagem (ou lápide) já
+     * persistida. Se faltarem no registo mensagens anteriores (sequenciadas
+     * noutro nó e ainda por gravar no MongoDB), a mensagem fica apenas no
+     * MongoDB e a sala passa a ser lida de lá até o registo voltar a ser
+     * alinhado.
+     */
+    public void registarMensagem(Mensagem mensagem) throws IOException {
+        String sala = mensagem.getNomeSala();
+        if (registoMensagens.proximoOffset(sala) < mensagem.getSequencia()) {
+            alinharRegisto(sala, mensagem.getSequencia());
+        }
+        if (!acrescentarAoRegisto(mensagem)) {
+            salasAlinhadas.remove(sala);
+        }
+    }
 
-            String createdPath = zooKeeper.create(path, mensagemJson.getBytes(), ZooDefs.Ids.OPEN_ACL_UNSAFE,
-                    CreateMode.PERSISTENT_SEQUENTIAL);
-            logger.debug(" adicionarMensagem - Mensagem criada no ZNode com o caminho: {}", createdPath);
+    // /reservas/<sala> guarda a próxima sequência por reservar. Um lote de
+    // mensagens da sala reserva as suas sequências num único compare-and-set pela
+    // versão do nó, pelo que dois nós nunca recebem a mesma sequência; quem perde
+    // volta a ler e tenta de novo. A versão da última reserva fica em memória:
+    // enquanto o nó for o único a reservar na sala, cada lote custa uma só escrita.
+    // Só se reserva o que já está na fila; um bloco reservado à frente e deixado
+    // por usar por um dono que caiu seria um buraco que os leitores teriam de saltar.
+    //
+    // Com o barramento ativo a reserva é vedada pela época do nó: só é feita na
+    // sessão que criou /nodos/<id> e num multi com o check desse nó, pelo que um
+    // dono antigo cuja sessão expirou (e cujas salas já passaram para outro nó)
+    // não sequencia o que ainda tiver na fila.
+    //
+    // A reserva leva também o id da primeira mensagem do lote. Se a resposta a
+    // uma escrita se perder e a repetição falhar com BadVersion, o nó ainda com o
+    // valor escrito mostra que a reserva anterior foi aplicada. Se outro nó já o
+    // tiver avançado não é possível saber, e as sequências podem ficar por usar
+    private long reservarSequencias(String sala, int quantidade, String idMensagem) throws IOException {
+        String path = RAIZ_RESERVAS + "/" + sala;
+        try {
+            String caminhoNo = barramentoNos.ativo() ? caminhoEpocaValida() : null;
+            Reserva conhecida = reservas.remove(sala);
+            byte[] tentada = null;
+            long reservada = -1;
+            while (true) {
+                long proxima;
+                int versao;
+                if (conhecida != null) {
+                    proxima = conhecida.proxima;
+                    versao = conhecida.versao;
+                    conhecida = null;
+                } else {
+                    Stat stat = new Stat();
+                    byte[] dados;
+                    try {
+                        dados = ChamadasZooKeeper.getData(cliente, path, stat);
+                    } catch (KeeperException.NoNodeException e) {
+                        criarReserva(sala);
+                        continue;
+                    }
+                    if (tentada != null && Arrays.equals(dados, tentada)) {
+                        reservas.put(sala, new Reserva(reservada + quantidade, stat.getVersion()));
+                        return reservada;
+                    }
+                    proxima = lerCabeca(dados);
+                    versao = stat.getVersion();
+                }
+                byte[] reserva = ((proxima + quantidade) + " " + idMensagem).getBytes(StandardCharsets.UTF_8);
+                try {
+                    Stat escrito;
+                    if (caminhoNo == null) {
+                        escrito = ChamadasZooKeeper.setData(cliente, path, reserva, versao);
+                    } else {
+                        List<OpResult> resultados = ChamadasZooKeeper.multi(cliente, List.of(
+                                Op.check(caminhoNo, -1),
+                                Op.setData(path, reserva, versao)));
+                        escrito = ((OpResult.SetDataResult) resultados.get(1)).getStat();
+                    }
+                    reservas.put(sala, new Reserva(proxima + quantidade, escrito.getVersion()));
+                    reservasFeitas.incrementAndGet();
+                    sequenciasReservadas.addAndGet(quantidade);
+                    return proxima;
+                } catch (KeeperException.BadVersionException e) {
+                    reservasRepetidas.incrementAndGet();
+                    tentada = reserva;
+                    reservada = proxima;
+                } catch (KeeperException.NoNodeException e) {
+                    if (caminhoNo != null && ChamadasZooKeeper.exists(cliente, caminhoNo) == null) {
+                        reservasVedadas.incrementAndGet();
+                        throw new IOException("O nó " + barramentoNos.idNo() + " perdeu o registo no cluster; "
+                                + "as sequências da sala " + sala + " não foram reservadas", e);
+                    }
+                    criarReserva(sala);
+                    tentada = null;
+                }
+            }
+        } catch (KeeperException e) {
+            throw new IOException("Erro ao reservar sequências da sala " + sala, e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Reserva de sequências da sala " + sala + " interrompida", e);
+        }
+    }
 
-            configuracaoWebSocket.enviarNotificacaoNovaMensagem(sala, mensagem);
-            logger.debug(" adicionarMensagem Notificação de nova mensagem enviada para a sala: {}", sala);
-        } catch (KeeperException | InterruptedException | IOException e) {
-            logger.error(" adicionarMensagem Erro ao adicionar mensagem no ZooKeeper", e);
+    // Salas criadas antes de /reservas reservavam na própria cabeça, que nessa
+    // altura era a próxima sequência da sala: a reserva começa daí
+    private void criarReserva(String sala) throws KeeperException, InterruptedException {
+        long proxima = lerCabeca(ChamadasZooKeeper.getData(cliente, "/chats/" + sala + "/mensagens"));
+        try {
+            ChamadasZooKeeper.create(cliente, RAIZ_RESERVAS + "/" + sala,
+                    Long.toString(proxima).getBytes(StandardCharsets.UTF_8), CreateMode.PERSISTENT);
+            logger.info("GesZook - Reserva da sala " + sala + " criada na sequência " + proxima);
+        } catch (KeeperException.NodeExistsException e) {
+            // Criada entretanto por outro nó
         }
     }
 
-    // -- -- -- -- -- -- -- -- -- Leitura -- -- -- -- -- -- -- -- -- -- -- //
+    // Acrescenta a mensagem ao registo local e à cache; false se houver um
+    // buraco antes dela. Uma mensagem já acrescentada (p.ex. pelo alinhamento)
+    // conta como acrescentada
+    private boolean acrescentarAoRegisto(Mensagem mensagem) throws IOException {
+        String sala = mensagem.getNomeSala();
+        ReentrantLock trinco = trincoSala(sala);
+        trinco.lock();
+        try {
+            long proximo = registoMensagens.proximoOffset(sala);
+            if (mensagem.getSequencia() < proximo) {
+                return true;
+            }
+            if (!registoMensagens.acrescentar(sala, mensagem)) {
+                return false;
+            }
+            cacheMensagens.acrescentar(mensagem);
+            salasAlinhadas.add(sala);
+            return true;
+        } finally {
+            trinco.unlock();
+        }
+    }
 
-    public List<String> listarSalasPorParticipante(String nomeUtilizador) {
-        String path = "/chats";
-        List<String> salas = new ArrayList<>();
+    /**
+     * Acrescenta ao registo local, a partir do MongoDB, as mensagens com
+     * sequência anterior a {@code ate} sequenciadas noutro nó (ou por um dono
+     * anterior da sala). Para no primeiro buraco, uma sequência reservada mas
+     * ainda por gravar: a sala só fica alinhada se o registo chegar a
+     * {@code ate}.
+     */
+    private void alinharRegisto(String sala, long ate) throws IOException {
+        ReentrantLock trinco = trincoSala(sala);
+        trinco.lock();
         try {
-            Stat stat = zooKeeper.exists(path, false);
-            if (stat != null) {
-                List<String> todasSalas = zooKeeper.getChildren(path, false);
-                for (String sala : todasSalas) {
-                    String participantesPath = path + "/" + sala + "/participantes";
-                    List<String> participantes = zooKeeper.getChildren(participantesPath, false);
-                    if (participantes.contains(nomeUtilizador)) {
-                        salas.add(sala);
+            long proximo = registoMensagens.proximoOffset(sala);
+            long inicio = proximo;
+            boolean buraco = false;
+            while (proximo < ate && !buraco) {
+                int tamanho = (int) Math.min(ate - proximo, TAMANHO_PAGINA_ALINHAMENTO);
+                List<Mensagem> mensagens = repositorioMensagem.findByNomeSalaAndSequenciaGreaterThanOrderBySequenciaAsc(
+                        sala, proximo - 1, PageRequest.of(0, tamanho));
+                buraco = mensagens.size() < tamanho;
+                for (Mensagem mensagem : mensagens) {
+                    if (mensagem.getSequencia() != proximo) {
+                        buraco = true;
+                        break;
                     }
+                    registoMensagens.acrescentar(sala, mensagem);
+                    cacheMensagens.acrescentar(mensagem);
+                    proximo++;
                 }
             }
+            if (proximo >= ate) {
+                salasAlinhadas.add(sala);
+            } else {
+                salasAlinhadas.remove(sala);
+                logger.debug("GesZook - Registo da sala {} parado na sequência {} (cabeça {})", sala, proximo, ate);
+            }
+            if (proximo > inicio) {
+                logger.info("GesZook - Registo da sala " + sala + " alinhado com " + (proximo - inicio)
+                        + " mensagens do MongoDB.");
+            }
+        } finally {
+            trinco.unlock();
+        }
+    }
+
+    private ReentrantLock trincoSala(String sala) {
+        return trincosSala.computeIfAbsent(sala, s -> new ReentrantLock());
+    }
+
+    // Com o barramento ativo cada nó só mantém o registo local das salas de que é dono
+    private boolean mantemRegisto(String sala) {
+        return !barramentoNos.ativo() || distribuicaoSalas.souDono(sala);
+    }
+
+    // Entrega aos clientes deste nó uma mensagem já sequenciada e persistida
+    public void publicarMensagem(Mensagem mensagem) {
+        distribuidorMensagens.publicar(mensagem);
+    }
+
+    // A cabeça em /chats/<sala>/mensagens é a sequência seguinte à última gravada
+    // no MongoDB, e o seu watch avisa os outros nós de que há mensagens novas.
+    // Sem barramento é o único aviso e é publicada a cada lote gravado; com o
+    // barramento as mensagens seguem por ele e a cabeça, publicada no máximo uma
+    // vez por mensagens.cabeca.intervaloMs, só serve para encontrar as que lá se
+    // perderam
+    private void publicarCabeca(String sala, long cabeca) {
+        if (barramentoNos.ativo()) {
+            cabecasPorPublicar.merge(sala, cabeca, Math::max);
+        } else {
+            escreverCabeca(sala, cabeca);
+        }
+    }
+
+    private void publicarCabecasPendentes() {
+        for (String sala : new ArrayList<>(cabecasPorPublicar.keySet())) {
+            Long cabeca = cabecasPorPublicar.remove(sala);
+            if (cabeca != null && !escreverCabeca(sala, cabeca)) {
+                cabecasPorPublicar.merge(sala, cabeca, Math::max);
+            }
+        }
+    }
+
+    // A cabeça nunca recua: se outro nó já publicou uma igual ou mais à frente, o
+    // watch já disparou e não há nada a escrever. false se a escrita falhou
+    private boolean escreverCabeca(String sala, long cabeca) {
+        String path = String.format("/chats/%s/mensagens", sala);
+        byte[] novaCabeca = Long.toString(cabeca).getBytes(StandardCharsets.UTF_8);
+        try {
+            while (true) {
+                Stat stat = new Stat();
+                if (lerCabeca(ChamadasZooKeeper.getData(cliente, path, stat)) >= cabeca) {
+                    return true;
+                }
+                try {
+                    ChamadasZooKeeper.setData(cliente, path, novaCabeca, stat.getVersion());
+                    cabecasPublicadas.incrementAndGet();
+                    return true;
+                } catch (KeeperException.BadVersionException e) {
+                    logger.debug("GesZook - Cabeça da sala {} alterada entretanto", sala);
+                }
+            }
+        } catch (KeeperException.NoNodeException e) {
+            logger.debug("GesZook - Sala {} removida antes de publicar a cabeça", sala);
+            return true;
         } catch (KeeperException | InterruptedException e) {
-            logger.error("GesZook - Erro ao listar salas por participante no ZooKeeper", e);
+            logger.error("GesZook - Erro ao publicar a cabeça da sala " + sala, e);
+            return false;
+        }
+    }
+
+    // Próxima sequência da sala, lida da árvore em cache; 0 sem nó de mensagens
+    private long cabecaSala(String sala) {
+        byte[] dados = arvoreChats.dados("/chats/" + sala + "/mensagens");
+        try {
+            return lerCabeca(dados);
+        } catch (NumberFormatException e) {
+            logger.error("GesZook - Cabeça inválida na sala " + sala, e);
+            return 0;
+        }
+    }
+
+    // "<próxima sequência> <id da mensagem que a reservou>"; só o número nas salas novas
+    private static long lerCabeca(byte[] dados) {
+        if (dados == null) {
+            return 0;
+        }
+        String texto = new String(dados, StandardCharsets.UTF_8).trim();
+        int espaco = texto.indexOf(' ');
+        if (espaco >= 0) {
+            texto = texto.substring(0, espaco);
+        }
+        return texto.isEmpty() ? 0 : Long.parseLong(texto);
+    }
+
+    // -- -- -- -- -- -- -- -- -- Leitura -- -- -- -- -- -- -- -- -- -- -- //
+
+    // Servido pelo índice invertido de participação
+    public List<String> listarSalasPorParticipante(String nomeUtilizador) {
+        return indiceParticipacao.salasDe(nomeUtilizador);
+    }
+
+    // Lido da árvore /chats em cache
+    public List<String> listarSalasPorParticipanteZook(String nomeUtilizador) {
+        List<String> salas = new ArrayList<>();
+        for (String sala : listarSalas()) {
+            if (arvoreChats.existe("/chats/" + sala + "/participantes/" + nomeUtilizador)) {
+                salas.add(sala);
+            }
         }
         return salas;
     }
 
+    // Lido da árvore /utilizadores em cache
     public List<String> listarUtilizadoresPorStatusZook(String estado) {
-        String path = "/utilizadores";
         List<String> utilizadores = new ArrayList<>();
-        try {
-            List<String> nomes = zooKeeper.getChildren(path, false);
-            for (String nome : nomes) {
-                byte[] data = zooKeeper.getData(path + "/" + nome + "/estado", false, null);
-                String estadoUtilizador = new String(data);
-                if (estadoUtilizador.equals(estado)) {
-                    utilizadores.add(nome);
-                }
+        for (String nome : listarUtilizadores()) {
+            byte[] data = arvoreUtilizadores.dados("/utilizadores/" + nome + "/estado");
+            if (data != null && new String(data).equals(estado)) {
+                utilizadores.add(nome);
             }
-        } catch (KeeperException | InterruptedException e) {
-            logger.error("GesZook - Erro ao listar utilizadores por status no ZooKeeper", e);
         }
         return utilizadores;
     }
 
+    // Servido pela tabela de presença, sem idas ao ZooKeeper
+    public List<String> listarUtilizadoresPorEstado(String estado) {
+        return tabelaPresenca.listar(estado);
+    }
+
+    public InstantaneoPresenca instantaneoPresenca() {
+        return tabelaPresenca.instantaneo();
+    }
+
     public List<Mensagem> listarMensagensPorSala(String sala) {
-        String path = String.format("/chats/%s/mensagens", sala);
         List<Mensagem> mensagens = new ArrayList<>();
         try {
-            List<String> children = zooKeeper.getChildren(path, false);
-            children.sort(String::compareTo);
-            for (String child : children) {
-                byte[] data = zooKeeper.getData(path + "/" + child, false, null);
-                String conteudo = new String(data);
-                Mensagem mensagem = objectMapper.readValue(conteudo, Mensagem.class);
-                mensagem.setId(child);
-                mensagem.setNomeSala(sala);
-                mensagens.add(mensagem);
-            }
-        } catch (KeeperException | InterruptedException | IOException e) {
-            logger.error("GesZook - Erro ao listar mensagens por sala no ZooKeeper", e);
+            mensagens = PaginaMensagens.visiveis(registoMensagens.ler(sala, 0, Integer.MAX_VALUE));
+        } catch (IOException e) {
+            logger.error("GesZook - Erro ao listar mensagens por sala no registo local", e);
         }
         return mensagens;
     }
 
+    /**
+     * Lê uma janela do histórico da sala sem percorrer o resto do registo.
+     * Sem cursores devolve as {@code limite} mensagens mais recentes; com
+     * {@code antes} as anteriores a essa sequência; com {@code depois} as
+     * seguintes. As páginas que caem dentro da cache de mensagens recentes
+     * não tocam no registo. As salas de outros nós, ou cujo registo local não
+     * está completo, são lidas do MongoDB pelo índice (nomeSala, sequencia).
+     */
+    public PaginaMensagens listarMensagensPorSala(String sala, Long antes, Long depois, int limite) {
+        if (!mantemRegisto(sala) || !salasAlinhadas.contains(sala)) {
+            return lerPaginaDoMongo(sala, antes, depois, limite);
+        }
+        try {
+            long cabeca = registoMensagens.proximoOffset(sala);
+            PaginaMensagens.Janela janela = new PaginaMensagens.Janela(antes, depois, limite, cabeca);
+            long inicio = janela.inicio();
+            long fim = janela.fim();
+            List<Mensagem> mensagens = new ArrayList<>();
+            if (!janela.vazia()) {
+                mensagens = cacheMensagens.ler(sala, inicio, fim);
+                if (mensagens == null) {
+                    mensagens = registoMensagens.ler(sala, inicio, (int) (fim - inicio));
+                    if (fim == cabeca) {
+                        cacheMensagens.preencher(sala, mensagens, cabeca);
+                    }
+                }
+            }
+            return janela.pagina(mensagens);
+        } catch (IOException e) {
+            logger.error("GesZook - Erro ao ler página de mensagens da sala " + sala, e);
+            return new PaginaMensagens();
+        }
+    }
+
+    // Mesmos cursores que a leitura do registo, pelo índice (nomeSala, sequencia)
+    private PaginaMensagens lerPaginaDoMongo(String sala, Long antes, Long depois, int limite) {
+        PageRequest pagina = PageRequest.of(0, Math.max(1, limite));
+        List<Mensagem> mensagens;
+        if (depois != null) {
+            mensagens = repositorioMensagem.findByNomeSalaAndSequenciaGreaterThanOrderBySequenciaAsc(sala, depois,
+                    pagina);
+        } else if (antes != null) {
+            mensagens = new ArrayList<>(
+                    repositorioMensagem.findByNomeSalaAndSequenciaLessThanOrderBySequenciaDesc(sala, antes, pagina));
+            Collections.reverse(mensagens);
+        } else {
+            mensagens = new ArrayList<>(repositorioMensagem.findByNomeSalaOrderBySequenciaDesc(sala, pagina));
+            Collections.reverse(mensagens);
+        }
+        return PaginaMensagens.dePagina(mensagens, antes, depois, limite);
+    }
+
     // -- -- -- -- -- -- -- -- -- Notificações -- -- -- -- -- -- -- -- -- -- -- //
 
+    // Mantém o índice de participação e o índice de subscrições do WebSocket
+    // alinhados com /chats/<sala>/participantes
+    private void atualizarParticipantes(String sala, List<String> participantes) {
+        indiceParticipacao.definirParticipantes(sala, participantes);
+        configuracaoWebSocket.atualizarParticipantesSala(sala, participantes);
+    }
+
+    // O índice de subscrições encaminha o evento apenas para os participantes da
+    // sala, por isso basta uma única notificação por mudança
     private void notificarParticipantesDaSala(String sala) {
         String path = String.format("/chats/%s/participantes", sala);
         try {
-            List<String> participantes = zooKeeper.getChildren(path, false);
-            for (String participante : participantes) {
-                configuracaoWebSocket.notificarClientes("mudanca_participantes_chat", sala, null);
-            }
+            List<String> participantes = ChamadasZooKeeper.getChildren(cliente, path);
+            atualizarParticipantes(sala, participantes);
+            configuracaoWebSocket.notificarClientes("mudanca_participantes_chat", sala, null);
         } catch (KeeperException | InterruptedException e) {
             logger.error("GesZook - Erro ao notificar participantes da sala no ZooKeeper", e);
         }
     }
 
-    private void notificarMensagensDaSala(String sala, Mensagem mensagem) {
-        String path = String.format("/chats/%s/participantes", sala);
-        try {
-            List<String> participantes = zooKeeper.getChildren(path, false);
-            for (String participante : participantes) {
-                configuracaoWebSocket.notificarClientes("nova_mensagem", sala, mensagem);
+    public List<String> listarSalas() {
+        List<String> salas = arvoreChats.filhos("/chats");
+        return salas != null ? salas : new ArrayList<>();
+    }
+
+    // -- -- -- -- -- -- -- -- -- Watches -- -- -- -- -- -- -- -- -- -- -- //
+
+    /**
+     * Despachante único dos eventos das árvores em cache (/utilizadores,
+     * /chats e /nodos). Corre na thread de eventos do cliente, por isso apenas
+     * classifica o evento pelo caminho e agenda o tratamento no
+     * {@link DespachanteEventos}, particionado pela sala ou pelo utilizador.
+     */
+    void despacharEvento(String caminho, Watcher.Event.EventType tipo) {
+        eventosDespachados.incrementAndGet();
+        String[] partes = caminho.substring(1).split("/");
+
+        if ("utilizadores".equals(partes[0]) && partes.length >= 2) {
+            String utilizador = partes[1];
+            boolean mudouEstado = partes.length == 3 && "estado".equals(partes[2])
+                    && tipo != Watcher.Event.EventType.NodeChildrenChanged;
+            boolean removido = partes.length == 2 && tipo == Watcher.Event.EventType.NodeDeleted;
+            boolean criado = partes.length == 2 && tipo == Watcher.Event.EventType.NodeCreated;
+            boolean alterado = partes.length == 2 && tipo == Watcher.Event.EventType.NodeDataChanged;
+            // Registos, remoções e alterações feitos noutros nós chegam ao diretório por
+            // aqui; o estado também é gravado no documento do utilizador. As chaves são
+            // distintas para que uma invalidação nunca seja agrupada com um registo
+            if (criado) {
+                despachanteEventos.despachar(utilizador, "diretorio-nome:" + utilizador,
+                        () -> diretorioUtilizadores.registarNome(utilizador));
+            } else if (removido || alterado || mudouEstado) {
+                despachanteEventos.despachar(utilizador, "diretorio:" + utilizador,
+                        () -> diretorioUtilizadores.invalidar(utilizador));
+            }
+            if (mudouEstado || removido) {
+                despachanteEventos.despachar(utilizador, "presenca:" + utilizador, () -> {
+                    logger.info("GesZook - Estado do utilizador " + utilizador + " mudou.");
+                    atualizarPresenca(utilizador);
+                });
+            }
+        } else if ("nodos".equals(partes[0]) && partes.length == 2) {
+            despachanteEventos.despachar("nodos", "nodos", this::atualizarMembrosCluster);
+        } else if ("chats".equals(partes[0]) && partes.length >= 2) {
+            String sala = partes[1];
+            boolean salaRemovida = partes.length == 2 && tipo == Watcher.Event.EventType.NodeDeleted;
+            boolean mudouParticipante = partes.length == 4 && "participantes".equals(partes[2])
+                    && (tipo == Watcher.Event.EventType.NodeCreated || tipo == Watcher.Event.EventType.NodeDeleted);
+            // Com o barramento ativo as mensagens chegam normalmente pelo barramento e a
+            // leitura da cabeça só encontra as que lá se perderam (o offset já as cobre)
+            if (partes.length == 3 && "mensagens".equals(partes[2])
+                    && tipo == Watcher.Event.EventType.NodeDataChanged) {
+                despachanteEventos.despachar(sala, "mensagens:" + sala, () -> {
+                    logger.info("Nova mensagem detectada na sala: " + sala);
+                    entregarMensagensPendentes(sala);
+                });
+            } else if (salaRemovida || mudouParticipante) {
+                // Uma rajada de entradas (p.ex. a criação de uma sala com muitos
+                // participantes) resulta numa única leitura dos participantes
+                despachanteEventos.despachar(sala, "participantes:" + sala, () -> recarregarParticipantes(sala));
             }
-        } catch (KeeperException | InterruptedException e) {
-            logger.error("GesZook - Erro ao notificar sobre novas mensagens no ZooKeeper", e);
         }
     }
 
-    public List<String> listarSalas() {
-        String path = "/chats";
-        List<String> salas = new ArrayList<>();
-        try {
-            Stat stat = zooKeeper.exists(path, false);
-            if (stat != null) {
-                salas = zooKeeper.getChildren(path, false);
-            }
-        } catch (KeeperException | InterruptedException e) {
-            logger.error("GesZook - Erro ao listar salas no ZooKeeper", e);
+    // -- -- -- -- -- -- -- -- -- Cluster -- -- -- -- -- -- -- -- -- -- -- //
+
+    // /nodos/<id> deste nó se foi criado na sessão atual; senão a reserva é recusada
+    private String caminhoEpocaValida() throws IOException, KeeperException, InterruptedException {
+        Epoca epoca = epocaNo;
+        long sessao = ChamadasZooKeeper.comRetry(cliente, zooKeeper -> zooKeeper).getSessionId();
+        if (epoca == null || epoca.sessao != sessao) {
+            reservasVedadas.incrementAndGet();
+            throw new IOException("O nó " + barramentoNos.idNo() + " ainda não tem época na sessão 0x"
+                    + Long.toHexString(sessao));
         }
-        return salas;
+        return "/nodos/" + barramentoNos.idNo();
     }
 
-    public void monitorarUtilizadores() {
-        String path = "/utilizadores";
-        logger.info("GesZook - Iniciando monitoramento de utilizadores no caminho: " + path);
+    // Nó efémero /nodos/<id> com o endereço do barramento; desaparece com a sessão
+    private void registarNo() {
+        if (!barramentoNos.ativo()) {
+            return;
+        }
+        String caminho = "/nodos/" + barramentoNos.idNo();
+        byte[] endereco = barramentoNos.endereco().getBytes(StandardCharsets.UTF_8);
         try {
-            Stat stat = zooKeeper.exists(path, true); // Adicionando watcher no path
-            if (stat != null) {
-                List<String> utilizadores = zooKeeper.getChildren(path, event -> {
-                    logger.info("GesZook - Evento recebido em monitorarUtilizadores: " + event);
-                    if (event.getType() == Watcher.Event.EventType.NodeChildrenChanged) {
-                        logger.info("GesZook - Detecção de mudança na lista de utilizadores");
-                        configuracaoWebSocket.notificarMudancaEstadoUtilizadores();
-                        monitorarUtilizadores(); // Rearmar o watcher após um evento
-                    }
-                });
-                utilizadores.forEach(this::monitorarEstadoUtilizador);
-            } else {
-                logger.warn("GesZook - Nenhum nó encontrado em: " + path);
+            try {
+                ChamadasZooKeeper.create(cliente, caminho, endereco, CreateMode.EPHEMERAL);
+            } catch (KeeperException.NodeExistsException e) {
+                // Pode ser de outro processo vivo com o mesmo id ou de uma sessão anterior
+                // deste nó que ainda não expirou: em nenhum dos casos se apaga. A
+                // sincronização volta a tentar até a sessão dona do nó expirar
+                Stat stat = ChamadasZooKeeper.exists(cliente, caminho);
+                long sessao = ChamadasZooKeeper.comRetry(cliente, zooKeeper -> zooKeeper).getSessionId();
+                if (stat != null && stat.getEphemeralOwner() != sessao) {
+                    throw new IllegalStateException("O id " + barramentoNos.idNo() + " está em uso pela sessão 0x"
+                            + Long.toHexString(stat.getEphemeralOwner()));
+                }
             }
-        } catch (KeeperException | InterruptedException e) {
-            logger.error("GesZook - Falha ao monitorar utilizadores", e);
+            Stat stat = ChamadasZooKeeper.exists(cliente, caminho);
+            if (stat == null) {
+                throw new IllegalStateException("O nó " + caminho + " desapareceu logo depois de registado");
+            }
+            epocaNo = new Epoca(stat.getEphemeralOwner(), stat.getCzxid());
+            logger.info("GesZook - Nó registado em " + caminho + " com a época " + stat.getCzxid());
+        } catch (KeeperException e) {
+            throw new IllegalStateException("Erro ao registar o nó em " + caminho, e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Registo do nó em " + caminho + " interrompido", e);
         }
     }
 
-    public void monitorarEstadoUtilizador(String utilizador) {
-        String path = "/utilizadores/" + utilizador + "/estado";
-        logger.info("GesZook - Iniciando monitoramento do estado do utilizador: " + utilizador);
-        try {
-            // Adiciona um watcher permanente ao estado do utilizador
-            Stat stat = zooKeeper.exists(path, true);
-            if (stat != null) {
-                zooKeeper.getData(path, event -> {
-                    if (event.getType() == Watcher.Event.EventType.NodeDataChanged) {
-                        logger.info("GesZook - Estado do utilizador " + utilizador + " mudou.");
-                        // Notifica todos os clientes para atualizar a lista de estados dos utilizadores
-                        configuracaoWebSocket.notificarMudancaEstadoUtilizadores();
-                        monitorarEstadoUtilizador(utilizador); // Rearma o watcher
-                    }
-                }, null);
-            } else {
-                logger.warn("GesZook - Estado não encontrado para: " + utilizador);
+    private void atualizarMembrosCluster() {
+        if (!barramentoNos.ativo()) {
+            return;
+        }
+        List<String> nos = arvoreNodos.filhos("/nodos");
+        Map<String, String> membros = new HashMap<>();
+        if (nos != null) {
+            for (String no : nos) {
+                byte[] endereco = arvoreNodos.dados("/nodos/" + no);
+                if (endereco != null) {
+                    membros.put(no, new String(endereco, StandardCharsets.UTF_8));
+                }
             }
-        } catch (KeeperException | InterruptedException e) {
-            logger.error("GesZook - Erro ao monitorar estado do utilizador " + utilizador, e);
         }
+        barramentoNos.atualizarMembros(membros);
+        distribuicaoSalas.atualizarMembros(membros.keySet(), indiceParticipacao.salasConhecidas());
+        // Uma sala perdida terá de ser realinhada se voltar a este nó
+        salasAlinhadas.removeIf(sala -> !distribuicaoSalas.souDono(sala));
     }
 
-    public void monitorarSala(String sala) {
-        String path = "/chats/" + sala + "/participantes";
-        logger.info("GesZook - Monitorando sala: " + sala);
-        try {
-            Stat stat = zooKeeper.exists(path, false);
-            if (stat != null) {
-                zooKeeper.getChildren(path, event -> {
-                    logger.info("GesZook - Evento detectado em monitorarSala: " + event.getType());
-                    if (event.getType() == Watcher.Event.EventType.NodeChildrenChanged) {
-                        configuracaoWebSocket.notificarClientes("mudanca_participantes_chat", sala);
-                        monitorarSala(sala);
-                    }
-                });
-            } else {
-                logger.warn("GesZook - Caminho não existe para monitorar sala: " + sala);
-            }
-        } catch (KeeperException | InterruptedException e) {
-            logger.error("GesZook - Erro ao monitorar sala: " + sala, e);
+    private void recarregarParticipantes(String sala) {
+        List<String> participantes = arvoreChats.filhos("/chats/" + sala + "/participantes");
+        if (participantes == null) {
+            removerSalaDosIndices(sala);
+            return;
+        }
+        atualizarParticipantes(sala, participantes);
+        configuracaoWebSocket.notificarClientes("mudanca_participantes_chat", sala);
+    }
+
+    private void atualizarPresenca(String utilizador) {
+        byte[] estado = arvoreUtilizadores.dados("/utilizadores/" + utilizador + "/estado");
+        if (estado != null) {
+            tabelaPresenca.atualizar(utilizador, new String(estado));
+        } else {
+            tabelaPresenca.remover(utilizador);
         }
     }
 
-    public void monitorarMensagens(String sala) {
-        String path = "/chats/" + sala + "/mensagens";
+    private void removerSalaDosIndices(String sala) {
+        indiceParticipacao.removerSala(sala);
+        configuracaoWebSocket.removerSala(sala);
+        distribuidorMensagens.removerSala(sala);
+        cacheMensagens.removerSala(sala);
+        salasAlinhadas.remove(sala);
+    }
+
+    // Entrega aos clientes deste nó as mensagens da sala que ainda não lhes foram
+    // enviadas, até à cabeça em /chats/<sala>/mensagens. As sequenciadas noutro
+    // nó vêm do MongoDB; a entrega para na primeira ainda por gravar, e o lote
+    // que a gravar volta a acordar o watch. As que a pipeline de ingestão já
+    // entregou são descartadas pelo distribuidor.
+    private void entregarMensagensPendentes(String sala) {
         try {
-            Stat stat = zooKeeper.exists(path, true); // Garante que o watcher é persistente
-            if (stat != null) {
-                zooKeeper.getChildren(path, new Watcher() {
-                    public void process(WatchedEvent event) {
-                        if (event.getType() == Watcher.Event.EventType.NodeChildrenChanged) {
-                            logger.info("Nova mensagem detectada na sala: " + sala);
-                            // Tentativa de recuperar a última mensagem adicionada e notificar
-                            try {
-                                List<String> children = zooKeeper.getChildren(path, false);
-                                if (!children.isEmpty()) {
-                                    String lastChild = children.get(children.size() - 1);
-                                    byte[] data = zooKeeper.getData(path + "/" + lastChild, false, null);
-                                    Mensagem mensagem = objectMapper.readValue(new String(data), Mensagem.class);
-                                    configuracaoWebSocket.enviarNotificacaoNovaMensagem(sala, mensagem);
-                                }
-                            } catch (KeeperException | InterruptedException | IOException e) {
-                                logger.error("Erro ao notificar sobre nova mensagem na sala: " + sala, e);
-                            }
-                            monitorarMensagens(sala); // Rearma o watcher
-                        }
-                    }
-                });
+            entregarPendentes(sala);
+        } catch (IOException | RuntimeException e) {
+            logger.error("Erro ao notificar sobre nova mensagem na sala: " + sala, e);
+        }
+    }
+
+    /**
+     * Pedido do distribuidor quando uma mensagem fica retida à espera das
+     * anteriores: lê-as na partição da sala, agrupado com o watch da cabeça.
+     * Antes da primeira sincronização não faz nada, para que o histórico
+     * anterior ao arranque não seja entregue como mensagens novas.
+     */
+    public void pedirMensagensEmFalta(String sala) {
+        if (!historicoRestaurado) {
+            return;
+        }
+        despachanteEventos.despachar(sala, "mensagens:" + sala, () -> entregarMensagensPendentes(sala));
+    }
+
+    // Lê até à cabeça ou, se estiver mais à frente, até à primeira mensagem retida
+    // no distribuidor: a cabeça pode ainda não ter sido reescrita
+    private void entregarPendentes(String sala) throws IOException {
+        if (!arvoreChats.existe("/chats/" + sala + "/mensagens")) {
+            logger.debug("GesZook - Sala {} sem nó de mensagens", sala);
+            return;
+        }
+        long cabeca = Math.max(cabecaSala(sala), distribuidorMensagens.primeiraRetida(sala));
+        for (Mensagem mensagem : lerPendentes(sala, distribuidorMensagens.ultimoOffset(sala) + 1, cabeca)) {
+            distribuidorMensagens.entregar(mensagem);
+        }
+    }
+
+    // Mensagens da sala em [desde, cabeca) até ao primeiro buraco. O registo das
+    // salas mantidas por este nó é alinhado primeiro; as outras são lidas do MongoDB
+    private List<Mensagem> lerPendentes(String sala, long desde, long cabeca) throws IOException {
+        if (mantemRegisto(sala)) {
+            alinharRegisto(sala, cabeca);
+            long fim = Math.min(cabeca, registoMensagens.proximoOffset(sala));
+            return desde < fim ? registoMensagens.ler(sala, desde, (int) (fim - desde)) : new ArrayList<>();
+        }
+        List<Mensagem> pendentes = new ArrayList<>();
+        if (desde >= cabeca) {
+            return pendentes;
+        }
+        int tamanho = (int) Math.min(cabeca - desde, TAMANHO_PAGINA_ALINHAMENTO);
+        long esperada = desde;
+        for (Mensagem mensagem : repositorioMensagem.findByNomeSalaAndSequenciaGreaterThanOrderBySequenciaAsc(sala,
+                desde - 1, PageRequest.of(0, tamanho))) {
+            if (mensagem.getSequencia() != esperada) {
+                break;
             }
-        } catch (KeeperException | InterruptedException e) {
-            logger.error("Erro ao monitorar mensagens na sala: " + sala, e);
+            pendentes.add(mensagem);
+            esperada++;
         }
+        return pendentes;
     }
 
     public List<String> listarUtilizadores() {
-        String path = "/utilizadores";
-        List<String> utilizadores = new ArrayList<>();
-        try {
-            Stat stat = zooKeeper.exists(path, false);
-            if (stat != null) {
-                utilizadores = zooKeeper.getChildren(path, false);
-            }
-        } catch (KeeperException | InterruptedException e) {
-            logger.error("GesZook - Erro ao listar utilizadores no ZooKeeper", e);
+        List<String> utilizadores = arvoreUtilizadores.filhos("/utilizadores");
+        return utilizadores != null ? utilizadores : new ArrayList<>();
+    }
+
+    // Próxima sequência por reservar numa sala e versão do nó da reserva
+    private static final class Reserva {
+
+        private final long proxima;
+        private final int versao;
+
+        Reserva(long proxima, int versao) {
+            this.proxima = proxima;
+            this.versao = versao;
         }
-        return utilizadores;
     }
 
-}
\ No newline at end of file
+    // Sessão que criou /nodos/<id> e o czxid do nó
+    private static final class Epoca {
+
+        private final long sessao;
+        private final long czxid;
+
+        Epoca(long sessao, long czxid) {
+            this.sessao = sessao;
+            this.czxid = czxid;
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package com.example.chat_hub.zookeeper;
+
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Índice invertido de participação: para cada utilizador, as salas em que
+ * participa.
+ *
+ * É mantido de forma incremental a partir das escritas deste nó (criar sala,
+ * entrar, sair) e dos eventos dos watchers de participantes, para que obter as
+ * salas de um utilizador custe apenas o número de salas desse utilizador.
+ */
+@Component
+public class IndiceParticipacao {
+
+    private final Map<String, Set<String>> salasPorUtilizador = new ConcurrentHashMap<>();
+    private final Map<String, Set<String>> participantesPorSala = new ConcurrentHashMap<>();
+
+    /**
+     * Substitui os participantes conhecidos de uma sala, aplicando apenas as
+     * diferenças ao índice invertido.
+     */
+    public synchronized void definirParticipantes(String sala, Collection<String> participantes) {
+        Set<String> novos = new HashSet<>(participantes);
+        Set<String> antigos = participantesPorSala.getOrDefault(sala, Collections.emptySet());
+        for (String antigo : antigos) {
+            if (!novos.contains(antigo)) {
+                removerDoUtilizador(antigo, sala);
+            }
+        }
+        for (String novo : novos) {
+            if (!antigos.contains(novo)) {
+                salasPorUtilizador.computeIfAbsent(novo, u -> ConcurrentHashMap.newKeySet()).add(sala);
+            }
+        }
+        Set<String> conjunto = ConcurrentHashMap.newKeySet();
+        conjunto.addAll(novos);
+        participantesPorSala.put(sala, conjunto);
+    }
+
+    public synchronized void adicionar(String sala, String utilizador) {
+        participantesPorSala.computeIfAbsent(sala, s -> ConcurrentHashMap.newKeySet()).add(utilizador);
+        salasPorUtilizador.computeIfAbsent(utilizador, u -> ConcurrentHashMap.newKeySet()).add(sala);
+    }
+
+    public synchronized void remover(String sala, String utilizador) {
+        Set<String> participantes = participantesPorSala.get(sala);
+        if (participantes != null) {
+            participantes.remove(utilizador);
+        }
+        removerDoUtilizador(utilizador, sala);
+    }
+
+    public synchronized void removerSala(String sala) {
+        Set<String> participantes = participantesPorSala.remove(sala);
+        if (participantes != null) {
+            for (String participante : participantes) {
+                removerDoUtilizador(participante, sala);
+            }
+        }
+    }
+
+    public boolean conheceSala(String sala) {
+        return participantesPorSala.containsKey(sala);
+    }
+
+    public boolean participa(String sala, String utilizador) {
+        Set<String> participantes = participantesPorSala.get(sala);
+        return participantes != null && participantes.contains(utilizador);
+    }
+
+    public Set<String> salasConhecidas() {
+        return participantesPorSala.keySet();
+    }
+
+    public List<String> salasDe(String utilizador) {
+        Set<String> salas = salasPorUtilizador.get(utilizador);
+        return salas != null ? new ArrayList<>(salas) : new ArrayList<>();
+    }
+
+    public synchronized void limpar() {
+        salasPorUtilizador.clear();
+        participantesPorSala.clear();
+    }
+
+    private void removerDoUtilizador(String utilizador, String sala) {
+        salasPorUtilizador.computeIfPresent(utilizador, (u, salas) -> {
+            salas.remove(sala);
+            return salas.isEmpty() ? null : salas;
+        });
+    }
+}
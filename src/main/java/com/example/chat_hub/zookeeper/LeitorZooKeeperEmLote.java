@@ -0,0 +1,162 @@
+package com.example.chat_hub.zookeeper;
+
+import org.apache.curator.CuratorZookeeperClient;
+import org.apache.zookeeper.AsyncCallback;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.ZooKeeper;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Leituras em lote no ZooKeeper através da API assíncrona.
+ *
+ * Em vez de um pedido síncrono (uma ida e volta) por nó, os pedidos são
+ * enviados em pipeline com, no máximo, {@code janela} pedidos em curso. Os
+ * resultados são devolvidos pela mesma ordem dos caminhos pedidos; um nó que
+ * já não existe dá {@code null}. Um lote interrompido por perda de ligação, ou
+ * cujas respostas não chegam dentro do tempo de sessão, é repetido por
+ * inteiro na sessão atual do cliente Curator.
+ */
+@Component
+public class LeitorZooKeeperEmLote {
+
+    private final int janela;
+
+    public LeitorZooKeeperEmLote(@Value("${zookeeper.leitura.janela:256}") int janela) {
+        this.janela = janela;
+    }
+
+    public List<byte[]> lerDados(CuratorZookeeperClient cliente, List<String> caminhos)
+            throws KeeperException, InterruptedException {
+        return ChamadasZooKeeper.comRetry(cliente, zooKeeper -> lerDados(zooKeeper, caminhos));
+    }
+
+    public List<Boolean> existem(CuratorZookeeperClient cliente, List<String> caminhos)
+            throws KeeperException, InterruptedException {
+        return ChamadasZooKeeper.comRetry(cliente, zooKeeper -> existem(zooKeeper, caminhos));
+    }
+
+    public List<List<String>> listarFilhos(CuratorZookeeperClient cliente, List<String> caminhos)
+            throws KeeperException, InterruptedException {
+        return ChamadasZooKeeper.comRetry(cliente, zooKeeper -> listarFilhos(zooKeeper, caminhos));
+    }
+
+    List<byte[]> lerDados(ZooKeeper zooKeeper, List<String> caminhos)
+            throws KeeperException, InterruptedException {
+        if (ChamadasZooKeeper.naThreadDeEventos()) {
+            List<byte[]> resultados = new ArrayList<>(caminhos.size());
+            for (String caminho : caminhos) {
+                try {
+                    resultados.add(zooKeeper.getData(caminho, false, null));
+                } catch (KeeperException.NoNodeException e) {
+                    resultados.add(null);
+                }
+            }
+            return resultados;
+        }
+        Lote<byte[]> lote = new Lote<>(zooKeeper, caminhos);
+        for (int i = 0; i < caminhos.size(); i++) {
+            lote.aguardarVaga();
+            AsyncCallback.DataCallback callback = (rc, caminho, ctx, dados, stat) -> lote.concluir((Integer) ctx, rc,
+                    caminho, dados);
+            zooKeeper.getData(caminhos.get(i), false, callback, i);
+        }
+        return lote.resultados();
+    }
+
+    List<Boolean> existem(ZooKeeper zooKeeper, List<String> caminhos)
+            throws KeeperException, InterruptedException {
+        if (ChamadasZooKeeper.naThreadDeEventos()) {
+            List<Boolean> resultados = new ArrayList<>(caminhos.size());
+            for (String caminho : caminhos) {
+                resultados.add(zooKeeper.exists(caminho, false) != null);
+            }
+            return resultados;
+        }
+        Lote<Boolean> lote = new Lote<>(zooKeeper, caminhos);
+        for (int i = 0; i < caminhos.size(); i++) {
+            lote.aguardarVaga();
+            AsyncCallback.StatCallback callback = (rc, caminho, ctx, stat) -> lote.concluir((Integer) ctx,
+                    rc == KeeperException.Code.NONODE.intValue() ? KeeperException.Code.OK.intValue() : rc,
+                    caminho, stat != null);
+            zooKeeper.exists(caminhos.get(i), false, callback, i);
+        }
+        List<Boolean> resultados = lote.resultados();
+        resultados.replaceAll(existe -> existe != null && existe);
+        return resultados;
+    }
+
+    List<List<String>> listarFilhos(ZooKeeper zooKeeper, List<String> caminhos)
+            throws KeeperException, InterruptedException {
+        if (ChamadasZooKeeper.naThreadDeEventos()) {
+            List<List<String>> resultados = new ArrayList<>(caminhos.size());
+            for (String caminho : caminhos) {
+                try {
+                    resultados.add(zooKeeper.getChildren(caminho, false));
+                } catch (KeeperException.NoNodeException e) {
+                    resultados.add(null);
+                }
+            }
+            return resultados;
+        }
+        Lote<List<String>> lote = new Lote<>(zooKeeper, caminhos);
+        for (int i = 0; i < caminhos.size(); i++) {
+            lote.aguardarVaga();
+            AsyncCallback.ChildrenCallback callback = (rc, caminho, ctx, filhos) -> lote.concluir((Integer) ctx, rc,
+                    caminho, filhos);
+            zooKeeper.getChildren(caminhos.get(i), false, callback, i);
+        }
+        return lote.resultados();
+    }
+
+    private final class Lote<T> {
+        private final Object[] resultados;
+        private final Semaphore vagas = new Semaphore(janela);
+        private final CountDownLatch pendentes;
+        private final AtomicReference<KeeperException> erro = new AtomicReference<>();
+        private final long tempoLimiteMs;
+
+        private Lote(ZooKeeper zooKeeper, List<String> caminhos) {
+            this.resultados = new Object[caminhos.size()];
+            this.pendentes = new CountDownLatch(caminhos.size());
+            this.tempoLimiteMs = ChamadasZooKeeper.tempoLimiteMs(zooKeeper);
+        }
+
+        private void aguardarVaga() throws KeeperException, InterruptedException {
+            if (!vagas.tryAcquire(tempoLimiteMs, TimeUnit.MILLISECONDS)) {
+                throw new KeeperException.OperationTimeoutException();
+            }
+        }
+
+        private void concluir(int indice, int rc, String caminho, T resultado) {
+            ChamadasZooKeeper.marcarThreadDeEventos();
+            KeeperException.Code codigo = KeeperException.Code.get(rc);
+            if (codigo == KeeperException.Code.OK) {
+                resultados[indice] = resultado;
+            } else if (codigo != KeeperException.Code.NONODE) {
+                erro.compareAndSet(null, KeeperException.create(codigo, caminho));
+            }
+            vagas.release();
+            pendentes.countDown();
+        }
+
+        @SuppressWarnings("unchecked")
+        private List<T> resultados() throws KeeperException, InterruptedException {
+            if (!pendentes.await(tempoLimiteMs, TimeUnit.MILLISECONDS)) {
+                throw new KeeperException.OperationTimeoutException();
+            }
+            if (erro.get() != null) {
+                throw erro.get();
+            }
+            return new ArrayList<>((List<T>) Arrays.asList(resultados));
+        }
+    }
+}
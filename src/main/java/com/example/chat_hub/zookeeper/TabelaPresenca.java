@@ -0,0 +1,142 @@
+package com.example.chat_hub.zookeeper;
+
+import com.example.chat_hub.modelo.InstantaneoPresenca;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Tabela em memória com o estado (online/offline) de cada utilizador.
+ *
+ * É alimentada pelos watchers de /utilizadores/&lt;nome&gt;/estado e pelas
+ * escritas feitas neste nó, e serve as listagens por estado sem idas ao
+ * ZooKeeper. Cada estado tem o seu conjunto, pelo que listar os utilizadores
+ * online custa apenas o número de utilizadores online.
+ *
+ * As alterações ficam acumuladas até serem fechadas num {@link Delta}, que
+ * avança a versão da tabela em um. Um cliente com a versão {@code n} só pode
+ * aplicar o delta cuja versão base é {@code n}; qualquer outro indica que
+ * perdeu alterações e tem de carregar um novo instantâneo.
+ */
+@Component
+public class TabelaPresenca {
+
+    private final Map<String, String> estados = new ConcurrentHashMap<>();
+    private final Map<String, Set<String>> porEstado = new ConcurrentHashMap<>();
+
+    // Protegidos pelo monitor da tabela
+    private final Map<String, String> alteracoesPendentes = new LinkedHashMap<>();
+    private long versao;
+
+    public synchronized void atualizar(String utilizador, String estado) {
+        String anterior = estados.put(utilizador, estado);
+        if (estado.equals(anterior)) {
+            return;
+        }
+        if (anterior != null) {
+            conjunto(anterior).remove(utilizador);
+        }
+        conjunto(estado).add(utilizador);
+        alteracoesPendentes.put(utilizador, estado);
+    }
+
+    public synchronized void remover(String utilizador) {
+        String anterior = estados.remove(utilizador);
+        if (anterior != null) {
+            conjunto(anterior).remove(utilizador);
+            // Um estado nulo no delta indica que o utilizador deixou de existir
+            alteracoesPendentes.put(utilizador, null);
+        }
+    }
+
+    // Remove os utilizadores que deixaram de existir em /utilizadores
+    public synchronized void reter(Collection<String> utilizadores) {
+        Set<String> existentes = Set.copyOf(utilizadores);
+        for (String utilizador : new ArrayList<>(estados.keySet())) {
+            if (!existentes.contains(utilizador)) {
+                remover(utilizador);
+            }
+        }
+    }
+
+    public String estado(String utilizador) {
+        return estados.get(utilizador);
+    }
+
+    public List<String> listar(String estado) {
+        return new ArrayList<>(conjunto(estado));
+    }
+
+    public synchronized void limpar() {
+        estados.clear();
+        porEstado.clear();
+        alteracoesPendentes.clear();
+        // Salta uma versão sem delta: os clientes detetam o salto e recarregam
+        versao++;
+    }
+
+    // -- -- -- -- -- -- -- -- -- Versões -- -- -- -- -- -- -- -- -- -- -- //
+
+    /**
+     * Fecha as alterações acumuladas num delta e avança a versão. Devolve
+     * null se não houve alterações desde o último delta.
+     */
+    public synchronized Delta fecharDelta() {
+        if (alteracoesPendentes.isEmpty()) {
+            return null;
+        }
+        Delta delta = new Delta(versao, versao + 1, new LinkedHashMap<>(alteracoesPendentes));
+        alteracoesPendentes.clear();
+        versao++;
+        return delta;
+    }
+
+    /**
+     * Cópia do estado atual com a versão do último delta fechado. Pode já
+     * incluir alterações ainda por fechar; como os deltas trazem o estado
+     * final de cada utilizador, aplicá-las de novo não altera o resultado.
+     */
+    public synchronized InstantaneoPresenca instantaneo() {
+        return new InstantaneoPresenca(versao, new HashMap<>(estados));
+    }
+
+    public synchronized long versao() {
+        return versao;
+    }
+
+    private Set<String> conjunto(String estado) {
+        return porEstado.computeIfAbsent(estado, e -> ConcurrentHashMap.newKeySet());
+    }
+
+    public static final class Delta {
+
+        private final long versaoBase;
+        private final long versao;
+        private final Map<String, String> alteracoes;
+
+        Delta(long versaoBase, long versao, Map<String, String> alteracoes) {
+            this.versaoBase = versaoBase;
+            this.versao = versao;
+            this.alteracoes = alteracoes;
+        }
+
+        public long getVersaoBase() {
+            return versaoBase;
+        }
+
+        public long getVersao() {
+            return versao;
+        }
+
+        public Map<String, String> getAlteracoes() {
+            return alteracoes;
+        }
+    }
+}
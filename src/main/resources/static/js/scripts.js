@@ -2,6 +2,11 @@ let ws;
 let currentUser;
 let currentChatRoom;
 let selectedParticipants = [];
+let cursorAnterior = null; // Sequência a pedir como 'antes' para carregar mensagens mais antigas
+let carregandoAnteriores = false;
+let presenca = new Map(); // utilizador -> estado
+let versaoPresenca = null; // Versão da tabela de presença aplicada localmente
+let ultimaSequencia = null; // Maior sequência recebida na sala aberta, enviada como 'desde' ao voltar a ligar
 
 document.addEventListener("DOMContentLoaded", function() {
     const urlParams = new URLSearchParams(window.location.search);
@@ -12,6 +17,7 @@ document.addEventListener("DOMContentLoaded", function() {
         carregarDados(currentUser);
         connectWebSocket(currentUser);
         atualizarStatus("online");
+        document.getElementById('chatHistory').addEventListener('scroll', carregarMensagensAnteriores);
         console.log("scripts - Página carregada e WebSocket conectado. Utilizador:", currentUser);
     }
 });
@@ -19,8 +25,7 @@ document.addEventListener("DOMContentLoaded", function() {
 
 function carregarDados(nomeUtilizador) {
     carregarSalas(nomeUtilizador);
-    carregarUtilizadoresOnline();
-    carregarUtilizadoresOffline();
+    carregarPresenca();
     console.log("scripts - Dados carregados para o utilizador:", nomeUtilizador);
 }
 
@@ -45,8 +50,10 @@ function atualizarListaSalas(salas) {
         salaButton.textContent = sala.nomeSala || sala;
         salaButton.onclick = () => {
             console.log(`scripts - Clicou na sala: ${sala.nomeSala || sala}`);
+            subscreverSala(sala.nomeSala || sala);
             currentChatRoom = sala.nomeSala || sala; // Definir a sala atual
             marcarSalaComoSelecionada(salaButton); // Marcar botão como selecionado
+            carregarMensagens(currentChatRoom);
         };
         listaSalas.appendChild(salaButton);
     });
@@ -114,64 +121,76 @@ function criarChat() {
 }
 
 
-function carregarUtilizadoresOnline() {
-    fetch('/api/chat/utilizadores/online')
+// Carrega o estado de todos os utilizadores e a versão a partir da qual aplicar os deltas
+function carregarPresenca() {
+    fetch('/api/chat/utilizadores/presenca')
         .then(response => {
             if (!response.ok) {
-                throw new Error(`Erro na rede ao tentar carregar utilizadores online: ${response.statusText}`);
+                throw new Error(`Erro na rede ao tentar carregar a presença dos utilizadores: ${response.statusText}`);
             }
             return response.json();
         })
-        .then(utilizadores => {
-            console.log("Utilizadores online API response:", utilizadores);
-            const utilizadoresOnlineContainer = document.getElementById("utilizadoresOnline");
-            utilizadoresOnlineContainer.innerHTML = ''; // Limpar container antes de adicionar novos elementos
-            utilizadores.forEach(utilizador => {
-                if (utilizador !== currentUser) {
-                    const button = document.createElement("button");
-                    button.textContent = utilizador;
-                    button.className = "user-button online";
-                    button.onclick = () => selectParticipant(utilizador);
-                    utilizadoresOnlineContainer.appendChild(button);
-                }
-            });
+        .then(instantaneo => {
+            presenca = new Map(Object.entries(instantaneo.estados));
+            versaoPresenca = instantaneo.versao;
+            atualizarListaUsuarios();
         })
-        .catch(error => console.error('scripts - Erro ao carregar utilizadores online:', error));
+        .catch(error => console.error('scripts - Erro ao carregar a presença dos utilizadores:', error));
 }
 
-function carregarUtilizadoresOffline() {
-    fetch('/api/chat/utilizadores/offline')
-        .then(response => {
-            if (!response.ok) {
-                throw new Error(`Erro na rede ao tentar carregar utilizadores offline: ${response.statusText}`);
-            }
-            return response.json();
-        })
-        .then(utilizadores => {
-            console.log("Utilizadores offline API response:", utilizadores);
-            const utilizadoresOfflineContainer = document.getElementById("utilizadoresOffline");
-            utilizadoresOfflineContainer.innerHTML = ''; // Limpar container antes de adicionar novos elementos
-            utilizadores.forEach(utilizador => {
-                if (utilizador !== currentUser) {
-                    const button = document.createElement("button");
-                    button.textContent = utilizador;
-                    button.className = "user-button offline";
-                    button.onclick = () => selectParticipant(utilizador);
-                    utilizadoresOfflineContainer.appendChild(button);
-                }
-            });
-        })
-        .catch(error => console.error('scripts - Erro ao carregar utilizadores offline:', error));
+// Aplica um delta de presença; um salto de versão obriga a recarregar o estado completo
+function aplicarDeltaPresenca(data) {
+    if (versaoPresenca === null || data.versao <= versaoPresenca) {
+        return; // Ainda sem instantâneo, ou delta já incluído no instantâneo
+    }
+    if (data.versaoBase !== versaoPresenca) {
+        console.log(`scripts - Salto na versão de presença (${versaoPresenca} -> ${data.versaoBase}), a recarregar.`);
+        versaoPresenca = null;
+        carregarPresenca();
+        return;
+    }
+    Object.entries(data.alteracoes).forEach(([utilizador, estado]) => {
+        if (estado === null) {
+            presenca.delete(utilizador);
+        } else {
+            presenca.set(utilizador, estado);
+        }
+    });
+    versaoPresenca = data.versao;
+    atualizarListaUsuarios();
+}
+
+function preencherListaUtilizadores(containerId, estado) {
+    const container = document.getElementById(containerId);
+    container.innerHTML = ''; // Limpar container antes de adicionar novos elementos
+    presenca.forEach((estadoUtilizador, utilizador) => {
+        if (estadoUtilizador === estado && utilizador !== currentUser) {
+            const button = document.createElement("button");
+            button.textContent = utilizador;
+            button.className = `user-button ${estado}`;
+            button.onclick = () => selectParticipant(utilizador);
+            container.appendChild(button);
+        }
+    });
 }
 
 function connectWebSocket(username) {
     if (ws) {
         ws.close();  // Fecha a conexão WebSocket existente corretamente.
     }
-    ws = new WebSocket(`ws://${window.location.host}/ecra_dashboard?username=${username}`);
+    // O servidor identifica o utilizador pela sessão HTTP do login
+    ws = new WebSocket(`ws://${window.location.host}/ecra_dashboard`);
     ws.onopen = function() {
         console.log("scripts - Conectado ao WebSocket");
-        ws.send(JSON.stringify({ type: "login", username }));
+        ws.send(JSON.stringify({ tipo: "login", username }));
+        // Os deltas enviados enquanto a ligação esteve em baixo perderam-se
+        if (versaoPresenca !== null) {
+            carregarPresenca();
+        }
+        if (currentChatRoom) {
+            // Pede as mensagens perdidas enquanto a ligação esteve em baixo
+            ws.send(JSON.stringify({ tipo: "subscrever", sala: currentChatRoom, desde: ultimaSequencia }));
+        }
     };
     ws.onmessage = function(event) {
         const data = JSON.parse(event.data);
@@ -186,16 +205,61 @@ function connectWebSocket(username) {
     };
 }
 
+// Subscreve explicitamente a sala aberta para receber os seus eventos
+function subscreverSala(sala) {
+    if (!ws || ws.readyState !== WebSocket.OPEN || sala === currentChatRoom) {
+        return;
+    }
+    if (currentChatRoom) {
+        ws.send(JSON.stringify({ tipo: "cancelar_subscricao", sala: currentChatRoom }));
+    }
+    ws.send(JSON.stringify({ tipo: "subscrever", sala }));
+}
+
+function registarSequencia(mensagem) {
+    if (mensagem.sequencia != null && (ultimaSequencia === null || mensagem.sequencia > ultimaSequencia)) {
+        ultimaSequencia = mensagem.sequencia;
+    }
+}
+
+function gerarIdCliente() {
+    if (window.crypto && crypto.randomUUID) {
+        return crypto.randomUUID();
+    }
+    return Date.now().toString(36) + Math.random().toString(36).slice(2);
+}
 
 function handleWebSocketMessage(data) {
     switch (data.tipo) {
         case "nova_mensagem":
             if (data.sala === currentChatRoom) {
+                registarSequencia(data.mensagem);
                 adicionarMensagemAoChat(data.mensagem);
             }
             break;
-        case "atualizar_usuarios":
-            atualizarListaUsuarios();
+        case "mensagens_em_falta":
+            // Pode chegar depois de mensagens mais recentes ou repeti-las: a ordem e a deduplicação são pela sequência
+            if (data.sala === currentChatRoom) {
+                data.pagina.mensagens.forEach(mensagem => {
+                    registarSequencia(mensagem);
+                    adicionarMensagemAoChat(mensagem);
+                });
+                if (data.pagina.seguinte != null && ws && ws.readyState === WebSocket.OPEN) {
+                    ws.send(JSON.stringify({ tipo: "subscrever", sala: data.sala, desde: data.pagina.seguinte }));
+                }
+            }
+            break;
+        case "presenca":
+            aplicarDeltaPresenca(data);
+            break;
+        case "mensagem_confirmada":
+            console.log(`scripts - Mensagem ${data.id} persistida na sala ${data.sala} (sequência ${data.sequencia}).`);
+            break;
+        case "mensagem_rejeitada":
+            alert("scripts - Não foi possível enviar a mensagem" + (data.motivo ? ": " + data.motivo : ".") + " Por favor, tente novamente.");
+            break;
+        case "subscricao_rejeitada":
+            console.warn(`scripts - Subscrição da sala ${data.sala} recusada: o utilizador não participa na sala.`);
             break;
         case "mudanca_sala":
             carregarSalas(currentUser);
@@ -210,46 +274,48 @@ function handleWebSocketMessage(data) {
     }
 }
 
+// Cada mensagem é identificada pela sequência na sala; é inserida por ordem de sequência e ignorada se já estiver no histórico
 function adicionarMensagemAoChat(mensagem) {
     const chatHistory = document.getElementById('chatHistory');
-    let mensagemExiste = false;
-
-    // Conferir se a mensagem já foi adicionada ao chatHistory
-    Array.from(chatHistory.children).forEach(child => {
-        const remetente = child.dataset.remetente;
-        const conteudo = child.dataset.conteudo;
-        const dataCriacao = child.dataset.dataCriacao;
-        if (remetente === mensagem.remetente && conteudo === mensagem.conteudo && dataCriacao === mensagem.dataCriacao) {
-            mensagemExiste = true;
-            console.log("scripts - Mensagem já existe no chatHistory:", mensagem);
+    let seguinte = null;
+    if (mensagem.sequencia != null) {
+        for (const child of chatHistory.children) {
+            const sequencia = Number(child.dataset.sequencia);
+            if (sequencia === mensagem.sequencia) {
+                console.log("scripts - Mensagem já existe no chatHistory:", mensagem);
+                return;
+            }
+            if (seguinte === null && sequencia > mensagem.sequencia) {
+                seguinte = child;
+            }
         }
-    });
+    }
 
-    if (!mensagemExiste) {
-        const isOutgoing = mensagem.remetente === currentUser;
-        const messageDiv = criarElementoMensagem(mensagem.remetente, formatarDataHora(mensagem.dataCriacao), mensagem.conteudo, isOutgoing);
-        chatHistory.appendChild(messageDiv);
+    const isOutgoing = mensagem.remetente === currentUser;
+    const messageDiv = criarElementoMensagem(mensagem, isOutgoing);
+    chatHistory.insertBefore(messageDiv, seguinte);
+    if (seguinte === null) {
         chatHistory.scrollTop = chatHistory.scrollHeight;
-        console.log("scripts - Nova mensagem adicionada ao chatHistory:", mensagem);
     }
+    console.log("scripts - Nova mensagem adicionada ao chatHistory:", mensagem);
 }
 
 
-function criarElementoMensagem(remetente, dataCriacao, conteudo, isOutgoing) {
+function criarElementoMensagem(mensagem, isOutgoing) {
     const messageDiv = document.createElement('div');
     messageDiv.className = isOutgoing ? 'message outgoing' : 'message incoming';
 
-    messageDiv.dataset.remetente = remetente;
-    messageDiv.dataset.conteudo = conteudo;
-    messageDiv.dataset.dataCriacao = dataCriacao;
+    if (mensagem.sequencia != null) {
+        messageDiv.dataset.sequencia = mensagem.sequencia;
+    }
 
     const messageHeader = document.createElement('div');
     messageHeader.className = 'message-header';
-    messageHeader.textContent = `${remetente} - ${dataCriacao}`;
+    messageHeader.textContent = `${mensagem.remetente} - ${formatarDataHora(mensagem.dataCriacao)}`;
 
     const messageContent = document.createElement('div');
     messageContent.className = 'message-content';
-    messageContent.textContent = conteudo;
+    messageContent.textContent = mensagem.conteudo;
 
     messageDiv.appendChild(messageHeader);
     messageDiv.appendChild(messageContent);
@@ -265,56 +331,90 @@ function sendMessage() {
         return;
     }
 
-    const dataCriacao = new Date().toISOString();  // ISO string para compatibilidade
+    const idCliente = gerarIdCliente();
+    document.getElementById('message').value = '';
+
+    // Com a ligação aberta a mensagem segue pelo WebSocket; o servidor confirma ou rejeita com o mesmo idCliente
+    if (ws && ws.readyState === WebSocket.OPEN) {
+        ws.send(JSON.stringify({ tipo: "enviar", sala: currentChatRoom, conteudo: messageText, idCliente }));
+        return;
+    }
 
+    // A data de criação é atribuída pelo servidor
     const message = {
         remetente: currentUser,
         conteudo: messageText,
-        nomeSala: currentChatRoom,
-        dataCriacao: dataCriacao
+        nomeSala: currentChatRoom
     };
 
-    ws.send(JSON.stringify({ tipo: "nova_mensagem", mensagem: message, sala: currentChatRoom }));
-    document.getElementById('message').value = '';
-
     fetch('/api/chat/mensagem', {
         method: 'POST',
         headers: {
             'Content-Type': 'application/json'
         },
         body: JSON.stringify(message)
-    });
+    })
+        .then(response => {
+            // 202: a mensagem entrou na pipeline; 503: servidor saturado
+            if (response.status === 503) {
+                alert("scripts - Servidor ocupado, a mensagem não foi enviada. Tente novamente.");
+            } else if (!response.ok) {
+                console.error("scripts - Erro ao enviar mensagem:", response.statusText);
+            }
+        })
+        .catch(error => console.error('scripts - Erro ao enviar mensagem:', error));
 }
 
 
 function carregarMensagens(nomeSala) {
-    fetch(`/api/chat/mensagens?nomeSala=${nomeSala}`)
+    fetch(`/api/chat/mensagens?nomeSala=${encodeURIComponent(nomeSala)}`)
         .then(response => response.json())
-        .then(data => {
+        .then(pagina => {
             const chatHistory = document.getElementById('chatHistory');
-            const existingMessages = new Map(); // Usar um Map para armazenar combinações de atributos de mensagem
+            cursorAnterior = pagina.anterior;
+            ultimaSequencia = null;
 
             // Limpar o histórico de chat existente
             while (chatHistory.firstChild) {
                 chatHistory.removeChild(chatHistory.firstChild);
             }
 
-            data.forEach(mensagem => {
-                const messageKey = mensagem.remetente + mensagem.dataCriacao + mensagem.conteudo;
-                // Verifica se a mensagem já foi adicionada ao chatHistory
-                if (!existingMessages.has(messageKey)) {
-                    const isOutgoing = mensagem.remetente === currentUser;
-                    const messageDiv = criarElementoMensagem(mensagem.remetente, formatarDataHora(mensagem.dataCriacao), mensagem.conteudo, isOutgoing);
-                    chatHistory.appendChild(messageDiv);
-                    existingMessages.set(messageKey, true); // Adiciona a combinação dos atributos ao Map
-                }
+            pagina.mensagens.forEach(mensagem => {
+                registarSequencia(mensagem);
+                adicionarMensagemAoChat(mensagem);
             });
             chatHistory.scrollTop = chatHistory.scrollHeight;
-            console.log("scripts - Mensagens carregadas para a sala:", nomeSala, data);
+            console.log("scripts - Mensagens carregadas para a sala:", nomeSala, pagina);
         })
         .catch(error => console.error('scripts - Erro ao carregar mensagens:', error));
 }
 
+// Ao chegar ao topo do histórico pede a página anterior usando o cursor devolvido pelo servidor
+function carregarMensagensAnteriores() {
+    const chatHistory = document.getElementById('chatHistory');
+    if (chatHistory.scrollTop > 0 || cursorAnterior === null || carregandoAnteriores || !currentChatRoom) {
+        return;
+    }
+    carregandoAnteriores = true;
+    const sala = currentChatRoom;
+    fetch(`/api/chat/mensagens?nomeSala=${encodeURIComponent(sala)}&antes=${cursorAnterior}`)
+        .then(response => response.json())
+        .then(pagina => {
+            if (sala !== currentChatRoom) {
+                return;
+            }
+            const alturaAnterior = chatHistory.scrollHeight;
+            pagina.mensagens.forEach(mensagem => {
+                adicionarMensagemAoChat(mensagem);
+            });
+            cursorAnterior = pagina.anterior;
+            chatHistory.scrollTop = chatHistory.scrollHeight - alturaAnterior; // Manter a posição de leitura
+            console.log("scripts - Mensagens anteriores carregadas para a sala:", sala, pagina);
+        })
+        .catch(error => console.error('scripts - Erro ao carregar mensagens anteriores:', error))
+        .finally(() => carregandoAnteriores = false);
+}
+
 
 
 function formatarDataHora(dataHora) {
@@ -373,7 +473,7 @@ function logout() {
 
 
 function atualizarListaUsuarios() {
-    // Implementação de atualizações para listas de usuários online e offline
-    carregarUtilizadoresOnline();
-    carregarUtilizadoresOffline();
+    // Desenha as listas de utilizadores online e offline a partir do estado local
+    preencherListaUtilizadores("utilizadoresOnline", "online");
+    preencherListaUtilizadores("utilizadoresOffline", "offline");
 }
\ No newline at end of file
@@ -0,0 +1,117 @@
+package com.example.chat_hub.armazenamento;
+
+import com.example.chat_hub.modelo.Mensagem;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class CacheMensagensRecentesTest {
+
+    // Com ids de dois caracteres e o resto de um, cada mensagem custa 160 + 2 × 5 bytes
+    private static final long CUSTO_MENSAGEM = 170;
+
+    private static Mensagem mensagem(String sala, long sequencia) {
+        Mensagem mensagem = new Mensagem();
+        mensagem.setId(sala + (sequencia % 10));
+        mensagem.setNomeSala(sala);
+        mensagem.setRemetente("r");
+        mensagem.setConteudo("x");
+        mensagem.setSequencia(sequencia);
+        return mensagem;
+    }
+
+    private static List<Mensagem> mensagens(String sala, long inicio, long fim) {
+        List<Mensagem> mensagens = new ArrayList<>();
+        for (long sequencia = inicio; sequencia < fim; sequencia++) {
+            mensagens.add(mensagem(sala, sequencia));
+        }
+        return mensagens;
+    }
+
+    private static List<Long> sequencias(List<Mensagem> mensagens) {
+        List<Long> sequencias = new ArrayList<>();
+        mensagens.forEach(m -> sequencias.add(m.getSequencia()));
+        return sequencias;
+    }
+
+    @Test
+    void soServeJanelasQueEstaoTodasNoAnel() {
+        CacheMensagensRecentes cache = new CacheMensagensRecentes(5, Long.MAX_VALUE);
+        mensagens("a", 0, 8).forEach(cache::acrescentar);
+
+        // O anel guarda as 5 mais recentes: [3, 8)
+        assertEquals(List.of(3L, 4L, 5L, 6L, 7L), sequencias(cache.ler("a", 3, 8)));
+        assertEquals(List.of(5L, 6L), sequencias(cache.ler("a", 5, 7)));
+        assertNull(cache.ler("a", 2, 8));
+        assertNull(cache.ler("a", 3, 9));
+        assertNull(cache.ler("outra", 0, 1));
+        assertEquals(Long.valueOf(2), cache.metricas().get("acertos"));
+        assertEquals(Long.valueOf(3), cache.metricas().get("falhas"));
+    }
+
+    @Test
+    void buracoNaSequenciaRecomecaOAnel() {
+        CacheMensagensRecentes cache = new CacheMensagensRecentes(5, Long.MAX_VALUE);
+        mensagens("a", 0, 3).forEach(cache::acrescentar);
+        cache.acrescentar(mensagem("a", 10));
+
+        assertNull(cache.ler("a", 0, 3));
+        assertEquals(List.of(10L), sequencias(cache.ler("a", 10, 11)));
+        assertEquals(Long.valueOf(CUSTO_MENSAGEM), cache.metricas().get("bytesOcupados"));
+    }
+
+    @Test
+    void preencherSoAceitaMensagensQueTerminamNaCabeca() {
+        CacheMensagensRecentes cache = new CacheMensagensRecentes(5, Long.MAX_VALUE);
+
+        cache.preencher("a", mensagens("a", 0, 3), 4);
+        assertNull(cache.ler("a", 0, 3));
+        assertEquals(Long.valueOf(0), cache.metricas().get("bytesOcupados"));
+
+        cache.preencher("a", mensagens("a", 0, 4), 4);
+        assertEquals(List.of(0L, 1L, 2L, 3L), sequencias(cache.ler("a", 0, 4)));
+
+        // Um anel já com mensagens não é misturado com as lidas do registo
+        cache.preencher("a", mensagens("a", 10, 12), 12);
+        assertNull(cache.ler("a", 10, 12));
+        assertNotNull(cache.ler("a", 0, 4));
+    }
+
+    @Test
+    void orcamentoDespejaASalaMenosUsadaMasNuncaAAtual() {
+        CacheMensagensRecentes cache = new CacheMensagensRecentes(5, 6 * CUSTO_MENSAGEM);
+        mensagens("a", 0, 3).forEach(cache::acrescentar);
+        mensagens("c", 0, 1).forEach(cache::acrescentar);
+        // A leitura torna 'a' a mais recente; 'c' passa a ser a menos usada
+        cache.ler("a", 0, 3);
+
+        mensagens("b", 0, 3).forEach(cache::acrescentar);
+
+        assertNull(cache.ler("c", 0, 1));
+        assertNotNull(cache.ler("a", 0, 3));
+        assertNotNull(cache.ler("b", 0, 3));
+        assertEquals(Long.valueOf(6 * CUSTO_MENSAGEM), cache.metricas().get("bytesOcupados"));
+        assertEquals(Long.valueOf(1), cache.metricas().get("salasDespejadas"));
+    }
+
+    @Test
+    void removerELimparLibertamOsBytes() {
+        CacheMensagensRecentes cache = new CacheMensagensRecentes(5, Long.MAX_VALUE);
+        mensagens("a", 0, 2).forEach(cache::acrescentar);
+        mensagens("b", 0, 3).forEach(cache::acrescentar);
+
+        cache.removerSala("a");
+        assertNull(cache.ler("a", 0, 2));
+        assertEquals(Long.valueOf(3 * CUSTO_MENSAGEM), cache.metricas().get("bytesOcupados"));
+
+        cache.limpar();
+        assertNull(cache.ler("b", 0, 3));
+        assertEquals(Long.valueOf(0), cache.metricas().get("bytesOcupados"));
+        assertEquals(0, cache.metricas().get("salas"));
+    }
+}
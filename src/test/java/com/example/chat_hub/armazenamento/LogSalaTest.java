@@ -0,0 +1,68 @@
+package com.example.chat_hub.armazenamento;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LogSalaTest {
+
+    @TempDir
+    Path diretorio;
+
+    private static List<Long> offsets(LogSala log, long desde, int limite) throws IOException {
+        List<Long> lidos = new ArrayList<>();
+        log.ler(desde, limite, (offset, registo) -> lidos.add(offset));
+        return lidos;
+    }
+
+    @Test
+    void abreNovosSegmentosELeAtravesDeles() throws IOException {
+        // Cada registo ocupa 12 + 20 bytes: três por segmento de 100 bytes
+        LogSala log = new LogSala(diretorio, 100, 16);
+        for (long i = 0; i < 10; i++) {
+            assertEquals(i, log.acrescentar(new byte[20]));
+        }
+
+        long segmentos;
+        try (Stream<Path> ficheiros = Files.list(diretorio)) {
+            segmentos = ficheiros.filter(Segmento::eSegmento).count();
+        }
+        assertTrue(segmentos > 1, "esperados vários segmentos, encontrados " + segmentos);
+        assertEquals(List.of(2L, 3L, 4L, 5L, 6L), offsets(log, 2, 5));
+        assertEquals(List.of(8L, 9L), offsets(log, 8, 100));
+        log.fechar();
+    }
+
+    @Test
+    void reabrirContinuaNoUltimoSegmento() throws IOException {
+        LogSala log = new LogSala(diretorio, 100, 16);
+        for (int i = 0; i < 7; i++) {
+            log.acrescentar("x".getBytes(StandardCharsets.UTF_8));
+        }
+        log.fechar();
+
+        LogSala reaberto = new LogSala(diretorio, 100, 16);
+        assertEquals(7, reaberto.proximoOffset());
+        assertEquals(7, reaberto.acrescentar("y".getBytes(StandardCharsets.UTF_8)));
+        assertEquals(8, offsets(reaberto, 0, 100).size());
+        reaberto.fechar();
+    }
+
+    @Test
+    void recusaRegistosMaioresQueUmSegmento() throws IOException {
+        LogSala log = new LogSala(diretorio, 100, 16);
+        assertThrows(IOException.class, () -> log.acrescentar(new byte[100]));
+        log.fechar();
+    }
+}
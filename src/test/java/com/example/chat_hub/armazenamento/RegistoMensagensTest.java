@@ -0,0 +1,142 @@
+package com.example.chat_hub.armazenamento;
+
+import com.example.chat_hub.modelo.Mensagem;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RegistoMensagensTest {
+
+    @TempDir
+    Path diretorio;
+
+    private RegistoMensagens registo;
+
+    @BeforeEach
+    void abrir() {
+        registo = new RegistoMensagens(diretorio.toString(), 4096, 256, 2);
+    }
+
+    @AfterEach
+    void fechar() {
+        registo.fechar();
+    }
+
+    private static Mensagem mensagem(String sala, long sequencia) {
+        Mensagem mensagem = new Mensagem();
+        mensagem.setId(sala + "-" + sequencia);
+        mensagem.setNomeSala(sala);
+        mensagem.setRemetente("ana");
+        mensagem.setConteudo("mensagem " + sequencia);
+        mensagem.setDataCriacao(Instant.parse("2024-05-01T10:15:30Z"));
+        mensagem.setSequencia(sequencia);
+        return mensagem;
+    }
+
+    @Test
+    void soAcrescentaNaSequenciaSeguinte() throws IOException {
+        assertTrue(registo.acrescentar("geral", mensagem("geral", 0)));
+        assertTrue(registo.acrescentar("geral", mensagem("geral", 1)));
+        // Buraco: a sequência 2 foi reservada noutro nó e ainda não chegou
+        assertFalse(registo.acrescentar("geral", mensagem("geral", 3)));
+        // Repetida
+        assertFalse(registo.acrescentar("geral", mensagem("geral", 1)));
+
+        assertEquals(2, registo.proximoOffset("geral"));
+    }
+
+    @Test
+    void recusaMensagensSemSequencia() {
+        Mensagem mensagem = mensagem("geral", 0);
+        mensagem.setSequencia(null);
+        assertThrows(IllegalArgumentException.class, () -> registo.acrescentar("geral", mensagem));
+    }
+
+    @Test
+    void leAsMensagensComASequenciaEASala() throws IOException {
+        for (long i = 0; i < 5; i++) {
+            registo.acrescentar("geral", mensagem("geral", i));
+        }
+        registo.acrescentar("outra sala", mensagem("outra sala", 0));
+
+        List<Mensagem> lidas = registo.ler("geral", 2, 2);
+        assertEquals(2, lidas.size());
+        assertEquals(2L, lidas.get(0).getSequencia());
+        assertEquals("mensagem 3", lidas.get(1).getConteudo());
+        assertEquals("geral", lidas.get(1).getNomeSala());
+        assertEquals(1, registo.proximoOffset("outra sala"));
+    }
+
+    @Test
+    void reabrirMantemOsRegistos() throws IOException {
+        registo.acrescentar("geral", mensagem("geral", 0));
+        registo.acrescentar("geral", mensagem("geral", 1));
+        registo.fechar();
+
+        registo = new RegistoMensagens(diretorio.toString(), 4096, 256, 2);
+        assertEquals(2, registo.proximoOffset("geral"));
+        assertEquals("geral-1", registo.ler("geral", 1, 1).get(0).getId());
+    }
+
+    @Test
+    void salasInativasSaoFechadasEReabertasQuandoVoltamASerUsadas() throws IOException {
+        for (String sala : List.of("a", "b", "c")) {
+            registo.acrescentar(sala, mensagem(sala, 0));
+        }
+        // Só duas ficam abertas: "a", a usada há mais tempo, foi fechada
+        assertEquals(2, registo.metricas().get("salasAbertas"));
+        assertEquals(1L, registo.metricas().get("fechadasPorInatividade"));
+
+        assertTrue(registo.acrescentar("a", mensagem("a", 1)));
+        assertEquals(2, registo.proximoOffset("a"));
+        assertEquals("a-0", registo.ler("a", 0, 1).get(0).getId());
+        assertEquals(2, registo.metricas().get("salasAbertas"));
+    }
+
+    @Test
+    void apagarTudoEsperaPelasEscritasEmCurso() throws Exception {
+        ExecutorService escritores = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<?>> escritas = new ArrayList<>();
+            for (int t = 0; t < 4; t++) {
+                String sala = "sala" + t;
+                escritas.add(escritores.submit(() -> {
+                    long proxima = 0;
+                    for (int i = 0; i < 500; i++) {
+                        // Depois de um apagarTudo o registo da sala recomeça do zero
+                        proxima = Math.min(proxima, registo.proximoOffset(sala));
+                        if (registo.acrescentar(sala, mensagem(sala, proxima))) {
+                            proxima++;
+                        }
+                    }
+                    return null;
+                }));
+            }
+            for (int i = 0; i < 20; i++) {
+                registo.apagarTudo();
+            }
+            for (Future<?> escrita : escritas) {
+                // Nenhuma escrita falhou num registo fechado a meio
+                escrita.get(30, TimeUnit.SECONDS);
+            }
+        } finally {
+            escritores.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package com.example.chat_hub.armazenamento;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SegmentoTest {
+
+    @TempDir
+    Path diretorio;
+
+    private static byte[] bytes(String texto) {
+        return texto.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static List<String> lerTodos(Segmento segmento, long desde, int limite) throws Exception {
+        List<String> lidos = new ArrayList<>();
+        segmento.ler(desde, limite, (offset, registo) -> {
+            byte[] dados = new byte[registo.remaining()];
+            registo.get(dados);
+            lidos.add(offset + ":" + new String(dados, StandardCharsets.UTF_8));
+        });
+        return lidos;
+    }
+
+    @Test
+    void leAPartirDeQualquerOffsetUsandoOIndiceEsparso() throws Exception {
+        // Intervalo pequeno para que o índice tenha várias entradas
+        Segmento segmento = new Segmento(diretorio, 10, 4096, 32);
+        for (int i = 0; i < 20; i++) {
+            segmento.acrescentar(10 + i, bytes("m" + i));
+        }
+
+        assertEquals(30, segmento.proximoOffset());
+        assertEquals(List.of("25:m15", "26:m16", "27:m17"), lerTodos(segmento, 25, 3));
+        assertEquals(20, lerTodos(segmento, 0, 100).size());
+        assertTrue(lerTodos(segmento, 30, 10).isEmpty());
+        segmento.fechar();
+    }
+
+    @Test
+    void reabrirRecuperaOFimDosDados() throws Exception {
+        Segmento segmento = new Segmento(diretorio, 0, 4096, 64);
+        for (int i = 0; i < 5; i++) {
+            segmento.acrescentar(i, bytes("m" + i));
+        }
+        segmento.fechar();
+
+        Segmento reaberto = new Segmento(diretorio, 0, 4096, 64);
+        assertEquals(5, reaberto.proximoOffset());
+        reaberto.acrescentar(5, bytes("m5"));
+        assertEquals(List.of("4:m4", "5:m5"), lerTodos(reaberto, 4, 10));
+        reaberto.fechar();
+    }
+
+    @Test
+    void cabeSoEnquantoHaEspacoParaORegistoEOTerminador() throws Exception {
+        int capacidade = 64;
+        Segmento segmento = new Segmento(diretorio, 0, capacidade, 64);
+        int maximo = capacidade - Segmento.CABECALHO - Integer.BYTES;
+
+        assertTrue(segmento.cabe(maximo));
+        assertFalse(segmento.cabe(maximo + 1));
+        segmento.acrescentar(0, new byte[10]);
+        assertFalse(segmento.cabe(maximo - 10));
+        segmento.fechar();
+    }
+}
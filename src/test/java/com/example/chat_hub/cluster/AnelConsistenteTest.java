@@ -0,0 +1,98 @@
+package com.example.chat_hub.cluster;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class AnelConsistenteTest {
+
+    private static final int PONTOS_POR_NO = 128;
+    private static final int SALAS = 10_000;
+
+    private static List<String> salas() {
+        List<String> salas = new ArrayList<>();
+        for (int i = 0; i < SALAS; i++) {
+            salas.add("sala-" + i);
+        }
+        return salas;
+    }
+
+    private static Map<String, String> donos(AnelConsistente anel) {
+        Map<String, String> donos = new HashMap<>();
+        for (String sala : salas()) {
+            donos.put(sala, anel.dono(sala));
+        }
+        return donos;
+    }
+
+    @Test
+    void anelVazioNaoTemDono() {
+        assertNull(new AnelConsistente(List.of(), PONTOS_POR_NO).dono("geral"));
+    }
+
+    @Test
+    void donoNaoDependeDaOrdemDosNos() {
+        AnelConsistente anel = new AnelConsistente(List.of("no-a", "no-b", "no-c"), PONTOS_POR_NO);
+        AnelConsistente invertido = new AnelConsistente(List.of("no-c", "no-b", "no-a"), PONTOS_POR_NO);
+
+        assertEquals(donos(anel), donos(invertido));
+    }
+
+    @Test
+    void salasFicamDistribuidasPorTodosOsNos() {
+        List<String> nos = List.of("no-a", "no-b", "no-c", "no-d");
+        Map<String, Integer> porNo = new HashMap<>();
+        donos(new AnelConsistente(nos, PONTOS_POR_NO)).values().forEach(no -> porNo.merge(no, 1, Integer::sum));
+
+        assertEquals(Set.copyOf(nos), porNo.keySet());
+        int media = SALAS / nos.size();
+        for (Map.Entry<String, Integer> no : porNo.entrySet()) {
+            // Com 128 pontos por nó o desvio esperado é de poucos pontos percentuais
+            assertTrue(Math.abs(no.getValue() - media) < media * 0.3,
+                    no.getKey() + " ficou com " + no.getValue() + " salas (média " + media + ")");
+        }
+    }
+
+    @Test
+    void entradaDeUmNoSoMoveSalasParaEsseNo() {
+        Map<String, String> antes = donos(new AnelConsistente(List.of("no-a", "no-b", "no-c", "no-d"), PONTOS_POR_NO));
+        Map<String, String> depois = donos(
+                new AnelConsistente(List.of("no-a", "no-b", "no-c", "no-d", "no-e"), PONTOS_POR_NO));
+
+        int movidas = 0;
+        for (String sala : antes.keySet()) {
+            if (!antes.get(sala).equals(depois.get(sala))) {
+                assertEquals("no-e", depois.get(sala));
+                movidas++;
+            }
+        }
+        // Cerca de 1/5 das salas passa para o nó novo
+        assertTrue(movidas > SALAS * 0.1 && movidas < SALAS * 0.3, movidas + " salas movidas");
+    }
+
+    @Test
+    void saidaDeUmNoSoMoveAsSalasDesseNo() {
+        Map<String, String> antes = donos(new AnelConsistente(List.of("no-a", "no-b", "no-c", "no-d"), PONTOS_POR_NO));
+        Map<String, String> depois = donos(new AnelConsistente(List.of("no-a", "no-b", "no-d"), PONTOS_POR_NO));
+
+        int movidas = 0;
+        for (String sala : antes.keySet()) {
+            if ("no-c".equals(antes.get(sala))) {
+                assertNotEquals("no-c", depois.get(sala));
+                movidas++;
+            } else {
+                assertEquals(antes.get(sala), depois.get(sala));
+            }
+        }
+        assertTrue(movidas > SALAS * 0.15 && movidas < SALAS * 0.35, movidas + " salas movidas");
+    }
+}
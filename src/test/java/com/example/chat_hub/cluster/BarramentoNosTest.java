@@ -0,0 +1,285 @@
+package com.example.chat_hub.cluster;
+
+import com.example.chat_hub.config.ConfiguracaoWebSocket;
+import com.example.chat_hub.servico.IngestaoMensagens;
+import com.example.chat_hub.zookeeper.DistribuidorMensagens;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.socket.TextMessage;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.after;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Vários barramentos no mesmo processo, ligados por TCP em localhost com
+ * portas atribuídas pelo sistema, com o distribuidor, a ingestão e o
+ * WebSocket de cada nó substituídos por mocks.
+ */
+class BarramentoNosTest {
+
+    private static final String SEGREDO = "segredo-de-teste";
+
+    private final List<No> nos = new ArrayList<>();
+
+    @AfterEach
+    void encerrar() {
+        nos.forEach(no -> no.barramento.encerrar());
+    }
+
+    private static final class No {
+        private final BarramentoNos barramento;
+        private final DistribuidorMensagens distribuidor = mock(DistribuidorMensagens.class);
+        private final IngestaoMensagens ingestao = mock(IngestaoMensagens.class);
+        private final ConfiguracaoWebSocket webSocket = mock(ConfiguracaoWebSocket.class);
+
+        private No(String id, String segredo, Set<String> salas) {
+            barramento = new BarramentoNos(true, id, "localhost", 0, 20, 1 << 20, segredo);
+            when(webSocket.salasComDestinatarios()).thenReturn(salas);
+            ReflectionTestUtils.setField(barramento, "distribuidorMensagens", distribuidor);
+            ReflectionTestUtils.setField(barramento, "ingestaoMensagens", ingestao);
+            ReflectionTestUtils.setField(barramento, "configuracaoWebSocket", webSocket);
+        }
+    }
+
+    private No iniciar(String id, String segredo, Set<String> salas) throws Exception {
+        No no = new No(id, segredo, salas);
+        no.barramento.iniciar();
+        nos.add(no);
+        return no;
+    }
+
+    // Todos os nós passam a ver todos os outros, como com os filhos de /nodos
+    private void anunciarMembros() {
+        Map<String, String> membros = new HashMap<>();
+        nos.forEach(no -> membros.put(no.barramento.idNo(), no.barramento.endereco()));
+        nos.forEach(no -> no.barramento.atualizarMembros(membros));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> ligacao(No de, No para) {
+        Map<String, Object> ligacoes = (Map<String, Object>) de.barramento.metricas().get("ligacoes");
+        return (Map<String, Object>) ligacoes.get(para.barramento.idNo());
+    }
+
+    private static boolean pronta(No de, No para) {
+        Map<String, Object> ligacao = ligacao(de, para);
+        return ligacao != null && Boolean.TRUE.equals(ligacao.get("pronta"));
+    }
+
+    private static boolean aguardar(BooleanSupplier condicao) throws InterruptedException {
+        long limite = System.nanoTime() + 5_000_000_000L;
+        while (!condicao.getAsBoolean()) {
+            if (System.nanoTime() > limite) {
+                return false;
+            }
+            Thread.sleep(10);
+        }
+        return true;
+    }
+
+    @Test
+    void frameSoSegueParaOsNosInteressadosNaSala() throws Exception {
+        No a = iniciar("no-a", SEGREDO, Set.of());
+        No b = iniciar("no-b", SEGREDO, Set.of("geral"));
+        No c = iniciar("no-c", SEGREDO, Set.of("outra"));
+        anunciarMembros();
+        assertTrue(aguardar(() -> {
+            Map<String, Object> ligacao = ligacao(a, b);
+            return pronta(a, b) && pronta(a, c) && Integer.valueOf(1).equals(ligacao.get("interesses"));
+        }));
+
+        byte[] frame = "{\"tipo\":\"nova_mensagem\"}".getBytes(StandardCharsets.UTF_8);
+        a.barramento.reencaminhar("geral", "m1", 7, frame);
+
+        verify(b.distribuidor, timeout(5_000)).entregarRemota(eq("geral"), eq("m1"), eq(7L), eq(frame));
+        verify(c.distribuidor, after(200).never()).entregarRemota(anyString(), anyString(), anyLong(), any());
+    }
+
+    @Test
+    void escritaEncaminhadaChegaAIngestaoDoDono() throws Exception {
+        No a = iniciar("no-a", SEGREDO, Set.of());
+        No b = iniciar("no-b", SEGREDO, Set.of());
+        anunciarMembros();
+        assertTrue(aguardar(() -> pronta(a, b) && pronta(b, a)));
+
+        byte[] escrita = "{\"conteudo\":\"ola\"}".getBytes(StandardCharsets.UTF_8);
+        assertTrue(a.barramento.encaminharEscrita("no-b", escrita));
+
+        verify(b.ingestao, timeout(5_000)).aceitarEncaminhada(eq(escrita), eq("no-a"));
+    }
+
+    @Test
+    void respostaDoDonoFechaAEncaminhadaNoNoDeOrigem() throws Exception {
+        No a = iniciar("no-a", SEGREDO, Set.of());
+        No b = iniciar("no-b", SEGREDO, Set.of());
+        anunciarMembros();
+        assertTrue(aguardar(() -> pronta(a, b) && pronta(b, a)));
+
+        byte[] confirmacao = "{\"tipo\":\"mensagem_confirmada\"}".getBytes(StandardCharsets.UTF_8);
+        b.barramento.responderRemetente("no-a", "ana", "m1", confirmacao);
+
+        verify(a.ingestao, timeout(5_000)).respostaEncaminhada("m1");
+        verify(a.webSocket, timeout(5_000)).enviarAoUtilizador(eq("ana"), any(TextMessage.class));
+    }
+
+    @Test
+    void noComOutroSegredoNaoChegaAFicarLigado() throws Exception {
+        No a = iniciar("no-a", SEGREDO, Set.of("geral"));
+        No intruso = iniciar("no-b", "outro-segredo", Set.of("geral"));
+        anunciarMembros();
+
+        assertFalse(aguardar(() -> pronta(a, intruso) || pronta(intruso, a)));
+        intruso.barramento.reencaminhar("geral", "m1", 0, new byte[] { 1 });
+        assertFalse(intruso.barramento.encaminharEscrita("no-a", new byte[] { 1 }));
+        verify(a.distribuidor, after(200).never()).entregarRemota(anyString(), anyString(), anyLong(), any());
+    }
+
+    // -- -- -- Atacante com sockets simples, que conhece o protocolo mas não o segredo -- --//
+
+    private static Socket ligarA(No no) throws IOException {
+        String[] endereco = no.barramento.endereco().split(":");
+        Socket socket = new Socket(endereco[0], Integer.parseInt(endereco[1]));
+        socket.setSoTimeout(5_000);
+        return socket;
+    }
+
+    // Lê uma mensagem [int comprimento][byte tipo][corpo] e devolve o corpo, confirmando o tipo
+    private static byte[] ler(Socket socket, int tipoEsperado) throws IOException {
+        DataInputStream entrada = new DataInputStream(socket.getInputStream());
+        int comprimento = entrada.readInt();
+        assertEquals(tipoEsperado, entrada.readByte());
+        byte[] corpo = new byte[comprimento - 1];
+        entrada.readFully(corpo);
+        return corpo;
+    }
+
+    private static void escrever(Socket socket, int tipo, byte[] corpo) throws IOException {
+        DataOutputStream saida = new DataOutputStream(socket.getOutputStream());
+        saida.writeInt(1 + corpo.length);
+        saida.writeByte(tipo);
+        saida.write(corpo);
+        saida.flush();
+    }
+
+    private static byte[] ola(String id, byte[] desafio) {
+        byte[] bytesId = id.getBytes(StandardCharsets.UTF_8);
+        return ByteBuffer.allocate(2 + bytesId.length + desafio.length)
+                .putShort((short) bytesId.length).put(bytesId).put(desafio).array();
+    }
+
+    private static byte[] desafioDoOla(byte[] corpo) {
+        ByteBuffer ola = ByteBuffer.wrap(corpo);
+        ola.position(2 + Short.toUnsignedInt(ola.getShort()));
+        byte[] desafio = new byte[ola.remaining()];
+        ola.get(desafio);
+        return desafio;
+    }
+
+    // Prova só sobre um desafio e um id, como a que um nó assinaria a quem lhe enviasse esse desafio
+    private static byte[] provaSemSentido(byte[] desafio, String id) throws Exception {
+        Mac mac = Mac.getInstance("HmacSHA256");
+        mac.init(new SecretKeySpec(SEGREDO.getBytes(StandardCharsets.UTF_8), "HmacSHA256"));
+        mac.update(desafio);
+        return mac.doFinal(id.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static boolean fechado(Socket socket) throws IOException {
+        try {
+            return socket.getInputStream().read() < 0;
+        } catch (SocketTimeoutException e) {
+            return false;
+        } catch (IOException e) {
+            return true;
+        }
+    }
+
+    @Test
+    void noNaoAssinaODesafioDeQuemAindaNaoProvou() throws Exception {
+        No a = iniciar("no-a", SEGREDO, Set.of());
+        No b = iniciar("no-b", SEGREDO, Set.of());
+        anunciarMembros();
+        assertTrue(aguardar(() -> pronta(a, b) && pronta(b, a)));
+
+        try (Socket paraA = ligarA(a); Socket paraB = ligarA(b)) {
+            byte[] desafioA = desafioDoOla(ler(paraA, 1));
+            ler(paraB, 1);
+            // Reencaminha o desafio de A para B à espera de que B o assine
+            escrever(paraB, 1, ola("no-x", desafioA));
+
+            paraB.setSoTimeout(300);
+            assertThrows(SocketTimeoutException.class, () -> ler(paraB, 7));
+        }
+    }
+
+    @Test
+    void provaReencaminhadaOuRefletidaERejeitada() throws Exception {
+        No a = iniciar("no-a", SEGREDO, Set.of("geral"));
+        No b = iniciar("no-b", SEGREDO, Set.of("geral"));
+        anunciarMembros();
+        assertTrue(aguardar(() -> pronta(a, b) && pronta(b, a)));
+
+        // Prova de B sobre o desafio de A, como a que o protocolo antigo devolvia a qualquer OLA
+        try (Socket paraA = ligarA(a)) {
+            byte[] desafioA = desafioDoOla(ler(paraA, 1));
+            escrever(paraA, 1, ola("no-b", new byte[16]));
+            escrever(paraA, 7, provaSemSentido(desafioA, "no-b"));
+            paraA.setSoTimeout(5_000);
+            assertTrue(fechado(paraA));
+        }
+        // O desafio de A refletido para o próprio A
+        try (Socket paraA = ligarA(a)) {
+            byte[] desafioA = desafioDoOla(ler(paraA, 1));
+            escrever(paraA, 1, ola("no-b", desafioA));
+            assertTrue(fechado(paraA));
+        }
+        // O id do próprio nó
+        try (Socket paraA = ligarA(a)) {
+            ler(paraA, 1);
+            escrever(paraA, 1, ola("no-a", new byte[16]));
+            assertTrue(fechado(paraA));
+        }
+
+        // A ligação verdadeira a B continua a ser a usada
+        assertTrue(pronta(a, b));
+        a.barramento.reencaminhar("geral", "m1", 0, new byte[] { 1 });
+        verify(b.distribuidor, timeout(5_000)).entregarRemota(eq("geral"), eq("m1"), eq(0L), any());
+    }
+
+    @Test
+    void idESegredoSaoObrigatoriosComOBarramentoAtivo() {
+        assertThrows(IllegalStateException.class,
+                () -> new BarramentoNos(true, "", "localhost", 0, 20, 1 << 20, SEGREDO));
+        assertThrows(IllegalStateException.class,
+                () -> new BarramentoNos(true, "no-a", "localhost", 0, 20, 1 << 20, ""));
+        // Inativo continua a arrancar sem configuração do cluster
+        assertFalse(new BarramentoNos(false, "", "localhost", 7070, 20, 1 << 20, "").ativo());
+    }
+}
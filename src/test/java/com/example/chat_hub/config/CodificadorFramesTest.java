@@ -0,0 +1,91 @@
+package com.example.chat_hub.config;
+
+import com.example.chat_hub.modelo.Mensagem;
+import com.fasterxml.jackson.databind.JsonNode;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketSession;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.same;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class CodificadorFramesTest {
+
+    private final CodificadorFrames codificador = new CodificadorFrames();
+
+    private static Mensagem mensagem(String conteudo) {
+        Mensagem mensagem = new Mensagem();
+        mensagem.setId("m1");
+        mensagem.setNomeSala("geral");
+        mensagem.setRemetente("ana");
+        mensagem.setConteudo(conteudo);
+        mensagem.setDataCriacao(Instant.parse("2024-05-01T10:15:30Z"));
+        mensagem.setSequencia(7L);
+        return mensagem;
+    }
+
+    private JsonNode ler(TextMessage frame) throws Exception {
+        return codificador.getObjectMapper().readTree(frame.getPayload());
+    }
+
+    @Test
+    void escapaOConteudoDaMensagem() throws Exception {
+        String conteudo = "aspas \" barra \\ e\nnova linha";
+        JsonNode frame = ler(codificador.codificar("nova_mensagem", "geral", "mensagem", mensagem(conteudo)));
+
+        assertEquals("nova_mensagem", frame.get("tipo").asText());
+        assertEquals("geral", frame.get("sala").asText());
+        assertEquals(conteudo, frame.get("mensagem").get("conteudo").asText());
+        assertEquals(7L, frame.get("mensagem").get("sequencia").asLong());
+        assertEquals("2024-05-01T10:15:30Z", frame.get("mensagem").get("dataCriacao").asText());
+    }
+
+    @Test
+    void presencaEscreveNuloParaOsUtilizadoresRemovidos() throws Exception {
+        Map<String, String> alteracoes = new HashMap<>();
+        alteracoes.put("ana", "online");
+        alteracoes.put("rui", null);
+        JsonNode frame = ler(codificador.presenca(3, 5, alteracoes));
+
+        assertEquals(3, frame.get("versaoBase").asLong());
+        assertEquals(5, frame.get("versao").asLong());
+        assertEquals("online", frame.get("alteracoes").get("ana").asText());
+        assertTrue(frame.get("alteracoes").get("rui").isNull());
+    }
+
+    @Test
+    void oMesmoFrameCodificadoChegaATodasAsSessoes() throws Exception {
+        EnvioParalelo envio = new EnvioParalelo(2, 100, 10_000, FabricaThreads.criar("teste-envio-", false));
+        List<WebSocketSession> sessoes = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            WebSocketSession sessao = mock(WebSocketSession.class);
+            when(sessao.getId()).thenReturn("s" + i);
+            when(sessao.isOpen()).thenReturn(true);
+            sessoes.add(sessao);
+        }
+        TextMessage frame = codificador.codificar("nova_mensagem", "geral", "mensagem", mensagem("olá"));
+        try {
+            envio.enviar(sessoes, frame);
+
+            for (WebSocketSession sessao : sessoes) {
+                verify(sessao, timeout(5_000)).sendMessage(same(frame));
+            }
+        } finally {
+            envio.encerrar();
+        }
+        // Os bytes UTF-8 são os do gerador, guardados no frame e não recodificados
+        assertSame(frame.asBytes(), frame.asBytes());
+    }
+}
@@ -0,0 +1,116 @@
+package com.example.chat_hub.config;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.TextMessage;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class EnvioParaleloTest {
+
+    private EnvioParalelo envio;
+
+    @AfterEach
+    void encerrar() {
+        if (envio != null) {
+            envio.encerrar();
+        }
+    }
+
+    private static void aguardar(java.util.function.BooleanSupplier condicao) throws InterruptedException {
+        long limite = System.nanoTime() + 5_000_000_000L;
+        while (!condicao.getAsBoolean() && System.nanoTime() < limite) {
+            Thread.sleep(5);
+        }
+    }
+
+    @Test
+    void mantemAOrdemDosFramesPorSessao() throws InterruptedException {
+        envio = new EnvioParalelo(3, 1000, 10_000, FabricaThreads.criar("teste-envio-", false));
+        List<SessaoFalsa> sessoes = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            sessoes.add(new SessaoFalsa("s" + i));
+        }
+        for (int n = 0; n < 200; n++) {
+            envio.enviar(new ArrayList<>(sessoes), new TextMessage(Integer.toString(n)));
+        }
+        aguardar(() -> sessoes.stream().allMatch(s -> s.recebidos.size() == 200));
+
+        for (SessaoFalsa sessao : sessoes) {
+            assertEquals(200, sessao.recebidos.size());
+            for (int n = 0; n < 200; n++) {
+                assertEquals(Integer.toString(n), sessao.recebidos.get(n));
+            }
+        }
+    }
+
+    @Test
+    void sessoesFechadasNaoRecebem() throws InterruptedException {
+        envio = new EnvioParalelo(1, 10, 10_000, FabricaThreads.criar("teste-envio-", false));
+        SessaoFalsa aberta = new SessaoFalsa("aberta");
+        SessaoFalsa fechada = new SessaoFalsa("fechada");
+        fechada.close();
+        envio.enviar(List.of(aberta, fechada), new TextMessage("ola"));
+        aguardar(() -> aberta.recebidos.size() == 1);
+
+        assertEquals(List.of("ola"), aberta.recebidos);
+        assertTrue(fechada.recebidos.isEmpty());
+    }
+
+    @Test
+    void filaCheiaDescartaEFechaASessaoSemBloquearQuemPublica() throws InterruptedException {
+        envio = new EnvioParalelo(1, 2, 10_000, FabricaThreads.criar("teste-envio-", false));
+        SessaoFalsa lenta = new SessaoFalsa("lenta");
+        lenta.bloquear();
+
+        long inicio = System.nanoTime();
+        for (int n = 0; n < 50; n++) {
+            envio.enviar(List.of(lenta), new TextMessage(Integer.toString(n)));
+        }
+        long duracaoMs = (System.nanoTime() - inicio) / 1_000_000;
+        aguardar(() -> !lenta.isOpen());
+
+        // Com o worker parado, um handler que bloqueasse nunca deixaria o ciclo terminar
+        assertTrue(duracaoMs < 2_000, "a publicação bloqueou " + duracaoMs + " ms");
+        assertTrue(envio.descartados() > 0);
+        assertFalse(lenta.isOpen());
+        assertEquals(CloseStatus.SESSION_NOT_RELIABLE, lenta.estadoFecho);
+    }
+
+    @Test
+    void soASessaoParadaEFechadaEAsOutrasContinuamAReceber() throws InterruptedException {
+        // Dois workers: a sessão parada fica com um, as outras são servidas pelo outro
+        envio = new EnvioParalelo(2, 1000, 50, FabricaThreads.criar("teste-envio-", false));
+        SessaoFalsa parada = new SessaoFalsa("parada");
+        parada.bloquear();
+        List<SessaoFalsa> rapidas = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            rapidas.add(new SessaoFalsa("r" + i));
+        }
+        List<SessaoFalsa> todas = new ArrayList<>(rapidas);
+        todas.add(parada);
+
+        for (int n = 0; n < 20; n++) {
+            envio.enviar(new ArrayList<>(todas), new TextMessage(Integer.toString(n)));
+        }
+        aguardar(() -> rapidas.stream().allMatch(s -> s.recebidos.size() == 20));
+        Thread.sleep(100);
+        // O envio parado passou do tempo limite: o frame seguinte fecha a sessão
+        envio.enviar(new ArrayList<>(todas), new TextMessage("20"));
+        aguardar(() -> envio.sessoesFechadas() == 1 && rapidas.stream().allMatch(s -> s.recebidos.size() == 21));
+
+        assertFalse(parada.isOpen());
+        assertEquals(CloseStatus.SESSION_NOT_RELIABLE, parada.estadoFecho);
+        assertEquals(1, envio.sessoesFechadas());
+        for (SessaoFalsa rapida : rapidas) {
+            assertTrue(rapida.isOpen());
+            assertEquals(21, rapida.recebidos.size());
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package com.example.chat_hub.config;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class IndiceSubscricoesTest {
+
+    private RegistoSessoes registoSessoes;
+    private IndiceSubscricoes indice;
+
+    @BeforeEach
+    void preparar() {
+        registoSessoes = new RegistoSessoes(4);
+        indice = new IndiceSubscricoes(registoSessoes);
+    }
+
+    private SessaoFalsa abrir(String id, String utilizador) {
+        SessaoFalsa sessao = new SessaoFalsa(id, utilizador);
+        registoSessoes.registar(sessao);
+        registoSessoes.associar(utilizador, sessao);
+        return sessao;
+    }
+
+    @Test
+    void destinatariosIncluemAsSessoesDosParticipantesESubscritoresSemRepeticoes() {
+        SessaoFalsa ana = abrir("s1", "ana");
+        SessaoFalsa anaTablet = abrir("s2", "ana");
+        SessaoFalsa rui = abrir("s3", "rui");
+        abrir("s4", "eva");
+        indice.definirParticipantes("geral", List.of("ana", "rui"));
+        indice.subscrever("geral", rui);
+
+        assertEquals(Set.of(ana, anaTablet, rui), Set.copyOf(indice.destinatarios("geral")));
+        assertEquals(3, indice.destinatarios("geral").size());
+    }
+
+    @Test
+    void participantesRemovidosDeixamDeReceber() {
+        SessaoFalsa ana = abrir("s1", "ana");
+        abrir("s2", "rui");
+        indice.definirParticipantes("geral", List.of("ana", "rui"));
+        indice.removerParticipante("geral", "rui");
+
+        assertEquals(Set.of(ana), Set.copyOf(indice.destinatarios("geral")));
+    }
+
+    @Test
+    void sessaoFechadaSaiDeTodasAsSubscricoes() {
+        SessaoFalsa sessao = abrir("s1", "ana");
+        indice.subscrever("geral", sessao);
+        indice.subscrever("outra", sessao);
+        indice.removerSessao(sessao);
+
+        assertTrue(indice.destinatarios("geral").isEmpty());
+        assertTrue(indice.salasComDestinatarios().isEmpty());
+    }
+
+    @Test
+    void salasComDestinatariosIgnoraParticipantesSemSessao() {
+        abrir("s1", "ana");
+        indice.definirParticipantes("com-sessao", List.of("ana"));
+        indice.definirParticipantes("sem-sessao", List.of("rui"));
+
+        assertEquals(Set.of("com-sessao"), indice.salasComDestinatarios());
+    }
+}
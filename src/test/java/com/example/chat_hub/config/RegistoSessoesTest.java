@@ -0,0 +1,71 @@
+package com.example.chat_hub.config;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RegistoSessoesTest {
+
+    private final RegistoSessoes registo = new RegistoSessoes(6);
+
+    @Test
+    void numeroDeFragmentosEUmaPotenciaDeDois() {
+        assertEquals(8, registo.numeroFragmentos());
+        assertEquals(16, new RegistoSessoes(16).numeroFragmentos());
+        for (String chave : new String[] { "a", "sessao-1", "utilizador" }) {
+            int indice = registo.indiceFragmento(chave);
+            assertTrue(indice >= 0 && indice < registo.numeroFragmentos());
+        }
+    }
+
+    @Test
+    void umUtilizadorPodeTerVariasSessoes() {
+        SessaoFalsa primeira = new SessaoFalsa("s1", "ana");
+        SessaoFalsa segunda = new SessaoFalsa("s2", "ana");
+        registo.registar(primeira);
+        registo.registar(segunda);
+        registo.associar("ana", primeira);
+        registo.associar("ana", segunda);
+
+        assertSame(primeira, registo.obter("s1"));
+        assertEquals(Set.of(primeira, segunda), registo.sessoesDoUtilizador("ana"));
+        assertEquals(2, registo.tamanho());
+    }
+
+    @Test
+    void removerTiraASessaoDoUtilizador() {
+        SessaoFalsa primeira = new SessaoFalsa("s1", "ana");
+        SessaoFalsa segunda = new SessaoFalsa("s2", "ana");
+        registo.registar(primeira);
+        registo.registar(segunda);
+        registo.associar("ana", primeira);
+        registo.associar("ana", segunda);
+
+        assertSame(primeira, registo.remover("s1"));
+        assertNull(registo.obter("s1"));
+        assertEquals(Set.of(segunda), registo.sessoesDoUtilizador("ana"));
+        registo.remover("s2");
+        assertTrue(registo.sessoesDoUtilizador("ana").isEmpty());
+        assertTrue(registo.todas().isEmpty());
+        assertNull(registo.remover("inexistente"));
+    }
+
+    @Test
+    void associarAOutroUtilizadorTiraASessaoDoAnterior() {
+        SessaoFalsa sessao = new SessaoFalsa("s1");
+        registo.registar(sessao);
+        registo.associar("ana", sessao);
+        registo.associar("rui", sessao);
+
+        assertTrue(registo.sessoesDoUtilizador("ana").isEmpty());
+        assertEquals(Set.of(sessao), registo.sessoesDoUtilizador("rui"));
+        assertEquals("rui", sessao.getAttributes().get("username"));
+        registo.remover("s1");
+        assertTrue(registo.sessoesDoUtilizador("rui").isEmpty());
+    }
+}
@@ -0,0 +1,147 @@
+package com.example.chat_hub.config;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.WebSocketExtension;
+import org.springframework.web.socket.WebSocketMessage;
+import org.springframework.web.socket.WebSocketSession;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.security.Principal;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Sessão WebSocket em memória para os testes: guarda os frames recebidos e,
+ * opcionalmente, fica bloqueada no envio até ser libertada.
+ */
+class SessaoFalsa implements WebSocketSession {
+
+    private final String id;
+    private final Map<String, Object> atributos = new ConcurrentHashMap<>();
+    final List<String> recebidos = new CopyOnWriteArrayList<>();
+    private volatile boolean aberta = true;
+    volatile CloseStatus estadoFecho;
+    private volatile CountDownLatch bloqueio;
+
+    SessaoFalsa(String id) {
+        this.id = id;
+    }
+
+    SessaoFalsa(String id, String utilizador) {
+        this(id);
+        atributos.put("username", utilizador);
+    }
+
+    // Os envios seguintes ficam parados até a sessão ser libertada
+    void bloquear() {
+        bloqueio = new CountDownLatch(1);
+    }
+
+    void libertar() {
+        CountDownLatch atual = bloqueio;
+        bloqueio = null;
+        if (atual != null) {
+            atual.countDown();
+        }
+    }
+
+    @Override
+    public void sendMessage(WebSocketMessage<?> message) throws IOException {
+        CountDownLatch atual = bloqueio;
+        if (atual != null) {
+            try {
+                atual.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException(e);
+            }
+        }
+        recebidos.add((String) message.getPayload());
+    }
+
+    @Override
+    public String getId() {
+        return id;
+    }
+
+    @Override
+    public URI getUri() {
+        return URI.create("ws://localhost/ecra_dashboard");
+    }
+
+    @Override
+    public HttpHeaders getHandshakeHeaders() {
+        return new HttpHeaders();
+    }
+
+    @Override
+    public Map<String, Object> getAttributes() {
+        return atributos;
+    }
+
+    @Override
+    public Principal getPrincipal() {
+        return null;
+    }
+
+    @Override
+    public InetSocketAddress getLocalAddress() {
+        return null;
+    }
+
+    @Override
+    public InetSocketAddress getRemoteAddress() {
+        return null;
+    }
+
+    @Override
+    public String getAcceptedProtocol() {
+        return null;
+    }
+
+    @Override
+    public void setTextMessageSizeLimit(int messageSizeLimit) {
+    }
+
+    @Override
+    public int getTextMessageSizeLimit() {
+        return 0;
+    }
+
+    @Override
+    public void setBinaryMessageSizeLimit(int messageSizeLimit) {
+    }
+
+    @Override
+    public int getBinaryMessageSizeLimit() {
+        return 0;
+    }
+
+    @Override
+    public List<WebSocketExtension> getExtensions() {
+        return List.of();
+    }
+
+    @Override
+    public boolean isOpen() {
+        return aberta;
+    }
+
+    @Override
+    public void close() {
+        close(CloseStatus.NORMAL);
+    }
+
+    @Override
+    public void close(CloseStatus status) {
+        aberta = false;
+        estadoFecho = status;
+        libertar();
+    }
+}
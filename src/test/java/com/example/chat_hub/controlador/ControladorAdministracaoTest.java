@@ -0,0 +1,55 @@
+package com.example.chat_hub.controlador;
+
+import com.example.chat_hub.zookeeper.GerenciadorZooKeeper;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+class ControladorAdministracaoTest {
+
+    private final GerenciadorZooKeeper gerenciador = mock(GerenciadorZooKeeper.class);
+    private final ControladorAdministracao controlador = new ControladorAdministracao();
+
+    @BeforeEach
+    void preparar() {
+        ReflectionTestUtils.setField(controlador, "gerenciadorZooKeeper", gerenciador);
+        ReflectionTestUtils.setField(controlador, "resetAtivo", true);
+        ReflectionTestUtils.setField(controlador, "token", "segredo");
+    }
+
+    @Test
+    void resetSemTokenOuComTokenErradoERecusado() {
+        assertEquals(HttpStatus.UNAUTHORIZED, controlador.resetarBasesDeDados(null).getStatusCode());
+        assertEquals(HttpStatus.UNAUTHORIZED, controlador.resetarBasesDeDados("errado").getStatusCode());
+        verify(gerenciador, never()).resetarBasesDeDados();
+    }
+
+    @Test
+    void semTokenConfiguradoTudoERecusado() {
+        ReflectionTestUtils.setField(controlador, "token", "");
+
+        assertEquals(HttpStatus.UNAUTHORIZED, controlador.resetarBasesDeDados("").getStatusCode());
+        verify(gerenciador, never()).resetarBasesDeDados();
+    }
+
+    @Test
+    void resetComTokenValidoApagaAsBases() {
+        assertEquals(HttpStatus.OK, controlador.resetarBasesDeDados("segredo").getStatusCode());
+        verify(gerenciador).resetarBasesDeDados();
+    }
+
+    @Test
+    void tokenValidoNaoDispensaAOperacaoEstarAtiva() throws Exception {
+        ReflectionTestUtils.setField(controlador, "resetAtivo", false);
+
+        assertEquals(HttpStatus.FORBIDDEN, controlador.resetarBasesDeDados("segredo").getStatusCode());
+        assertEquals(HttpStatus.FORBIDDEN, controlador.expirarSessao("segredo").getStatusCode());
+        verify(gerenciador, never()).expirarSessao();
+    }
+}
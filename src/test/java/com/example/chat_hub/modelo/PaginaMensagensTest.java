@@ -0,0 +1,108 @@
+package com.example.chat_hub.modelo;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PaginaMensagensTest {
+
+    private static List<Mensagem> mensagens(long inicio, long fim) {
+        List<Mensagem> mensagens = new ArrayList<>();
+        for (long sequencia = inicio; sequencia < fim; sequencia++) {
+            Mensagem mensagem = new Mensagem();
+            mensagem.setSequencia(sequencia);
+            mensagens.add(mensagem);
+        }
+        return mensagens;
+    }
+
+    @Test
+    void semCursoresDevolveAsMaisRecentes() {
+        PaginaMensagens.Janela janela = new PaginaMensagens.Janela(null, null, 50, 120);
+        assertEquals(70, janela.inicio());
+        assertEquals(120, janela.fim());
+
+        PaginaMensagens pagina = janela.pagina(mensagens(70, 120));
+        assertEquals(Long.valueOf(70), pagina.getAnterior());
+        assertNull(pagina.getSeguinte());
+    }
+
+    @Test
+    void percorrerComAntesChegaAoInicioSemSaltarNemRepetir() {
+        long cabeca = 120;
+        List<Long> vistas = new ArrayList<>();
+        Long antes = null;
+        do {
+            PaginaMensagens.Janela janela = new PaginaMensagens.Janela(antes, null, 50, cabeca);
+            PaginaMensagens pagina = janela.pagina(mensagens(janela.inicio(), janela.fim()));
+            List<Long> sequencias = new ArrayList<>();
+            pagina.getMensagens().forEach(m -> sequencias.add(m.getSequencia()));
+            vistas.addAll(0, sequencias);
+            antes = pagina.getAnterior();
+        } while (antes != null);
+
+        assertEquals(120, vistas.size());
+        for (int i = 0; i < vistas.size(); i++) {
+            assertEquals(Long.valueOf(i), vistas.get(i));
+        }
+    }
+
+    @Test
+    void depoisDevolveAsSeguintesEAnunciaAProximaPagina() {
+        PaginaMensagens.Janela janela = new PaginaMensagens.Janela(null, 9L, 50, 120);
+        assertEquals(10, janela.inicio());
+        assertEquals(60, janela.fim());
+        PaginaMensagens pagina = janela.pagina(mensagens(10, 60));
+        assertEquals(Long.valueOf(10), pagina.getAnterior());
+        assertEquals(Long.valueOf(59), pagina.getSeguinte());
+
+        PaginaMensagens ultima = new PaginaMensagens.Janela(null, 99L, 50, 120).pagina(mensagens(100, 120));
+        assertNull(ultima.getSeguinte());
+    }
+
+    @Test
+    void cursoresForaDoHistoricoDaoJanelaVazia() {
+        assertTrue(new PaginaMensagens.Janela(null, 500L, 50, 120).vazia());
+        assertTrue(new PaginaMensagens.Janela(0L, null, 50, 120).vazia());
+        assertTrue(new PaginaMensagens.Janela(-5L, null, 50, 120).vazia());
+        assertTrue(new PaginaMensagens.Janela(null, null, 50, 0).vazia());
+    }
+
+    @Test
+    void paginaDoMongoSoAnunciaASeguinteQuandoVeioCheia() {
+        PaginaMensagens cheia = PaginaMensagens.dePagina(mensagens(10, 20), null, 9L, 10);
+        assertEquals(Long.valueOf(10), cheia.getAnterior());
+        assertEquals(Long.valueOf(19), cheia.getSeguinte());
+
+        PaginaMensagens incompleta = PaginaMensagens.dePagina(mensagens(10, 15), null, 9L, 10);
+        assertNull(incompleta.getSeguinte());
+
+        PaginaMensagens anteriores = PaginaMensagens.dePagina(mensagens(0, 10), 10L, null, 10);
+        assertNull(anteriores.getAnterior());
+        assertEquals(Long.valueOf(9), anteriores.getSeguinte());
+
+        assertTrue(PaginaMensagens.dePagina(new ArrayList<>(), null, null, 10).getMensagens().isEmpty());
+    }
+
+    @Test
+    void lapidesContamParaOsCursoresMasNaoSeguemNaPagina() {
+        List<Mensagem> lidas = mensagens(10, 20);
+        lidas.get(0).setAnulada(true);
+        lidas.get(9).setAnulada(true);
+
+        PaginaMensagens doMongo = PaginaMensagens.dePagina(lidas, null, 9L, 10);
+        assertEquals(8, doMongo.getMensagens().size());
+        assertEquals(Long.valueOf(10), doMongo.getAnterior());
+        assertEquals(Long.valueOf(19), doMongo.getSeguinte());
+
+        PaginaMensagens doRegisto = new PaginaMensagens.Janela(null, 9L, 10, 120).pagina(lidas);
+        assertEquals(8, doRegisto.getMensagens().size());
+        assertEquals(Long.valueOf(11), doRegisto.getMensagens().get(0).getSequencia());
+        assertEquals(Long.valueOf(19), doRegisto.getSeguinte());
+    }
+}
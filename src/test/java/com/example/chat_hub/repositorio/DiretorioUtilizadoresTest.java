@@ -0,0 +1,136 @@
+package com.example.chat_hub.repositorio;
+
+import com.example.chat_hub.modelo.Utilizador;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class DiretorioUtilizadoresTest {
+
+    private final RepositorioUtilizador repositorio = mock(RepositorioUtilizador.class);
+
+    private static Utilizador utilizador(String nome, String senha) {
+        Utilizador utilizador = new Utilizador();
+        utilizador.setNomeUtilizador(nome);
+        utilizador.setSenha(senha);
+        utilizador.setStatus("offline");
+        return utilizador;
+    }
+
+    private DiretorioUtilizadores diretorio(long validadeMs, String... nomes) {
+        when(repositorio.count()).thenReturn((long) nomes.length);
+        when(repositorio.findAllNomes()).thenAnswer(i -> Stream.of(nomes).map(n -> utilizador(n, null)));
+        DiretorioUtilizadores diretorio = new DiretorioUtilizadores(100, validadeMs, 1_000, 0.01);
+        ReflectionTestUtils.setField(diretorio, "repositorioUtilizador", repositorio);
+        diretorio.carregarFiltro();
+        return diretorio;
+    }
+
+    @Test
+    void nomeForaDoFiltroSoConsultaAExistencia() {
+        DiretorioUtilizadores diretorio = diretorio(60_000, "ana");
+
+        assertNull(diretorio.buscar("nome-inventado"));
+        verify(repositorio).existsByNomeUtilizador("nome-inventado");
+        verify(repositorio, never()).findByNomeUtilizador(anyString());
+    }
+
+    @Test
+    void nomeRegistadoNoutroNoSemEventoEEncontradoEEntraNoFiltro() {
+        DiretorioUtilizadores diretorio = diretorio(60_000, "ana");
+        when(repositorio.existsByNomeUtilizador("rui")).thenReturn(true);
+        when(repositorio.findByNomeUtilizador("rui")).thenReturn(List.of(utilizador("rui", "h1")));
+
+        assertEquals("h1", diretorio.buscar("rui").getSenha());
+        diretorio.invalidar("rui");
+        diretorio.buscar("rui");
+        // Já está no filtro: a segunda leitura não volta a confirmar a existência
+        verify(repositorio, times(1)).existsByNomeUtilizador("rui");
+        assertEquals(1L, diretorio.metricas().get("negativosCorrigidos"));
+    }
+
+    @Test
+    void apagarTodosEsvaziaOFiltro() {
+        DiretorioUtilizadores diretorio = diretorio(60_000, "ana");
+        when(repositorio.findByNomeUtilizador("ana")).thenReturn(List.of(utilizador("ana", "h1")));
+        diretorio.buscar("ana");
+
+        diretorio.apagarTodos();
+
+        assertNull(diretorio.buscar("ana"));
+        assertEquals(0L, diretorio.metricas().get("nomesNoFiltro"));
+        verify(repositorio, times(1)).findByNomeUtilizador("ana");
+    }
+
+    @Test
+    void segundaLeituraVemDaCache() {
+        DiretorioUtilizadores diretorio = diretorio(60_000, "ana");
+        when(repositorio.findByNomeUtilizador("ana")).thenReturn(List.of(utilizador("ana", "h1")));
+
+        diretorio.buscar("ana");
+        assertEquals("h1", diretorio.buscar("ana").getSenha());
+        verify(repositorio, times(1)).findByNomeUtilizador("ana");
+    }
+
+    @Test
+    void alterarOUtilizadorDevolvidoNaoAlteraACache() {
+        DiretorioUtilizadores diretorio = diretorio(60_000, "ana");
+        when(repositorio.findByNomeUtilizador("ana")).thenReturn(List.of(utilizador("ana", "h1")));
+
+        Utilizador lido = diretorio.buscar("ana");
+        lido.setStatus("online");
+        lido.setSenha("alterada");
+
+        Utilizador relido = diretorio.buscar("ana");
+        assertNotSame(lido, relido);
+        assertEquals("offline", relido.getStatus());
+        assertEquals("h1", relido.getSenha());
+    }
+
+    @Test
+    void guardarColocaUmaCopiaNaCache() {
+        DiretorioUtilizadores diretorio = diretorio(60_000);
+        Utilizador novo = utilizador("rui", "h1");
+        when(repositorio.save(novo)).thenReturn(novo);
+
+        diretorio.guardar(novo);
+        novo.setSenha("alterada-depois");
+
+        assertEquals("h1", diretorio.buscar("rui").getSenha());
+        verify(repositorio, never()).findByNomeUtilizador("rui");
+    }
+
+    @Test
+    void invalidarObrigaANovaLeitura() {
+        DiretorioUtilizadores diretorio = diretorio(60_000, "ana");
+        when(repositorio.findByNomeUtilizador("ana")).thenReturn(List.of(utilizador("ana", "h1")))
+                .thenReturn(List.of(utilizador("ana", "h2")));
+
+        assertEquals("h1", diretorio.buscar("ana").getSenha());
+        // Alteração da senha feita noutro nó, recebida pelo watch em /utilizadores/ana
+        diretorio.invalidar("ana");
+        assertEquals("h2", diretorio.buscar("ana").getSenha());
+    }
+
+    @Test
+    void entradaExpiradaERelida() {
+        DiretorioUtilizadores diretorio = diretorio(0, "ana");
+        when(repositorio.findByNomeUtilizador("ana")).thenReturn(List.of(utilizador("ana", "h1")));
+
+        diretorio.buscar("ana");
+        diretorio.buscar("ana");
+        verify(repositorio, times(2)).findByNomeUtilizador("ana");
+    }
+}
@@ -0,0 +1,81 @@
+package com.example.chat_hub.repositorio;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FiltroBloomTest {
+
+    @Test
+    void nuncaDaFalsosNegativos() {
+        FiltroBloom filtro = new FiltroBloom(10_000, 0.01);
+        for (int i = 0; i < 10_000; i++) {
+            filtro.adicionar("utilizador-" + i);
+        }
+        for (int i = 0; i < 10_000; i++) {
+            assertTrue(filtro.podeConter("utilizador-" + i));
+        }
+    }
+
+    @Test
+    void falsosPositivosFicamPertoDaTaxaPedida() {
+        FiltroBloom filtro = new FiltroBloom(10_000, 0.01);
+        for (int i = 0; i < 10_000; i++) {
+            filtro.adicionar("utilizador-" + i);
+        }
+        int falsosPositivos = 0;
+        int consultas = 100_000;
+        for (int i = 0; i < consultas; i++) {
+            if (filtro.podeConter("inexistente-" + i)) {
+                falsosPositivos++;
+            }
+        }
+        // Margem de 2x sobre a taxa de 1%
+        assertTrue(falsosPositivos < consultas * 0.02, falsosPositivos + " falsos positivos em " + consultas);
+    }
+
+    @Test
+    void ficaCheioAoPassarDaCapacidade() {
+        FiltroBloom filtro = new FiltroBloom(3, 0.01);
+        for (int i = 0; i < 3; i++) {
+            filtro.adicionar("u" + i);
+        }
+        assertFalse(filtro.cheio());
+        filtro.adicionar("u3");
+        assertTrue(filtro.cheio());
+    }
+
+    @Test
+    void insercoesConcorrentesNaoSePerdem() throws InterruptedException {
+        FiltroBloom filtro = new FiltroBloom(40_000, 0.01);
+        CountDownLatch partida = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            int base = t * 10_000;
+            Thread thread = new Thread(() -> {
+                try {
+                    partida.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int i = base; i < base + 10_000; i++) {
+                    filtro.adicionar("utilizador-" + i);
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        partida.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        for (int i = 0; i < 40_000; i++) {
+            assertTrue(filtro.podeConter("utilizador-" + i));
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package com.example.chat_hub.servico;
+
+import com.example.chat_hub.cluster.BarramentoNos;
+import com.example.chat_hub.cluster.DistribuicaoSalas;
+import com.example.chat_hub.config.ConfiguracaoWebSocket;
+import com.example.chat_hub.modelo.Mensagem;
+import com.example.chat_hub.zookeeper.GerenciadorZooKeeper;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Sequenciação em faixas: cada sala fica sempre na mesma faixa, pela ordem de
+ * chegada, e uma reserva lenta numa sala não atrasa as salas das outras faixas.
+ */
+class IngestaoMensagensTest {
+
+    private final GerenciadorZooKeeper gerenciador = mock(GerenciadorZooKeeper.class);
+    private final ServicoPersistenciaMensagens persistencia = mock(ServicoPersistenciaMensagens.class);
+    private final ConfiguracaoWebSocket webSocket = mock(ConfiguracaoWebSocket.class);
+    private final DistribuicaoSalas distribuicaoSalas = mock(DistribuicaoSalas.class);
+    private final BarramentoNos barramentoNos = mock(BarramentoNos.class);
+
+    // Sequências atribuídas pelo gerenciador falso, por sala
+    private final Map<String, List<Mensagem>> sequenciadas = new ConcurrentHashMap<>();
+    private final CountDownLatch libertarLenta = new CountDownLatch(1);
+
+    private IngestaoMensagens ingestao;
+
+    @BeforeEach
+    void preparar() throws Exception {
+        ingestao = new IngestaoMensagens(1000, 4000, 100, 1, 5000, 4);
+        ReflectionTestUtils.setField(ingestao, "gerenciadorZooKeeper", gerenciador);
+        ReflectionTestUtils.setField(ingestao, "servicoPersistenciaMensagens", persistencia);
+        ReflectionTestUtils.setField(ingestao, "configuracaoWebSocket", webSocket);
+        ReflectionTestUtils.setField(ingestao, "distribuicaoSalas", distribuicaoSalas);
+        ReflectionTestUtils.setField(ingestao, "barramentoNos", barramentoNos);
+
+        when(gerenciador.salaExiste(anyString())).thenReturn(true);
+        when(barramentoNos.idNo()).thenReturn("no-1");
+        when(distribuicaoSalas.dono(anyString())).thenReturn("no-1");
+        when(distribuicaoSalas.souDono(anyString())).thenReturn(true);
+        when(persistencia.persistir(any(Mensagem.class))).thenReturn(CompletableFuture.completedFuture(null));
+        doAnswer(invocacao -> {
+            String sala = invocacao.getArgument(0);
+            List<Mensagem> lote = invocacao.getArgument(1);
+            if (sala.equals("lenta")) {
+                libertarLenta.await(10, TimeUnit.SECONDS);
+            }
+            List<Mensagem> daSala = sequenciadas.computeIfAbsent(sala, s -> new ArrayList<>());
+            synchronized (daSala) {
+                for (Mensagem mensagem : lote) {
+                    mensagem.setSequencia((long) daSala.size());
+                    daSala.add(mensagem);
+                }
+            }
+            return null;
+        }).when(gerenciador).sequenciarMensagens(anyString(), anyList());
+        ingestao.iniciar();
+    }
+
+    @AfterEach
+    void encerrar() {
+        libertarLenta.countDown();
+        ingestao.encerrar();
+    }
+
+    // Uma sala noutra faixa que não a da sala lenta (as faixas são escolhidas pelo hash)
+    private static String salaNoutraFaixa(String sala, int faixas) {
+        int faixa = Math.floorMod(sala.hashCode(), faixas);
+        for (int i = 0; ; i++) {
+            String outra = "sala-" + i;
+            if (Math.floorMod(outra.hashCode(), faixas) != faixa) {
+                return outra;
+            }
+        }
+    }
+
+    @Test
+    void umaReservaLentaNaoAtrasaAsSalasDasOutrasFaixas() throws Exception {
+        String rapida = salaNoutraFaixa("lenta", 4);
+        ingestao.submeter("lenta", "primeira", "ana");
+        Mensagem mensagem = ingestao.submeter(rapida, "olá", "rui");
+
+        verify(persistencia, timeout(5_000)).persistir(mensagem);
+        assertEquals(0L, mensagem.getSequencia());
+        assertFalse(sequenciadas.containsKey("lenta"));
+    }
+
+    @Test
+    void mensagensDeUmaSalaSaoSequenciadasPelaOrdemDeChegada() throws Exception {
+        List<Mensagem> enviadas = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            enviadas.add(ingestao.submeter("geral", "mensagem " + i, "ana"));
+        }
+
+        verify(persistencia, timeout(5_000).times(200)).persistir(any(Mensagem.class));
+        for (int i = 0; i < enviadas.size(); i++) {
+            assertEquals((long) i, enviadas.get(i).getSequencia());
+        }
+        verify(webSocket, timeout(5_000).times(200)).notificarRemetente(eq("mensagem_confirmada"),
+                any(Mensagem.class));
+    }
+}
@@ -0,0 +1,85 @@
+package com.example.chat_hub.servico;
+
+import com.example.chat_hub.modelo.Mensagem;
+import com.example.chat_hub.zookeeper.GerenciadorZooKeeper;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.ArgumentCaptor;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * As mensagens confirmadas no modo MEMORIA não se perdem quando o MongoDB
+ * falha no encerramento: ficam no WAL e são gravadas no arranque seguinte.
+ */
+class ServicoPersistenciaMensagensTest {
+
+    @TempDir
+    Path diretorio;
+
+    private ServicoPersistenciaMensagens servico(GerenciadorZooKeeper gerenciador) {
+        ServicoPersistenciaMensagens servico = new ServicoPersistenciaMensagens(
+                ServicoPersistenciaMensagens.ModoDurabilidade.MEMORIA, 500, 50, 1000,
+                diretorio.resolve("wal/mensagens.wal").toString());
+        ReflectionTestUtils.setField(servico, "gerenciadorZooKeeper", gerenciador);
+        return servico;
+    }
+
+    private static Mensagem mensagem(long sequencia) {
+        Mensagem mensagem = new Mensagem();
+        mensagem.setId("m" + sequencia);
+        mensagem.setNomeSala("geral");
+        mensagem.setRemetente("ana");
+        mensagem.setConteudo("mensagem " + sequencia);
+        mensagem.setDataCriacao(Instant.parse("2024-05-01T10:15:30Z"));
+        mensagem.setSequencia(sequencia);
+        return mensagem;
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void mensagensConfirmadasFicamNoWalSeOMongoFalharNoEncerramento() throws Exception {
+        GerenciadorZooKeeper semMongo = mock(GerenciadorZooKeeper.class);
+        when(semMongo.guardarMensagens(anyList())).thenThrow(new IllegalStateException("MongoDB indisponível"));
+        ServicoPersistenciaMensagens servico = servico(semMongo);
+        servico.iniciar();
+
+        List<CompletableFuture<Void>> confirmacoes = new ArrayList<>();
+        for (long i = 0; i < 3; i++) {
+            confirmacoes.add(servico.persistir(mensagem(i)));
+        }
+        confirmacoes.forEach(confirmacao -> assertTrue(confirmacao.isDone()));
+        servico.encerrar();
+
+        Path wal = diretorio.resolve("wal/mensagens.wal");
+        assertEquals(3, Files.readAllLines(wal, StandardCharsets.UTF_8).size());
+
+        // O arranque seguinte grava-as no MongoDB e esvazia o WAL
+        GerenciadorZooKeeper comMongo = mock(GerenciadorZooKeeper.class);
+        when(comMongo.guardarMensagens(anyList())).thenReturn(List.of());
+        ServicoPersistenciaMensagens seguinte = servico(comMongo);
+        seguinte.iniciar();
+        seguinte.encerrar();
+
+        ArgumentCaptor<List<Mensagem>> recuperadas = ArgumentCaptor.forClass(List.class);
+        verify(comMongo).guardarMensagens(recuperadas.capture());
+        List<String> ids = new ArrayList<>();
+        recuperadas.getValue().forEach(mensagem -> ids.add(mensagem.getId()));
+        assertEquals(List.of("m0", "m1", "m2"), ids);
+        assertEquals(0, Files.size(wal));
+    }
+}
@@ -0,0 +1,99 @@
+package com.example.chat_hub.zookeeper;
+
+import com.example.chat_hub.config.FabricaThreads;
+import org.apache.zookeeper.AsyncCallback;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.OpResult;
+import org.apache.zookeeper.ZooKeeper;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyIterable;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class ChamadasZooKeeperTest {
+
+    // Ida e volta simulada de cada pedido
+    private static final long LATENCIA_MS = 20;
+
+    // Uma só thread, como a thread de eventos do cliente
+    private final ScheduledExecutorService threadDeEventos = Executors.newSingleThreadScheduledExecutor();
+
+    @AfterEach
+    void encerrar() {
+        threadDeEventos.shutdownNow();
+    }
+
+    // Cliente falso que responde a cada multi assíncrono depois da latência com o código dado
+    private ZooKeeper zooKeeperComLatencia(int codigo) {
+        ZooKeeper zooKeeper = mock(ZooKeeper.class);
+        when(zooKeeper.getSessionTimeout()).thenReturn(10_000);
+        doAnswer(invocacao -> {
+            AsyncCallback.MultiCallback callback = invocacao.getArgument(1);
+            Object ctx = invocacao.getArgument(2);
+            threadDeEventos.schedule(() -> callback.processResult(codigo, "/", ctx, List.of()), LATENCIA_MS,
+                    TimeUnit.MILLISECONDS);
+            return null;
+        }).when(zooKeeper).multi(anyIterable(), any(AsyncCallback.MultiCallback.class), any());
+        return zooKeeper;
+    }
+
+    @Test
+    void codigoDeErroChegaComoKeeperException() {
+        ZooKeeper zooKeeper = zooKeeperComLatencia(KeeperException.Code.NODEEXISTS.intValue());
+
+        assertThrows(KeeperException.NodeExistsException.class, () -> ChamadasZooKeeper.multi(zooKeeper, List.of()));
+    }
+
+    /**
+     * Medição simples (não é um benchmark JMH): 2000 threads virtuais esperam
+     * cada uma por um pedido com 20 ms de ida e volta. Se a espera prendesse a
+     * thread de plataforma, só uma por núcleo avançaria de cada vez e o total
+     * ficaria perto de (2000 / núcleos) × 20 ms.
+     */
+    @Test
+    void threadsVirtuaisAEsperarPeloZooKeeperNaoPrendemAsThreadsDePlataforma() throws Exception {
+        assumeTrue(FabricaThreads.virtuaisDisponiveis(true));
+        ZooKeeper zooKeeper = zooKeeperComLatencia(KeeperException.Code.OK.intValue());
+        int pedidos = 2_000;
+        int nucleos = Runtime.getRuntime().availableProcessors();
+        long limitePresasMs = (long) Math.ceil((double) pedidos / nucleos) * LATENCIA_MS;
+
+        ThreadFactory threads = FabricaThreads.criar("teste-zk-", true);
+        long inicio = System.nanoTime();
+        List<CompletableFuture<List<OpResult>>> resultados = new ArrayList<>();
+        for (int i = 0; i < pedidos; i++) {
+            CompletableFuture<List<OpResult>> resultado = new CompletableFuture<>();
+            threads.newThread(() -> {
+                try {
+                    resultado.complete(ChamadasZooKeeper.multi(zooKeeper, List.of()));
+                } catch (Exception e) {
+                    resultado.completeExceptionally(e);
+                }
+            }).start();
+            resultados.add(resultado);
+        }
+        for (CompletableFuture<List<OpResult>> resultado : resultados) {
+            assertEquals(List.of(), resultado.get(30, TimeUnit.SECONDS));
+        }
+        long duracaoMs = (System.nanoTime() - inicio) / 1_000_000;
+
+        assertTrue(duracaoMs * 2 < limitePresasMs,
+                "esperas " + duracaoMs + " ms, limite com threads presas " + limitePresasMs + " ms");
+    }
+}
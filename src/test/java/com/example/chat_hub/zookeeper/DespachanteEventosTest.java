@@ -0,0 +1,118 @@
+package com.example.chat_hub.zookeeper;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DespachanteEventosTest {
+
+    // Duas faixas de plataforma: "a" (hash ímpar) e "b" (hash par) caem em faixas diferentes
+    private final DespachanteEventos despachante = new DespachanteEventos(2, false);
+
+    @AfterEach
+    void encerrar() {
+        despachante.encerrar();
+    }
+
+    private static void aguardar(CountDownLatch latch) throws InterruptedException {
+        assertTrue(latch.await(5, TimeUnit.SECONDS), "tarefa não executada");
+    }
+
+    @Test
+    void mantemAOrdemDentroDaParticao() throws InterruptedException {
+        List<Integer> ordem = new CopyOnWriteArrayList<>();
+        CountDownLatch fim = new CountDownLatch(1);
+        for (int i = 0; i < 100; i++) {
+            int n = i;
+            despachante.despachar("a", "tarefa:" + i, () -> ordem.add(n));
+        }
+        despachante.despachar("a", "fim", fim::countDown);
+        aguardar(fim);
+
+        for (int i = 0; i < 100; i++) {
+            assertEquals(Integer.valueOf(i), ordem.get(i));
+        }
+    }
+
+    @Test
+    void eventosRepetidosEnquantoATarefaEsperaSaoAbsorvidos() throws InterruptedException {
+        CountDownLatch libertar = new CountDownLatch(1);
+        CountDownLatch fim = new CountDownLatch(1);
+        AtomicInteger execucoes = new AtomicInteger();
+        despachante.despachar("a", "bloqueio", () -> {
+            try {
+                libertar.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        for (int i = 0; i < 10; i++) {
+            despachante.despachar("a", "sala", execucoes::incrementAndGet);
+        }
+        despachante.despachar("a", "fim", fim::countDown);
+        libertar.countDown();
+        aguardar(fim);
+
+        assertEquals(1, execucoes.get());
+        assertEquals(9L, despachante.metricas().get("agrupados"));
+    }
+
+    @Test
+    void eventoDuranteAExecucaoAgendaNovaPassagem() throws InterruptedException {
+        CountDownLatch aExecutar = new CountDownLatch(1);
+        CountDownLatch libertar = new CountDownLatch(1);
+        CountDownLatch duasPassagens = new CountDownLatch(2);
+        Runnable tarefa = () -> {
+            aExecutar.countDown();
+            try {
+                libertar.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            duasPassagens.countDown();
+        };
+        despachante.despachar("a", "sala", tarefa);
+        aguardar(aExecutar);
+        // A tarefa já saiu dos pendentes: este evento não pode ser perdido
+        despachante.despachar("a", "sala", tarefa);
+        libertar.countDown();
+        aguardar(duasPassagens);
+    }
+
+    @Test
+    void particaoLentaNaoAtrasaAsOutras() throws InterruptedException {
+        CountDownLatch libertar = new CountDownLatch(1);
+        CountDownLatch outra = new CountDownLatch(1);
+        despachante.despachar("a", "lenta", () -> {
+            try {
+                libertar.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        despachante.despachar("b", "rapida", outra::countDown);
+        try {
+            aguardar(outra);
+        } finally {
+            libertar.countDown();
+        }
+    }
+
+    @Test
+    void erroNumaTarefaNaoParaAFaixa() throws InterruptedException {
+        CountDownLatch seguinte = new CountDownLatch(1);
+        despachante.despachar("a", "falha", () -> {
+            throw new IllegalStateException("falha de teste");
+        });
+        despachante.despachar("a", "seguinte", seguinte::countDown);
+        aguardar(seguinte);
+    }
+}
@@ -0,0 +1,171 @@
+package com.example.chat_hub.zookeeper;
+
+import com.example.chat_hub.cluster.BarramentoNos;
+import com.example.chat_hub.config.ConfiguracaoWebSocket;
+import com.example.chat_hub.modelo.Mensagem;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.socket.TextMessage;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class DistribuidorMensagensTest {
+
+    private final ConfiguracaoWebSocket webSocket = mock(ConfiguracaoWebSocket.class);
+    private final BarramentoNos barramentoNos = mock(BarramentoNos.class);
+    private final GerenciadorZooKeeper gerenciador = mock(GerenciadorZooKeeper.class);
+    private final List<DistribuidorMensagens> criados = new ArrayList<>();
+
+    @AfterEach
+    void encerrar() {
+        criados.forEach(DistribuidorMensagens::encerrar);
+    }
+
+    private DistribuidorMensagens distribuidor(int janela, long esperaBuracoMs) {
+        DistribuidorMensagens distribuidor = new DistribuidorMensagens(janela, esperaBuracoMs);
+        ReflectionTestUtils.setField(distribuidor, "configuracaoWebSocket", webSocket);
+        ReflectionTestUtils.setField(distribuidor, "barramentoNos", barramentoNos);
+        ReflectionTestUtils.setField(distribuidor, "gerenciadorZooKeeper", gerenciador);
+        when(webSocket.codificarNovaMensagem(anyString(), any(Mensagem.class)))
+                .thenAnswer(invocacao -> new TextMessage(((Mensagem) invocacao.getArgument(1)).getId()));
+        criados.add(distribuidor);
+        return distribuidor;
+    }
+
+    private static Mensagem mensagem(long sequencia) {
+        Mensagem mensagem = new Mensagem();
+        mensagem.setId("m" + sequencia);
+        mensagem.setNomeSala("geral");
+        mensagem.setSequencia(sequencia);
+        return mensagem;
+    }
+
+    // Ids das mensagens enviadas às sessões da sala, pela ordem de envio
+    private List<String> enviadas(int vezes) {
+        ArgumentCaptor<TextMessage> frames = ArgumentCaptor.forClass(TextMessage.class);
+        verify(webSocket, timeout(5_000).times(vezes)).enviarFrameSala(eq("geral"), frames.capture());
+        List<String> ids = new ArrayList<>();
+        frames.getAllValues().forEach(frame -> ids.add(frame.getPayload()));
+        return ids;
+    }
+
+    @Test
+    void mensagemForaDeOrdemFicaRetidaAteChegarAAnterior() {
+        DistribuidorMensagens distribuidor = distribuidor(16, 60_000);
+
+        assertTrue(distribuidor.entregar(mensagem(1)));
+        assertTrue(distribuidor.entregar(mensagem(2)));
+        verify(webSocket, never()).enviarFrameSala(anyString(), any());
+        // O primeiro buraco pede as mensagens em falta uma só vez
+        verify(gerenciador).pedirMensagensEmFalta("geral");
+        assertEquals(-1, distribuidor.ultimoOffset("geral"));
+        assertEquals(1, distribuidor.primeiraRetida("geral"));
+
+        assertTrue(distribuidor.entregar(mensagem(0)));
+
+        assertEquals(List.of("m0", "m1", "m2"), enviadas(3));
+        assertEquals(2, distribuidor.ultimoOffset("geral"));
+        assertEquals(-1, distribuidor.primeiraRetida("geral"));
+    }
+
+    @Test
+    void sequenciaJaEntreguePorOutroCaminhoNaoEReenviada() {
+        DistribuidorMensagens distribuidor = distribuidor(16, 60_000);
+
+        assertTrue(distribuidor.entregar(mensagem(0)));
+        assertFalse(distribuidor.entregar(mensagem(0)));
+        assertFalse(distribuidor.entregarRemota("geral", "m0", 0, new byte[] { 1 }));
+        assertTrue(distribuidor.entregarRemota("geral", "m1", 1, "m1".getBytes()));
+
+        assertEquals(List.of("m0", "m1"), enviadas(2));
+    }
+
+    @Test
+    void lapideAvancaOOffsetSemSerEnviada() {
+        DistribuidorMensagens distribuidor = distribuidor(16, 60_000);
+        Mensagem lapide = mensagem(1);
+        lapide.setAnulada(true);
+
+        distribuidor.entregar(mensagem(2));
+        distribuidor.entregar(mensagem(0));
+        distribuidor.entregar(lapide);
+
+        assertEquals(List.of("m0", "m2"), enviadas(2));
+        assertEquals(2, distribuidor.ultimoOffset("geral"));
+    }
+
+    @Test
+    void publicarReencaminhaPeloBarramentoMesmoComAMensagemRetida() {
+        DistribuidorMensagens distribuidor = distribuidor(16, 60_000);
+
+        distribuidor.publicar(mensagem(3));
+
+        verify(barramentoNos).reencaminhar(eq("geral"), eq("m3"), eq(3L), any());
+        verify(webSocket, never()).enviarFrameSala(anyString(), any());
+    }
+
+    @Test
+    void buracoQueNaoFechaNoPrazoESaltado() {
+        DistribuidorMensagens distribuidor = distribuidor(16, 40);
+        distribuidor.iniciar();
+        distribuidor.iniciarEm("geral", 4);
+
+        distribuidor.entregar(mensagem(7));
+
+        assertEquals(List.of("m7"), enviadas(1));
+        assertEquals(7, distribuidor.ultimoOffset("geral"));
+        assertEquals(2L, distribuidor.metricas().get("sequenciasSaltadas"));
+    }
+
+    @Test
+    void janelaCheiaDeRetidasSaltaOBuracoSemEsperarPeloPrazo() {
+        DistribuidorMensagens distribuidor = distribuidor(2, 60_000);
+
+        distribuidor.entregar(mensagem(5));
+        distribuidor.entregar(mensagem(6));
+        distribuidor.entregar(mensagem(8));
+
+        assertEquals(List.of("m5", "m6"), enviadas(2));
+        assertEquals(8, distribuidor.primeiraRetida("geral"));
+    }
+
+    @Test
+    void iniciarEmNaoSaltaPorCimaDeUmaSalaQueJaEntregou() {
+        DistribuidorMensagens distribuidor = distribuidor(16, 60_000);
+
+        distribuidor.entregar(mensagem(0));
+        distribuidor.iniciarEm("geral", 10);
+        distribuidor.entregar(mensagem(1));
+
+        assertEquals(List.of("m0", "m1"), enviadas(2));
+        assertEquals(1, distribuidor.ultimoOffset("geral"));
+    }
+
+    @Test
+    void iniciarEmDescartaAsRetidasDoHistoricoELibertaAsSeguintes() {
+        DistribuidorMensagens distribuidor = distribuidor(16, 60_000);
+
+        distribuidor.entregarRemota("geral", "m3", 3, "m3".getBytes());
+        distribuidor.entregarRemota("geral", "m5", 5, "m5".getBytes());
+        distribuidor.iniciarEm("geral", 4);
+
+        assertEquals(List.of("m5"), enviadas(1));
+        verify(barramentoNos, never()).reencaminhar(anyString(), anyString(), anyLong(), any());
+    }
+}
@@ -0,0 +1,164 @@
+package com.example.chat_hub.zookeeper;
+
+import org.apache.zookeeper.AsyncCallback;
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.Op;
+import org.apache.zookeeper.ZooKeeper;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class EscritorZooKeeperEmLoteTest {
+
+    // Ida e volta simulada de cada transação
+    private static final long LATENCIA_MS = 2;
+
+    private final ScheduledExecutorService threadDeEventos = Executors.newSingleThreadScheduledExecutor();
+    // Tamanho de cada transação recebida pelo cliente falso
+    private final List<Integer> transacoesRecebidas = new CopyOnWriteArrayList<>();
+    // Número da chamada (a partir de 1) que perde a ligação; -1 para nenhuma
+    private final AtomicInteger falharNaChamada = new AtomicInteger(-1);
+    // Número da chamada que responde NodeExists; -1 para nenhuma
+    private final AtomicInteger existeNaChamada = new AtomicInteger(-1);
+    private final AtomicInteger chamadas = new AtomicInteger();
+
+    @AfterEach
+    void encerrar() {
+        threadDeEventos.shutdownNow();
+    }
+
+    @SuppressWarnings("unchecked")
+    private ZooKeeper zooKeeperComLatencia() {
+        ZooKeeper zooKeeper = mock(ZooKeeper.class);
+        when(zooKeeper.getSessionTimeout()).thenReturn(10_000);
+        doAnswer(invocacao -> {
+            List<Op> operacoes = new ArrayList<>((Iterable<Op>) invocacao.getArgument(0));
+            AsyncCallback.MultiCallback callback = invocacao.getArgument(1);
+            Object ctx = invocacao.getArgument(2);
+            int chamada = chamadas.incrementAndGet();
+            boolean falhar = chamada == falharNaChamada.get();
+            boolean existe = chamada == existeNaChamada.get();
+            threadDeEventos.schedule(() -> {
+                if (falhar) {
+                    callback.processResult(KeeperException.Code.CONNECTIONLOSS.intValue(), null, ctx, null);
+                } else if (existe) {
+                    callback.processResult(KeeperException.Code.NODEEXISTS.intValue(), null, ctx, null);
+                } else {
+                    transacoesRecebidas.add(operacoes.size());
+                    callback.processResult(KeeperException.Code.OK.intValue(), null, ctx, new ArrayList<>());
+                }
+            }, LATENCIA_MS, TimeUnit.MILLISECONDS);
+            return null;
+        }).when(zooKeeper).multi(any(Iterable.class), any(AsyncCallback.MultiCallback.class), any());
+        return zooKeeper;
+    }
+
+    private static EscritorZooKeeperEmLote.Lote criar(EscritorZooKeeperEmLote escritor, int total, int bytes) {
+        EscritorZooKeeperEmLote.Lote lote = escritor.novoLote();
+        for (int i = 0; i < total; i++) {
+            lote.criar("/chats/sala/participantes/u" + i, new byte[bytes], CreateMode.PERSISTENT);
+        }
+        return lote;
+    }
+
+    @Test
+    void divideOLotePeloNumeroDeOperacoesEPelosBytes() throws Exception {
+        criar(new EscritorZooKeeperEmLote(4, 1_000_000), 10, 0).executar(zooKeeperComLatencia());
+        assertEquals(List.of(4, 4, 2), transacoesRecebidas);
+
+        transacoesRecebidas.clear();
+        // Cada operação ocupa 64 + 28 + 200 bytes: três por transação de 1000 bytes
+        criar(new EscritorZooKeeperEmLote(1000, 1000), 7, 200).executar(zooKeeperComLatencia());
+        assertEquals(List.of(3, 3, 1), transacoesRecebidas);
+    }
+
+    @Test
+    void loteReutilizadoDepoisDeExecutarComecaSemBytesContados() throws Exception {
+        EscritorZooKeeperEmLote escritor = new EscritorZooKeeperEmLote(1000, 1000);
+        ZooKeeper zooKeeper = zooKeeperComLatencia();
+        EscritorZooKeeperEmLote.Lote lote = criar(escritor, 3, 200);
+        lote.executar(zooKeeper);
+        for (int i = 0; i < 3; i++) {
+            lote.criar("/chats/sala/participantes/v" + i, new byte[200], CreateMode.PERSISTENT);
+        }
+        lote.executar(zooKeeper);
+
+        assertEquals(List.of(3, 3), transacoesRecebidas);
+    }
+
+    @Test
+    void depoisDeUmaFalhaContinuaNaTransacaoPorConfirmar() throws Exception {
+        ZooKeeper zooKeeper = zooKeeperComLatencia();
+        EscritorZooKeeperEmLote.Lote lote = criar(new EscritorZooKeeperEmLote(2, 1_000_000), 6, 0);
+        falharNaChamada.set(2);
+
+        assertThrows(KeeperException.ConnectionLossException.class, () -> lote.executar(zooKeeper));
+        assertEquals(List.of(2), transacoesRecebidas);
+
+        lote.executar(zooKeeper);
+        assertEquals(List.of(2, 2, 2), transacoesRecebidas);
+        assertTrue(lote.isVazio());
+    }
+
+    @Test
+    void repeticaoQueEncontraATransacaoJaAplicadaContaComoAplicada() throws Exception {
+        ZooKeeper zooKeeper = zooKeeperComLatencia();
+        EscritorZooKeeperEmLote.Lote lote = criar(new EscritorZooKeeperEmLote(2, 1_000_000), 6, 0);
+        // A segunda transação foi aplicada, mas a resposta perdeu-se com a ligação
+        falharNaChamada.set(2);
+        existeNaChamada.set(3);
+
+        assertThrows(KeeperException.ConnectionLossException.class, () -> lote.executar(zooKeeper));
+        lote.executar(zooKeeper, true);
+
+        assertEquals(List.of(2, 2), transacoesRecebidas);
+        assertTrue(lote.isVazio());
+    }
+
+    @Test
+    void nodeExistsForaDeUmaRepeticaoFalha() {
+        ZooKeeper zooKeeper = zooKeeperComLatencia();
+        EscritorZooKeeperEmLote.Lote lote = criar(new EscritorZooKeeperEmLote(2, 1_000_000), 4, 0);
+        existeNaChamada.set(1);
+
+        assertThrows(KeeperException.NodeExistsException.class, () -> lote.executar(zooKeeper));
+        assertTrue(transacoesRecebidas.isEmpty());
+    }
+
+    /**
+     * Medição simples (não é um benchmark JMH): com uma ida e volta simulada
+     * de 2 ms, criar 500 nós com uma operação por pedido (como as escritas
+     * individuais de antes) contra transações multi de 1000 operações.
+     */
+    @Test
+    void transacoesMultiCustamMenosQueEscritasIndividuais() throws Exception {
+        ZooKeeper zooKeeper = zooKeeperComLatencia();
+
+        long inicio = System.nanoTime();
+        criar(new EscritorZooKeeperEmLote(1, 1_000_000), 500, 16).executar(zooKeeper);
+        long individuaisMs = (System.nanoTime() - inicio) / 1_000_000;
+
+        inicio = System.nanoTime();
+        criar(new EscritorZooKeeperEmLote(1000, 900_000), 500, 16).executar(zooKeeper);
+        long emLoteMs = (System.nanoTime() - inicio) / 1_000_000;
+
+        assertTrue(individuaisMs >= 500 * LATENCIA_MS);
+        assertTrue(emLoteMs * 4 < individuaisMs, "em lote " + emLoteMs + " ms, individuais " + individuaisMs + " ms");
+    }
+}
@@ -0,0 +1,107 @@
+package com.example.chat_hub.zookeeper;
+
+import com.example.chat_hub.cluster.BarramentoNos;
+import org.apache.zookeeper.Watcher.Event.EventType;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+/**
+ * Encaminhamento dos eventos dos watches persistentes pelo caminho: cada
+ * evento tem de chegar à tarefa certa, na partição da sua sala ou do seu
+ * utilizador, e os eventos sem interesse não agendam nada.
+ */
+class GerenciadorZooKeeperTest {
+
+    private final DespachanteEventos despachante = mock(DespachanteEventos.class);
+    private final BarramentoNos barramentoNos = mock(BarramentoNos.class);
+    private GerenciadorZooKeeper gerenciador;
+
+    @BeforeEach
+    void preparar() {
+        gerenciador = new GerenciadorZooKeeper("localhost:2181", 10_000, 1_000,
+                GerenciadorZooKeeper.ModoArranque.QUENTE, 1_000);
+        ReflectionTestUtils.setField(gerenciador, "despachanteEventos", despachante);
+        ReflectionTestUtils.setField(gerenciador, "barramentoNos", barramentoNos);
+    }
+
+    @Test
+    void estadoDoUtilizadorVaiParaAPresenca() {
+        gerenciador.despacharEvento("/utilizadores/ana/estado", EventType.NodeDataChanged);
+
+        verify(despachante).despachar(eq("ana"), eq("presenca:ana"), any(Runnable.class));
+        // O estado também está no documento em cache no diretório
+        verify(despachante).despachar(eq("ana"), eq("diretorio:ana"), any(Runnable.class));
+    }
+
+    @Test
+    void utilizadorCriadoOuApagadoVaiParaODiretorio() {
+        gerenciador.despacharEvento("/utilizadores/ana", EventType.NodeCreated);
+        gerenciador.despacharEvento("/utilizadores/rui", EventType.NodeDeleted);
+
+        verify(despachante).despachar(eq("ana"), eq("diretorio-nome:ana"), any(Runnable.class));
+        verify(despachante).despachar(eq("rui"), eq("diretorio:rui"), any(Runnable.class));
+        // Um utilizador apagado sai também da tabela de presença
+        verify(despachante).despachar(eq("rui"), eq("presenca:rui"), any(Runnable.class));
+        verify(despachante, never()).despachar(anyString(), eq("presenca:ana"), any(Runnable.class));
+    }
+
+    @Test
+    void utilizadorAlteradoNoutroNoEInvalidadoNoDiretorio() {
+        gerenciador.despacharEvento("/utilizadores/ana", EventType.NodeDataChanged);
+
+        verify(despachante).despachar(eq("ana"), eq("diretorio:ana"), any(Runnable.class));
+        verify(despachante, never()).despachar(anyString(), eq("presenca:ana"), any(Runnable.class));
+    }
+
+    @Test
+    void participantesSaoRecarregadosNaParticaoDaSala() {
+        gerenciador.despacharEvento("/chats/geral/participantes/ana", EventType.NodeCreated);
+        gerenciador.despacharEvento("/chats/outra", EventType.NodeDeleted);
+
+        verify(despachante).despachar(eq("geral"), eq("participantes:geral"), any(Runnable.class));
+        verify(despachante).despachar(eq("outra"), eq("participantes:outra"), any(Runnable.class));
+    }
+
+    @Test
+    void cabecaDaSalaEntregaAsMensagensPendentes() {
+        when(barramentoNos.ativo()).thenReturn(false);
+        gerenciador.despacharEvento("/chats/geral/mensagens", EventType.NodeDataChanged);
+
+        verify(despachante).despachar(eq("geral"), eq("mensagens:geral"), any(Runnable.class));
+    }
+
+    @Test
+    void comOBarramentoAtivoACabecaRecuperaOsFramesPerdidos() {
+        when(barramentoNos.ativo()).thenReturn(true);
+        gerenciador.despacharEvento("/chats/geral/mensagens", EventType.NodeDataChanged);
+
+        verify(despachante).despachar(eq("geral"), eq("mensagens:geral"), any(Runnable.class));
+    }
+
+    @Test
+    void membrosDoClusterSaoRelidosNumaSoTarefa() {
+        gerenciador.despacharEvento("/nodos/no-1", EventType.NodeCreated);
+
+        verify(despachante).despachar(eq("nodos"), eq("nodos"), any(Runnable.class));
+    }
+
+    @Test
+    void eventosSemInteresseNaoAgendamNada() {
+        gerenciador.despacharEvento("/chats/geral/participantes", EventType.NodeChildrenChanged);
+        gerenciador.despacharEvento("/chats/geral/participantes/ana", EventType.NodeDataChanged);
+        gerenciador.despacharEvento("/utilizadores/ana/estado", EventType.NodeChildrenChanged);
+        gerenciador.despacharEvento("/outro/caminho", EventType.NodeCreated);
+
+        verifyNoInteractions(despachante);
+    }
+}
@@ -0,0 +1,47 @@
+package com.example.chat_hub.zookeeper;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class IndiceParticipacaoTest {
+
+    private final IndiceParticipacao indice = new IndiceParticipacao();
+
+    @Test
+    void definirParticipantesAplicaAsDiferencasAoIndiceInvertido() {
+        indice.definirParticipantes("geral", List.of("ana", "rui"));
+        indice.definirParticipantes("equipa", List.of("ana"));
+        indice.definirParticipantes("geral", List.of("rui", "eva"));
+
+        assertEquals(Set.of("equipa"), Set.copyOf(indice.salasDe("ana")));
+        assertEquals(Set.of("geral"), Set.copyOf(indice.salasDe("rui")));
+        assertEquals(Set.of("geral"), Set.copyOf(indice.salasDe("eva")));
+    }
+
+    @Test
+    void participaSoParaQuemEstaNaSala() {
+        indice.definirParticipantes("geral", List.of("ana"));
+        indice.adicionar("geral", "rui");
+        indice.remover("geral", "ana");
+
+        assertTrue(indice.participa("geral", "rui"));
+        assertFalse(indice.participa("geral", "ana"));
+        assertFalse(indice.participa("inexistente", "rui"));
+    }
+
+    @Test
+    void removerSalaLimpaOsUtilizadores() {
+        indice.definirParticipantes("geral", List.of("ana", "rui"));
+        indice.removerSala("geral");
+
+        assertFalse(indice.conheceSala("geral"));
+        assertTrue(indice.salasDe("ana").isEmpty());
+        assertTrue(indice.salasDe("rui").isEmpty());
+    }
+}
@@ -0,0 +1,146 @@
+package com.example.chat_hub.zookeeper;
+
+import org.apache.zookeeper.AsyncCallback;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.ZooKeeper;
+import org.apache.zookeeper.data.Stat;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class LeitorZooKeeperEmLoteTest {
+
+    // Ida e volta simulada de cada pedido
+    private static final long LATENCIA_MS = 5;
+
+    // Uma só thread, como a thread de eventos do cliente
+    private final ScheduledExecutorService threadDeEventos = Executors.newSingleThreadScheduledExecutor();
+
+    @AfterEach
+    void encerrar() {
+        threadDeEventos.shutdownNow();
+    }
+
+    // Cliente falso que responde a cada getData assíncrono depois da latência
+    private ZooKeeper zooKeeperComLatencia() {
+        ZooKeeper zooKeeper = mock(ZooKeeper.class);
+        when(zooKeeper.getSessionTimeout()).thenReturn(10_000);
+        doAnswer(invocacao -> {
+            String caminho = invocacao.getArgument(0);
+            AsyncCallback.DataCallback callback = invocacao.getArgument(2);
+            Object ctx = invocacao.getArgument(3);
+            threadDeEventos.schedule(() -> {
+                if (caminho.endsWith("/apagado")) {
+                    callback.processResult(KeeperException.Code.NONODE.intValue(), caminho, ctx, null, null);
+                } else {
+                    callback.processResult(KeeperException.Code.OK.intValue(), caminho, ctx,
+                            caminho.getBytes(StandardCharsets.UTF_8), null);
+                }
+            }, LATENCIA_MS, TimeUnit.MILLISECONDS);
+            return null;
+        }).when(zooKeeper).getData(anyString(), anyBoolean(), any(AsyncCallback.DataCallback.class), any());
+        return zooKeeper;
+    }
+
+    private static List<String> caminhos(int total) {
+        List<String> caminhos = new ArrayList<>();
+        for (int i = 0; i < total; i++) {
+            caminhos.add("/utilizadores/u" + i);
+        }
+        return caminhos;
+    }
+
+    @Test
+    void devolveOsResultadosPelaOrdemPedidaENuloParaNosApagados() throws Exception {
+        List<String> caminhos = new ArrayList<>(caminhos(20));
+        caminhos.add(7, "/utilizadores/apagado");
+
+        List<byte[]> dados = new LeitorZooKeeperEmLote(4).lerDados(zooKeeperComLatencia(), caminhos);
+
+        assertEquals(caminhos.size(), dados.size());
+        assertNull(dados.get(7));
+        for (int i = 0; i < caminhos.size(); i++) {
+            if (i != 7) {
+                assertArrayEquals(caminhos.get(i).getBytes(StandardCharsets.UTF_8), dados.get(i));
+            }
+        }
+    }
+
+    /**
+     * Medição simples (não é um benchmark JMH): com uma ida e volta simulada
+     * de 5 ms, ler 200 nós com um pedido em curso de cada vez (como as
+     * leituras síncronas de antes) contra a janela de 256.
+     */
+    @Test
+    void pipelineCustaMenosQueLeiturasEmSerie() throws Exception {
+        ZooKeeper zooKeeper = zooKeeperComLatencia();
+        List<String> caminhos = caminhos(200);
+
+        long inicio = System.nanoTime();
+        new LeitorZooKeeperEmLote(1).lerDados(zooKeeper, caminhos);
+        long serieMs = (System.nanoTime() - inicio) / 1_000_000;
+
+        inicio = System.nanoTime();
+        new LeitorZooKeeperEmLote(256).lerDados(zooKeeper, caminhos);
+        long pipelineMs = (System.nanoTime() - inicio) / 1_000_000;
+
+        assertTrue(serieMs >= caminhos.size() * LATENCIA_MS);
+        assertTrue(pipelineMs * 4 < serieMs, "pipeline " + pipelineMs + " ms, série " + serieMs + " ms");
+    }
+
+    @Test
+    void respostasQueNaoChegamDaoTimeoutEmVezDeBloquear() {
+        ZooKeeper zooKeeper = mock(ZooKeeper.class);
+        when(zooKeeper.getSessionTimeout()).thenReturn(0);
+
+        long inicio = System.nanoTime();
+        assertThrows(KeeperException.OperationTimeoutException.class,
+                () -> new LeitorZooKeeperEmLote(4).lerDados(zooKeeper, caminhos(3)));
+        long duracaoMs = (System.nanoTime() - inicio) / 1_000_000;
+        assertTrue(duracaoMs < 5_000, "esperou " + duracaoMs + " ms");
+    }
+
+    @Test
+    void naThreadDeEventosUsaLeiturasSincronas() throws Exception {
+        ZooKeeper zooKeeper = mock(ZooKeeper.class);
+        when(zooKeeper.getData(eq("/a"), eq(false), isNull(Stat.class)))
+                .thenReturn(new byte[] { 1 });
+
+        CompletableFuture<List<byte[]>> resultado = CompletableFuture.supplyAsync(() -> {
+            ChamadasZooKeeper.marcarThreadDeEventos();
+            try {
+                return new LeitorZooKeeperEmLote(4).lerDados(zooKeeper, List.of("/a"));
+            } catch (KeeperException | InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+        }, threadDeEventos);
+
+        assertArrayEquals(new byte[] { 1 }, resultado.get(5, TimeUnit.SECONDS).get(0));
+        assertFalse(ChamadasZooKeeper.naThreadDeEventos());
+        verify(zooKeeper, never()).getData(anyString(), anyBoolean(), any(AsyncCallback.DataCallback.class), any());
+    }
+}
@@ -0,0 +1,142 @@
+package com.example.chat_hub.zookeeper;
+
+import com.example.chat_hub.armazenamento.CacheMensagensRecentes;
+import com.example.chat_hub.armazenamento.RegistoMensagens;
+import com.example.chat_hub.cluster.BarramentoNos;
+import com.example.chat_hub.cluster.DistribuicaoSalas;
+import com.example.chat_hub.config.ConfiguracaoWebSocket;
+import com.example.chat_hub.repositorio.DiretorioUtilizadores;
+import com.example.chat_hub.repositorio.RepositorioChat;
+import com.example.chat_hub.repositorio.RepositorioMensagem;
+import com.example.chat_hub.repositorio.RepositorioUtilizador;
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.CuratorFrameworkFactory;
+import org.apache.curator.retry.ExponentialBackoffRetry;
+import org.apache.curator.test.TestingServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+
+/**
+ * Recuperação de uma sessão expirada contra um ZooKeeper real em memória
+ * (curator-test), com o MongoDB, o WebSocket e o cluster substituídos por
+ * mocks. As alterações feitas por outro cliente enquanto a sessão esteve
+ * perdida têm de estar no estado em memória quando a recuperação é dada como
+ * concluída.
+ */
+class RecuperacaoSessaoTest {
+
+    private static final int TEMPO_SESSAO_MS = 4_000;
+
+    private TestingServer servidor;
+    private CuratorFramework curator;
+    // Outro nó do cluster, que escreve enquanto a sessão do gerenciador está perdida
+    private CuratorFramework outroNo;
+    private DespachanteEventos despachante;
+    private GerenciadorZooKeeper gerenciador;
+
+    private final TabelaPresenca tabelaPresenca = new TabelaPresenca();
+    private final EstadoArranque estadoArranque = new EstadoArranque();
+    private final EstadoLigacaoZooKeeper estadoLigacao = new EstadoLigacaoZooKeeper();
+
+    @BeforeEach
+    void preparar() throws Exception {
+        servidor = new TestingServer(true);
+        curator = cliente();
+        outroNo = cliente();
+        despachante = new DespachanteEventos(2, false);
+
+        gerenciador = new GerenciadorZooKeeper(servidor.getConnectString(), TEMPO_SESSAO_MS, 5_000,
+                GerenciadorZooKeeper.ModoArranque.QUENTE, 1_000);
+        ReflectionTestUtils.setField(gerenciador, "curator", curator);
+        ReflectionTestUtils.setField(gerenciador, "despachanteEventos", despachante);
+        ReflectionTestUtils.setField(gerenciador, "tabelaPresenca", tabelaPresenca);
+        ReflectionTestUtils.setField(gerenciador, "estadoArranque", estadoArranque);
+        ReflectionTestUtils.setField(gerenciador, "estadoLigacao", estadoLigacao);
+        ReflectionTestUtils.setField(gerenciador, "indiceParticipacao", new IndiceParticipacao());
+        ReflectionTestUtils.setField(gerenciador, "leitorEmLote", new LeitorZooKeeperEmLote(256));
+        ReflectionTestUtils.setField(gerenciador, "escritorEmLote", new EscritorZooKeeperEmLote(1000, 900_000));
+        ReflectionTestUtils.setField(gerenciador, "repositorioUtilizador", mock(RepositorioUtilizador.class));
+        ReflectionTestUtils.setField(gerenciador, "repositorioChat", mock(RepositorioChat.class));
+        ReflectionTestUtils.setField(gerenciador, "repositorioMensagem", mock(RepositorioMensagem.class));
+        ReflectionTestUtils.setField(gerenciador, "configuracaoWebSocket", mock(ConfiguracaoWebSocket.class));
+        ReflectionTestUtils.setField(gerenciador, "registoMensagens", mock(RegistoMensagens.class));
+        ReflectionTestUtils.setField(gerenciador, "distribuidorMensagens", mock(DistribuidorMensagens.class));
+        ReflectionTestUtils.setField(gerenciador, "cacheMensagens", mock(CacheMensagensRecentes.class));
+        ReflectionTestUtils.setField(gerenciador, "diretorioUtilizadores", mock(DiretorioUtilizadores.class));
+        ReflectionTestUtils.setField(gerenciador, "barramentoNos", mock(BarramentoNos.class));
+        ReflectionTestUtils.setField(gerenciador, "distribuicaoSalas", mock(DistribuicaoSalas.class));
+        gerenciador.init();
+    }
+
+    @AfterEach
+    void encerrar() throws Exception {
+        gerenciador.encerrar();
+        despachante.encerrar();
+        outroNo.close();
+        curator.close();
+        servidor.close();
+    }
+
+    private CuratorFramework cliente() {
+        CuratorFramework cliente = CuratorFrameworkFactory.builder()
+                .connectString(servidor.getConnectString())
+                .sessionTimeoutMs(TEMPO_SESSAO_MS)
+                .connectionTimeoutMs(5_000)
+                .retryPolicy(new ExponentialBackoffRetry(100, 10, 1_000))
+                .build();
+        cliente.start();
+        return cliente;
+    }
+
+    private static boolean aguardar(BooleanSupplier condicao) throws InterruptedException {
+        long limite = System.nanoTime() + 30_000_000_000L;
+        while (!condicao.getAsBoolean()) {
+            if (System.nanoTime() > limite) {
+                return false;
+            }
+            Thread.sleep(20);
+        }
+        return true;
+    }
+
+    private void definirEstado(String utilizador, String estado) throws Exception {
+        String caminho = "/utilizadores/" + utilizador + "/estado";
+        byte[] dados = estado.getBytes(StandardCharsets.UTF_8);
+        if (outroNo.checkExists().forPath(caminho) == null) {
+            outroNo.create().creatingParentsIfNeeded().forPath(caminho, dados);
+        } else {
+            outroNo.setData().forPath(caminho, dados);
+        }
+    }
+
+    private long ultimaRecuperacaoMs() {
+        return (Long) estadoLigacao.metricas().get("ultimaRecuperacaoMs");
+    }
+
+    @Test
+    void alteracoesFeitasDuranteASessaoPerdidaEstaoNoEstadoQuandoARecuperacaoTermina() throws Exception {
+        assertTrue(aguardar(estadoArranque::isPronto));
+        definirEstado("ana", "online");
+        assertTrue(aguardar(() -> "online".equals(tabelaPresenca.estado("ana"))));
+        assertEquals(-1L, ultimaRecuperacaoMs());
+
+        gerenciador.expirarSessao();
+        definirEstado("ana", "offline");
+        definirEstado("rui", "online");
+
+        assertTrue(aguardar(() -> ultimaRecuperacaoMs() >= 0), "a recuperação não terminou");
+        // Sem esperar por mais eventos: a sincronização leu as árvores já recarregadas
+        assertEquals("offline", tabelaPresenca.estado("ana"));
+        assertEquals("online", tabelaPresenca.estado("rui"));
+        assertTrue(estadoArranque.isPronto());
+    }
+}
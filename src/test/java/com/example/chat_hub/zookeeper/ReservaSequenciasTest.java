@@ -0,0 +1,174 @@
+package com.example.chat_hub.zookeeper;
+
+import com.example.chat_hub.cluster.BarramentoNos;
+import com.example.chat_hub.modelo.Mensagem;
+import com.example.chat_hub.repositorio.RepositorioMensagem;
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.CuratorFrameworkFactory;
+import org.apache.curator.retry.ExponentialBackoffRetry;
+import org.apache.curator.test.TestingServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Reserva das sequências em /reservas/&lt;sala&gt; e publicação da cabeça em
+ * /chats/&lt;sala&gt;/mensagens, contra um ZooKeeper real em memória
+ * (curator-test). A reserva não pode mexer na cabeça: só a gravação no
+ * MongoDB a faz avançar.
+ */
+class ReservaSequenciasTest {
+
+    private TestingServer servidor;
+    private CuratorFramework curator;
+    private GerenciadorZooKeeper gerenciador;
+    private GerenciadorZooKeeper outroNo;
+
+    private final BarramentoNos barramentoNos = mock(BarramentoNos.class);
+
+    @BeforeEach
+    void preparar() throws Exception {
+        servidor = new TestingServer(true);
+        curator = CuratorFrameworkFactory.newClient(servidor.getConnectString(),
+                new ExponentialBackoffRetry(100, 3));
+        curator.start();
+        curator.blockUntilConnected();
+        curator.create().forPath("/reservas");
+        curator.create().creatingParentsIfNeeded().forPath("/chats/geral/mensagens", bytes("0"));
+        curator.create().forPath("/reservas/geral", bytes("0"));
+        gerenciador = gerenciador();
+        outroNo = gerenciador();
+    }
+
+    @AfterEach
+    void encerrar() throws Exception {
+        curator.close();
+        servidor.close();
+    }
+
+    private GerenciadorZooKeeper gerenciador() {
+        GerenciadorZooKeeper novo = new GerenciadorZooKeeper(servidor.getConnectString(), 10_000, 5_000,
+                GerenciadorZooKeeper.ModoArranque.QUENTE, 1_000);
+        ReflectionTestUtils.setField(novo, "cliente", curator.getZookeeperClient());
+        ReflectionTestUtils.setField(novo, "barramentoNos", barramentoNos);
+        ReflectionTestUtils.setField(novo, "repositorioMensagem", mock(RepositorioMensagem.class));
+        return novo;
+    }
+
+    private static byte[] bytes(String texto) {
+        return texto.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private String dados(String caminho) throws Exception {
+        return new String(curator.getData().forPath(caminho), StandardCharsets.UTF_8);
+    }
+
+    private static List<Mensagem> mensagens(int quantidade) {
+        List<Mensagem> mensagens = new ArrayList<>();
+        for (int i = 0; i < quantidade; i++) {
+            Mensagem mensagem = new Mensagem();
+            mensagem.setId("m" + i + "-" + System.nanoTime());
+            mensagem.setNomeSala("geral");
+            mensagens.add(mensagem);
+        }
+        return mensagens;
+    }
+
+    private static List<Long> sequencias(List<Mensagem> mensagens) {
+        List<Long> sequencias = new ArrayList<>();
+        mensagens.forEach(mensagem -> sequencias.add(mensagem.getSequencia()));
+        return sequencias;
+    }
+
+    private long metrica(GerenciadorZooKeeper no, String nome) {
+        @SuppressWarnings("unchecked")
+        Map<String, Object> sequenciacao = (Map<String, Object>) ReflectionTestUtils.invokeMethod(no,
+                "metricasSequenciacao");
+        return ((Number) sequenciacao.get(nome)).longValue();
+    }
+
+    @Test
+    void umLoteReservaSequenciasSeguidasNumaSoEscrita() throws Exception {
+        List<Mensagem> primeiro = mensagens(3);
+        List<Mensagem> segundo = mensagens(2);
+
+        gerenciador.sequenciarMensagens("geral", primeiro);
+        gerenciador.sequenciarMensagens("geral", segundo);
+
+        assertEquals(List.of(0L, 1L, 2L), sequencias(primeiro));
+        assertEquals(List.of(3L, 4L), sequencias(segundo));
+        assertEquals(2, metrica(gerenciador, "reservas"));
+        assertEquals(0, metrica(gerenciador, "reservasRepetidas"));
+        // A reserva não acorda o watch da cabeça nos outros nós
+        assertEquals("0", dados("/chats/geral/mensagens"));
+        assertEquals(2, curator.checkExists().forPath("/reservas/geral").getVersion());
+    }
+
+    @Test
+    void doisNosNuncaRecebemAMesmaSequencia() throws Exception {
+        List<Mensagem> daqui = mensagens(2);
+        List<Mensagem> dali = mensagens(2);
+        List<Mensagem> outraVez = mensagens(1);
+
+        gerenciador.sequenciarMensagens("geral", daqui);
+        outroNo.sequenciarMensagens("geral", dali);
+        // A versão guardada por este nó já não serve: volta a ler e tenta de novo
+        gerenciador.sequenciarMensagens("geral", outraVez);
+
+        assertEquals(List.of(0L, 1L), sequencias(daqui));
+        assertEquals(List.of(2L, 3L), sequencias(dali));
+        assertEquals(List.of(4L), sequencias(outraVez));
+        assertEquals(1, metrica(gerenciador, "reservasRepetidas"));
+    }
+
+    @Test
+    void salaSemReservaComecaNaCabecaAntiga() throws Exception {
+        curator.create().forPath("/chats/antiga");
+        curator.create().forPath("/chats/antiga/mensagens", bytes("7 id-da-ultima"));
+        List<Mensagem> lote = mensagens(2);
+        lote.forEach(mensagem -> mensagem.setNomeSala("antiga"));
+
+        gerenciador.sequenciarMensagens("antiga", lote);
+
+        assertEquals(List.of(7L, 8L), sequencias(lote));
+    }
+
+    @Test
+    void cabecaSoAvancaDepoisDeGravadaENuncaRecua() throws Exception {
+        List<Mensagem> lote = mensagens(3);
+        gerenciador.sequenciarMensagens("geral", lote);
+
+        gerenciador.guardarMensagens(lote);
+        assertEquals("3", dados("/chats/geral/mensagens"));
+
+        // Um lote mais antigo gravado depois não faz a cabeça recuar
+        outroNo.guardarMensagens(lote.subList(0, 1));
+        assertEquals("3", dados("/chats/geral/mensagens"));
+    }
+
+    @Test
+    void comOBarramentoAtivoACabecaEPublicadaUmaVezPorIntervalo() throws Exception {
+        when(barramentoNos.ativo()).thenReturn(true);
+        List<Mensagem> lote = mensagens(4);
+        for (int i = 0; i < lote.size(); i++) {
+            lote.get(i).setSequencia((long) i);
+            gerenciador.guardarMensagens(lote.subList(i, i + 1));
+        }
+        assertEquals("0", dados("/chats/geral/mensagens"));
+
+        ReflectionTestUtils.invokeMethod(gerenciador, "publicarCabecasPendentes");
+
+        assertEquals("4", dados("/chats/geral/mensagens"));
+        assertEquals(1, metrica(gerenciador, "cabecasPublicadas"));
+    }
+}
@@ -0,0 +1,154 @@
+package com.example.chat_hub.zookeeper;
+
+import com.example.chat_hub.modelo.InstantaneoPresenca;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TabelaPresencaTest {
+
+    private final TabelaPresenca tabela = new TabelaPresenca();
+
+    private static void aplicar(Map<String, String> estados, TabelaPresenca.Delta delta) {
+        delta.getAlteracoes().forEach((utilizador, estado) -> {
+            if (estado == null) {
+                estados.remove(utilizador);
+            } else {
+                estados.put(utilizador, estado);
+            }
+        });
+    }
+
+    @Test
+    void listaCadaUtilizadorSoNoSeuEstado() {
+        tabela.atualizar("ana", "online");
+        tabela.atualizar("rui", "online");
+        tabela.atualizar("ana", "offline");
+        tabela.remover("rui");
+
+        assertEquals(List.of("ana"), tabela.listar("offline"));
+        assertTrue(tabela.listar("online").isEmpty());
+        assertNull(tabela.estado("rui"));
+    }
+
+    @Test
+    void deltasTrazemOEstadoFinalEAvancamAVersao() {
+        assertNull(tabela.fecharDelta());
+        tabela.atualizar("ana", "online");
+        tabela.atualizar("ana", "offline");
+        tabela.atualizar("rui", "online");
+        tabela.remover("rui");
+
+        TabelaPresenca.Delta delta = tabela.fecharDelta();
+        assertEquals(0, delta.getVersaoBase());
+        assertEquals(1, delta.getVersao());
+        assertEquals("offline", delta.getAlteracoes().get("ana"));
+        assertTrue(delta.getAlteracoes().containsKey("rui"));
+        assertNull(delta.getAlteracoes().get("rui"));
+        assertEquals(1, tabela.versao());
+    }
+
+    @Test
+    void limparSaltaUmaVersao() {
+        tabela.atualizar("ana", "online");
+        tabela.fecharDelta();
+        tabela.limpar();
+
+        assertEquals(2, tabela.versao());
+        assertTrue(tabela.instantaneo().getEstados().isEmpty());
+    }
+
+    /**
+     * Várias threads alteram os mesmos utilizadores enquanto outra fecha
+     * deltas. No fim, cada utilizador tem de estar num só conjunto, o do seu
+     * estado, e um instantâneo tirado a meio mais os deltas seguintes têm de
+     * dar o estado final.
+     */
+    @Test
+    void alteracoesConcorrentesMantemConjuntosEDeltasCoerentes() throws Exception {
+        String[] utilizadores = new String[50];
+        for (int i = 0; i < utilizadores.length; i++) {
+            utilizadores[i] = "u" + i;
+        }
+        int escritores = 8;
+        ExecutorService threads = Executors.newFixedThreadPool(escritores + 1);
+        CountDownLatch partida = new CountDownLatch(1);
+        List<Future<?>> tarefas = new ArrayList<>();
+        for (int t = 0; t < escritores; t++) {
+            tarefas.add(threads.submit(() -> {
+                partida.await();
+                ThreadLocalRandom aleatorio = ThreadLocalRandom.current();
+                for (int n = 0; n < 20_000; n++) {
+                    String utilizador = utilizadores[aleatorio.nextInt(utilizadores.length)];
+                    int acao = aleatorio.nextInt(10);
+                    if (acao == 0) {
+                        tabela.remover(utilizador);
+                    } else {
+                        tabela.atualizar(utilizador, acao % 2 == 0 ? "online" : "offline");
+                    }
+                }
+                return null;
+            }));
+        }
+
+        List<TabelaPresenca.Delta> deltas = new ArrayList<>();
+        InstantaneoPresenca[] instantaneo = new InstantaneoPresenca[1];
+        Future<?> fecho = threads.submit(() -> {
+            partida.await();
+            for (int n = 0; n < 2_000; n++) {
+                if (n == 1_000) {
+                    instantaneo[0] = tabela.instantaneo();
+                }
+                TabelaPresenca.Delta delta = tabela.fecharDelta();
+                if (delta != null) {
+                    deltas.add(delta);
+                }
+            }
+            return null;
+        });
+        partida.countDown();
+        for (Future<?> tarefa : tarefas) {
+            tarefa.get();
+        }
+        fecho.get();
+        threads.shutdown();
+        TabelaPresenca.Delta ultimo = tabela.fecharDelta();
+        if (ultimo != null) {
+            deltas.add(ultimo);
+        }
+
+        for (String utilizador : utilizadores) {
+            String estado = tabela.estado(utilizador);
+            assertEquals(estado != null && estado.equals("online"), tabela.listar("online").contains(utilizador));
+            assertEquals(estado != null && estado.equals("offline"), tabela.listar("offline").contains(utilizador));
+        }
+
+        Map<String, String> atual = new HashMap<>(tabela.instantaneo().getEstados());
+        Map<String, String> reconstruido = new HashMap<>(instantaneo[0].getEstados());
+        long versao = instantaneo[0].getVersao();
+        for (TabelaPresenca.Delta delta : deltas) {
+            if (delta.getVersaoBase() < versao) {
+                continue;
+            }
+            assertEquals(versao, delta.getVersaoBase());
+            aplicar(reconstruido, delta);
+            versao = delta.getVersao();
+        }
+        assertEquals(tabela.versao(), versao);
+        assertEquals(atual, reconstruido);
+        assertFalse(atual.containsValue(null));
+    }
+}